@@ -0,0 +1,25 @@
+-- Adds :count (50000 by default) files to a draft version of a dataset, for
+-- benchmarking the listing of the files of a version. The files have no
+-- content in storage; use a throwaway dataset.
+--
+-- psql -v dataset_id=42 -v version_id=43 -f create-files.sql dvndb
+
+\if :{?count}
+\else
+\set count 50000
+\endif
+
+WITH files AS (
+    INSERT INTO dvobject (dtype, owner_id, createdate, modificationtime, storageidentifier, previewimageavailable)
+    SELECT 'DataFile', :dataset_id, now(), now(), 'file://benchmark-' || n, false
+    FROM generate_series(1, :count) n
+    RETURNING id
+), datafiles AS (
+    INSERT INTO datafile (id, contenttype, filesize, checksumtype, checksumvalue, restricted, rootdatafileid, ingeststatus)
+    SELECT id, 'text/plain', 1024, 'MD5', md5(id::text), false, -1, 'A'
+    FROM files
+    RETURNING id
+)
+INSERT INTO filemetadata (label, description, restricted, datasetversion_id, datafile_id, version)
+SELECT 'file-' || id || '.txt', 'benchmark file', false, :version_id, id, 1
+FROM datafiles;
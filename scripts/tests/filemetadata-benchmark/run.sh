@@ -0,0 +1,23 @@
+#!/bin/sh
+# Times the listing of the files of a dataset version through the API.
+# usage: ./run.sh <dataset id> [<version, e.g. :draft>] [<runs>]
+
+SERVER=${SERVER:-http://localhost:8080}
+DATASET_ID=$1
+VERSION=${2:-:draft}
+RUNS=${3:-5}
+
+if [ -z "$DATASET_ID" ] || [ -z "$API_TOKEN" ]
+then
+    echo "usage: API_TOKEN=<token> ./run.sh <dataset id> [<version>] [<runs>]"
+    exit 1
+fi
+
+i=0
+while [ $i -lt $RUNS ]
+do
+    curl -s -o /dev/null -H "X-Dataverse-key: $API_TOKEN" \
+        -w "%{http_code} %{size_download} bytes %{time_total} s\n" \
+        "$SERVER/api/datasets/$DATASET_ID/versions/$VERSION/files"
+    i=`expr $i + 1`
+done
@@ -0,0 +1,97 @@
+#!/usr/bin/env python3
+"""Times the join and the terms forms of the search permission filter.
+
+See README.md.
+"""
+import argparse
+import json
+import random
+import statistics
+import urllib.parse
+import urllib.request
+
+PREFIX = "benchmark_"
+JOIN = "{!join from=definitionPointDocId to=id}"
+USERS = 200
+GROUPS = 20
+
+
+def post(solr, path, body):
+    request = urllib.request.Request(solr + path, data=json.dumps(body).encode("utf-8"),
+                                     headers={"Content-Type": "application/json"})
+    with urllib.request.urlopen(request) as response:
+        return json.load(response)
+
+
+def search(solr, fq):
+    params = urllib.parse.urlencode({"q": "*:*", "fq": fq, "rows": 10, "wt": "json"})
+    with urllib.request.urlopen(solr + "/select?" + params) as response:
+        return json.load(response)["responseHeader"]["QTime"]
+
+
+def load(solr, docs, private):
+    """Content documents, each with its permission document: the public
+    group for most; the private group of one user and an explicit group for
+    the rest, so that every user can find about `private` of them, and the
+    others in their group a few more. Returns the private ids by group."""
+    private_docs = {}
+    batch = []
+    for n in range(docs):
+        content_id = PREFIX + "dataset_%d" % n
+        if n % max(docs // (USERS * private), 2) == 1:
+            user = n % USERS
+            groups = ["group_user%d" % user, "group_%d-benchmark" % (user % GROUPS)]
+            for group in groups:
+                private_docs.setdefault(group, []).append(content_id)
+        else:
+            groups = ["group_public"]
+        batch.append({"id": content_id, "dvObjectType": "datasets", "name": "benchmark %d" % n})
+        batch.append({"id": content_id + "_permission", "definitionPointDocId": content_id,
+                      "discoverableBy": groups})
+        if len(batch) >= 10000:
+            post(solr, "/update", batch)
+            batch = []
+    post(solr, "/update?commit=true", batch)
+    return private_docs
+
+
+def delete(solr):
+    post(solr, "/update?commit=true", {"delete": {"query": "id:" + PREFIX + "*"}})
+
+
+def percentiles(times):
+    times = sorted(times)
+    return statistics.median(times), times[int(len(times) * 0.95) - 1]
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__)
+    parser.add_argument("--solr", default="http://localhost:8983/solr/collection1")
+    parser.add_argument("--docs", type=int, nargs="+", default=[10000, 100000, 1000000])
+    parser.add_argument("--searches", type=int, default=200)
+    parser.add_argument("--private", type=int, default=5)
+    parser.add_argument("--keep", action="store_true")
+    args = parser.parse_args()
+
+    print("%10s %8s %12s %12s" % ("docs", "filter", "median (ms)", "p95 (ms)"))
+    for docs in args.docs:
+        delete(args.solr)
+        private_docs = load(args.solr, docs, args.private)
+        users = random.Random(docs).sample(range(USERS), min(args.searches, USERS))
+        join_times = []
+        terms_times = []
+        for user in users:
+            groups = sorted(["group_user%d" % user, "group_%d-benchmark" % (user % GROUPS)])
+            join_times.append(search(args.solr, JOIN + "discoverableBy:(group_public OR " + " OR ".join(groups) + ")"))
+            ids = sorted(set(i for group in groups for i in private_docs.get(group, [])))
+            terms = ("filter({!join from=definitionPointDocId to=id v='discoverableBy:(group_public)'})"
+                     + " OR filter({!terms f=id v='" + ",".join(ids) + "'})") if ids else JOIN + "discoverableBy:(group_public)"
+            terms_times.append(search(args.solr, terms))
+        for name, times in (("join", join_times), ("terms", terms_times)):
+            print("%10d %8s %12.1f %12d" % ((docs, name) + percentiles(times)))
+    if not args.keep:
+        delete(args.solr)
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,64 @@
+package edu.harvard.iq.dataverse.benchmarks;
+
+import edu.harvard.iq.dataverse.util.SumStatCalculator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The summary statistics of a column, as calculated at ingest for every
+ * numeric variable; on the boxed vectors the subsetting returns, with about
+ * one value in fifty missing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SummaryStatisticsBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    private Long[] integers;
+    private Double[] decimals;
+
+    @Setup
+    public void createVectors() {
+        Random random = new Random(rows);
+        integers = new Long[rows];
+        decimals = new Double[rows];
+        for (int i = 0; i < rows; i++) {
+            if (random.nextInt(50) != 0) {
+                integers[i] = (long) random.nextInt(1000);
+            }
+            if (random.nextInt(50) != 0) {
+                decimals[i] = random.nextGaussian() * 100.0;
+            }
+        }
+    }
+
+    @Benchmark
+    public double[] integers(Throughput throughput) {
+        throughput.add(rows, 0);
+        return SumStatCalculator.calculateSummaryStatistics(integers);
+    }
+
+    @Benchmark
+    public double[] decimals(Throughput throughput) {
+        throughput.add(rows, 0);
+        return SumStatCalculator.calculateSummaryStatistics(decimals);
+    }
+
+}
@@ -0,0 +1,461 @@
+package edu.harvard.iq.dataverse.benchmarks;
+
+import edu.harvard.iq.dataverse.ingest.tabulardata.TabularDataIngest;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.csv.CSVFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.csv.CSVFileReaderSpi;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Synthetic data files for the benchmarks: the same table of random values,
+ * written as CSV, SPSS (SAV) or Stata 13 (DTA) file, or ingested into a tab
+ * file.
+ *
+ * The columns take turns being integer, decimal and (8 character) string
+ * columns; about one value in fifty of the numeric columns is missing. The
+ * values are drawn from a fixed seed, so every run gets the same files.
+ */
+public class TabularFixtures {
+
+    public static final int INTEGER_COLUMN = 0;
+    public static final int DECIMAL_COLUMN = 1;
+    public static final int STRING_COLUMN = 2;
+
+    private static final long SEED = 20200601L;
+    private static final int MISSING_ONE_IN = 50;
+    private static final int STRING_WIDTH = 8;
+    private static final char[] LETTERS = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    /**
+     * The shapes of the tables, as "rows x columns".
+     */
+    public enum Shape {
+        LONG(100000, 12),
+        WIDE(2000, 600);
+
+        public final int rows;
+        public final int columns;
+
+        Shape(int rows, int columns) {
+            this.rows = rows;
+            this.columns = columns;
+        }
+    }
+
+    private TabularFixtures() {
+    }
+
+    public static int columnKind(int column) {
+        return column % 3;
+    }
+
+    /**
+     * The values of the table, one row after the other. Missing values are
+     * {@code null}.
+     */
+    static class Values {
+        private final Random random = new Random(SEED);
+        private final char[] chars = new char[STRING_WIDTH];
+
+        Long nextInteger() {
+            return missing() ? null : (long) random.nextInt(2000000) - 1000000;
+        }
+
+        Double nextDecimal() {
+            // (two decimal places, like most of the data we ingest)
+            return missing() ? null : Math.round(random.nextGaussian() * 1000000.0) / 100.0;
+        }
+
+        String nextString() {
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = LETTERS[random.nextInt(LETTERS.length)];
+            }
+            return new String(chars);
+        }
+
+        private boolean missing() {
+            return random.nextInt(MISSING_ONE_IN) == 0;
+        }
+    }
+
+    /**
+     * Writes a CSV file, with a header line of variable names.
+     */
+    public static File writeCsv(File file, int rows, int columns) throws IOException {
+        Values values = new Values();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            for (int c = 0; c < columns; c++) {
+                out.write(c == 0 ? "" : ",");
+                out.write(variableName(c));
+            }
+            out.write('\n');
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    if (c > 0) {
+                        out.write(',');
+                    }
+                    Object value = nextValue(values, c);
+                    if (value != null) {
+                        out.write(value.toString());
+                    }
+                }
+                out.write('\n');
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes an SPSS system file (little-endian; with or without the bytecode
+     * compression of the data).
+     */
+    public static File writeSav(File file, int rows, int columns, boolean compressed) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            ByteBuffer header = littleEndian(176);
+            putString(header, "$FL2", 4);
+            putString(header, "@(#) SPSS DATA FILE Dataverse benchmark fixture", 60);
+            header.putInt(2); // layout code
+            header.putInt(columns); // 8 byte values per case
+            header.putInt(compressed ? 1 : 0);
+            header.putInt(0); // no weight variable
+            header.putInt(rows);
+            header.putDouble(100.0); // compression bias
+            putString(header, "01 Jun 20", 9);
+            putString(header, "12:00:00", 8);
+            putString(header, "synthetic", 64);
+            putString(header, "", 3);
+            out.write(header.array());
+
+            ByteBuffer variable = littleEndian(32);
+            for (int c = 0; c < columns; c++) {
+                variable.clear();
+                variable.putInt(2);
+                variable.putInt(columnKind(c) == STRING_COLUMN ? STRING_WIDTH : 0);
+                variable.putInt(0); // no label
+                variable.putInt(0); // no missing values
+                int format = savFormat(c);
+                variable.putInt(format); // print
+                variable.putInt(format); // write
+                putString(variable, variableName(c).toUpperCase(), 8);
+                out.write(variable.array());
+            }
+
+            // the machine integer and floating point info records (type 7,
+            // subtypes 3 and 4):
+            ByteBuffer machine = littleEndian(16 + 8 * 4 + 16 + 3 * 8);
+            machine.putInt(7).putInt(3).putInt(4).putInt(8);
+            machine.putInt(20).putInt(0).putInt(0).putInt(-1); // release, machine code
+            machine.putInt(1).putInt(1).putInt(2).putInt(2); // IEEE 754, compression, little-endian, ASCII
+            machine.putInt(7).putInt(4).putInt(8).putInt(3);
+            machine.putDouble(-Double.MAX_VALUE).putDouble(Double.MAX_VALUE).putDouble(Math.nextUp(-Double.MAX_VALUE));
+            out.write(machine.array());
+
+            out.write(littleEndian(8).putInt(999).putInt(0).array());
+
+            Values values = new Values();
+            SavData data = compressed ? new CompressedSavData(out) : new SavData(out);
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    Object value = nextValue(values, c);
+                    if (value instanceof String) {
+                        data.putString((String) value);
+                    } else {
+                        data.putNumber(value == null ? null : ((Number) value).doubleValue());
+                    }
+                }
+            }
+            data.finish();
+        }
+        return file;
+    }
+
+    private static int savFormat(int column) {
+        // (type << 16) | (width << 8) | decimals; F is 5, A is 1
+        switch (columnKind(column)) {
+            case INTEGER_COLUMN:
+                return (5 << 16) | (8 << 8);
+            case DECIMAL_COLUMN:
+                return (5 << 16) | (12 << 8) | 2;
+            default:
+                return (1 << 16) | (STRING_WIDTH << 8);
+        }
+    }
+
+    private static class SavData {
+        final OutputStream out;
+        final ByteBuffer value = littleEndian(8);
+
+        SavData(OutputStream out) {
+            this.out = out;
+        }
+
+        void putNumber(Double number) throws IOException {
+            value.clear();
+            value.putDouble(number == null ? -Double.MAX_VALUE : number);
+            write(value.array());
+        }
+
+        void putString(String string) throws IOException {
+            write(string.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+        }
+
+        void finish() throws IOException {
+        }
+    }
+
+    /**
+     * The bytecode compression: blocks of 8 codes, each followed by the
+     * values that could not be coded.
+     */
+    private static class CompressedSavData extends SavData {
+        private static final int BIAS = 100;
+        private final byte[] codes = new byte[8];
+        private final ByteArrayOutputStream raw = new ByteArrayOutputStream(64);
+        private int codeCount = 0;
+
+        CompressedSavData(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        void putNumber(Double number) throws IOException {
+            if (number == null) {
+                code(255);
+            } else if (number == Math.rint(number) && number >= 1 - BIAS && number <= 251 - BIAS) {
+                code(number.intValue() + BIAS);
+            } else {
+                raw.write(littleEndian(8).putDouble(number).array());
+                code(253);
+            }
+        }
+
+        @Override
+        void putString(String string) throws IOException {
+            if (string.trim().isEmpty()) {
+                code(254);
+            } else {
+                raw.write(string.getBytes(StandardCharsets.US_ASCII));
+                code(253);
+            }
+        }
+
+        private void code(int code) throws IOException {
+            codes[codeCount++] = (byte) code;
+            if (codeCount == codes.length) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            out.write(codes);
+            raw.writeTo(out);
+            raw.reset();
+            codeCount = 0;
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (codeCount > 0) {
+                while (codeCount < codes.length) {
+                    codes[codeCount++] = 0;
+                }
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes a Stata 13 (format 117) file, little-endian.
+     */
+    public static File writeDta(File file, int rows, int columns) throws IOException {
+        ByteArrayOutputStream dta = new ByteArrayOutputStream(64 + columns * 200 + rows * columns * 8);
+        long[] offsets = new long[14];
+
+        tag(dta, "<stata_dta>");
+        offsets[0] = dta.size();
+        tag(dta, "<header><release>117</release><byteorder>LSF</byteorder><K>");
+        dta.write(littleEndian(2).putShort((short) columns).array());
+        tag(dta, "</K><N>");
+        dta.write(littleEndian(4).putInt(rows).array());
+        tag(dta, "</N><label>");
+        dta.write(9);
+        tag(dta, "synthetic");
+        tag(dta, "</label><timestamp>");
+        dta.write(17);
+        tag(dta, "01 Jun 2020 12:00");
+        tag(dta, "</timestamp></header>");
+
+        offsets[1] = dta.size();
+        tag(dta, "<map>");
+        int mapValues = dta.size();
+        dta.write(new byte[offsets.length * 8]);
+        tag(dta, "</map>");
+
+        offsets[2] = dta.size();
+        tag(dta, "<variable_types>");
+        for (int c = 0; c < columns; c++) {
+            dta.write(littleEndian(2).putShort((short) dtaType(c)).array());
+        }
+        tag(dta, "</variable_types>");
+
+        offsets[3] = dta.size();
+        tag(dta, "<varnames>");
+        for (int c = 0; c < columns; c++) {
+            dta.write(padded(variableName(c), 33));
+        }
+        tag(dta, "</varnames>");
+
+        offsets[4] = dta.size();
+        tag(dta, "<sortlist>");
+        dta.write(new byte[(columns + 1) * 2]);
+        tag(dta, "</sortlist>");
+
+        offsets[5] = dta.size();
+        tag(dta, "<formats>");
+        for (int c = 0; c < columns; c++) {
+            String format = columnKind(c) == STRING_COLUMN ? "%" + STRING_WIDTH + "s" : columnKind(c) == DECIMAL_COLUMN ? "%10.2f" : "%12.0g";
+            dta.write(padded(format, 49));
+        }
+        tag(dta, "</formats>");
+
+        offsets[6] = dta.size();
+        tag(dta, "<value_label_names>");
+        dta.write(new byte[columns * 33]);
+        tag(dta, "</value_label_names>");
+
+        offsets[7] = dta.size();
+        tag(dta, "<variable_labels>");
+        dta.write(new byte[columns * 81]);
+        tag(dta, "</variable_labels>");
+
+        offsets[8] = dta.size();
+        tag(dta, "<characteristics></characteristics>");
+
+        offsets[9] = dta.size();
+        tag(dta, "<data>");
+        Values values = new Values();
+        ByteBuffer integer = littleEndian(4);
+        ByteBuffer decimal = littleEndian(8);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                Object value = nextValue(values, c);
+                switch (columnKind(c)) {
+                    case INTEGER_COLUMN:
+                        integer.clear();
+                        // (2147483621 is the missing value ".")
+                        integer.putInt(value == null ? 2147483621 : ((Long) value).intValue());
+                        dta.write(integer.array());
+                        break;
+                    case DECIMAL_COLUMN:
+                        decimal.clear();
+                        decimal.putDouble(value == null ? Double.longBitsToDouble(0x7fe0000000000000L) : (Double) value);
+                        dta.write(decimal.array());
+                        break;
+                    default:
+                        dta.write(((String) value).getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        }
+        tag(dta, "</data>");
+
+        offsets[10] = dta.size();
+        tag(dta, "<strls></strls>");
+        offsets[11] = dta.size();
+        tag(dta, "<value_labels></value_labels>");
+        offsets[12] = dta.size();
+        tag(dta, "</stata_dta>");
+        offsets[13] = dta.size();
+
+        byte[] bytes = dta.toByteArray();
+        ByteBuffer map = ByteBuffer.wrap(bytes, mapValues, offsets.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long offset : offsets) {
+            map.putLong(offset);
+        }
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static int dtaType(int column) {
+        switch (columnKind(column)) {
+            case INTEGER_COLUMN:
+                return 65528; // long
+            case DECIMAL_COLUMN:
+                return 65526; // double
+            default:
+                return STRING_WIDTH; // str8
+        }
+    }
+
+    /**
+     * Ingests a CSV file, as the ingest of an upload would.
+     *
+     * @return The data table, and the tab file (a temporary file).
+     */
+    public static TabularDataIngest ingestCsv(File csv) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(csv))) {
+            return new CSVFileReader(new CSVFileReaderSpi(), ',').read(in, null);
+        }
+    }
+
+    public static String variableName(int column) {
+        return "v" + column;
+    }
+
+    private static Object nextValue(Values values, int column) {
+        switch (columnKind(column)) {
+            case INTEGER_COLUMN:
+                return values.nextInteger();
+            case DECIMAL_COLUMN:
+                return values.nextDecimal();
+            default:
+                return values.nextString();
+        }
+    }
+
+    private static ByteBuffer littleEndian(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Puts the string, padded with spaces (as in SPSS files).
+     */
+    private static void putString(ByteBuffer buffer, String string, int length) {
+        byte[] bytes = padded(string, length);
+        for (int i = string.length(); i < length; i++) {
+            bytes[i] = ' ';
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * @return The string, padded with zeros (as in Stata files).
+     */
+    private static byte[] padded(String string, int length) {
+        byte[] bytes = new byte[length];
+        byte[] chars = string.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(chars, 0, bytes, 0, Math.min(chars.length, length));
+        return bytes;
+    }
+
+    private static void tag(ByteArrayOutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+}
@@ -0,0 +1,98 @@
+package edu.harvard.iq.dataverse.benchmarks;
+
+import edu.harvard.iq.dataverse.ingest.tabulardata.TabularDataFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.TabularDataIngest;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.csv.CSVFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.csv.CSVFileReaderSpi;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.dta.NewDTAFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.sav.SAVFileReader;
+import edu.harvard.iq.dataverse.ingest.tabulardata.impl.plugins.sav.SAVFileReaderSpi;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ingest of a CSV, SPSS and Stata file of the same table, from the
+ * upload to the tab file.
+ *
+ * Every read writes a new tab file, which is deleted right away, so the
+ * benchmarks include writing it - as the ingest does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class TabularIngestBenchmark {
+
+    @Param({"LONG", "WIDE"})
+    public TabularFixtures.Shape shape;
+
+    private File directory;
+    private File csv;
+    private File sav;
+    private File compressedSav;
+    private File dta;
+
+    @Setup
+    public void createFiles() throws IOException {
+        directory = Files.createTempDirectory("ingest-benchmark").toFile();
+        csv = TabularFixtures.writeCsv(new File(directory, "table.csv"), shape.rows, shape.columns);
+        sav = TabularFixtures.writeSav(new File(directory, "table.sav"), shape.rows, shape.columns, false);
+        compressedSav = TabularFixtures.writeSav(new File(directory, "compressed.sav"), shape.rows, shape.columns, true);
+        dta = TabularFixtures.writeDta(new File(directory, "table.dta"), shape.rows, shape.columns);
+    }
+
+    @TearDown
+    public void deleteFiles() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public TabularDataIngest csv(Throughput throughput) throws IOException {
+        return read(new CSVFileReader(new CSVFileReaderSpi(), ','), csv, throughput);
+    }
+
+    @Benchmark
+    public TabularDataIngest sav(Throughput throughput) throws IOException {
+        return read(new SAVFileReader(new SAVFileReaderSpi()), sav, throughput);
+    }
+
+    @Benchmark
+    public TabularDataIngest compressedSav(Throughput throughput) throws IOException {
+        return read(new SAVFileReader(new SAVFileReaderSpi()), compressedSav, throughput);
+    }
+
+    @Benchmark
+    public TabularDataIngest dta(Throughput throughput) throws IOException {
+        return read(new NewDTAFileReader(null, 117), dta, throughput);
+    }
+
+    private TabularDataIngest read(TabularDataFileReader reader, File file, Throughput throughput) throws IOException {
+        TabularDataIngest ingest;
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ingest = reader.read(in, null);
+        }
+        ingest.getTabDelimitedFile().delete();
+        throughput.add(shape.rows, file.length());
+        return ingest;
+    }
+
+}
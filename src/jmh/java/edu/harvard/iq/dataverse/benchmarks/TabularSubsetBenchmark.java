@@ -0,0 +1,140 @@
+package edu.harvard.iq.dataverse.benchmarks;
+
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnStore;
+import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
+import edu.harvard.iq.dataverse.ingest.tabulardata.TabularDataIngest;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading one column of an ingested tab file: from its rotated image (the
+ * ".90d" file), as {@link TabularSubsetGenerator#subsetObjectVector(File, int, int, int, int)}
+ * does, and from its columnar image ({@link TabularColumnStore}); and
+ * generating the rotated image itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+public class TabularSubsetBenchmark {
+
+    @Param({"LONG", "WIDE"})
+    public TabularFixtures.Shape shape;
+
+    private File directory;
+    private File tabFile;
+    private File columnarImage;
+    private int integerColumn;
+    private int decimalColumn;
+    private int stringColumn;
+
+    @Setup
+    public void createFiles() throws IOException {
+        directory = Files.createTempDirectory("subset-benchmark").toFile();
+        File csv = TabularFixtures.writeCsv(new File(directory, "table.csv"), shape.rows, shape.columns);
+        TabularDataIngest ingest = TabularFixtures.ingestCsv(csv);
+        tabFile = new File(directory, "table.tab");
+        FileUtils.moveFile(ingest.getTabDelimitedFile(), tabFile);
+
+        // (columns from the middle of the table)
+        int middle = shape.columns / 2 / 3 * 3;
+        integerColumn = middle + TabularFixtures.INTEGER_COLUMN;
+        decimalColumn = middle + TabularFixtures.DECIMAL_COLUMN;
+        stringColumn = middle + TabularFixtures.STRING_COLUMN;
+
+        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
+        // (this creates the rotated image)
+        subsetGenerator.subsetLongVector(tabFile, integerColumn, shape.columns, shape.rows);
+        columnarImage = new File(directory, "table.columns");
+        subsetGenerator.createColumnarImage(tabFile, ingest.getDataTable().getDataVariables(), shape.rows, columnarImage);
+    }
+
+    @TearDown
+    public void deleteFiles() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public Long[] subsetIntegers(Throughput throughput) throws IOException {
+        throughput.add(shape.rows, 0);
+        return new TabularSubsetGenerator().subsetLongVector(tabFile, integerColumn, shape.columns, shape.rows);
+    }
+
+    @Benchmark
+    public Double[] subsetDecimals(Throughput throughput) throws IOException {
+        throughput.add(shape.rows, 0);
+        return new TabularSubsetGenerator().subsetDoubleVector(tabFile, decimalColumn, shape.columns, shape.rows);
+    }
+
+    @Benchmark
+    public String[] subsetStrings(Throughput throughput) throws IOException {
+        throughput.add(shape.rows, 0);
+        return new TabularSubsetGenerator().subsetStringVector(tabFile, stringColumn, shape.columns, shape.rows);
+    }
+
+    @Benchmark
+    public Long[] columnarIntegers(Throughput throughput) throws IOException {
+        throughput.add(shape.rows, 0);
+        try (TabularColumnStore store = TabularColumnStore.open(columnarImage.toPath())) {
+            return store.readLongVector(integerColumn);
+        }
+    }
+
+    @Benchmark
+    public Double[] columnarDecimals(Throughput throughput) throws IOException {
+        throughput.add(shape.rows, 0);
+        try (TabularColumnStore store = TabularColumnStore.open(columnarImage.toPath())) {
+            return store.readDoubleVector(decimalColumn);
+        }
+    }
+
+    @Benchmark
+    public String[] columnarStrings(Throughput throughput) throws IOException {
+        throughput.add(shape.rows, 0);
+        try (TabularColumnStore store = TabularColumnStore.open(columnarImage.toPath())) {
+            return store.readStrings(stringColumn);
+        }
+    }
+
+    /**
+     * Deletes the rotated image before every invocation of
+     * {@link #rotate(NoRotatedImage, Throughput)}.
+     */
+    @State(Scope.Thread)
+    public static class NoRotatedImage {
+
+        @Setup(Level.Invocation)
+        public void deleteRotatedImage(TabularSubsetBenchmark benchmark) {
+            new File(benchmark.tabFile.getAbsolutePath() + ".90d").delete();
+        }
+    }
+
+    /**
+     * Generates the rotated image (and reads one column from it, which is
+     * how the image gets generated).
+     */
+    @Benchmark
+    public Long[] rotate(NoRotatedImage noRotatedImage, Throughput throughput) throws IOException {
+        throughput.add(shape.rows, tabFile.length());
+        return new TabularSubsetGenerator().subsetLongVector(tabFile, integerColumn, shape.columns, shape.rows);
+    }
+
+}
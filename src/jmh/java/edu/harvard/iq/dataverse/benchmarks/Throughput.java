@@ -0,0 +1,32 @@
+package edu.harvard.iq.dataverse.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The rows and bytes processed by a benchmark, which JMH reports per second
+ * next to the operations: "rows" is rows/s, and "bytes" is bytes/s (of the
+ * input file, for the readers).
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+    public long rows;
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        rows = 0;
+        bytes = 0;
+    }
+
+    void add(long rows, long bytes) {
+        this.rows += rows;
+        this.bytes += bytes;
+    }
+
+}
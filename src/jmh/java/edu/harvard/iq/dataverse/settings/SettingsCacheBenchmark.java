@@ -0,0 +1,134 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A lookup of a setting from {@link SettingsCacheService}, against the query
+ * per lookup that SettingsServiceBean.get() used to run.
+ *
+ * There is no database here: the queries go to a stand-in entity manager,
+ * which answers each of them after {@code queryLatencyMicros} (the round trip
+ * to the database, roughly), from a table of {@code settingCount} settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SettingsCacheBenchmark {
+
+    @Param({"0", "250"})
+    public long queryLatencyMicros;
+
+    @Param({"150"})
+    public int settingCount;
+
+    private EntityManager em;
+    private SettingsCacheService cache;
+    private String name;
+
+    @Setup
+    public void createCache() {
+        List<Setting> settings = new ArrayList<>();
+        for (int i = 0; i < settingCount; i++) {
+            settings.add(new Setting(":Setting" + i, "value " + i));
+        }
+        name = settings.get(settingCount / 2).getName();
+
+        em = proxy(EntityManager.class, (entityManager, method, args) -> {
+            switch (method) {
+                case "createNativeQuery":
+                    return proxy(Query.class, (query, queryMethod, queryArgs) -> result(Collections.singletonList(1L)));
+                case "createNamedQuery":
+                    if ("Setting.findAll".equals(args[0])) {
+                        return proxy(TypedQuery.class, (query, queryMethod, queryArgs) -> result(settings));
+                    }
+                    return findByName(settings);
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+        cache = new SettingsCacheService();
+        cache.em = em;
+    }
+
+    @Benchmark
+    public String cached() {
+        return cache.get(name);
+    }
+
+    /**
+     * The first lookup after an invalidation, which loads all the settings.
+     */
+    @Benchmark
+    public String afterInvalidation() {
+        cache.invalidate();
+        return cache.get(name);
+    }
+
+    @Benchmark
+    public String uncached() {
+        List<Setting> tokens = em.createNamedQuery("Setting.findByName", Setting.class)
+                .setParameter("name", name)
+                .getResultList();
+        return tokens.isEmpty() ? null : tokens.get(0).getContent();
+    }
+
+    private interface Handler {
+        Object invoke(Object proxy, String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(SettingsCacheBenchmark.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> handler.invoke(proxy, method.getName(), args));
+    }
+
+    private TypedQuery<?> findByName(List<Setting> settings) {
+        Object[] parameter = new Object[1];
+        return proxy(TypedQuery.class, (query, method, args) -> {
+            switch (method) {
+                case "setParameter":
+                    parameter[0] = args[1];
+                    return query;
+                case "getResultList":
+                    for (Setting setting : settings) {
+                        if (setting.getName().equals(parameter[0])) {
+                            return result(Collections.singletonList(setting));
+                        }
+                    }
+                    return result(Collections.emptyList());
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        });
+    }
+
+    private Object result(Object result) {
+        if (queryLatencyMicros > 0) {
+            LockSupport.parkNanos(queryLatencyMicros * 1000L);
+        }
+        return result;
+    }
+
+}
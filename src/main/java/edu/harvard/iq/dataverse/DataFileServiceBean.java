@@ -7,7 +7,6 @@ import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
 import edu.harvard.iq.dataverse.ingest.IngestServiceBean;
-import edu.harvard.iq.dataverse.search.SolrSearchResult;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.FileSortFieldAndOrder;
 import edu.harvard.iq.dataverse.util.FileUtil;
@@ -15,7 +14,10 @@ import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,6 +37,7 @@ import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import javax.persistence.StoredProcedureQuery;
 import javax.persistence.TypedQuery;
@@ -342,19 +345,116 @@ public class DataFileServiceBean implements java.io.Serializable {
     }
 
     public DataFile findCheapAndEasy(Long id) {
-        DataFile dataFile;
-
-        Object[] result;
+        if (id == null) {
+            return null;
+        }
+        return findCheapAndEasy(Collections.singletonList(id)).get(id);
+    }
+    
+    /**
+     * Looks up the files with the given ids the same way as
+     * {@link #findCheapAndEasy(Long)}, but all at once: one query for the
+     * files, and two more for the data tables and the tabular tags, if any of
+     * the files is tabular.
+     * 
+     * @param ids the ids of the files
+     * @return the files found, by id
+     */
+    public Map<Long, DataFile> findCheapAndEasy(Collection<Long> ids) {
+        Map<Long, DataFile> dataFiles = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return dataFiles;
+        }
+        List<Object[]> results;
 
         try {
-            result = (Object[]) em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t0.PREVIEWIMAGEAVAILABLE, t1.CONTENTTYPE, t0.STORAGEIDENTIFIER, t1.FILESIZE, t1.INGESTSTATUS, t1.CHECKSUMVALUE, t1.RESTRICTED, t3.ID, t2.AUTHORITY, t2.IDENTIFIER, t1.CHECKSUMTYPE, t1.PREVIOUSDATAFILEID, t1.ROOTDATAFILEID, t0.AUTHORITY, T0.PROTOCOL, T0.IDENTIFIER FROM DVOBJECT t0, DATAFILE t1, DVOBJECT t2, DATASET t3 WHERE ((t0.ID = " + id + ") AND (t0.OWNER_ID = t2.ID) AND (t2.ID = t3.ID) AND (t1.ID = t0.ID))").getSingleResult();
-        } catch (Exception ex) {
-            return null;
+            results = em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t0.PREVIEWIMAGEAVAILABLE, t1.CONTENTTYPE, t0.STORAGEIDENTIFIER, t1.FILESIZE, t1.INGESTSTATUS, t1.CHECKSUMVALUE, t1.RESTRICTED, t3.ID, t2.AUTHORITY, t2.IDENTIFIER, t1.CHECKSUMTYPE, t1.PREVIOUSDATAFILEID, t1.ROOTDATAFILEID, t0.AUTHORITY, T0.PROTOCOL, T0.IDENTIFIER FROM DVOBJECT t0, DATAFILE t1, DVOBJECT t2, DATASET t3 WHERE ((t0.ID = ANY(?1)) AND (t0.OWNER_ID = t2.ID) AND (t2.ID = t3.ID) AND (t1.ID = t0.ID))")
+                    .setParameter(1, idArray(ids))
+                    .getResultList();
+        } catch (PersistenceException ex) {
+            return dataFiles;
         }
 
-        if (result == null) {
-            return null;
+        List<Long> tabularIds = new ArrayList<>();
+        for (Object[] result : results) {
+            DataFile dataFile = dataFileFromCheapAndEasyResult(result);
+            dataFiles.put(dataFile.getId(), dataFile);
+            if (MIME_TYPE_TSV.equalsIgnoreCase(dataFile.getContentType())) {
+                tabularIds.add(dataFile.getId());
+            }
+        }
+
+        // If content type indicates they are tabular data, spend 2 extra queries 
+        // looking up the data table and tabular tags objects:
+        
+        if (!tabularIds.isEmpty()) {
+            long[] tabularIdArray = idArray(tabularIds);
+            List<Object[]> dtResults;
+            try {
+                dtResults = em.createNativeQuery("SELECT ID, UNF, CASEQUANTITY, VARQUANTITY, ORIGINALFILEFORMAT, ORIGINALFILESIZE, DATAFILE_ID FROM dataTable WHERE DATAFILE_ID = ANY(?1)")
+                        .setParameter(1, tabularIdArray)
+                        .getResultList();
+            } catch (PersistenceException ex) {
+                dtResults = Collections.emptyList();
+            }
+        
+            for (Object[] dtResult : dtResults) {
+                DataFile dataFile = dataFiles.get(((Number) dtResult[6]).longValue());
+                if (dataFile == null || dataFile.getDataTable() != null) {
+                    continue;
+                }
+                DataTable dataTable = new DataTable(); 
+
+                dataTable.setId(((Integer) dtResult[0]).longValue());
+            
+                dataTable.setUnf((String)dtResult[1]);
+            
+                dataTable.setCaseQuantity((Long)dtResult[2]);
+            
+                dataTable.setVarQuantity((Long)dtResult[3]);
+            
+                dataTable.setOriginalFileFormat((String)dtResult[4]);
+                
+                dataTable.setOriginalFileSize((Long)dtResult[5]);
+                
+                dataTable.setDataFile(dataFile);
+                dataFile.setDataTable(dataTable);
+            }
+                
+            // tabular tags: 
+                
+            List<Object[]> tagResults;
+            try {
+                tagResults = em.createNativeQuery("SELECT t.TYPE, t.DATAFILE_ID FROM DATAFILETAG t WHERE t.DATAFILE_ID = ANY(?1)")
+                        .setParameter(1, tabularIdArray)
+                        .getResultList();
+            } catch (PersistenceException ex) {
+                logger.info("EXCEPTION looking up tags.");
+                tagResults = null;
+            }
+                
+            if (tagResults != null) {
+                List<String> fileTagLabels = DataFileTag.listTags();
+                    
+                for (Object[] tagResult : tagResults) {
+                    DataFile dataFile = dataFiles.get(((Number) tagResult[1]).longValue());
+                    if (dataFile == null || dataFile.getDataTable() == null) {
+                        continue;
+                    }
+                    Integer tagId = (Integer)tagResult[0];
+                    DataFileTag tag = new DataFileTag();
+                    tag.setTypeByLabel(fileTagLabels.get(tagId));
+                    tag.setDataFile(dataFile);
+                    dataFile.addTag(tag);
+                }
+            }
         }
+        
+        return dataFiles;
+    }
+
+    private DataFile dataFileFromCheapAndEasyResult(Object[] result) {
+        DataFile dataFile;
 
         Integer file_id = (Integer) result[0];
 
@@ -494,59 +594,6 @@ public class DataFileServiceBean implements java.io.Serializable {
                 
         dataFile.setOwner(owner);
 
-        // If content type indicates it's tabular data, spend 2 extra queries 
-        // looking up the data table and tabular tags objects:
-        
-        if (MIME_TYPE_TSV.equalsIgnoreCase(contentType)) {
-            Object[] dtResult;
-            try {
-                dtResult = (Object[]) em.createNativeQuery("SELECT ID, UNF, CASEQUANTITY, VARQUANTITY, ORIGINALFILEFORMAT, ORIGINALFILESIZE FROM dataTable WHERE DATAFILE_ID = " + id).getSingleResult();
-            } catch (Exception ex) {
-                dtResult = null;
-            }
-        
-            if (dtResult != null) {
-                DataTable dataTable = new DataTable(); 
-
-                dataTable.setId(((Integer) dtResult[0]).longValue());
-            
-                dataTable.setUnf((String)dtResult[1]);
-            
-                dataTable.setCaseQuantity((Long)dtResult[2]);
-            
-                dataTable.setVarQuantity((Long)dtResult[3]);
-            
-                dataTable.setOriginalFileFormat((String)dtResult[4]);
-                
-                dataTable.setOriginalFileSize((Long)dtResult[5]);
-                
-                dataTable.setDataFile(dataFile);
-                dataFile.setDataTable(dataTable);
-                
-                // tabular tags: 
-                
-                List<Object[]> tagResults;
-                try {
-                    tagResults = em.createNativeQuery("SELECT t.TYPE, t.DATAFILE_ID FROM DATAFILETAG t WHERE t.DATAFILE_ID = " + id).getResultList();
-                } catch (Exception ex) {
-                    logger.info("EXCEPTION looking up tags.");
-                    tagResults = null;
-                }
-                
-                if (tagResults != null) {
-                    List<String> fileTagLabels = DataFileTag.listTags();
-                    
-                    for (Object[] tagResult : tagResults) {
-                        Integer tagId = (Integer)tagResult[0];
-                        DataFileTag tag = new DataFileTag();
-                        tag.setTypeByLabel(fileTagLabels.get(tagId));
-                        tag.setDataFile(dataFile);
-                        dataFile.addTag(tag);
-                    }
-                }
-            }
-        }
-        
         return dataFile;
     }
     /* 
@@ -559,135 +606,153 @@ public class DataFileServiceBean implements java.io.Serializable {
     public void findFileMetadataOptimizedExperimental(Dataset owner) {
         findFileMetadataOptimizedExperimental(owner, null);
     }
+    
+    /**
+     * Populates the dataset with all its files, and the requested version 
+     * (or, if none is requested, every version of the dataset) with its 
+     * filemetadatas, as with {@link #findFileMetadataOptimized(DatasetVersion)}.
+     * The objects set are not managed; the dataset must not be merged 
+     * afterwards. 
+     * @param owner
+     * @param requestedVersion A version of {@code owner}, or {@code null}.
+     */
     public void findFileMetadataOptimizedExperimental(Dataset owner, DatasetVersion requestedVersion) {
-        List<DataFile> dataFiles = new ArrayList<>();
-        List<DataTable> dataTables = new ArrayList<>();
-        //List<FileMetadata> retList = new ArrayList<>(); 
-        
-        // TODO: 
-        //  replace these maps with simple lists and run binary search on them. -- 4.2.1
-        
-        Map<Long, AuthenticatedUser> userMap = new HashMap<>(); 
-        Map<Long, Integer> filesMap = new HashMap<>();
-        Map<Long, Integer> datatableMap = new HashMap<>();
-        Map<Long, Integer> categoryMap = new HashMap<>();
-        Map<Long, Set<Integer>> fileTagMap = new HashMap<>();
-        
-        List<String> fileTagLabels = DataFileTag.listTags();
+        LoadedFiles files = loadDataFiles(owner, FILES_OF_DATASET, owner.getId());
         
-        
-        int i = 0; 
-        
-        List<Object[]> dataTableResults = em.createNativeQuery("SELECT t0.ID, t0.DATAFILE_ID, t0.UNF, t0.CASEQUANTITY, t0.VARQUANTITY, t0.ORIGINALFILEFORMAT, t0.ORIGINALFILESIZE FROM dataTable t0, dataFile t1, dvObject t2 WHERE ((t0.DATAFILE_ID = t1.ID) AND (t1.ID = t2.ID) AND (t2.OWNER_ID = " + owner.getId() + ")) ORDER BY t0.ID").getResultList();
-        
-        for (Object[] result : dataTableResults) {
-            DataTable dataTable = new DataTable(); 
-            long fileId = ((Number) result[1]).longValue();
-
-            dataTable.setId(((Number) result[1]).longValue());
-            
-            dataTable.setUnf((String)result[2]);
-            
-            dataTable.setCaseQuantity((Long)result[3]);
-            
-            dataTable.setVarQuantity((Long)result[4]);
-            
-            dataTable.setOriginalFileFormat((String)result[5]);
-            
-            dataTable.setOriginalFileSize((Long)result[6]);
-            
-            dataTables.add(dataTable);
-            datatableMap.put(fileId, i++);
-            
+        if (requestedVersion != null) {
+            requestedVersion.setFileMetadatas(retrieveFileMetadataForVersion(owner, requestedVersion, files));
+        } else {
+            for (DatasetVersion version : owner.getVersions()) {
+                version.setFileMetadatas(retrieveFileMetadataForVersion(owner, version, files));
+                logger.fine("Retrieved "+version.getFileMetadatas().size()+" filemetadatas for the version "+version.getId());
+            }
+        }
+        owner.setFiles(new ArrayList<>(Arrays.asList(files.dataFiles)));
+    }
+    
+    /**
+     * Loads the filemetadatas of a version, with their files, data tables, 
+     * tabular tags, categories, creators and access requesters, in a fixed 
+     * number of queries however many files the version has. 
+     * 
+     * The objects returned are built from the query results rather than 
+     * managed by the entity manager, and are meant to be read only: they 
+     * are not set on {@code version}, and must never be merged. Each file 
+     * has its filemetadata in {@code version} as its only filemetadata.
+     * 
+     * @param version A saved version.
+     * @return The filemetadatas of the version, ordered by label.
+     */
+    public List<FileMetadata> findFileMetadataOptimized(DatasetVersion version) {
+        Dataset owner = version.getDataset();
+        LoadedFiles files = loadDataFiles(owner, FILES_OF_VERSION, version.getId());
+        List<FileMetadata> fileMetadatas = retrieveFileMetadataForVersion(owner, version, files);
+        for (FileMetadata fileMetadata : fileMetadatas) {
+            List<FileMetadata> ofFile = new ArrayList<>(1);
+            ofFile.add(fileMetadata);
+            fileMetadata.getDataFile().setFileMetadatas(ofFile);
         }
+        return fileMetadatas;
+    }
+    
+    // The ids of the files to load; the parameter is the id of the dataset,
+    // or of the version:
+    private static final String FILES_OF_DATASET = "SELECT o.ID FROM DVOBJECT o WHERE o.OWNER_ID = ?1 AND o.DTYPE = 'DataFile'";
+    private static final String FILES_OF_VERSION = "SELECT fm.DATAFILE_ID FROM FILEMETADATA fm WHERE fm.DATASETVERSION_ID = ?1";
+    
+    /**
+     * The files loaded by {@link #loadDataFiles}, ordered by id, so that
+     * a file can be found by id with a binary search.
+     */
+    private static class LoadedFiles {
+        final long[] ids;
+        final DataFile[] dataFiles;
         
-        logger.fine("Retrieved "+dataTables.size()+" DataTable objects.");
+        LoadedFiles(int size) {
+            ids = new long[size];
+            dataFiles = new DataFile[size];
+        }
         
-        i = 0; 
-        List<Object[]> dataTagsResults = em.createNativeQuery("SELECT t0.DATAFILE_ID, t0.TYPE FROM DataFileTag t0, dvObject t1 WHERE (t1.ID = t0.DATAFILE_ID) AND (t1.OWNER_ID="+ owner.getId() + ")").getResultList();
-        for (Object[] result : dataTagsResults) {
-            Long datafile_id = (Long) result[0];
-            Integer tagtype_id = (Integer) result[1];
-            if (fileTagMap.get(datafile_id) == null) {
-                fileTagMap.put(datafile_id, new HashSet<>());
-            }
-            fileTagMap.get(datafile_id).add(tagtype_id);
-            i++; 
+        DataFile find(long id) {
+            int i = Arrays.binarySearch(ids, id);
+            return i < 0 ? null : dataFiles[i];
         }
-        dataTagsResults = null;
+    }
+    
+    private static long[] idArray(Collection<Long> ids) {
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+    
+    private static long asLong(Object value) {
+        return ((Number) value).longValue();
+    }
+    
+    private static Long asLongOrNull(Object value) {
+        return value == null ? null : ((Number) value).longValue();
+    }
+    
+    private LoadedFiles loadDataFiles(Dataset owner, String fileIds, Long parameter) {
         
-        logger.fine("Retrieved "+i+" data tags.");
+        // the users the files refer to (creators, release users and access
+        // requesters), at once:
+        List<AuthenticatedUser> users = em.createNativeQuery("SELECT * FROM AUTHENTICATEDUSER WHERE ID IN ("
+                + "SELECT CREATOR_ID FROM DVOBJECT WHERE ID IN (" + fileIds + ") "
+                + "UNION SELECT RELEASEUSER_ID FROM DVOBJECT WHERE ID IN (" + fileIds + ") "
+                + "UNION SELECT AUTHENTICATED_USER_ID FROM FILEACCESSREQUESTS WHERE DATAFILE_ID IN (" + fileIds + "))",
+                AuthenticatedUser.class)
+                .setParameter(1, parameter).getResultList();
+        users.sort(Comparator.comparing(AuthenticatedUser::getId));
+        long[] userIds = new long[users.size()];
+        for (int u = 0; u < userIds.length; u++) {
+            userIds[u] = users.get(u).getId();
+        }
         
-        i = 0; 
+        List<Object[]> fileResults = em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t1.CONTENTTYPE, t0.STORAGEIDENTIFIER, t1.FILESIZE, t1.INGESTSTATUS, t1.CHECKSUMVALUE, t1.RESTRICTED, t1.CHECKSUMTYPE, t1.PREVIOUSDATAFILEID, t1.ROOTDATAFILEID, t0.PROTOCOL, t0.AUTHORITY, t0.IDENTIFIER "
+                + "FROM DVOBJECT t0, DATAFILE t1 WHERE t1.ID = t0.ID AND t0.ID IN (" + fileIds + ") ORDER BY t0.ID")
+                .setParameter(1, parameter).getResultList();
         
-        List<Object[]> fileResults = em.createNativeQuery("SELECT t0.ID, t0.CREATEDATE, t0.INDEXTIME, t0.MODIFICATIONTIME, t0.PERMISSIONINDEXTIME, t0.PERMISSIONMODIFICATIONTIME, t0.PUBLICATIONDATE, t0.CREATOR_ID, t0.RELEASEUSER_ID, t1.CONTENTTYPE, t0.STORAGEIDENTIFIER, t1.FILESIZE, t1.INGESTSTATUS, t1.CHECKSUMVALUE, t1.RESTRICTED, t1.CHECKSUMTYPE, t1.PREVIOUSDATAFILEID, t1.ROOTDATAFILEID, t0.PROTOCOL, t0.AUTHORITY, t0.IDENTIFIER FROM DVOBJECT t0, DATAFILE t1 WHERE ((t0.OWNER_ID = " + owner.getId() + ") AND ((t1.ID = t0.ID) AND (t0.DTYPE = 'DataFile'))) ORDER BY t0.ID").getResultList(); 
-    
+        LoadedFiles files = new LoadedFiles(fileResults.size());
+        int i = 0;
         for (Object[] result : fileResults) {
-            Integer file_id = (Integer) result[0];
-            
             DataFile dataFile = new DataFile();
             dataFile.setMergeable(false);
             
-            dataFile.setId(file_id.longValue());
-            
-            Timestamp createDate = (Timestamp) result[1];
-            Timestamp indexTime = (Timestamp) result[2];
-            Timestamp modificationTime = (Timestamp) result[3];
-            Timestamp permissionIndexTime = (Timestamp) result[4];
-            Timestamp permissionModificationTime = (Timestamp) result[5];
-            Timestamp publicationDate = (Timestamp) result[6];
+            dataFile.setId(asLong(result[0]));
             
-            dataFile.setCreateDate(createDate);
-            dataFile.setIndexTime(indexTime);
-            dataFile.setModificationTime(modificationTime);
-            dataFile.setPermissionIndexTime(permissionIndexTime);
-            dataFile.setPermissionModificationTime(permissionModificationTime);
-            dataFile.setPublicationDate(publicationDate);
+            dataFile.setCreateDate((Timestamp) result[1]);
+            dataFile.setIndexTime((Timestamp) result[2]);
+            dataFile.setModificationTime((Timestamp) result[3]);
+            dataFile.setPermissionIndexTime((Timestamp) result[4]);
+            dataFile.setPermissionModificationTime((Timestamp) result[5]);
+            dataFile.setPublicationDate((Timestamp) result[6]);
             
-            Long creatorId = (Long) result[7]; 
-            if (creatorId != null) {
-                AuthenticatedUser creator = userMap.get(creatorId);
-                if (creator == null) {
-                    creator = userService.find(creatorId);
-                    if (creator != null) {
-                        userMap.put(creatorId, creator);
-                    }
-                }
-                if (creator != null) {
-                    dataFile.setCreator(creator);
+            if (result[7] != null) {
+                int u = Arrays.binarySearch(userIds, asLong(result[7]));
+                if (u >= 0) {
+                    dataFile.setCreator(users.get(u));
                 }
             }
             
             dataFile.setOwner(owner);
             
-            Long releaseUserId = (Long) result[8]; 
-            if (releaseUserId != null) {
-                AuthenticatedUser releaseUser = userMap.get(releaseUserId);
-                if (releaseUser == null) {
-                    releaseUser = userService.find(releaseUserId);
-                    if (releaseUser != null) {
-                        userMap.put(releaseUserId, releaseUser);
-                    }
-                }
-                if (releaseUser != null) {
-                    dataFile.setReleaseUser(releaseUser);
+            if (result[8] != null) {
+                int u = Arrays.binarySearch(userIds, asLong(result[8]));
+                if (u >= 0) {
+                    dataFile.setReleaseUser(users.get(u));
                 }
             }
             
             String contentType = (String) result[9]; 
-            
             if (contentType != null) {
                 dataFile.setContentType(contentType);
             }
             
             String storageIdentifier = (String) result[10];
-            
             if (storageIdentifier != null) {
                 dataFile.setStorageIdentifier(storageIdentifier);
             }
             
-            Long fileSize = (Long) result[11];
-            
+            Long fileSize = asLongOrNull(result[11]);
             if (fileSize != null) {
                 dataFile.setFilesize(fileSize);
             }
@@ -698,7 +763,6 @@ public class DataFileServiceBean implements java.io.Serializable {
             }
             
             String md5 = (String) result[13]; 
-            
             if (md5 != null) {
                 dataFile.setChecksumValue(md5);
             }
@@ -719,12 +783,12 @@ public class DataFileServiceBean implements java.io.Serializable {
                 }
             }
 
-            Long previousDataFileId = (Long) result[16];
+            Long previousDataFileId = asLongOrNull(result[16]);
             if (previousDataFileId != null) {
                 dataFile.setPreviousDataFileId(previousDataFileId);
             }
             
-            Long rootDataFileId = (Long) result[17];
+            Long rootDataFileId = asLongOrNull(result[17]);
             if (rootDataFileId != null) {
                 dataFile.setRootDataFileId(rootDataFileId);
             }
@@ -748,125 +812,136 @@ public class DataFileServiceBean implements java.io.Serializable {
             // - if ingest status is "bad", look up the ingest report; 
             // - is it a dedicated thumbnail for the dataset? (do we ever need that info?? - not on the dataset page, I don't think...)
             
-            // Is this a tabular file? 
-            
-            if (datatableMap.get(dataFile.getId()) != null) {
-                dataTables.get(datatableMap.get(dataFile.getId())).setDataFile(dataFile);
-                dataFile.setDataTable(dataTables.get(datatableMap.get(dataFile.getId())));
-                
-            }            
-
-            if (fileTagMap.get(dataFile.getId()) != null) {
-                for (Integer tag_id : fileTagMap.get(dataFile.getId())) {
-                    DataFileTag tag = new DataFileTag();
-                    tag.setTypeByLabel(fileTagLabels.get(tag_id));
-                    tag.setDataFile(dataFile);
-                    dataFile.addTag(tag);
-                }
-            }            
-            dataFile.setFileAccessRequesters(retrieveFileAccessRequesters(dataFile));              
-            dataFiles.add(dataFile);
-            filesMap.put(dataFile.getId(), i++);
+            dataFile.setFileAccessRequesters(new ArrayList<>());
+            files.ids[i] = dataFile.getId();
+            files.dataFiles[i++] = dataFile;
         }
         fileResults = null;
         
         logger.fine("Retrieved and cached "+i+" datafiles.");
-
-        i = 0; 
-        for (DataFileCategory fileCategory : owner.getCategories()) {
-            //logger.fine("category: id="+fileCategory.getId());
-            categoryMap.put(fileCategory.getId(), i++);
+        
+        // Is this a tabular file? 
+        List<Object[]> dataTableResults = em.createNativeQuery("SELECT t0.ID, t0.DATAFILE_ID, t0.UNF, t0.CASEQUANTITY, t0.VARQUANTITY, t0.ORIGINALFILEFORMAT, t0.ORIGINALFILESIZE, t0.ORIGINALFORMATVERSION, t0.ORIGINALFILENAME "
+                + "FROM DATATABLE t0 WHERE t0.DATAFILE_ID IN (" + fileIds + ")")
+                .setParameter(1, parameter).getResultList();
+        
+        for (Object[] result : dataTableResults) {
+            DataFile dataFile = files.find(asLong(result[1]));
+            if (dataFile == null) {
+                continue;
+            }
+            DataTable dataTable = new DataTable(); 
+            dataTable.setId(asLong(result[0]));
+            dataTable.setUnf((String) result[2]);
+            dataTable.setCaseQuantity(asLongOrNull(result[3]));
+            dataTable.setVarQuantity(asLongOrNull(result[4]));
+            dataTable.setOriginalFileFormat((String) result[5]);
+            dataTable.setOriginalFileSize(asLongOrNull(result[6]));
+            dataTable.setOriginalFormatVersion((String) result[7]);
+            dataTable.setOriginalFileName((String) result[8]);
+            
+            dataTable.setDataFile(dataFile);
+            dataFile.setDataTable(dataTable);
         }
         
-        logger.fine("Retrieved "+i+" file categories attached to the dataset.");
+        logger.fine("Retrieved "+dataTableResults.size()+" DataTable objects.");
+        dataTableResults = null;
         
-        if (requestedVersion != null) {
-            requestedVersion.setFileMetadatas(retrieveFileMetadataForVersion(owner, requestedVersion, dataFiles, filesMap, categoryMap));
-        } else {
-            for (DatasetVersion version : owner.getVersions()) {
-                version.setFileMetadatas(retrieveFileMetadataForVersion(owner, version, dataFiles, filesMap, categoryMap));
-                logger.fine("Retrieved "+version.getFileMetadatas().size()+" filemetadatas for the version "+version.getId());
+        List<String> fileTagLabels = DataFileTag.listTags();
+        List<Object[]> dataTagsResults = em.createNativeQuery("SELECT t0.DATAFILE_ID, t0.TYPE FROM DATAFILETAG t0 WHERE t0.DATAFILE_ID IN (" + fileIds + ")")
+                .setParameter(1, parameter).getResultList();
+        for (Object[] result : dataTagsResults) {
+            DataFile dataFile = files.find(asLong(result[0]));
+            if (dataFile == null) {
+                continue;
             }
+            DataFileTag tag = new DataFileTag();
+            tag.setTypeByLabel(fileTagLabels.get(((Number) result[1]).intValue()));
+            tag.setDataFile(dataFile);
+            dataFile.addTag(tag);
         }
-        owner.setFiles(dataFiles);
-    }
-    
-     private List<AuthenticatedUser> retrieveFileAccessRequesters(DataFile fileIn){
-        List<AuthenticatedUser> retList = new ArrayList<>();
         
-        List<Object> requesters  = em.createNativeQuery("select authenticated_user_id from fileaccessrequests where datafile_id = "+fileIn.getId()).getResultList();
+        logger.fine("Retrieved "+dataTagsResults.size()+" data tags.");
+        dataTagsResults = null;
         
-        for (Object userIdObj : requesters){
-            Long userId = (Long) userIdObj;
-            AuthenticatedUser user = userService.find(userId);
-            if (user != null){
-                retList.add(user);
+        List<Object[]> requestResults = em.createNativeQuery("SELECT t0.DATAFILE_ID, t0.AUTHENTICATED_USER_ID FROM FILEACCESSREQUESTS t0 WHERE t0.DATAFILE_ID IN (" + fileIds + ")")
+                .setParameter(1, parameter).getResultList();
+        for (Object[] result : requestResults) {
+            DataFile dataFile = files.find(asLong(result[0]));
+            int u = Arrays.binarySearch(userIds, asLong(result[1]));
+            if (dataFile != null && u >= 0) {
+                dataFile.getFileAccessRequesters().add(users.get(u));
             }
         }
         
-        return retList;
+        logger.fine("Retrieved "+requestResults.size()+" file access requests.");
+        
+        return files;
     }
     
-    private List<FileMetadata> retrieveFileMetadataForVersion(Dataset dataset, DatasetVersion version, List<DataFile> dataFiles, Map<Long, Integer> filesMap, Map<Long, Integer> categoryMap) {
+    private List<FileMetadata> retrieveFileMetadataForVersion(Dataset dataset, DatasetVersion version, LoadedFiles files) {
         List<FileMetadata> retList = new ArrayList<>();
-        Map<Long, Set<Long>> categoryMetaMap = new HashMap<>();
         
-        List<Object[]> categoryResults = em.createNativeQuery("select t0.filecategories_id, t0.filemetadatas_id from filemetadata_datafilecategory t0, filemetadata t1 where (t0.filemetadatas_id = t1.id) AND (t1.datasetversion_id = "+version.getId()+")").getResultList();
+        List<DataFileCategory> categories = new ArrayList<>(dataset.getCategories());
+        categories.removeIf(category -> category.getId() == null);
+        categories.sort(Comparator.comparing(DataFileCategory::getId));
+        long[] categoryIds = new long[categories.size()];
+        for (int c = 0; c < categoryIds.length; c++) {
+            categoryIds[c] = categories.get(c).getId();
+        }
+        
+        logger.fine("Retrieved "+categoryIds.length+" file categories attached to the dataset.");
+        
+        // (filemetadata id, category id) pairs, ordered by filemetadata:
+        List<Object[]> categoryResults = em.createNativeQuery("SELECT t0.FILEMETADATAS_ID, t0.FILECATEGORIES_ID FROM FILEMETADATA_DATAFILECATEGORY t0, FILEMETADATA t1 WHERE t0.FILEMETADATAS_ID = t1.ID AND t1.DATASETVERSION_ID = ?1 ORDER BY t0.FILEMETADATAS_ID")
+                .setParameter(1, version.getId()).getResultList();
+        long[] categorizedIds = new long[categoryResults.size()];
+        int[] categoryIndexes = new int[categoryResults.size()];
         int i = 0;
         for (Object[] result : categoryResults) {
-            Long category_id = (Long) result[0];
-            Long filemeta_id = (Long) result[1];
-            if (categoryMetaMap.get(filemeta_id) == null) {
-                categoryMetaMap.put(filemeta_id, new HashSet<>());
-            }
-            categoryMetaMap.get(filemeta_id).add(category_id);
-            i++;
+            categorizedIds[i] = asLong(result[0]);
+            categoryIndexes[i++] = Arrays.binarySearch(categoryIds, asLong(result[1]));
         }
         logger.fine("Retrieved and mapped "+i+" file categories attached to files in the version "+version.getId());
         
-        List<Object[]> metadataResults = em.createNativeQuery("select id, datafile_id, DESCRIPTION, LABEL, RESTRICTED, DIRECTORYLABEL, prov_freeform from FileMetadata where datasetversion_id = "+version.getId() + " ORDER BY LABEL").getResultList();
+        List<Object[]> metadataResults = em.createNativeQuery("SELECT ID, DATAFILE_ID, DESCRIPTION, LABEL, RESTRICTED, DIRECTORYLABEL, PROV_FREEFORM, VERSION FROM FILEMETADATA WHERE DATASETVERSION_ID = ?1 ORDER BY LABEL")
+                .setParameter(1, version.getId()).getResultList();
         
         for (Object[] result : metadataResults) {
-            Integer filemeta_id = (Integer) result[0];
-            
-            if (filemeta_id == null) {
-                continue;
-            }
-            
-            Long file_id = (Long) result[1];
-            if (file_id == null) {
+            if (result[0] == null || result[1] == null) {
                 continue;
             }
             
-            Integer file_list_id = filesMap.get(file_id);
-            if (file_list_id == null) {
+            DataFile dataFile = files.find(asLong(result[1]));
+            if (dataFile == null) {
                 continue;
             }
             FileMetadata fileMetadata = new FileMetadata();
-            fileMetadata.setId(filemeta_id.longValue());
+            fileMetadata.setId(asLong(result[0]));
             fileMetadata.setCategories(new LinkedList<>());
 
-            if (categoryMetaMap.get(fileMetadata.getId()) != null) {
-                for (Long cat_id : categoryMetaMap.get(fileMetadata.getId())) {
-                    if (categoryMap.get(cat_id) != null) {
-                        fileMetadata.getCategories().add(dataset.getCategories().get(categoryMap.get(cat_id)));
+            // the first pair of this filemetadata, if any, and the ones after it:
+            int c = Arrays.binarySearch(categorizedIds, fileMetadata.getId());
+            if (c >= 0) {
+                while (c > 0 && categorizedIds[c - 1] == fileMetadata.getId()) {
+                    c--;
+                }
+                for (; c < categorizedIds.length && categorizedIds[c] == fileMetadata.getId(); c++) {
+                    if (categoryIndexes[c] >= 0) {
+                        fileMetadata.getCategories().add(categories.get(categoryIndexes[c]));
                     }
                 }
             }
 
             fileMetadata.setDatasetVersion(version);
-            
-            //fileMetadata.setDataFile(dataset.getFiles().get(file_list_id));
-            fileMetadata.setDataFile(dataFiles.get(file_list_id));
+            fileMetadata.setDataFile(dataFile);
             
             String description = (String) result[2]; 
-            
             if (description != null) {
                 fileMetadata.setDescription(description);
             }
             
             String label = (String) result[3];
-            
             if (label != null) {
                 fileMetadata.setLabel(label);
             }
@@ -885,6 +960,8 @@ public class DataFileServiceBean implements java.io.Serializable {
             if (provFreeForm != null){
                 fileMetadata.setProvFreeForm(provFreeForm);
             }
+            
+            fileMetadata.setVersion(asLongOrNull(result[7]));
                         
             retList.add(fileMetadata);
         }
@@ -1356,10 +1433,6 @@ public class DataFileServiceBean implements java.io.Serializable {
         return MIME_TYPE_PACKAGE_FILE.equalsIgnoreCase(contentType);
     }
     
-    public void populateFileSearchCard(SolrSearchResult solrSearchResult) {
-        solrSearchResult.setEntity(this.findCheapAndEasy(solrSearchResult.getEntityId()));
-    }
-        
     
     /**
      * Does this file have a replacement.  
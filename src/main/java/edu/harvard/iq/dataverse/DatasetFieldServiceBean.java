@@ -1,6 +1,8 @@
 package edu.harvard.iq.dataverse;
 
+import edu.harvard.iq.dataverse.search.SearchConfigurationService;
 import java.util.List;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
@@ -20,6 +22,9 @@ public class DatasetFieldServiceBean implements java.io.Serializable {
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
 
+    @EJB
+    SearchConfigurationService searchConfigurationService;
+
     private static final String NAME_QUERY = "SELECT dsfType from DatasetFieldType dsfType where dsfType.name= :fieldName";
 
     public List<DatasetFieldType> findAllAdvancedSearchFieldTypes() {
@@ -182,10 +187,12 @@ public class DatasetFieldServiceBean implements java.io.Serializable {
     }
 
     public DatasetFieldType save(DatasetFieldType dsfType) {
+        searchConfigurationService.invalidate();
         return em.merge(dsfType);
     }
 
     public MetadataBlock save(MetadataBlock mdb) {
+        searchConfigurationService.invalidate();
         return em.merge(mdb);
     }
 
@@ -1921,7 +1921,7 @@ public class DatasetPage implements java.io.Serializable {
                 } else {
                     // an attempt to retreive both the filemetadatas and datafiles early on, so that 
                     // we don't have to do so later (possibly, many more times than necessary):
-                    datafileService.findFileMetadataOptimizedExperimental(dataset);
+                    datafileService.findFileMetadataOptimizedExperimental(dataset, workingVersion);
                 }
                 
                 // This will default to all the files in the version, if the search term
@@ -2749,7 +2749,7 @@ public class DatasetPage implements java.io.Serializable {
         }
 
         if (readOnly) {
-            datafileService.findFileMetadataOptimizedExperimental(dataset);
+            datafileService.findFileMetadataOptimizedExperimental(dataset, workingVersion);
         }
         
         fileMetadatasSearch = selectFileMetadatasForDisplay();
@@ -24,8 +24,10 @@ import edu.harvard.iq.dataverse.workflows.WorkflowComment;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -191,16 +193,36 @@ public class DatasetServiceBean implements java.io.Serializable {
      * @see DataverseServiceBean#findAllOrSubset(long, long, boolean)
      */     
     public List<Long> findAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed) {
+        return findAllOrSubset(numPartitions, partitionId, skipIndexed, null);
+    }
+
+    /**
+     * Same as {@link #findAllOrSubset(long, long, boolean)}, but when
+     * {@code indexedBefore} is given, datasets that have been indexed at or
+     * after that time are skipped. This is how an interrupted "index all" run
+     * picks up where it stopped.
+     * @param numPartitions
+     * @param partitionId
+     * @param skipIndexed
+     * @param indexedBefore start time of the run being resumed, or {@code null}
+     * @return a list of dataset ids
+     */
+    public List<Long> findAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed, Timestamp indexedBefore) {
         if (numPartitions < 1) {
             long saneNumPartitions = 1;
             numPartitions = saneNumPartitions;
         }
         String skipClause = skipIndexed ? "AND o.indexTime is null " : "";
+        String resumeClause = indexedBefore != null ? "AND (o.indexTime is null OR o.indexTime < :indexedBefore) " : "";
         TypedQuery<Long> typedQuery = em.createQuery("SELECT o.id FROM Dataset o WHERE MOD( o.id, :numPartitions) = :partitionId " +
                 skipClause +
+                resumeClause +
                 "ORDER BY o.id", Long.class);
         typedQuery.setParameter("numPartitions", numPartitions);
         typedQuery.setParameter("partitionId", partitionId);
+        if (indexedBefore != null) {
+            typedQuery.setParameter("indexedBefore", indexedBefore);
+        }
         return typedQuery.getResultList();
     }
     
@@ -222,6 +244,46 @@ public class DatasetServiceBean implements java.io.Serializable {
             return (Dataset) dvObjectService.findByGlobalId(globalId, "Dataset", true);
         }        
     }
+
+    /**
+     * Looks up a batch of datasets by their global ids with one query (plus
+     * one {@link #findByGlobalId(java.lang.String)} for each id not found that
+     * way, e.g. an alternative PID), instead of one query per dataset.
+     *
+     * @return The datasets found, keyed by the global id they were looked up
+     * with.
+     */
+    public Map<String, Dataset> findByGlobalIds(Collection<String> globalIds) {
+        Map<String, Dataset> found = new HashMap<>();
+        Map<String, String> requested = new HashMap<>();
+        for (String globalId : globalIds) {
+            GlobalId.parse(globalId).ifPresent(gid -> requested.put(gid.asString(), globalId));
+        }
+        if (!requested.isEmpty()) {
+            Set<String> identifiers = new HashSet<>();
+            for (String globalId : requested.keySet()) {
+                identifiers.add(new GlobalId(globalId).getIdentifier());
+            }
+            List<Dataset> datasets = em.createQuery("SELECT o FROM Dataset o WHERE o.identifier IN :identifiers", Dataset.class)
+                    .setParameter("identifiers", identifiers)
+                    .getResultList();
+            for (Dataset dataset : datasets) {
+                String globalId = requested.get(dataset.getGlobalId().asString());
+                if (globalId != null) {
+                    found.put(globalId, dataset);
+                }
+            }
+        }
+        for (String globalId : globalIds) {
+            if (!found.containsKey(globalId)) {
+                Dataset dataset = findByGlobalId(globalId);
+                if (dataset != null) {
+                    found.put(globalId, dataset);
+                }
+            }
+        }
+        return found;
+    }
     
     /**
      * Instantiate dataset, and its components (DatasetVersions and FileMetadatas)
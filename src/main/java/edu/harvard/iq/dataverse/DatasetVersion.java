@@ -164,6 +164,12 @@ public class DatasetVersion implements Serializable {
     @Transient 
     private String jsonLd;
 
+    // the ids of the files of the version, see containsDataFile():
+    @Transient
+    private Set<Long> dataFileIds;
+    @Transient
+    private int dataFileIdsCount;
+
     @OneToMany(mappedBy="datasetVersion", cascade={CascadeType.REMOVE, CascadeType.MERGE, CascadeType.PERSIST})
     private List<DatasetVersionUser> datasetVersionUsers;
     
@@ -217,6 +223,36 @@ public class DatasetVersion implements Serializable {
 
     public void setFileMetadatas(List<FileMetadata> fileMetadatas) {
         this.fileMetadatas = fileMetadatas;
+        this.dataFileIds = null;
+    }
+
+    /**
+     * Whether the file is in this version, looked up in a set of the ids of
+     * the files of the version rather than by going through its file
+     * metadatas. The set is built on the first call, and again whenever the
+     * number of files in the version changes; it is meant for versions whose
+     * files do not change otherwise, such as released ones.
+     *
+     * @param dataFile
+     * @return true if one of the file metadatas of this version is for
+     * {@code dataFile}.
+     */
+    public boolean containsDataFile(DataFile dataFile) {
+        if (dataFile == null || dataFile.getId() == null || fileMetadatas == null) {
+            return false;
+        }
+        Set<Long> ids = dataFileIds;
+        if (ids == null || dataFileIdsCount != fileMetadatas.size()) {
+            ids = new HashSet<>(fileMetadatas.size() * 2);
+            for (FileMetadata fm : fileMetadatas) {
+                if (fm.getDataFile() != null) {
+                    ids.add(fm.getDataFile().getId());
+                }
+            }
+            dataFileIdsCount = fileMetadatas.size();
+            dataFileIds = ids;
+        }
+        return ids.contains(dataFile.getId());
     }
     
     public TermsOfUseAndAccess getTermsOfUseAndAccess() {
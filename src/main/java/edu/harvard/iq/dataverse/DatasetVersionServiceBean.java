@@ -7,7 +7,6 @@ import edu.harvard.iq.dataverse.authorization.AuthenticationServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import static edu.harvard.iq.dataverse.batch.jobs.importer.filesystem.FileRecordJobListener.SEP;
 import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
-import edu.harvard.iq.dataverse.search.SolrSearchResult;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.util.MarkupChecker;
@@ -797,7 +796,11 @@ public class DatasetVersionServiceBean implements java.io.Serializable {
         return null;
     }
     
-    private void assignDatasetThumbnailByNativeQuery(Long versionId, Long dataFileId) {
+    /**
+     * Makes the given file the thumbnail of the dataset of the version (as
+     * auto-selected by {@link #getThumbnailByVersionId}).
+     */
+    public void assignDatasetThumbnailByNativeQuery(Long versionId, Long dataFileId) {
         try {
             em.createNativeQuery("UPDATE dataset SET thumbnailfile_id=" + dataFileId + " WHERE id in (SELECT dataset_id FROM datasetversion WHERE id=" + versionId + ")").executeUpdate();
         } catch (Exception ex) {
@@ -818,92 +821,6 @@ public class DatasetVersionServiceBean implements java.io.Serializable {
         
     }
     
-    public void populateDatasetSearchCard(SolrSearchResult solrSearchResult) {
-        Long dataverseId = Long.parseLong(solrSearchResult.getParent().get("id"));
-        Long datasetVersionId = solrSearchResult.getDatasetVersionId();
-        Long datasetId = solrSearchResult.getEntityId();
-        
-        if (dataverseId == 0) {
-            return;
-        }
-        
-        Object[] searchResult;
-        
-        try {
-            if (datasetId != null) {
-                searchResult = (Object[]) em.createNativeQuery("SELECT t0.VERSIONSTATE, t1.ALIAS, t2.THUMBNAILFILE_ID, t2.USEGENERICTHUMBNAIL, t3.STORAGEIDENTIFIER FROM DATASETVERSION t0, DATAVERSE t1, DATASET t2, DVOBJECT t3 WHERE t0.ID = " 
-                        + datasetVersionId 
-                        + " AND t1.ID = " 
-                        + dataverseId
-                        + " AND t2.ID = "
-                        + datasetId
-                        + " AND t2.ID = t3.ID").getSingleResult()
-                        
-                        ;
-            } else {
-                // Why is this method ever called with dataset_id = null? -- L.A.
-                searchResult = (Object[]) em.createNativeQuery("SELECT t0.VERSIONSTATE, t1.ALIAS FROM DATASETVERSION t0, DATAVERSE t1 WHERE t0.ID = " + datasetVersionId + " AND t1.ID = " + dataverseId).getSingleResult();
-            }
-        } catch (Exception ex) {
-            return;
-        }
-
-        if (searchResult == null) {
-            return;
-        }
-        
-        if (searchResult[0] != null) {
-            String versionState = (String)searchResult[0];
-            if ("DEACCESSIONED".equals(versionState)) {
-                solrSearchResult.setDeaccessionedState(true);
-            }
-        }
-        
-        /**
-          * @todo (from pdurbin) can a dataverse alias ever be null?
-          */
-        
-        if (searchResult[1] != null) {
-            solrSearchResult.setDataverseAlias((String) searchResult[1]);
-        }
-        
-        if (searchResult.length == 5) {
-            Dataset datasetEntity = new Dataset();
-            String globalIdentifier = solrSearchResult.getIdentifier();
-            GlobalId globalId = new GlobalId(globalIdentifier);
-
-            datasetEntity.setProtocol(globalId.getProtocol());
-            datasetEntity.setAuthority(globalId.getAuthority());
-            datasetEntity.setIdentifier(globalId.getIdentifier());
-            if (searchResult[4] != null) {
-                datasetEntity.setStorageIdentifier(searchResult[4].toString());
-            }
-            solrSearchResult.setEntity(datasetEntity);
-            if (searchResult[2] != null) {
-                // This is the image file specifically assigned as the "icon" for
-                // the dataset:
-                Long thumbnailFile_id = (Long) searchResult[2];
-                if (thumbnailFile_id != null) {
-                    DataFile thumbnailFile;
-                    try {
-                        thumbnailFile = datafileService.findCheapAndEasy(thumbnailFile_id);
-                    } catch (Exception ex) {
-                        thumbnailFile = null;
-                    }
-
-                    if (thumbnailFile != null) {
-                        ((Dataset) solrSearchResult.getEntity()).setThumbnailFile(thumbnailFile);
-                    }
-                }
-            }
-            if (searchResult[3] != null) {
-                ((Dataset)solrSearchResult.getEntity()).setUseGenericThumbnail((Boolean) searchResult[3]);
-            } else {
-                ((Dataset)solrSearchResult.getEntity()).setUseGenericThumbnail(false);
-            }
-        }
-    }
-    
     /**
      * Return a list of the checksum Strings for files in the specified DatasetVersion
      * 
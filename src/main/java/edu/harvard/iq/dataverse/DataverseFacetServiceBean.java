@@ -1,5 +1,6 @@
 package edu.harvard.iq.dataverse;
 
+import edu.harvard.iq.dataverse.search.SearchConfigurationService;
 import edu.harvard.iq.dataverse.util.LruCache;
 import java.util.List;
 import javax.ejb.EJB;
@@ -25,6 +26,9 @@ public class DataverseFacetServiceBean implements java.io.Serializable {
     @EJB
     DataverseServiceBean dataverses;
     
+    @EJB
+    SearchConfigurationService searchConfigurationService;
+    
     public List<DataverseFacet> findByDataverseId(Long dataverseId) {
         List<DataverseFacet> res = cache.get(dataverseId);
 
@@ -40,6 +44,7 @@ public class DataverseFacetServiceBean implements java.io.Serializable {
     public void delete(DataverseFacet dataverseFacet) {
         em.remove(em.merge(dataverseFacet));
         cache.invalidate();
+        searchConfigurationService.invalidate();
     }
     
 	public void deleteFacetsFor( Dataverse d ) {
@@ -47,7 +52,7 @@ public class DataverseFacetServiceBean implements java.io.Serializable {
 			.setParameter("ownerId", d.getId())
 				.executeUpdate();
         cache.invalidate(d.getId());
-        
+        searchConfigurationService.invalidate();
 	}
 	
     public DataverseFacet create(int displayOrder, DatasetFieldType fieldType, Dataverse ownerDv) {
@@ -59,6 +64,7 @@ public class DataverseFacetServiceBean implements java.io.Serializable {
         
         ownerDv.getDataverseFacets().add(dataverseFacet);
         em.persist(dataverseFacet);
+        searchConfigurationService.invalidate();
         return dataverseFacet;
     }
     
@@ -46,6 +46,8 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     SolrIndexServiceBean solrIndexService;
     @EJB
     IndexAsync indexAsync;
+    @EJB
+    PermissionCacheService permissionCache;
 
     public DataverseRole save(DataverseRole aRole) {
         if (aRole.getId() == null) {
@@ -57,6 +59,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
             return aRole;
         } else {
             DataverseRole merged = em.merge(aRole);
+            permissionCache.invalidate();
             /**
              * @todo update permissionModificationTime here.
              */
@@ -76,6 +79,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
         } else {
             assignment = em.merge(assignment);
         }
+        permissionCache.invalidate();
         /**
          * @todo update permissionModificationTime here.
          */
@@ -106,6 +110,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
         em.createNamedQuery("DataverseRole.deleteById", DataverseRole.class)
             .setParameter("id", id)
             .executeUpdate();
+        permissionCache.invalidate();
     }
 
     public List<DataverseRole> findByOwnerId(Long ownerId) {
@@ -142,6 +147,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
             em.refresh(role);
         }
         em.refresh(assignee);
+        permissionCache.invalidate();
     }
 
     public void revoke(RoleAssignment ra) {
@@ -149,6 +155,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
             ra = em.merge(ra);
         }
         em.remove(ra);
+        permissionCache.invalidate();
         /**
          * @todo update permissionModificationTime here.
          */
@@ -170,6 +177,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 
             reindexSet.add(ra.getDefinitionPoint());
         }
+        permissionCache.invalidate();
 
         indexAsync.indexRoles(reindexSet);
     }
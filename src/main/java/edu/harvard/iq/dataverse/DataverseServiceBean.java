@@ -152,6 +152,36 @@ public class DataverseServiceBean implements java.io.Serializable {
         
     }
 
+    /**
+     * Partition-aware version of {@link #findDataverseIdsForIndexing(boolean)},
+     * using the same {@code id % numPartitions = partitionId} split as
+     * {@link #findAllOrSubset(long, long, boolean)}.
+     *
+     * @param numPartitions
+     * @param partitionId
+     * @param skipIndexed If true, will skip any dataverses that have a indexTime set
+     * @param indexedBefore If not null, will skip any dataverses indexed at or
+     * after this time (used to resume an interrupted "index all" run)
+     * @return ids of the dataverses to index, in ascending order
+     */
+    public List<Long> findDataverseIdsForIndexing(long numPartitions, long partitionId, boolean skipIndexed, Timestamp indexedBefore) {
+        if (numPartitions < 1) {
+            numPartitions = 1;
+        }
+        String skipClause = skipIndexed ? "AND o.indexTime IS null " : "";
+        String resumeClause = indexedBefore != null ? "AND (o.indexTime IS null OR o.indexTime < :indexedBefore) " : "";
+        TypedQuery<Long> typedQuery = em.createQuery("SELECT o.id FROM Dataverse o WHERE MOD( o.id, :numPartitions) = :partitionId "
+                + skipClause
+                + resumeClause
+                + "ORDER BY o.id", Long.class);
+        typedQuery.setParameter("numPartitions", numPartitions);
+        typedQuery.setParameter("partitionId", partitionId);
+        if (indexedBefore != null) {
+            typedQuery.setParameter("indexedBefore", indexedBefore);
+        }
+        return typedQuery.getResultList();
+    }
+
     public List<Dataverse> findByOwnerId(Long ownerId) {
         return em.createNamedQuery("Dataverse.findByOwnerId").setParameter("ownerId", ownerId).getResultList();
     }
@@ -652,55 +682,6 @@ public class DataverseServiceBean implements java.io.Serializable {
     }
     
     
-    public void populateDvSearchCard(SolrSearchResult solrSearchResult) {
-  
-        Long dvId = solrSearchResult.getEntityId();
-        
-        if (dvId == null) {
-            return;
-        }
-        
-        Long parentDvId = null;
-        String parentId = solrSearchResult.getParent().get("id");
-        if (parentId != null) {
-            try {
-                parentDvId = Long.parseLong(parentId);
-            } catch (NumberFormatException ex) {
-                parentDvId = null;
-            }
-        }
-        
-        Object[] searchResult;
-        
-        try {
-            if (parentDvId == null) {
-                searchResult = (Object[]) em.createNativeQuery("SELECT t0.AFFILIATION, t0.ALIAS FROM DATAVERSE t0 WHERE t0.ID = " + dvId).getSingleResult();
-            } else {
-                searchResult = (Object[]) em.createNativeQuery("SELECT t0.AFFILIATION, t0.ALIAS, t2.ALIAS FROM DATAVERSE t0, DVOBJECT t1, DATAVERSE t2, DVOBJECT t3 WHERE (t0.ID = t1.ID) AND (t1.OWNER_ID = t3.ID) AND (t2.ID = t3.ID) AND (t0.ID = " + dvId + ")").getSingleResult();
-            }
-        } catch (Exception ex) {
-            return;
-        }
-
-        if (searchResult == null) {
-            return;
-        }
-        
-        if (searchResult[0] != null) {
-            solrSearchResult.setDataverseAffiliation((String) searchResult[0]);
-        }
-
-        if (searchResult[1] != null) {
-            solrSearchResult.setDataverseAlias((String) searchResult[1]);
-        }
-        
-        if (parentDvId != null) {
-            if (searchResult[2] != null) {
-                solrSearchResult.setDataverseParentAlias((String) searchResult[2]);
-            }
-        }
-    }
-    
     // function to recursively find ids of all children of a dataverse that 
     // are also of type dataverse
     public List<Long> findAllDataverseDataverseChildren(Long dvId) {
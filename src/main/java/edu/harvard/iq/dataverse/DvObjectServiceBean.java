@@ -1,8 +1,12 @@
 package edu.harvard.iq.dataverse;
 
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -10,6 +14,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import static javax.ejb.TransactionAttributeType.REQUIRES_NEW;
@@ -19,6 +24,7 @@ import javax.persistence.NoResultException;
 import javax.persistence.NonUniqueResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.sql.DataSource;
 import org.apache.commons.lang.StringUtils;
 import org.ocpsoft.common.util.Strings;
 
@@ -35,6 +41,9 @@ public class DvObjectServiceBean implements java.io.Serializable {
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
     
+    @Resource(lookup = "jdbc/VDCNetDS")
+    private DataSource dataSource;
+    
     private static final Logger logger = Logger.getLogger(DvObjectServiceBean.class.getCanonicalName());
     /**
      * @param dvoc The object we check
@@ -57,6 +66,22 @@ public class DvObjectServiceBean implements java.io.Serializable {
         }
     }
 
+    /**
+     * @param ids the ids of the objects
+     * @return the objects found, by id, with one query
+     */
+    public Map<Long, DvObject> findDvObjects(Collection<Long> ids) {
+        Map<Long, DvObject> dvObjects = new HashMap<>();
+        if (ids != null && !ids.isEmpty()) {
+            for (DvObject dvObject : em.createNamedQuery("DvObject.findByIds", DvObject.class)
+                    .setParameter("ids", ids)
+                    .getResultList()) {
+                dvObjects.put(dvObject.getId(), dvObject);
+            }
+        }
+        return dvObjects;
+    }
+
     public List<DvObject> findAll() {
         return em.createNamedQuery("DvObject.findAll", DvObject.class).getResultList();
     }
@@ -127,6 +152,29 @@ public class DvObjectServiceBean implements java.io.Serializable {
         return savedDvObject;
     }
 
+    /**
+     * Sets the content index times of the given objects, whose Solr documents
+     * have been sent. A plain JDBC batch, rather than a bulk update through the
+     * entity manager, which would invalidate the whole shared cache of the
+     * persistence provider; only the objects updated are evicted from it.
+     *
+     * @param indexTimes The index times, by object id.
+     */
+    public void updateContentIndexTimes(Map<Long, Timestamp> indexTimes) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement update = connection.prepareStatement("UPDATE dvobject SET indextime = ? WHERE id = ?")) {
+            for (Map.Entry<Long, Timestamp> indexTime : indexTimes.entrySet()) {
+                update.setTimestamp(1, indexTime.getValue());
+                update.setLong(2, indexTime.getKey());
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+        for (Long id : indexTimes.keySet()) {
+            em.getEntityManagerFactory().getCache().evict(DvObject.class, id);
+        }
+    }
+
     /**
      * @param dvObject
      * @return 
@@ -165,6 +213,20 @@ public class DvObjectServiceBean implements java.io.Serializable {
         return numRowsUpdated;
     }
     
+    /**
+     * Clears the index times of the objects given, so that the index status
+     * check and "continue" reindexing see them as not indexed. Runs in a
+     * transaction of its own, since it is called when their documents could
+     * not be sent to Solr, which may be after their index times were set by
+     * an earlier indexing.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public int clearIndexTimes(Collection<Long> dvObjectIds) {
+        Query clearIndexTimes = em.createQuery("UPDATE DvObject o SET o.indexTime = NULL, o.permissionIndexTime = NULL WHERE o.id IN :dvObjectIds");
+        clearIndexTimes.setParameter("dvObjectIds", dvObjectIds);
+        return clearIndexTimes.executeUpdate();
+    }
+    
     private String getDvObjectIdListClause(List<Long> dvObjectIdList){
         if (dvObjectIdList == null){
             return null;
@@ -1,6 +1,8 @@
 package edu.harvard.iq.dataverse;
 
+import edu.harvard.iq.dataverse.search.SearchConfigurationService;
 import java.util.List;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
@@ -18,9 +20,11 @@ public class MetadataBlockServiceBean {
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
     
-    
+    @EJB
+    SearchConfigurationService searchConfigurationService;
     
     public MetadataBlock save(MetadataBlock mdb) {
+       searchConfigurationService.invalidate();
        return em.merge(mdb);
     }   
     
@@ -0,0 +1,346 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * The shared tier of the permission cache of {@link PermissionServiceBean}:
+ * the permissions granted by role assignments to a set of role assignees (a
+ * user and the groups it is in) over a {@link DvObject}, keyed by the
+ * identifiers of the role assignees and the id of the object. The
+ * permissions inferred from the state of the object (e.g. the download of the
+ * files of a published dataset) are not cached.
+ *
+ * The cache holds at most {@code :PermissionCacheSize} entries, each for at
+ * most {@code :PermissionCacheTtlSeconds}. It is cleared when role
+ * assignments, roles, groups or the permission roots of the objects change on
+ * this server. The changes made on other servers of a cluster (or directly in
+ * the database) are picked up through the {@code permission} version stamp in
+ * the {@code cacheversion} table, which triggers on those tables bump when the
+ * changes are committed: {@link PermissionServiceBean} checks it once per
+ * request, before it uses the cache (see {@link #checkVersion()}), and the
+ * whole cache is cleared when it has changed. A second version stamp,
+ * {@code searchpermission}, is bumped by the servers that send permission
+ * documents to Solr, for the cached permission filters of the searches (see
+ * {@link edu.harvard.iq.dataverse.search.PermissionFilterQueryService}).
+ *
+ * The request tier ({@link PermissionRequestCache}) is cleared along with it:
+ * every invalidation starts a new "generation" of the cache, and entries of an
+ * older generation are ignored.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class PermissionCacheService {
+
+    public static final int DEFAULT_TTL_SECONDS = 60;
+    public static final int DEFAULT_SIZE = 10000;
+    /**
+     * How often the version stamp is checked outside of requests (e.g. in
+     * timers and asynchronous jobs, which may check many objects in a row).
+     */
+    static final long VERSION_CHECK_INTERVAL_MILLIS = 1000L;
+
+    private static final Logger logger = Logger.getLogger(PermissionCacheService.class.getCanonicalName());
+
+    @EJB
+    SystemConfig systemConfig;
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Resource(lookup = "jdbc/VDCNetDS")
+    DataSource dataSource;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private static class CachedPermissions {
+        final Set<Permission> permissions;
+        final long expires;
+
+        CachedPermissions(Set<Permission> permissions, long expires) {
+            this.permissions = permissions;
+            this.expires = expires;
+        }
+    }
+
+    private volatile long ttlMillis = DEFAULT_TTL_SECONDS * 1000L;
+    private volatile int maxSize = DEFAULT_SIZE;
+
+    // least recently used first:
+    private final Map<String, CachedPermissions> entries = new LinkedHashMap<String, CachedPermissions>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPermissions> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * The version stamp of the permissions as of the last check ({@code null}
+     * before the first one).
+     */
+    private volatile Long version = null;
+    private volatile long versionChecked = 0L;
+    /**
+     * The version stamp of the permission documents in Solr, bumped by every
+     * server that sends some, as of the last check.
+     */
+    private volatile Long searchVersion = null;
+    private volatile long searchPermissionsVisibleTime = 0L;
+
+    private final AtomicLong requestHits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        refreshSettings();
+    }
+
+    /**
+     * Re-reads the size and time-to-live of the cache, so changes take effect
+     * without a restart.
+     */
+    @Schedule(hour = "*", minute = "*", persistent = false)
+    public void refreshSettings() {
+        ttlMillis = systemConfig.getPermissionCacheTtlSeconds() * 1000L;
+        maxSize = systemConfig.getPermissionCacheSize();
+        if (ttlMillis <= 0 || maxSize <= 0) {
+            synchronized (entries) {
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Clears the cache if the permissions have changed since the last check,
+     * on this server or on any other. To be called before the cache is used in
+     * a request.
+     */
+    public void checkVersion() {
+        long current = 0L;
+        long currentSearch = 0L;
+        try {
+            List<?> versions = em.createNativeQuery("SELECT name, version FROM cacheversion WHERE name IN ('permission', 'searchpermission')").getResultList();
+            for (Object row : versions) {
+                Object[] nameAndVersion = (Object[]) row;
+                long value = ((Number) nameAndVersion[1]).longValue();
+                if ("permission".equals(nameAndVersion[0])) {
+                    current = value;
+                } else {
+                    currentSearch = value;
+                }
+            }
+        } catch (PersistenceException pe) {
+            // (the cache cannot be trusted without knowing the version)
+            logger.log(Level.WARNING, "Failed to check the version of the permissions", pe);
+            version = null;
+            searchVersion = null;
+            clear();
+            return;
+        }
+        versionChecked = System.currentTimeMillis();
+        Long previous = version;
+        version = current;
+        if (previous != null && previous != current) {
+            logger.fine("The permissions have changed; clearing the permission cache");
+            clear();
+            remoteInvalidations.incrementAndGet();
+        }
+        Long previousSearch = searchVersion;
+        searchVersion = currentSearch;
+        if (previousSearch != null && previousSearch != currentSearch) {
+            // (sent by another server, and visible to searches by then at the latest)
+            searchPermissionsVisibleTime = versionChecked + Math.max(systemConfig.getSolrCommitWithinMillis(), 0);
+        }
+    }
+
+    /**
+     * Tells the other servers that this one has sent permission documents to
+     * Solr, by bumping the {@code searchpermission} version stamp (see
+     * {@link #getSearchPermissionsVisibleTime()}).
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void searchPermissionsChanged() {
+        // (a plain JDBC update: a native update through the entity manager
+        // would invalidate the whole shared cache of the persistence provider)
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement update = connection.prepareStatement("INSERT INTO cacheversion (name, version) VALUES ('searchpermission', 1) "
+                        + "ON CONFLICT (name) DO UPDATE SET version = cacheversion.version + 1")) {
+            update.executeUpdate();
+        } catch (SQLException sqle) {
+            logger.log(Level.WARNING, "Failed to bump the version of the search permissions", sqle);
+        }
+    }
+
+    /**
+     * @return The time by which the permission documents that other servers
+     * have sent to Solr, as far as this one knows (i.e. as of the last
+     * {@link #checkVersion()}), are visible to searches. What was read from
+     * the permission documents before then may be out of date.
+     */
+    public long getSearchPermissionsVisibleTime() {
+        return searchPermissionsVisibleTime;
+    }
+
+    /**
+     * @return The {@code permission} version stamp as of the last check;
+     * {@code null} before the first one, or if it failed.
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    /**
+     * Same as {@link #checkVersion()}, unless the version was checked less than
+     * {@link #VERSION_CHECK_INTERVAL_MILLIS} ago; for the checks made outside
+     * of requests.
+     */
+    public void checkVersionIfStale() {
+        if (version == null || System.currentTimeMillis() - versionChecked >= VERSION_CHECK_INTERVAL_MILLIS) {
+            checkVersion();
+        }
+    }
+
+    /**
+     * @return The current generation of the cache; values computed before an
+     * invalidation belong to an older generation, and are not cached.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return The cached permissions, or {@code null} (a miss).
+     */
+    public Set<Permission> get(String key) {
+        CachedPermissions entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        sharedHits.incrementAndGet();
+        return entry.permissions;
+    }
+
+    /**
+     * Caches the permissions, unless the cache has been invalidated since the
+     * given generation (i.e. since they were computed).
+     */
+    public void put(String key, Set<Permission> permissions, long computedGeneration) {
+        long ttl = ttlMillis;
+        if (ttl <= 0 || maxSize <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            if (generation.get() == computedGeneration) {
+                entries.put(key, new CachedPermissions(permissions, System.currentTimeMillis() + ttl));
+            }
+        }
+    }
+
+    public void recordRequestHit() {
+        requestHits.incrementAndGet();
+    }
+
+    /**
+     * Clears the cache, right away and once again after the current
+     * transaction commits, so that the permissions computed in between, from
+     * the data as it was before the transaction, are not kept either.
+     */
+    public void invalidate() {
+        clear();
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        clear();
+                    }
+                }
+            });
+        }
+    }
+
+    private void clear() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    public long getRequestHits() {
+        return requestHits.get();
+    }
+
+    public long getSharedHits() {
+        return sharedHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public JsonObjectBuilder getStatus() {
+        long hits = requestHits.get() + sharedHits.get();
+        long lookups = hits + misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return Json.createObjectBuilder()
+                .add("requestHits", requestHits.get())
+                .add("sharedHits", sharedHits.get())
+                .add("misses", misses.get())
+                .add("hitRate", lookups == 0 ? 0.0 : hits / (double) lookups)
+                .add("invalidations", invalidations.get())
+                .add("remoteInvalidations", remoteInvalidations.get())
+                .add("size", size)
+                .add("maxSize", maxSize)
+                .add("ttlSeconds", ttlMillis / 1000L);
+    }
+
+}
@@ -0,0 +1,55 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.enterprise.context.RequestScoped;
+
+/**
+ * The request tier of the permission cache of {@link PermissionServiceBean}:
+ * the permissions granted by role assignments over each {@link DvObject}
+ * checked during the request, keyed by the user, its IP address and the id
+ * of the object, so that the groups of the user are only looked up once per
+ * object and request. See {@link PermissionCacheService}.
+ */
+@RequestScoped
+public class PermissionRequestCache {
+
+    private final Map<String, Set<Permission>> permissions = new HashMap<>();
+    private long generation = -1L;
+    private boolean versionChecked = false;
+
+    /**
+     * @param currentGeneration The current generation of the shared cache;
+     * the entries of an older one are discarded.
+     * @return The cached permissions, or {@code null}.
+     */
+    public Set<Permission> get(String key, long currentGeneration) {
+        if (generation != currentGeneration) {
+            permissions.clear();
+            generation = currentGeneration;
+            return null;
+        }
+        return permissions.get(key);
+    }
+
+    /**
+     * @return Whether the version stamp of the permissions has already been
+     * checked in this request (see {@link PermissionCacheService#checkVersion()}).
+     */
+    public boolean isVersionChecked() {
+        return versionChecked;
+    }
+
+    public void setVersionChecked(boolean versionChecked) {
+        this.versionChecked = versionChecked;
+    }
+
+    public void put(String key, Set<Permission> granted, long computedGeneration) {
+        if (generation == computedGeneration) {
+            permissions.put(key, granted);
+        }
+    }
+
+}
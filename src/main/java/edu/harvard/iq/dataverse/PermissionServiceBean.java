@@ -18,8 +18,10 @@ import java.util.Set;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.enterprise.context.ContextNotActiveException;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.json.JsonObjectBuilder;
 import java.util.HashSet;
 import java.util.List;
 import javax.persistence.EntityManager;
@@ -30,10 +32,14 @@ import edu.harvard.iq.dataverse.engine.command.exception.IllegalCommandException
 import edu.harvard.iq.dataverse.engine.command.impl.PublishDatasetCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.UpdateDatasetVersionCommand;
 import edu.harvard.iq.dataverse.util.BundleUtil;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import static java.util.stream.Collectors.toList;
@@ -58,6 +64,10 @@ public class PermissionServiceBean {
                     .filter(Permission::requiresAuthenticatedUser)
                     .collect(Collectors.toList()));
 
+    // The most files whose role assignments are looked up in one query (their 
+    // ids are bound one by one, in the IN list of the query): 
+    static final int ROLE_ASSIGNMENT_LOOKUP_BATCH_SIZE = 1000;
+
     @EJB
     BuiltinUserServiceBean userService;
 
@@ -88,6 +98,12 @@ public class PermissionServiceBean {
     @Inject
     DataverseRequestServiceBean dvRequestService;
 
+    @EJB
+    PermissionCacheService permissionCache;
+
+    @Inject
+    PermissionRequestCache requestCache;
+
     /**
      * A request-level permission query (e.g includes IP ras).
      */
@@ -316,10 +332,8 @@ public class PermissionServiceBean {
                 return false;
             }
         }
-        
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(user);
-        return hasGroupPermissionsFor(ras, dvo, required);
+
+        return grantedPermissionsFor(req, dvo).containsAll(required);
     }
 
     public boolean hasPermissionsFor(RoleAssignee ra, DvObject dvo, Set<Permission> required) {
@@ -339,17 +353,8 @@ public class PermissionServiceBean {
         if (required.isEmpty()) {
             return true;
         }
-        
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
-        ras.add(ra);
-        return hasGroupPermissionsFor(ras, dvo, required);
-    }
-    
-    private boolean hasGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> required) {
-        for (RoleAssignment asmnt : assignmentsFor(ras, dvo)) {
-            required.removeAll(asmnt.getRole().permissions());
-        }
-        return required.isEmpty();
+
+        return grantedPermissionsFor(ra, dvo).containsAll(required);
     }
 
     /**
@@ -368,9 +373,7 @@ public class PermissionServiceBean {
         Set<Permission> permissions = getInferredPermissions(dvo);
 
         // Add permissions gained from ras
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(req.getUser());
-        addGroupPermissionsFor(ras, dvo, permissions);
+        permissions.addAll(grantedPermissionsFor(req, dvo));
 
         if (!req.getUser().isAuthenticated()) {
             permissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
@@ -378,6 +381,95 @@ public class PermissionServiceBean {
         return permissions;
     }
 
+    /**
+     * Finds all the permissions the {@link User} in {@code req} has over each
+     * of the {@code files}, in the context of {@code req}; the batch version
+     * of {@link #permissionsFor(DataverseRequest, DvObject)}, for listings and
+     * multi-file downloads. The groups of the user and the permissions it has
+     * over the datasets are looked up once per dataset, and the roles
+     * assigned on the files themselves with one query per dataset (per
+     * {@link #ROLE_ASSIGNMENT_LOOKUP_BATCH_SIZE} files), rather than for every
+     * file. The results are cached like those of the single
+     * file checks, so these find them for the rest of the request.
+     *
+     * @param req
+     * @param files
+     * @return Permissions of {@code req.getUser()} over each of the files.
+     */
+    public Map<DataFile, Set<Permission>> permissionsFor(DataverseRequest req, Collection<DataFile> files) {
+        Map<DataFile, Set<Permission>> permissions = new HashMap<>();
+        if (req.getUser().isSuperuser()) {
+            for (DataFile df : files) {
+                permissions.put(df, EnumSet.allOf(Permission.class));
+            }
+            return permissions;
+        }
+
+        Map<Dataset, List<DataFile>> filesByDataset = new LinkedHashMap<>();
+        for (DataFile df : files) {
+            if (df.getId() == null || df.getOwner() == null) {
+                permissions.put(df, permissionsFor(req, df));
+            } else {
+                filesByDataset.computeIfAbsent(df.getOwner(), ds -> new ArrayList<>()).add(df);
+            }
+        }
+
+        PermissionRequestCache currentRequest = permissionCache == null ? null : getCheckedRequestCache();
+        long generation = permissionCache == null ? 0L : permissionCache.getGeneration();
+        for (Map.Entry<Dataset, List<DataFile>> entry : filesByDataset.entrySet()) {
+            Dataset dataset = entry.getKey();
+            Map<DataFile, Set<Permission>> granted = new HashMap<>();
+            List<DvObject> uncached = new ArrayList<>();
+            for (DataFile df : entry.getValue()) {
+                Set<Permission> cached = currentRequest == null ? null : currentRequest.get(requestKey(req, df), generation);
+                if (cached != null) {
+                    permissionCache.recordRequestHit();
+                    granted.put(df, cached);
+                } else {
+                    uncached.add(df);
+                }
+            }
+
+            if (!uncached.isEmpty()) {
+                // the permission ancestors of a file are the file and those of its dataset:
+                Set<Permission> grantedOnDataset = grantedPermissionsFor(req, dataset);
+                Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dataset));
+                ras.add(req.getUser());
+                Map<Long, Set<Permission>> grantedOnFiles = new HashMap<>();
+                for (int from = 0; from < uncached.size(); from += ROLE_ASSIGNMENT_LOOKUP_BATCH_SIZE) {
+                    List<DvObject> batch = uncached.subList(from, Math.min(uncached.size(), from + ROLE_ASSIGNMENT_LOOKUP_BATCH_SIZE));
+                    for (RoleAssignment asmnt : roleService.directRoleAssignments(ras, batch)) {
+                        grantedOnFiles.computeIfAbsent(asmnt.getDefinitionPoint().getId(), id -> EnumSet.noneOf(Permission.class))
+                                .addAll(asmnt.getRole().permissions());
+                    }
+                }
+                for (DvObject dvo : uncached) {
+                    Set<Permission> fileGranted = EnumSet.noneOf(Permission.class);
+                    fileGranted.addAll(grantedOnDataset);
+                    fileGranted.addAll(grantedOnFiles.getOrDefault(dvo.getId(), Collections.emptySet()));
+                    fileGranted = Collections.unmodifiableSet(fileGranted);
+                    if (currentRequest != null) {
+                        currentRequest.put(requestKey(req, dvo), fileGranted, generation);
+                    }
+                    if (permissionCache != null) {
+                        permissionCache.put(sharedKey(ras, dvo), fileGranted, generation);
+                    }
+                    granted.put((DataFile) dvo, fileGranted);
+                }
+            }
+
+            for (DataFile df : entry.getValue()) {
+                Set<Permission> filePermissions = getInferredPermissions(df);
+                filePermissions.addAll(granted.get(df));
+                if (!req.getUser().isAuthenticated()) {
+                    filePermissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
+                }
+                permissions.put(df, filePermissions);
+            }
+        }
+        return permissions;
+    }
+
     /**
      * Returns the set of permission a user/group has over a dataverse object.
      * This method takes into consideration group memberships as well, but does
@@ -394,9 +486,7 @@ public class PermissionServiceBean {
 
         Set<Permission> permissions = getInferredPermissions(dvo);
 
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
-        ras.add(ra);
-        addGroupPermissionsFor(ras, dvo, permissions);
+        permissions.addAll(grantedPermissionsFor(ra, dvo));
 
         if ((ra instanceof User) && (!((User) ra).isAuthenticated())) {
             permissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
@@ -404,10 +494,131 @@ public class PermissionServiceBean {
         return permissions;
     }
     
-    private void addGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> permissions) {
+    /**
+     * The permissions granted over {@code dvo} by the roles assigned to the
+     * user of {@code req} and to the groups it is in, in the context of
+     * {@code req}. Cached for the rest of the request, and in
+     * {@link PermissionCacheService}.
+     *
+     * @return An unmodifiable set of permissions.
+     */
+    private Set<Permission> grantedPermissionsFor(DataverseRequest req, DvObject dvo) {
+        return grantedPermissionsFor(requestKey(req, dvo), () -> {
+            Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
+            ras.add(req.getUser());
+            return ras;
+        }, dvo);
+    }
+
+    /**
+     * The permissions granted over {@code dvo} by the roles assigned to
+     * {@code ra} and to the groups it is in (not including request-level
+     * groups).
+     *
+     * @return An unmodifiable set of permissions.
+     */
+    private Set<Permission> grantedPermissionsFor(RoleAssignee ra, DvObject dvo) {
+        String requestKey = dvo.getId() == null ? null : ra.getIdentifier() + "|" + dvo.getId();
+        return grantedPermissionsFor(requestKey, () -> {
+            Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
+            ras.add(ra);
+            return ras;
+        }, dvo);
+    }
+
+    private Set<Permission> grantedPermissionsFor(String requestKey, Supplier<Set<RoleAssignee>> rasSupplier, DvObject dvo) {
+        if (requestKey == null || permissionCache == null) {
+            // (an object that has not been saved yet, or no cache in unit tests)
+            return addGroupPermissionsFor(rasSupplier.get(), dvo, EnumSet.noneOf(Permission.class));
+        }
+
+        PermissionRequestCache currentRequest = getCheckedRequestCache();
+        long generation = permissionCache.getGeneration();
+        if (currentRequest != null) {
+            Set<Permission> cached = currentRequest.get(requestKey, generation);
+            if (cached != null) {
+                permissionCache.recordRequestHit();
+                return cached;
+            }
+        }
+
+        Set<RoleAssignee> ras = rasSupplier.get();
+        String sharedKey = sharedKey(ras, dvo);
+        Set<Permission> granted = permissionCache.get(sharedKey);
+        if (granted == null) {
+            granted = Collections.unmodifiableSet(addGroupPermissionsFor(ras, dvo, EnumSet.noneOf(Permission.class)));
+            permissionCache.put(sharedKey, granted, generation);
+        }
+        if (currentRequest != null) {
+            currentRequest.put(requestKey, granted, generation);
+        }
+        return granted;
+    }
+
+    private static String requestKey(DataverseRequest req, DvObject dvo) {
+        return dvo.getId() == null ? null
+                : req.getUser().getIdentifier() + "@" + req.getSourceAddress() + "|" + dvo.getId();
+    }
+
+    private static String sharedKey(Set<RoleAssignee> ras, DvObject dvo) {
+        return ras.stream().map(RoleAssignee::getIdentifier).sorted()
+                .collect(Collectors.joining(",", "", "|" + dvo.getId()));
+    }
+
+    /**
+     * Checks that the cached permissions are still current, once per request
+     * (or, outside of requests, at most every second), and returns the
+     * request-scoped cache.
+     *
+     * @return The request-scoped cache, or {@code null} outside of a request.
+     */
+    private PermissionRequestCache getCheckedRequestCache() {
+        PermissionRequestCache currentRequest = getRequestCache();
+        if (currentRequest == null) {
+            permissionCache.checkVersionIfStale();
+        } else if (!currentRequest.isVersionChecked()) {
+            permissionCache.checkVersion();
+            currentRequest.setVersionChecked(true);
+        }
+        return currentRequest;
+    }
+
+    /**
+     * @return The request-scoped cache, or {@code null} outside of a request
+     * (e.g. in timers and asynchronous jobs).
+     */
+    private PermissionRequestCache getRequestCache() {
+        if (requestCache == null) {
+            return null;
+        }
+        try {
+            // (touching the proxy checks that there is a request context)
+            requestCache.toString();
+            return requestCache;
+        } catch (ContextNotActiveException cnae) {
+            return null;
+        }
+    }
+
+    private Set<Permission> addGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> permissions) {
         for (RoleAssignment asmnt : assignmentsFor(ras, dvo)) {
             permissions.addAll(asmnt.getRole().permissions());
         }
+        return permissions;
+    }
+
+    /**
+     * Discards the cached permissions; to be called whenever role
+     * assignments, roles, group memberships or permission roots change.
+     */
+    public void permissionsChanged() {
+        if (permissionCache != null) {
+            permissionCache.invalidate();
+        }
+    }
+
+    public JsonObjectBuilder getCacheStatus() {
+        return permissionCache.getStatus();
     }
 
 
@@ -441,14 +652,9 @@ public class PermissionServiceBean {
             DataFile df = (DataFile) dvo;
 
             if (!df.isRestricted()) {
-                if (df.getOwner().getReleasedVersion() != null) {
-                    if (df.getOwner().getReleasedVersion().getFileMetadatas() != null) {
-                        for (FileMetadata fm : df.getOwner().getReleasedVersion().getFileMetadatas()) {
-                            if (df.equals(fm.getDataFile())) {
-                                return true;
-                            }
-                        }
-                    }
+                DatasetVersion releasedVersion = df.getOwner().getReleasedVersion();
+                if (releasedVersion != null) {
+                    return releasedVersion.containsDataFile(df);
                 }
             }
         }
@@ -1,7 +1,11 @@
 package edu.harvard.iq.dataverse;
+import edu.harvard.iq.dataverse.authorization.ApiTokenCacheService;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.userdata.UserUtil;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -11,12 +15,14 @@ import java.sql.Timestamp;
 import java.util.Date;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.sql.DataSource;
 import org.apache.commons.lang.StringUtils;
 import org.ocpsoft.common.util.Strings;
 
@@ -34,6 +40,11 @@ public class UserServiceBean {
     EntityManager em;
     
     @EJB IndexServiceBean indexService;
+    
+    @EJB ApiTokenCacheService apiTokenCache;
+    
+    @Resource(lookup = "jdbc/VDCNetDS")
+    DataSource dataSource;
 
     public AuthenticatedUser find(Object pk) {
         return (AuthenticatedUser) em.find(AuthenticatedUser.class, pk);
@@ -534,8 +545,22 @@ public class UserServiceBean {
 
     public AuthenticatedUser updateLastApiUseTime(AuthenticatedUser user) {
         //assumes that AuthenticatedUser user already exists
-        user.setLastApiUseTime(new Timestamp(new Date().getTime()));
-        return save(user);
+        // (written at most once a minute per user, with a plain JDBC update of
+        // the one column: a merge of the user, or a bulk JPQL update, would
+        // make the persistence provider drop its cached copies of the users
+        // on every API call)
+        if (!apiTokenCache.isLastApiUseDue(user.getId())) {
+            return user;
+        }
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement update = connection.prepareStatement("UPDATE authenticateduser SET lastapiusetime = ? WHERE id = ?")) {
+            update.setTimestamp(1, new Timestamp(new Date().getTime()));
+            update.setLong(2, user.getId());
+            update.executeUpdate();
+        } catch (SQLException sqle) {
+            logger.log(Level.WARNING, "Failed to record the last API use of user " + user.getId(), sqle);
+        }
+        return user;
     }
 
 }
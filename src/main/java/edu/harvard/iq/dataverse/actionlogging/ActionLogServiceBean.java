@@ -1,14 +1,17 @@
 package edu.harvard.iq.dataverse.actionlogging;
 
 import java.util.Date;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.json.JsonObjectBuilder;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
 /**
- * A service bean that persists {@link ActionLogRecord}s to the DB.
+ * A service bean that persists {@link ActionLogRecord}s to the DB, through
+ * the queue of the {@link ActionLogWriter} unless it is turned off.
  * @author michael
  */
 @Stateless
@@ -16,6 +19,9 @@ public class ActionLogServiceBean {
     
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
+
+    @EJB
+    ActionLogWriter actionLogWriter;
     
     /**
      * Log the record. Set default values.
@@ -30,12 +36,20 @@ public class ActionLogServiceBean {
                 && rec.getActionType() != ActionLogRecord.ActionType.Command ) {
             rec.setActionResult(ActionLogRecord.Result.OK);
         }
-        em.persist(rec);
+        if ( ! actionLogWriter.enqueue(rec) ) {
+            em.persist(rec);
+        }
+    }
+
+    public JsonObjectBuilder getQueueStatus() {
+        return actionLogWriter.getStatus();
     }
 
     //Switches all actions from one identifier to another identifier, via native query
     //This is needed for when we change a userIdentifier or merge one account into another
     public void changeUserIdentifierInHistory(String oldIdentifier, String newIdentifier) {
+        // the records still in the queue are changed too:
+        actionLogWriter.flush();
         em.createNativeQuery(
                 "UPDATE actionlogrecord "
                         + "SET useridentifier='"+newIdentifier+"', "
@@ -0,0 +1,258 @@
+package edu.harvard.iq.dataverse.actionlogging;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.sql.DataSource;
+
+/**
+ * Writes the {@link ActionLogRecord}s in the background, so that logging an
+ * action does not add a database insert to every command and API call.
+ *
+ * {@link ActionLogServiceBean#log(ActionLogRecord)} puts the records in a
+ * bounded queue, of {@code :ActionLogQueueSize} records, which a single thread
+ * drains, inserting up to {@link #BATCH_SIZE} records at a time with a JDBC
+ * batch. When the queue is full, callers wait for room in it, or, if
+ * {@code :ActionLogQueueFullPolicy} is "drop", the record is dropped and
+ * counted. What is left in the queue is written when the application stops.
+ * A queue size of 0 turns the queue off: the records are then persisted
+ * right away, in a transaction of their own, as before.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class ActionLogWriter {
+
+    private static final Logger logger = Logger.getLogger(ActionLogWriter.class.getCanonicalName());
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    static final int BATCH_SIZE = 500;
+
+    static final String INSERT = "INSERT INTO actionlogrecord "
+            + "(id, actionresult, actionsubtype, actiontype, endtime, info, starttime, useridentifier) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Resource(lookup = "jdbc/VDCNetDS")
+    DataSource dataSource;
+
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
+
+    @EJB
+    SystemConfig systemConfig;
+
+    private BlockingQueue<ActionLogRecord> queue;
+    private volatile boolean dropWhenFull = false;
+    private volatile boolean running = false;
+    private Thread writerThread;
+    /**
+     * Held while a batch is taken from the queue and written, so that
+     * {@link #flush()} returns only once everything queued before it is in
+     * the database.
+     */
+    private final Object writeLock = new Object();
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong writeMillis = new AtomicLong();
+    private volatile long lastWriteMillis = 0L;
+
+    @PostConstruct
+    public void init() {
+        int queueSize = systemConfig.getActionLogQueueSize();
+        refreshSettings();
+        if (queueSize > 0) {
+            queue = new LinkedBlockingQueue<>(queueSize);
+            running = true;
+            writerThread = managedThreadFactory.newThread(this::drain);
+            writerThread.setName("action-log-writer");
+            writerThread.start();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Re-reads the queue-full policy, so changes take effect without a
+     * restart. (Changes to the size of the queue need one.)
+     */
+    @Schedule(hour = "*", minute = "*", persistent = false)
+    public void refreshSettings() {
+        dropWhenFull = systemConfig.isActionLogDropWhenQueueFull();
+    }
+
+    /**
+     * Queues the record to be written.
+     *
+     * @param rec
+     * @return {@code false} if the queue is off, and the caller should write
+     * the record itself.
+     */
+    public boolean enqueue(ActionLogRecord rec) {
+        if (queue == null) {
+            return false;
+        }
+        if (rec.getId() == null) {
+            rec.setId(UUID.randomUUID().toString());
+        }
+        if (dropWhenFull || !running) {
+            if (!queue.offer(rec)) {
+                dropped.incrementAndGet();
+                logger.log(Level.FINE, "The action log queue is full; dropped {0}", rec);
+                return true;
+            }
+        } else {
+            try {
+                queue.put(rec);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+                return true;
+            }
+        }
+        queued.incrementAndGet();
+        return true;
+    }
+
+    private void drain() {
+        while (running) {
+            try {
+                ActionLogRecord first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    synchronized (writeLock) {
+                        List<ActionLogRecord> batch = new ArrayList<>(BATCH_SIZE);
+                        batch.add(first);
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                        write(batch);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                // stopping; close() writes what is left
+                return;
+            } catch (RuntimeException re) {
+                logger.log(Level.SEVERE, "Unexpected error in the action log writer", re);
+            }
+        }
+    }
+
+    /**
+     * Writes everything that is queued now, in the caller's thread.
+     */
+    public void flush() {
+        if (queue == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            List<ActionLogRecord> batch = new ArrayList<>(BATCH_SIZE);
+            while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    void write(List<ActionLogRecord> batch) {
+        long start = System.currentTimeMillis();
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement insert = connection.prepareStatement(INSERT)) {
+            for (ActionLogRecord rec : batch) {
+                insert.setString(1, rec.getId());
+                insert.setString(2, rec.getActionResult() == null ? null : rec.getActionResult().name());
+                insert.setString(3, rec.getActionSubType());
+                insert.setString(4, rec.getActionType() == null ? null : rec.getActionType().name());
+                insert.setTimestamp(5, toTimestamp(rec.getEndTime()));
+                insert.setString(6, rec.getInfo());
+                insert.setTimestamp(7, toTimestamp(rec.getStartTime()));
+                insert.setString(8, rec.getUserIdentifier());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            written.addAndGet(batch.size());
+        } catch (SQLException sqle) {
+            failed.addAndGet(batch.size());
+            logger.log(Level.SEVERE, "Failed to write " + batch.size() + " action log record(s)", sqle);
+            for (ActionLogRecord rec : batch) {
+                logger.log(Level.WARNING, "Unwritten action log record: {0} user: {1} info: {2}",
+                        new Object[]{rec, rec.getUserIdentifier(), rec.getInfo()});
+            }
+        }
+        lastWriteMillis = System.currentTimeMillis() - start;
+        writeMillis.addAndGet(lastWriteMillis);
+        batches.incrementAndGet();
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+
+    public int getQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public JsonObjectBuilder getStatus() {
+        long batchCount = batches.get();
+        return Json.createObjectBuilder()
+                .add("enabled", queue != null)
+                .add("queueDepth", getQueueDepth())
+                .add("queueCapacity", queue == null ? 0 : queue.size() + queue.remainingCapacity())
+                .add("dropWhenFull", dropWhenFull)
+                .add("queued", queued.get())
+                .add("written", written.get())
+                .add("dropped", dropped.get())
+                .add("failed", failed.get())
+                .add("batches", batchCount)
+                .add("averageWriteMillis", batchCount == 0 ? 0.0 : writeMillis.get() / (double) batchCount)
+                .add("lastWriteMillis", lastWriteMillis);
+    }
+
+}
@@ -85,6 +85,8 @@ import java.math.BigDecimal;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.function.Consumer;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.faces.context.FacesContext;
 import javax.json.JsonArrayBuilder;
 import javax.persistence.TypedQuery;
@@ -96,7 +98,10 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
 
 
@@ -175,6 +180,8 @@ public class Access extends AbstractApiBean {
     PermissionsWrapper permissionsWrapper;
     @Inject
     MakeDataCountLoggingServiceBean mdcLogService;
+    @Resource
+    ManagedExecutorService managedExecutorService;
     
     
     private static final String API_KEY_HEADER = "X-Dataverse-key";    
@@ -267,7 +274,7 @@ public class Access extends AbstractApiBean {
     @Path("datafile/{fileId}")
     @GET
     @Produces({"application/xml"})
-    public DownloadInstance datafile(@PathParam("fileId") String fileId, @QueryParam("gbrecs") boolean gbrecs, @QueryParam("key") String apiToken, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context HttpServletResponse response) /*throws NotFoundException, ServiceUnavailableException, PermissionDeniedException, AuthorizationRequiredException*/ {
+    public Response datafile(@PathParam("fileId") String fileId, @QueryParam("gbrecs") boolean gbrecs, @QueryParam("key") String apiToken, @Context UriInfo uriInfo, @Context HttpHeaders headers, @Context Request request, @Context HttpServletResponse response) /*throws NotFoundException, ServiceUnavailableException, PermissionDeniedException, AuthorizationRequiredException*/ {
 
         DataFile df = findDataFileOrDieWrapper(fileId);
         GuestbookResponse gbr = null;
@@ -309,6 +316,7 @@ public class Access extends AbstractApiBean {
         DownloadInstance downloadInstance = new DownloadInstance(dInfo);
         downloadInstance.setRequestUriInfo(uriInfo);
         downloadInstance.setRequestHttpHeaders(headers);
+        downloadInstance.setFetchExecutor(managedExecutorService);
         
         if (gbr != null){
             downloadInstance.setGbr(gbr);
@@ -385,11 +393,50 @@ public class Access extends AbstractApiBean {
             // a NotFoundException.
             throw new NotFoundException("datafile access error: requested optional service (image scaling, format conversion, etc.) is not supported on this datafile.");
         } // Else - the file itself was requested or we have the info needed to invoke the service and get the derived info
+        
+        if (!serviceRequested && !df.isTabularData()) {
+            // The file is sent as it is stored, so its checksum is a strong 
+            // ETag, and ranges of it can be sent; (tabular files are sent 
+            // with a header line of variable names added)
+            EntityTag etag = df.getChecksumValue() != null && df.getChecksumType() != null
+                    ? new EntityTag(df.getChecksumType() + "-" + df.getChecksumValue()) : null;
+            Date lastModified = df.getModificationTime();
+            
+            ResponseBuilder notModified = etag != null 
+                    ? request.evaluatePreconditions(lastModified, etag) 
+                    : request.evaluatePreconditions(lastModified);
+            if (notModified != null) {
+                logger.fine("Returning 304/412 on a conditional request");
+                return notModified.tag(etag).build();
+            }
+            
+            List<ByteRange> ranges = null;
+            if (df.getFilesize() > 0 && ByteRange.isIfRangeSatisfied(headers.getHeaderString("If-Range"), etag != null ? etag.getValue() : null, lastModified)) {
+                ranges = ByteRange.parse(headers.getHeaderString("Range"), df.getFilesize());
+            }
+            if (ranges != null && ranges.isEmpty()) {
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + df.getFilesize()).build();
+            }
+            if (ranges != null) {
+                downloadInstance.setRanges(ranges);
+                // only the request for the start of the file counts as a 
+                // download, not the ones that resume it: 
+                if (ranges.get(0).getStart() > 0) {
+                    downloadInstance.setGbr(null);
+                }
+            }
+            logger.fine("Returning download instance");
+            return Response.status(ranges != null ? Response.Status.PARTIAL_CONTENT : Response.Status.OK)
+                    .entity(downloadInstance).tag(etag).lastModified(lastModified)
+                    .header("Accept-Ranges", "bytes").build();
+        }
+        
         logger.fine("Returning download instance");
         /* 
          * Provide some browser-friendly headers: (?)
          */
-        return downloadInstance;
+        return Response.ok(downloadInstance).build();
     }
     
     
@@ -604,98 +651,142 @@ public class Access extends AbstractApiBean {
                 
                 if (fileIdParams != null && fileIdParams.length > 0) {
                     logger.fine(fileIdParams.length + " tokens;");
+                    // Look up the files first, so that the ones that can be 
+                    // served can be prefetched (see DataFileZipper):
+                    DataFile[] files = new DataFile[fileIdParams.length];
+                    boolean[] authorized = new boolean[fileIdParams.length];
+                    List<DataFile> filesToZip = new ArrayList<>();
+                    List<DataFile> filesToCheck = new ArrayList<>();
                     for (int i = 0; i < fileIdParams.length; i++) {
-                        logger.fine("token: " + fileIdParams[i]);
-                        Long fileId = null;
                         try {
-                            fileId = new Long(fileIdParams[i]);
+                            logger.fine("attempting to look up file id " + fileIdParams[i]);
+                            files[i] = dataFileService.find(new Long(fileIdParams[i]));
                         } catch (NumberFormatException nfe) {
-                            fileId = null;
+                            files[i] = null;
+                        }
+                        if (files[i] != null && (files[i].isRestricted() || !files[i].isReleased())) {
+                            filesToCheck.add(files[i]);
+                        }
+                    }
+                    // The permissions on the restricted and unpublished files 
+                    // are looked up for all of them at once; isAccessAuthorized() 
+                    // then finds them in the permission cache of the request: 
+                    if (!filesToCheck.isEmpty()) {
+                        permissionService.permissionsFor(dvRequestService.getDataverseRequest(), filesToCheck);
+                        if (apiTokenUser != null) {
+                            permissionService.permissionsFor(createDataverseRequest(apiTokenUser), filesToCheck);
+                        }
+                    }
+                    for (int i = 0; i < fileIdParams.length; i++) {
+                        if (files[i] != null && isAccessAuthorized(files[i], apiToken)) {
+                            authorized[i] = true;
+                            filesToZip.add(files[i]);
                         }
-                        if (fileId != null) {
-                            logger.fine("attempting to look up file id " + fileId);
-                            DataFile file = dataFileService.find(fileId);
-                            if (file != null) {
-                                if (isAccessAuthorized(file, apiToken)) { 
+                    }
+                    int prefetchFiles = systemConfig.getZipDownloadPrefetchFiles();
+                    
+                    try {
+                        for (int i = 0; i < fileIdParams.length; i++) {
+                            logger.fine("token: " + fileIdParams[i]);
+                            Long fileId = null;
+                            try {
+                                fileId = new Long(fileIdParams[i]);
+                            } catch (NumberFormatException nfe) {
+                                fileId = null;
+                            }
+                            if (fileId != null) {
+                                DataFile file = files[i];
+                                if (file != null) {
+                                    if (authorized[i]) { 
                                     
-                                    logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
-                                    //downloadInstance.addDataFile(file);
-                                    if (gbrecs != true && file.isReleased()){
-                                        GuestbookResponse  gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
-                                        guestbookResponseService.save(gbr);
-                                        MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, file);                                        
-                                        mdcLogService.logEntry(entry);
-                                    }
+                                        logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
+                                        //downloadInstance.addDataFile(file);
+                                        if (gbrecs != true && file.isReleased()){
+                                            GuestbookResponse  gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
+                                            guestbookResponseService.save(gbr);
+                                            MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, file);                                        
+                                            mdcLogService.logEntry(entry);
+                                        }
                                     
-                                    if (zipper == null) {
-                                        // This is the first file we can serve - so we now know that we are going to be able 
-                                        // to produce some output.
-                                        zipper = new DataFileZipper(os);
-                                        zipper.setFileManifest(fileManifest);
-                                        response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
-                                        response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
-                                    }
+                                        if (zipper == null) {
+                                            // This is the first file we can serve - so we now know that we are going to be able 
+                                            // to produce some output.
+                                            zipper = new DataFileZipper(os);
+                                            zipper.setFileManifest(fileManifest);
+                                            if (prefetchFiles > 0 && filesToZip.size() > 1) {
+                                                // (the zipper has no more than prefetchFiles reads 
+                                                // running on the executor at a time)
+                                                zipper.setPrefetch(filesToZip, getOriginal, prefetchFiles, managedExecutorService);
+                                            }
+                                            response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
+                                            response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
+                                        }
                                     
-                                    long size = 0L;
-                                    // is the original format requested, and is this a tabular datafile, with a preserved original?
-                                    if (getOriginal 
-                                            && file.isTabularData() 
-                                            && !StringUtil.isEmpty(file.getDataTable().getOriginalFileFormat())) {
-                                        //This size check is probably fairly inefficient as we have to get all the AccessObjects
-                                        //We do this again inside the zipper. I don't think there is a better solution
-                                        //without doing a large deal of rewriting or architecture redo.
-                                        //The previous size checks for non-original download is still quick.
-                                        //-MAD 4.9.2
-                                        // OK, here's the better solution: we now store the size of the original file in 
-                                        // the database (in DataTable), so we get it for free. 
-                                        // However, there may still be legacy datatables for which the size is not saved. 
-                                        // so the "inefficient" code is kept, below, as a fallback solution. 
-                                        // -- L.A., 4.10
+                                        long size = 0L;
+                                        // is the original format requested, and is this a tabular datafile, with a preserved original?
+                                        if (getOriginal 
+                                                && file.isTabularData() 
+                                                && !StringUtil.isEmpty(file.getDataTable().getOriginalFileFormat())) {
+                                            //This size check is probably fairly inefficient as we have to get all the AccessObjects
+                                            //We do this again inside the zipper. I don't think there is a better solution
+                                            //without doing a large deal of rewriting or architecture redo.
+                                            //The previous size checks for non-original download is still quick.
+                                            //-MAD 4.9.2
+                                            // OK, here's the better solution: we now store the size of the original file in 
+                                            // the database (in DataTable), so we get it for free. 
+                                            // However, there may still be legacy datatables for which the size is not saved. 
+                                            // so the "inefficient" code is kept, below, as a fallback solution. 
+                                            // -- L.A., 4.10
                                         
-                                        if (file.getDataTable().getOriginalFileSize() != null) {
-                                            size = file.getDataTable().getOriginalFileSize();
+                                            if (file.getDataTable().getOriginalFileSize() != null) {
+                                                size = file.getDataTable().getOriginalFileSize();
+                                            } else {
+                                                DataAccessRequest daReq = new DataAccessRequest();
+                                                StorageIO<DataFile> storageIO = DataAccess.getStorageIO(file, daReq);
+                                                storageIO.open();
+                                                size = storageIO.getAuxObjectSize(FileUtil.SAVED_ORIGINAL_FILENAME_EXTENSION);
+
+                                                // save it permanently: 
+                                                file.getDataTable().setOriginalFileSize(size);
+                                                fileService.saveDataTable(file.getDataTable());
+                                            }
+                                            if (size == 0L){
+                                                throw new IOException("Invalid file size or accessObject when checking limits of zip file");
+                                            }
                                         } else {
-                                            DataAccessRequest daReq = new DataAccessRequest();
-                                            StorageIO<DataFile> storageIO = DataAccess.getStorageIO(file, daReq);
-                                            storageIO.open();
-                                            size = storageIO.getAuxObjectSize(FileUtil.SAVED_ORIGINAL_FILENAME_EXTENSION);
-
-                                            // save it permanently: 
-                                            file.getDataTable().setOriginalFileSize(size);
-                                            fileService.saveDataTable(file.getDataTable());
+                                            size = file.getFilesize();
                                         }
-                                        if (size == 0L){
-                                            throw new IOException("Invalid file size or accessObject when checking limits of zip file");
-                                        }
-                                    } else {
-                                        size = file.getFilesize();
-                                    }
-                                    if (sizeTotal + size < zipDownloadSizeLimit) {
-                                        sizeTotal += zipper.addFileToZipStream(file, getOriginal);
-                                    } else {
-                                        String fileName = file.getFileMetadata().getLabel();
-                                        String mimeType = file.getContentType();
+                                        if (sizeTotal + size < zipDownloadSizeLimit) {
+                                            sizeTotal += zipper.addFileToZipStream(file, getOriginal);
+                                        } else {
+                                            String fileName = file.getFileMetadata().getLabel();
+                                            String mimeType = file.getContentType();
                                         
-                                        zipper.addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + zipDownloadSizeLimit + " bytes.\r\n");
-                                    }
-                                } else if(file.isRestricted()) {
-                                    if (zipper == null) {
-                                        fileManifest = fileManifest + file.getFileMetadata().getLabel() + " IS RESTRICTED AND CANNOT BE DOWNLOADED\r\n";
+                                            zipper.addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + zipDownloadSizeLimit + " bytes.\r\n");
+                                        }
+                                    } else if(file.isRestricted()) {
+                                        if (zipper == null) {
+                                            fileManifest = fileManifest + file.getFileMetadata().getLabel() + " IS RESTRICTED AND CANNOT BE DOWNLOADED\r\n";
+                                        } else {
+                                            zipper.addToManifest(file.getFileMetadata().getLabel() + " IS RESTRICTED AND CANNOT BE DOWNLOADED\r\n");
+                                        }
                                     } else {
-                                        zipper.addToManifest(file.getFileMetadata().getLabel() + " IS RESTRICTED AND CANNOT BE DOWNLOADED\r\n");
+                                        fileId = null;
                                     }
-                                } else {
-                                    fileId = null;
-                                }
                             
-                            } if (null == fileId) {
-                                // As of now this errors out.
-                                // This is bad because the user ends up with a broken zip and manifest
-                                // This is good in that the zip ends early so the user does not wait for the results
-                                String errorMessage = "Datafile " + fileId + ": no such object available";
-                                throw new NotFoundException(errorMessage);
+                                } if (null == fileId) {
+                                    // As of now this errors out.
+                                    // This is bad because the user ends up with a broken zip and manifest
+                                    // This is good in that the zip ends early so the user does not wait for the results
+                                    String errorMessage = "Datafile " + fileId + ": no such object available";
+                                    throw new NotFoundException(errorMessage);
+                                }
                             }
                         }
+                    } finally {
+                        if (zipper != null) {
+                            zipper.close();
+                        }
                     }
                 } else {
                     throw new BadRequestException();
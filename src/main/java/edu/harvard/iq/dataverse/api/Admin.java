@@ -86,6 +86,7 @@ import edu.harvard.iq.dataverse.engine.command.impl.ChangeUserIdentifierCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.RegisterDvObjectCommand;
 import edu.harvard.iq.dataverse.ingest.IngestServiceBean;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
+import edu.harvard.iq.dataverse.storageuse.StorageUseServiceBean;
 import edu.harvard.iq.dataverse.userdata.UserListMaker;
 import edu.harvard.iq.dataverse.userdata.UserListResult;
 import edu.harvard.iq.dataverse.util.ArchiverUtil;
@@ -142,6 +143,8 @@ public class Admin extends AbstractApiBean {
         DatasetVersionServiceBean datasetVersionService;
         @EJB
         ExplicitGroupServiceBean explicitGroupService;
+        @EJB
+        StorageUseServiceBean storageUseService;
         
 
 	// Make the session available
@@ -196,6 +199,26 @@ public class Admin extends AbstractApiBean {
 		return ok("Setting " + name + " - " + lang + " deleted.");
 	}
 
+	/**
+	 * Hits, misses and invalidations of the settings cache of this server.
+	 */
+	@Path("settings/cache/status")
+	@GET
+	public Response getSettingsCacheStatus() {
+		return ok(settingsSvc.getCacheStatus());
+	}
+
+	/**
+	 * Rebuilds the storage use totals of the datasets and the dataverses from
+	 * the sizes of the files, in the background.
+	 */
+	@Path("storageuse/recompute")
+	@POST
+	public Response recomputeStorageUse() {
+		storageUseService.recompute();
+		return ok("Recompute of the storage use has begun; see the server log for its completion.");
+	}
+
 	@Path("authenticationProviderFactories")
 	@GET
 	public Response listAuthProviderFactories() {
@@ -1181,6 +1204,34 @@ public class Admin extends AbstractApiBean {
 
 	}
 
+	/**
+	 * Depth of the action log queue of this server, and the records written
+	 * and dropped.
+	 */
+	@Path("actionlog/status")
+	@GET
+	public Response getActionLogStatus() {
+		return ok(actionLogSvc.getQueueStatus());
+	}
+
+	/**
+	 * Hits, misses and invalidations of the permission cache of this server.
+	 */
+	@Path("permissions/cache/status")
+	@GET
+	public Response getPermissionCacheStatus() {
+		return ok(permissionSvc.getCacheStatus());
+	}
+
+	/**
+	 * Hits, misses and invalidations of the API token cache of this server.
+	 */
+	@Path("apiTokens/cache/status")
+	@GET
+	public Response getApiTokenCacheStatus() {
+		return ok(authSvc.getApiTokenCacheStatus());
+	}
+
 	@Path("permissions/{dvo}")
 	@GET
 	public Response findPermissonsOn(@PathParam("dvo") String dvo) {
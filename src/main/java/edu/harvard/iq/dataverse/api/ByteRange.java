@@ -0,0 +1,133 @@
+package edu.harvard.iq.dataverse.api;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A range of bytes of a file, as requested in an HTTP Range header
+ * (RFC 7233), e.g. "Range: bytes=0-499,1000-" or "Range: bytes=-500".
+ * Used by the Access API to serve partial downloads of datafiles.
+ */
+public class ByteRange {
+
+    // more ranges than this in a single request are ignored, and the whole
+    // file is sent instead:
+    static final int MAX_RANGES = 20;
+
+    private final long start;
+    private final long end;
+
+    ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return The last byte of the range (inclusive).
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @return The value of the Content-Range header of this range.
+     */
+    public String toContentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /**
+     * @param rangeHeader The Range header of the request.
+     * @param size The size of the file.
+     * @return The ranges of the file requested, with their ends adjusted to
+     * the size of the file; an empty list if none of them are in the file (a
+     * 416 response); or null if there is no range header, or it cannot be
+     * parsed, in which case the whole file should be sent.
+     */
+    public static List<ByteRange> parse(String rangeHeader, long size) {
+        if (rangeHeader == null || !rangeHeader.trim().startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = rangeHeader.trim().substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>();
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0) {
+                    return null;
+                }
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // the last N bytes:
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength > 0 && size > 0) {
+                        ranges.add(new ByteRange(Math.max(0, size - suffixLength), size - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < size) {
+                        ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+                    }
+                }
+            }
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        return ranges;
+    }
+
+    /**
+     * Evaluates the If-Range header of a range request: the ranges are only
+     * sent if the file is still the one the client has the other parts of.
+     *
+     * @param ifRange The If-Range header of the request, an entity tag or a
+     * date; null if there is none.
+     * @param etag The (strong) entity tag of the file, unquoted; null if it
+     * does not have one.
+     * @param lastModified The last modification time of the file.
+     * @return Whether the ranges should be sent (rather than the whole file).
+     */
+    public static boolean isIfRangeSatisfied(String ifRange, String etag, Date lastModified) {
+        if (ifRange == null || ifRange.trim().isEmpty()) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // weak tags never match, for ranges:
+            return etag != null && ifRange.equals("\"" + etag + "\"");
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().getEpochSecond();
+            return date == lastModified.getTime() / 1000;
+        } catch (DateTimeParseException dtpe) {
+            return false;
+        }
+    }
+}
@@ -458,7 +458,7 @@ public class Datasets extends AbstractApiBean {
     @Path("{id}/versions/{versionId}/files")
     public Response getVersionFiles( @PathParam("id") String datasetId, @PathParam("versionId") String versionId, @Context UriInfo uriInfo, @Context HttpHeaders headers) {
         return response( req -> ok( jsonFileMetadatas(
-                         getDatasetVersionOrDie(req, versionId, findDatasetOrDie(datasetId), uriInfo, headers).getFileMetadatas())));
+                         fileService.findFileMetadataOptimized(getDatasetVersionOrDie(req, versionId, findDatasetOrDie(datasetId), uriInfo, headers)))));
     }
     
     @GET
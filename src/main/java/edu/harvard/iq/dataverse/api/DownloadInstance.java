@@ -10,6 +10,7 @@ import edu.harvard.iq.dataverse.DataverseRequestServiceBean;
 import edu.harvard.iq.dataverse.EjbDataverseEngine;
 import edu.harvard.iq.dataverse.GuestbookResponse;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import edu.harvard.iq.dataverse.dataaccess.OptionalAccessService;
 import javax.faces.context.FacesContext;
 import javax.ws.rs.core.HttpHeaders;
@@ -56,6 +57,14 @@ public class DownloadInstance {
     private UriInfo requestUriInfo;
     
     private HttpHeaders requestHttpHeaders;      
+    
+    // the ranges of the file requested, in a Range request; null if the 
+    // whole file is to be sent:
+    private List<ByteRange> ranges = null;
+    
+    // the (managed) executor the columnar image of a remote file is read 
+    // on, when a subset is requested: 
+    private ExecutorService fetchExecutor = null;
 
     public DownloadInstance() {
         
@@ -202,6 +211,14 @@ public class DownloadInstance {
     }
     
     
+    public List<ByteRange> getRanges() {
+        return ranges;
+    }
+
+    public void setRanges(List<ByteRange> ranges) {
+        this.ranges = ranges;
+    }
+    
     public DataverseRequestServiceBean getDataverseRequestService() {
         return dataverseRequestService;
     }
@@ -210,4 +227,12 @@ public class DownloadInstance {
         this.dataverseRequestService = dataverseRequestService;
     }
     
+    public ExecutorService getFetchExecutor() {
+        return fetchExecutor;
+    }
+
+    public void setFetchExecutor(ExecutorService fetchExecutor) {
+        this.fetchExecutor = fetchExecutor;
+    }
+    
 }
@@ -31,10 +31,14 @@ import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLoggingServiceBean;
 import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLoggingServiceBean.MakeDataCountEntry;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
@@ -159,6 +163,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                             if (di.getExtraArguments() != null && di.getExtraArguments().size() > 0) {
                                 logger.fine("processing extra arguments list of length "+di.getExtraArguments().size());
                                 List <Integer> variablePositionIndex = new ArrayList<>();
+                                List <DataVariable> subsetVariables = new ArrayList<>();
                                 String subsetVariableHeader = null;
                                 for (int i = 0; i < di.getExtraArguments().size(); i++) {
                                     DataVariable variable = (DataVariable)di.getExtraArguments().get(i);
@@ -166,6 +171,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                                         if (variable.getDataTable().getDataFile().getId().equals(dataFile.getId())) {
                                             logger.fine("adding variable id "+variable.getId()+" to the list.");
                                             variablePositionIndex.add(variable.getFileOrder());
+                                            subsetVariables.add(variable);
                                             if (subsetVariableHeader == null) {
                                                 subsetVariableHeader = variable.getName();
                                             } else {
@@ -182,8 +188,14 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
                                     try {
                                         File tempSubsetFile = File.createTempFile("tempSubsetFile", ".tmp");
-                                        TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
-                                        tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
+                                        // If the file has a columnar image, only the requested 
+                                        // columns are read (with ranged reads, if the file is 
+                                        // not stored locally); otherwise the whole tab file is: 
+                                        if (!storageIO.isAuxObjectCached(TabularColumnStore.AUX_TAG)
+                                                || !writeColumnarSubset(dataFile, subsetVariables, tempSubsetFile, di.getFetchExecutor())) {
+                                            TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
+                                            tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
+                                        }
 
                                         if (tempSubsetFile.exists()) {
                                             FileInputStream subsetStream = new FileInputStream(tempSubsetFile);
@@ -278,6 +290,13 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                     }
                 }
                 
+                // Range requests (see Access.datafile()) are only served on 
+                // downloads of the file as stored: 
+                if (di.getRanges() != null && di.getConversionParam() == null && storageIO.getVarHeader() == null) {
+                    writeRanges(di, storageIO, httpHeaders, outstream);
+                    return;
+                }
+                
                 InputStream instream = storageIO.getInputStream();
                 if (instream != null) {
                     // headers:
@@ -350,13 +369,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                     // so these should not produce guestbook entries: 
                     
                     if (di.getGbr() != null && !(isThumbnailDownload(di) || isPreprocessedMetadataDownload(di))) {
-                        try {
-                            logger.fine("writing guestbook response.");
-                            Command<?> cmd = new CreateGuestbookResponseCommand(di.getDataverseRequestService().getDataverseRequest(), di.getGbr(), di.getGbr().getDataFile().getOwner());
-                            di.getCommand().submit(cmd);
-                            MakeDataCountEntry entry = new MakeDataCountEntry(di.getRequestUriInfo(), di.getRequestHttpHeaders(), di.getDataverseRequestService(), di.getGbr().getDataFile());
-                            mdcLogService.logEntry(entry);
-                        } catch (CommandException e) {}
+                        writeGuestbookResponse(di);
                     } else {
                         logger.fine("not writing guestbook response");
                     } 
@@ -372,6 +385,79 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
 
     }
     
+    private void writeGuestbookResponse(DownloadInstance di) {
+        try {
+            logger.fine("writing guestbook response.");
+            Command<?> cmd = new CreateGuestbookResponseCommand(di.getDataverseRequestService().getDataverseRequest(), di.getGbr(), di.getGbr().getDataFile().getOwner());
+            di.getCommand().submit(cmd);
+            MakeDataCountEntry entry = new MakeDataCountEntry(di.getRequestUriInfo(), di.getRequestHttpHeaders(), di.getDataverseRequestService(), di.getGbr().getDataFile());
+            mdcLogService.logEntry(entry);
+        } catch (CommandException e) {}
+    }
+    
+    /*
+     * Writes the ranges of the file requested in a Range request (the 206 
+     * status and the validators are set by Access.datafile()): a single range 
+     * as is, several as a multipart/byteranges body. Each range is read 
+     * directly from the storage, with StorageIO.getRangeAsInputStream(). 
+     */
+    private void writeRanges(DownloadInstance di, StorageIO<DataFile> storageIO, MultivaluedMap<String, Object> httpHeaders, OutputStream outstream) throws IOException {
+        // the stream opened by open() is not used:
+        if (!(storageIO instanceof S3AccessIO) && storageIO.getInputStream() != null) {
+            storageIO.getInputStream().close();
+        }
+        List<ByteRange> ranges = di.getRanges();
+        long size = di.getDownloadInfo().getDataFile().getFilesize();
+        String fileName = storageIO.getFileName();
+        String mimeType = storageIO.getMimeType();
+        
+        httpHeaders.add("Content-disposition", "attachment; filename=\"" + fileName + "\"");
+        
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            httpHeaders.putSingle("Content-Type", mimeType + "; name=\"" + fileName + "\"");
+            httpHeaders.add("Content-Range", range.toContentRange(size));
+            httpHeaders.add("Content-Length", range.getLength());
+            writeRange(storageIO, range, outstream);
+        } else {
+            String boundary = UUID.randomUUID().toString().replace("-", "");
+            List<byte[]> partHeaders = new ArrayList<>();
+            long contentLength = 0;
+            for (ByteRange range : ranges) {
+                byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                        + "Content-Type: " + mimeType + "\r\n"
+                        + "Content-Range: " + range.toContentRange(size) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+                partHeaders.add(partHeader);
+                contentLength += partHeader.length + range.getLength();
+            }
+            byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+            contentLength += closingBoundary.length;
+            
+            httpHeaders.putSingle("Content-Type", "multipart/byteranges; boundary=" + boundary);
+            httpHeaders.add("Content-Length", contentLength);
+            for (int i = 0; i < ranges.size(); i++) {
+                outstream.write(partHeaders.get(i));
+                writeRange(storageIO, ranges.get(i), outstream);
+            }
+            outstream.write(closingBoundary);
+        }
+        
+        if (di.getGbr() != null) {
+            writeGuestbookResponse(di);
+        }
+        outstream.close();
+    }
+    
+    private void writeRange(StorageIO<DataFile> storageIO, ByteRange range, OutputStream outstream) throws IOException {
+        try (InputStream instream = storageIO.getRangeAsInputStream(range.getStart(), range.getLength())) {
+            byte[] bffr = new byte[4*8192];
+            int bufsize;
+            while ((bufsize = instream.read(bffr)) != -1) {
+                outstream.write(bffr, 0, bufsize);
+            }
+        }
+    }
+    
     private boolean isThumbnailDownload(DownloadInstance downloadInstance) {
         if (downloadInstance == null) return false; 
         
@@ -405,6 +491,33 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
         return -1;
     }
     
+    /*
+     * Writes a subset of the file from its columnar image (see 
+     * TabularColumnStore); returns false if that cannot be done, and the 
+     * subset should be produced from the tab file instead. 
+     */
+    private boolean writeColumnarSubset(DataFile dataFile, List<DataVariable> variables, File subsetFile, ExecutorService fetchExecutor) {
+        TabularSubsetInputStream subsetStream = null;
+        try {
+            subsetStream = new TabularSubsetInputStream(dataFile, variables, fetchExecutor);
+            try (OutputStream out = new FileOutputStream(subsetFile)) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = subsetStream.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            return true;
+        } catch (IOException ioex) {
+            logger.warning("Failed to subset the columnar image of datafile " + dataFile.getId() + ": " + ioex.getMessage());
+            return false;
+        } finally {
+            if (subsetStream != null) {
+                subsetStream.close();
+            }
+        }
+    }
+    
     private long getFileSize(DownloadInstance di) {
         return getFileSize(di, null);
     }
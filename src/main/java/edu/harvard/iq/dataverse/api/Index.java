@@ -30,11 +30,13 @@ import edu.harvard.iq.dataverse.search.IndexBatchServiceBean;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.search.IndexUtil;
+import edu.harvard.iq.dataverse.search.PermissionFilterQueryService;
 import edu.harvard.iq.dataverse.search.SearchException;
 import edu.harvard.iq.dataverse.search.SearchFields;
 import edu.harvard.iq.dataverse.search.SearchFilesServiceBean;
 import edu.harvard.iq.dataverse.search.SearchUtil;
 import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
+import edu.harvard.iq.dataverse.search.SolrUpdateService;
 import edu.harvard.iq.dataverse.search.SortBy;
 import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
 import static edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder.jsonObjectBuilder;
@@ -54,6 +56,7 @@ import javax.json.JsonObjectBuilder;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -91,6 +94,10 @@ public class Index extends AbstractApiBean {
     DatasetFieldServiceBean datasetFieldService;
     @EJB
     SearchFilesServiceBean searchFilesService;
+    @EJB
+    SolrUpdateService solrUpdateService;
+    @EJB
+    PermissionFilterQueryService permissionFilterQueryService;
 
     public static String contentChanged = "contentChanged";
     public static String contentIndexed = "contentIndexed";
@@ -98,17 +105,17 @@ public class Index extends AbstractApiBean {
     public static String permsIndexed = "permsIndexed";
 
     @GET
-    public Response indexAllOrSubset(@QueryParam("numPartitions") Long numPartitionsSelected, @QueryParam("partitionIdToProcess") Long partitionIdToProcess, @QueryParam("previewOnly") boolean previewOnly) {
-        return indexAllOrSubset(numPartitionsSelected, partitionIdToProcess, false, previewOnly);
+    public Response indexAllOrSubset(@QueryParam("numPartitions") Long numPartitionsSelected, @QueryParam("partitionIdToProcess") Long partitionIdToProcess, @QueryParam("previewOnly") boolean previewOnly, @QueryParam("resume") @DefaultValue("true") boolean resume) {
+        return indexAllOrSubset(numPartitionsSelected, partitionIdToProcess, false, previewOnly, resume);
     }
 
     @GET
     @Path("continue")
     public Response indexAllOrSubsetContinue(@QueryParam("numPartitions") Long numPartitionsSelected, @QueryParam("partitionIdToProcess") Long partitionIdToProcess, @QueryParam("previewOnly") boolean previewOnly) {
-        return indexAllOrSubset(numPartitionsSelected, partitionIdToProcess, true, previewOnly);
+        return indexAllOrSubset(numPartitionsSelected, partitionIdToProcess, true, previewOnly, true);
     }
 
-    private Response indexAllOrSubset(Long numPartitionsSelected, Long partitionIdToProcess, boolean skipIndexed, boolean previewOnly) {
+    private Response indexAllOrSubset(Long numPartitionsSelected, Long partitionIdToProcess, boolean skipIndexed, boolean previewOnly, boolean resume) {
         try {
             long numPartitions = 1;
             if (numPartitionsSelected != null) {
@@ -148,7 +155,7 @@ public class Index extends AbstractApiBean {
                 availablePartitionIdsBuilder.add(i);
             }
 
-            JsonObjectBuilder preview = indexAllService.indexAllOrSubsetPreview(numPartitions, partitionIdToProcess, skipIndexed);
+            JsonObjectBuilder preview = indexAllService.indexAllOrSubsetPreview(numPartitions, partitionIdToProcess, skipIndexed, resume);
             if (previewOnly) {
                 preview.add("args", args);
                 preview.add("availablePartitionIds", availablePartitionIdsBuilder);
@@ -162,7 +169,7 @@ public class Index extends AbstractApiBean {
              * @todo How can we expose the String returned from "index all" via
              * the API?
              */
-            Future<JsonObjectBuilder> indexAllFuture = indexAllService.indexAllOrSubset(numPartitions, partitionIdToProcess, skipIndexed, previewOnly);
+            Future<JsonObjectBuilder> indexAllFuture = indexAllService.indexAllOrSubset(numPartitions, partitionIdToProcess, skipIndexed, previewOnly, resume);
             JsonObject workloadPreview = preview.build().getJsonObject("previewOfPartitionWorkload");
             int dataverseCount = workloadPreview.getInt("dataverseCount");
             int datasetCount = workloadPreview.getInt("datasetCount");
@@ -397,11 +404,43 @@ public class Index extends AbstractApiBean {
                 .add("contentInDatabaseButStaleInOrMissingFromIndex", contentInDatabaseButStaleInOrMissingFromSolr)
                 .add("contentInIndexButNotDatabase", contentInSolrButNotDatabase)
                 .add("permissionsInDatabaseButStaleInOrMissingFromIndex", permissionsInDatabaseButStaleInOrMissingFromSolr)
-                .add("permissionsInIndexButNotDatabase", permissionsInSolrButNotDatabase);
+                .add("permissionsInIndexButNotDatabase", permissionsInSolrButNotDatabase)
+                .add("indexAllProgress", indexAllService.getIndexAllProgress());
 
         return ok(data);
     }
 
+    /**
+     * Lightweight alternative to "status" that only reports the progress
+     * (throughput, ETA) of the "index all" runs on this server, without
+     * comparing the contents of the database and Solr.
+     */
+    @GET
+    @Path("status/progress")
+    public Response indexAllProgress() {
+        return ok(indexAllService.getIndexAllProgress());
+    }
+
+    /**
+     * Batch size and flush time of the updates buffered by this server and
+     * sent to Solr.
+     */
+    @GET
+    @Path("status/updates")
+    public Response solrUpdateMetrics() {
+        return ok(solrUpdateService.getMetrics());
+    }
+
+    /**
+     * Hits and misses of the caches of the permission filter queries of the
+     * searches on this server.
+     */
+    @GET
+    @Path("status/permissionFilters")
+    public Response permissionFilterStatus() {
+        return ok(permissionFilterQueryService.getStatus());
+    }
+
     private JsonObjectBuilder getContentInDatabaseButStaleInOrMissingFromSolr() {
         List<Dataverse> stateOrMissingDataverses = indexService.findStaleOrMissingDataverses();
         List<Dataset> staleOrMissingDatasets = indexService.findStaleOrMissingDatasets();
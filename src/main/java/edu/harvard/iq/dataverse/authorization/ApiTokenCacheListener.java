@@ -0,0 +1,31 @@
+package edu.harvard.iq.dataverse.authorization;
+
+import edu.harvard.iq.dataverse.authorization.users.ApiToken;
+import javax.inject.Inject;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Drops the cached users of the API tokens ({@link ApiTokenCacheService})
+ * whenever a token is updated or deleted - whichever code does it: a token
+ * regenerated, expired or deleted, or the user of the token deleted or merged
+ * into another. (Changes to the users themselves need no invalidation, as
+ * only their ids are cached.)
+ */
+public class ApiTokenCacheListener {
+
+    @Inject
+    ApiTokenCacheService apiTokenCache;
+
+    @PostUpdate
+    @PostRemove
+    public void invalidate(Object entity) {
+        if (apiTokenCache == null) {
+            return;
+        }
+        if (entity instanceof ApiToken && ((ApiToken) entity).getAuthenticatedUser() != null) {
+            apiTokenCache.invalidateUser(((ApiToken) entity).getAuthenticatedUser().getId());
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+package edu.harvard.iq.dataverse.authorization;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Caches the ids of the users of the API tokens, so that authenticating an
+ * API call does not have to look the token up in the database every time.
+ * Only the id is kept: the user itself is found by id on every call (usually
+ * in the shared cache of the persistence provider), so that every call gets
+ * its own, current copy of the user. The entries are keyed by a hash
+ * (SHA-256) of the token, so that the tokens themselves are not kept in
+ * memory.
+ *
+ * The cache holds at most {@code :ApiTokenCacheSize} entries, each for at
+ * most {@code :ApiTokenCacheTtlSeconds}, and never past the expiration of the
+ * token. The entries of a user are dropped when one of its tokens is updated
+ * or deleted on this server (see {@link ApiTokenCacheListener}). The changes
+ * made on other servers of a cluster (or directly in the database) are picked
+ * up through the {@code apitoken} version stamp in the {@code cacheversion}
+ * table, which a trigger bumps on every change to the tokens, and which every
+ * server polls every few seconds; the whole cache is dropped when it changes.
+ *
+ * It also keeps track of when the last API use of each user was written, so
+ * that it is written at most once a minute.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class ApiTokenCacheService {
+
+    public static final int DEFAULT_TTL_SECONDS = 60;
+    public static final int DEFAULT_SIZE = 50000;
+    static final long LAST_API_USE_INTERVAL_MILLIS = 60 * 1000L;
+
+    private static final Logger logger = Logger.getLogger(ApiTokenCacheService.class.getCanonicalName());
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    @EJB
+    SystemConfig systemConfig;
+
+    @PersistenceContext
+    EntityManager em;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private static class CachedUser {
+        final Long userId;
+        final long expires;
+
+        CachedUser(Long userId, long expires) {
+            this.userId = userId;
+            this.expires = expires;
+        }
+    }
+
+    private volatile long ttlMillis = DEFAULT_TTL_SECONDS * 1000L;
+    private volatile int maxSize = DEFAULT_SIZE;
+
+    // least recently used first:
+    private final Map<String, CachedUser> entries = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+            return size() > maxSize;
+        }
+    };
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * The version stamp of the tokens as of the last check ({@code null}
+     * before the first one).
+     */
+    private volatile Long version = null;
+
+    // when the last API use of each user was written, least recently used first:
+    private final Map<Long, Long> lastApiUseWrites = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > Math.max(maxSize, DEFAULT_SIZE);
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        refreshSettings();
+    }
+
+    /**
+     * Re-reads the size and time-to-live of the cache, so changes take effect
+     * without a restart.
+     */
+    @Schedule(hour = "*", minute = "*", persistent = false)
+    public void refreshSettings() {
+        ttlMillis = systemConfig.getApiTokenCacheTtlSeconds() * 1000L;
+        maxSize = systemConfig.getApiTokenCacheSize();
+        if (ttlMillis <= 0 || maxSize <= 0) {
+            synchronized (entries) {
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Drops the whole cache if the tokens have changed since the last check,
+     * on this server or on any other.
+     */
+    @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+    public void checkVersion() {
+        long current;
+        try {
+            List<?> versions = em.createNativeQuery("SELECT version FROM cacheversion WHERE name = 'apitoken'").getResultList();
+            current = versions.isEmpty() ? 0L : ((Number) versions.get(0)).longValue();
+        } catch (PersistenceException pe) {
+            logger.log(Level.WARNING, "Failed to check the version of the API tokens", pe);
+            return;
+        }
+        Long previous = version;
+        version = current;
+        if (previous != null && previous != current) {
+            logger.fine("The API tokens have changed; dropping the cached users");
+            synchronized (entries) {
+                generation.incrementAndGet();
+                entries.clear();
+            }
+            remoteInvalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param userId
+     * @return Whether the last API use of the user is due to be written: if
+     * it was not written in the last minute (by this server). If so, it is
+     * taken to be written now.
+     */
+    public boolean isLastApiUseDue(Long userId) {
+        long now = System.currentTimeMillis();
+        synchronized (lastApiUseWrites) {
+            Long written = lastApiUseWrites.get(userId);
+            if (written != null && now - written < LAST_API_USE_INTERVAL_MILLIS) {
+                return false;
+            }
+            lastApiUseWrites.put(userId, now);
+            return true;
+        }
+    }
+
+    /**
+     * @return The current generation of the cache; users looked up before an
+     * invalidation belong to an older generation, and are not cached.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param token An API token.
+     * @return The id of the user of the token, or {@code null} (a miss).
+     */
+    public Long get(String token) {
+        String key = hash(token);
+        CachedUser entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires < System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.userId;
+    }
+
+    /**
+     * Caches the user of the token, unless the cache has been invalidated
+     * since the given generation (i.e. since the user was looked up).
+     *
+     * @param token
+     * @param userId
+     * @param tokenExpires When the token expires, if it does.
+     * @param lookupGeneration
+     */
+    public void put(String token, Long userId, Date tokenExpires, long lookupGeneration) {
+        long ttl = ttlMillis;
+        if (ttl <= 0 || maxSize <= 0 || userId == null) {
+            return;
+        }
+        long expires = System.currentTimeMillis() + ttl;
+        if (tokenExpires != null) {
+            expires = Math.min(expires, tokenExpires.getTime());
+        }
+        String key = hash(token);
+        synchronized (entries) {
+            if (generation.get() == lookupGeneration) {
+                entries.put(key, new CachedUser(userId, expires));
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of the user, right away and once again after the
+     * current transaction commits, so that the user is not cached as it was
+     * before the transaction, if looked up in between.
+     *
+     * @param userId
+     */
+    public void invalidateUser(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        remove(userId);
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        remove(userId);
+                    }
+                }
+            });
+        }
+    }
+
+    private void remove(Long userId) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            for (Iterator<CachedUser> it = entries.values().iterator(); it.hasNext();) {
+                if (userId.equals(it.next().userId)) {
+                    it.remove();
+                }
+            }
+        }
+        invalidations.incrementAndGet();
+    }
+
+    static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException nsae) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public JsonObjectBuilder getStatus() {
+        long lookups = hits.get() + misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return Json.createObjectBuilder()
+                .add("hits", hits.get())
+                .add("misses", misses.get())
+                .add("hitRate", lookups == 0 ? 0.0 : hits.get() / (double) lookups)
+                .add("invalidations", invalidations.get())
+                .add("remoteInvalidations", remoteInvalidations.get())
+                .add("size", size)
+                .add("maxSize", maxSize)
+                .add("ttlSeconds", ttlMillis / 1000L);
+    }
+
+}
@@ -55,6 +55,7 @@ import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Singleton;
 import javax.inject.Named;
+import javax.json.JsonObjectBuilder;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.NonUniqueResultException;
@@ -119,6 +120,9 @@ public class AuthenticationServiceBean {
     @EJB
     RoleAssigneeServiceBean roleAssigneeSvc;
     
+    @EJB
+    ApiTokenCacheService apiTokenCache;
+    
     @EJB
     GuestbookResponseServiceBean gbRespSvc;
     
@@ -522,6 +526,13 @@ public class AuthenticationServiceBean {
     }
 
     public AuthenticatedUser lookupUser( String apiToken ) {
+        Long cachedUserId = apiTokenCache.get(apiToken);
+        if ( cachedUserId != null ) {
+            AuthenticatedUser cachedUser = em.find(AuthenticatedUser.class, cachedUserId);
+            if ( cachedUser != null ) return cachedUser;
+        }
+        long generation = apiTokenCache.getGeneration();
+        
         ApiToken tkn = findApiToken(apiToken);
         if ( tkn == null ) return null;
         
@@ -534,9 +545,14 @@ public class AuthenticationServiceBean {
             }
         }
         
+        apiTokenCache.put(apiToken, tkn.getAuthenticatedUser().getId(), tkn.getExpireTime(), generation);
         return tkn.getAuthenticatedUser();
     }
     
+    public JsonObjectBuilder getApiTokenCacheStatus() {
+        return apiTokenCache.getStatus();
+    }
+    
     /*
     getDeleteUserErrorMessages( AuthenticatedUser au )
     method which checks for reasons that a user may not be deleted
@@ -1,6 +1,7 @@
 package edu.harvard.iq.dataverse.authorization.groups.impl.explicit;
 
 import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.PermissionCacheService;
 import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
 import edu.harvard.iq.dataverse.authorization.RoleAssignee;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
@@ -35,6 +36,9 @@ public class ExplicitGroupServiceBean {
     private static final Logger logger = Logger.getLogger(ExplicitGroupServiceBean.class.getName());
     @EJB
     private RoleAssigneeServiceBean roleAssigneeSvc;
+
+    @EJB
+    PermissionCacheService permissionCache;
     
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     protected EntityManager em;
@@ -76,6 +80,7 @@ public class ExplicitGroupServiceBean {
     }
     
     public ExplicitGroup persist( ExplicitGroup g ) {
+        permissionCache.invalidate();
         if ( g.getId() == null ) {
             em.persist( g );
             return g;
@@ -127,6 +132,7 @@ public class ExplicitGroupServiceBean {
 
     public void removeGroup(ExplicitGroup explicitGroup) {
         em.remove( explicitGroup );
+        permissionCache.invalidate();
     }
     
     /**
@@ -278,6 +284,7 @@ public class ExplicitGroupServiceBean {
         } else if (assignee instanceof ExplicitGroup) {
             em.createNativeQuery("DELETE FROM explicitgroup_explicitgroup WHERE containedexplicitgroups_id=" + ((ExplicitGroup) assignee).getId()).executeUpdate();
         }
+        permissionCache.invalidate();
     }
     
     
@@ -0,0 +1,246 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddressRange;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An in-memory index of the address ranges of the IP groups, to find the
+ * groups containing an address without querying the database.
+ *
+ * The address space is cut into segments at the bottom of every range and
+ * right after its top, so that all the addresses of a segment are in the
+ * same groups. Finding the groups of an address is then a binary search for
+ * its segment, and allocates nothing: the sets of groups are built with the
+ * index, and shared. IPv4 and IPv6 addresses have separate segments.
+ *
+ * The index is immutable; the groups it returns are not to be modified.
+ */
+public class IpGroupIndex {
+
+    private final Segments ipv4;
+    private final Segments ipv6;
+    private final int rangeCount;
+
+    /**
+     * @param ranges The ranges of the groups; each has an owner.
+     */
+    public IpGroupIndex(Collection<? extends IpAddressRange> ranges) {
+        List<IpAddressRange> ipv4Ranges = new ArrayList<>();
+        List<IpAddressRange> ipv6Ranges = new ArrayList<>();
+        for (IpAddressRange range : ranges) {
+            (range.getBottom() instanceof IPv4Address ? ipv4Ranges : ipv6Ranges).add(range);
+        }
+        ipv4 = new Segments(ipv4Ranges);
+        ipv6 = new Segments(ipv6Ranges);
+        rangeCount = ranges.size();
+    }
+
+    /**
+     * @param ipa An IPv4 or IPv6 address.
+     * @return The groups containing the address - possibly none.
+     */
+    public Set<IpGroup> groupsContaining(IpAddress ipa) {
+        if (ipa instanceof IPv4Address) {
+            return ipv4.groupsContaining(0L, key((IPv4Address) ipa));
+        } else if (ipa instanceof IPv6Address) {
+            IPv6Address ip6 = (IPv6Address) ipa;
+            return ipv6.groupsContaining(high(ip6), low(ip6));
+        } else {
+            throw new IllegalArgumentException("Unknown IpAddress type: " + ipa.getClass() + " (for IpAddress:" + ipa + ")");
+        }
+    }
+
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    public int getSegmentCount() {
+        return ipv4.size() + ipv6.size();
+    }
+
+    private static long key(IPv4Address ip4) {
+        return ((long) ip4.get(0) << 24) | (ip4.get(1) << 16) | (ip4.get(2) << 8) | ip4.get(3);
+    }
+
+    private static long high(IPv6Address ip6) {
+        return words(ip6, 0);
+    }
+
+    private static long low(IPv6Address ip6) {
+        return words(ip6, 4);
+    }
+
+    private static long words(IPv6Address ip6, int start) {
+        long bits = 0L;
+        for (int i = start; i < start + 4; i++) {
+            bits = (bits << 16) | (ip6.get(i) & 0xffff);
+        }
+        return bits;
+    }
+
+    /**
+     * An address, as two unsigned longs (for IPv4 addresses, the high one is
+     * 0).
+     */
+    private static class Point implements Comparable<Point> {
+        final long high;
+        final long low;
+
+        Point(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        static Point of(IpAddress ipa) {
+            if (ipa instanceof IPv4Address) {
+                return new Point(0L, key((IPv4Address) ipa));
+            }
+            IPv6Address ip6 = (IPv6Address) ipa;
+            return new Point(high(ip6), low(ip6));
+        }
+
+        /**
+         * @return The next address, or {@code null} if this is the last one.
+         */
+        Point next(boolean isIpv4) {
+            if (isIpv4) {
+                return low == 0xffffffffL ? null : new Point(0L, low + 1);
+            }
+            if (low != -1L) {
+                return new Point(high, low + 1);
+            }
+            return high == -1L ? null : new Point(high + 1, 0L);
+        }
+
+        @Override
+        public int compareTo(Point other) {
+            int c = Long.compareUnsigned(high, other.high);
+            return c != 0 ? c : Long.compareUnsigned(low, other.low);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Point && compareTo((Point) obj) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high) * 31 + Long.hashCode(low);
+        }
+    }
+
+    /**
+     * The segments of one address family, sorted by their first address.
+     */
+    private static class Segments {
+        private final long[] startHigh;
+        private final long[] startLow;
+        private final List<Set<IpGroup>> groups;
+
+        Segments(List<IpAddressRange> ranges) {
+            List<IpGroup> owners = new ArrayList<>();
+            Map<IpGroup, Integer> ownerIndexes = new IdentityHashMap<>();
+            Map<Long, IpGroup> ownersById = new HashMap<>();
+            List<Point> bottoms = new ArrayList<>(ranges.size());
+            List<Point> tops = new ArrayList<>(ranges.size());
+            List<Integer> rangeOwners = new ArrayList<>(ranges.size());
+            TreeSet<Point> cuts = new TreeSet<>();
+
+            for (IpAddressRange range : ranges) {
+                IpGroup owner = range.getOwner();
+                if (owner == null) {
+                    continue;
+                }
+                if (owner.getId() != null) {
+                    // (the same group may have been loaded more than once)
+                    owner = ownersById.computeIfAbsent(owner.getId(), id -> range.getOwner());
+                }
+                Integer ownerIndex = ownerIndexes.get(owner);
+                if (ownerIndex == null) {
+                    ownerIndex = owners.size();
+                    owners.add(owner);
+                    ownerIndexes.put(owner, ownerIndex);
+                }
+                Point bottom = Point.of(range.getBottom());
+                Point top = Point.of(range.getTop());
+                bottoms.add(bottom);
+                tops.add(top);
+                rangeOwners.add(ownerIndex);
+                cuts.add(bottom);
+                Point afterTop = top.next(range.getTop() instanceof IPv4Address);
+                if (afterTop != null) {
+                    cuts.add(afterTop);
+                }
+            }
+
+            List<Point> starts = new ArrayList<>();
+            List<BitSet> memberships = new ArrayList<>();
+            for (Point cut : cuts) {
+                BitSet membership = new BitSet(owners.size());
+                for (int i = 0; i < bottoms.size(); i++) {
+                    if (bottoms.get(i).compareTo(cut) <= 0 && tops.get(i).compareTo(cut) >= 0) {
+                        membership.set(rangeOwners.get(i));
+                    }
+                }
+                // (neighbours in the same groups make one segment)
+                if (memberships.isEmpty() || !memberships.get(memberships.size() - 1).equals(membership)) {
+                    starts.add(cut);
+                    memberships.add(membership);
+                }
+            }
+
+            startHigh = new long[starts.size()];
+            startLow = new long[starts.size()];
+            groups = new ArrayList<>(starts.size());
+            Map<BitSet, Set<IpGroup>> sharedSets = new HashMap<>();
+            for (int i = 0; i < starts.size(); i++) {
+                startHigh[i] = starts.get(i).high;
+                startLow[i] = starts.get(i).low;
+                groups.add(sharedSets.computeIfAbsent(memberships.get(i), membership -> {
+                    Set<IpGroup> set = new HashSet<>();
+                    membership.stream().forEach(owner -> set.add(owners.get(owner)));
+                    return Collections.unmodifiableSet(set);
+                }));
+            }
+        }
+
+        Set<IpGroup> groupsContaining(long high, long low) {
+            // the last segment starting at or before the address:
+            int from = 0;
+            int to = startHigh.length - 1;
+            int found = -1;
+            while (from <= to) {
+                int mid = (from + to) >>> 1;
+                int c = Long.compareUnsigned(startHigh[mid], high);
+                if (c == 0) {
+                    c = Long.compareUnsigned(startLow[mid], low);
+                }
+                if (c <= 0) {
+                    found = mid;
+                    from = mid + 1;
+                } else {
+                    to = mid - 1;
+                }
+            }
+            return found < 0 ? Collections.emptySet() : groups.get(found);
+        }
+
+        int size() {
+            return startHigh.length;
+        }
+    }
+
+}
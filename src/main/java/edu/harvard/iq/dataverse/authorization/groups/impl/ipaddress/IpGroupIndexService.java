@@ -0,0 +1,138 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.PermissionCacheService;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Range;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddressRange;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Holds the {@link IpGroupIndex} of the IP groups of this server. The index
+ * is dropped whenever an IP group is stored or deleted here, and built again,
+ * from all the IPv4 and IPv6 ranges, on the next lookup. The changes made on
+ * the other servers of a cluster (or directly in the database) are picked up
+ * through the {@code permission} version stamp, which the triggers on the
+ * IP range and group tables bump (see {@link PermissionCacheService}): the
+ * index is rebuilt when the stamp has changed since it was built. Since every
+ * change of a role assignment bumps it too, that is more often than needed;
+ * the ranges are few, and reading them is cheap.
+ *
+ * The groups in the index are shared by all the lookups, and are not
+ * attached to any persistence context: they are read-only.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class IpGroupIndexService {
+
+    private static final Logger logger = Logger.getLogger(IpGroupIndexService.class.getName());
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    protected EntityManager em;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    @EJB
+    PermissionCacheService permissionCache;
+
+    private volatile IpGroupIndex index = null;
+    /**
+     * The {@code permission} version stamp as of the last lookup.
+     */
+    private volatile Long indexVersion = null;
+    private final AtomicLong generation = new AtomicLong();
+    private final Object buildLock = new Object();
+
+    /**
+     * @return The index of the IP groups, built if needed.
+     */
+    public IpGroupIndex getIndex() {
+        // (already checked in this request, or in the last second, mostly)
+        permissionCache.checkVersionIfStale();
+        Long version = permissionCache.getVersion();
+        IpGroupIndex current = index;
+        if (current != null && Objects.equals(version, indexVersion)) {
+            return current;
+        }
+        synchronized (buildLock) {
+            if (!Objects.equals(version, indexVersion)) {
+                // (changed on another server, or in the database)
+                clear();
+                indexVersion = version;
+            }
+            if (index == null) {
+                return build();
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return The current generation of the index; values looked up before
+     * an invalidation belong to an older generation.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    private IpGroupIndex build() {
+        long buildGeneration = generation.get();
+        List<IpAddressRange> ranges = new ArrayList<>();
+        ranges.addAll(em.createNamedQuery("IPv4Range.findAll", IPv4Range.class).getResultList());
+        ranges.addAll(em.createNamedQuery("IPv6Range.findAll", IPv6Range.class).getResultList());
+        IpGroupIndex built = new IpGroupIndex(ranges);
+        logger.fine(() -> "Indexed " + built.getRangeCount() + " IP ranges in " + built.getSegmentCount() + " segments");
+        // (if a group changed while the ranges were being read, the index may
+        // be out of date already; it is still used, but not kept)
+        if (generation.get() == buildGeneration) {
+            index = built;
+        }
+        return built;
+    }
+
+    /**
+     * Drops the index, right away and once again after the current
+     * transaction commits, so that it is not rebuilt in between from the
+     * groups as they were before the transaction.
+     */
+    public void invalidate() {
+        clear();
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        clear();
+                    }
+                }
+            });
+        }
+    }
+
+    private void clear() {
+        generation.incrementAndGet();
+        index = null;
+    }
+
+}
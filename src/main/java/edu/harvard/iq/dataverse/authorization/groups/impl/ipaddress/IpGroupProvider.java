@@ -45,6 +45,11 @@ public class IpGroupProvider implements GroupProvider<IpGroup> {
         return groupsFor(req);
     }
 
+    /**
+     * @return The groups of the address of the request: shared, detached
+     * groups, to be read only (see {@link IpGroupsServiceBean#findAllIncludingIp});
+     * only their transient group provider is set here.
+     */
     @Override
     public Set<IpGroup> groupsFor( DataverseRequest req) {
         if ( req.getSourceAddress() != null ) {
@@ -0,0 +1,40 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.enterprise.context.RequestScoped;
+
+/**
+ * The IP groups of the addresses looked up during the request, so that the
+ * groups of the request's address are only resolved once, however many
+ * permissions are checked. See {@link IpGroupIndexService}.
+ */
+@RequestScoped
+public class IpGroupRequestCache {
+
+    private final Map<IpAddress, Set<IpGroup>> groups = new HashMap<>();
+    private long generation = -1L;
+
+    /**
+     * @param currentGeneration The current generation of the index; the
+     * entries of an older one are discarded.
+     * @return The cached groups, or {@code null}.
+     */
+    public Set<IpGroup> get(IpAddress ipa, long currentGeneration) {
+        if (generation != currentGeneration) {
+            groups.clear();
+            generation = currentGeneration;
+            return null;
+        }
+        return groups.get(ipa);
+    }
+
+    public void put(IpAddress ipa, Set<IpGroup> found, long lookupGeneration) {
+        if (generation == lookupGeneration) {
+            groups.put(ipa, found);
+        }
+    }
+
+}
@@ -1,17 +1,19 @@
 package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
 
+import edu.harvard.iq.dataverse.PermissionCacheService;
 import edu.harvard.iq.dataverse.RoleAssigneeServiceBean;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv4Address;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IPv6Address;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.enterprise.context.ContextNotActiveException;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -36,6 +38,15 @@ public class IpGroupsServiceBean {
 	
     @EJB
     RoleAssigneeServiceBean roleAssigneeSvc;
+
+    @EJB
+    PermissionCacheService permissionCache;
+    
+    @EJB
+    IpGroupIndexService ipGroupIndex;
+    
+    @Inject
+    IpGroupRequestCache requestCache;
     
     /**
      * Stores (inserts/updates) the passed IP group.
@@ -50,6 +61,8 @@ public class IpGroupsServiceBean {
             alr.setInfo( grp.getDisplayName() );
         }
         alr.setInfo( alr.getInfo() + "// " + grp.getRanges() );
+        permissionCache.invalidate();
+        ipGroupIndex.invalidate();
         
         if ( grp.getId() == null ) {
             if ( grp.getPersistedGroupAlias() != null ) {
@@ -97,27 +110,50 @@ public class IpGroupsServiceBean {
         return em.createNamedQuery("IpGroup.findAll", IpGroup.class).getResultList();
     }
     
+    /**
+     * Finds the groups containing the address, in the in-memory index of the
+     * IP groups; the groups found are remembered for the rest of the request.
+     * @param ipa An IPv4 or IPv6 address.
+     * @return The groups containing {@code ipa}. Not to be modified: the set
+     * and the groups are those of the index, shared by all the lookups, and
+     * the groups are detached. Use {@link #get(long)} for a group
+     * to change.
+     * @see IpGroupIndexService
+     */
     public Set<IpGroup> findAllIncludingIp( IpAddress ipa ) {
-        if ( ipa instanceof IPv4Address ) {
-            IPv4Address ip4 = (IPv4Address) ipa;
-            List<IpGroup> groupList = em.createNamedQuery("IPv4Range.findGroupsContainingAddressAsLong", IpGroup.class)
-                    .setParameter("addressAsLong", ip4.toBigInteger()).getResultList();
-            return new HashSet<>(groupList);
-
-        } else if ( ipa instanceof IPv6Address ) {
-            IPv6Address ip6 = (IPv6Address) ipa;
-            long[] ip6arr = ip6.toLongArray();
-            List<IpGroup> groupList = em.createNamedQuery("IPv6Range.findGroupsContainingABCD", IpGroup.class)
-                    .setParameter("a", ip6arr[0])
-                    .setParameter("b", ip6arr[1])
-                    .setParameter("c", ip6arr[2])
-                    .setParameter("d", ip6arr[3])
-                    .getResultList();
-            return new HashSet<>(groupList);
-
-        } else {
+        if ( ! (ipa instanceof IPv4Address || ipa instanceof IPv6Address) ) {
             throw new IllegalArgumentException( "Unknown IpAddress type: " + ipa.getClass() + " (for IpAddress:" + ipa + ")" );
         }
+        long generation = ipGroupIndex.getGeneration();
+        IpGroupRequestCache currentRequest = getRequestCache();
+        if ( currentRequest != null ) {
+            Set<IpGroup> cached = currentRequest.get(ipa, generation);
+            if ( cached != null ) {
+                return cached;
+            }
+        }
+        Set<IpGroup> groups = ipGroupIndex.getIndex().groupsContaining(ipa);
+        if ( currentRequest != null ) {
+            currentRequest.put(ipa, groups, generation);
+        }
+        return groups;
+    }
+    
+    /**
+     * @return The request-scoped cache, or {@code null} outside of a request
+     * (e.g. in timers and asynchronous jobs).
+     */
+    private IpGroupRequestCache getRequestCache() {
+        if ( requestCache == null ) {
+            return null;
+        }
+        try {
+            // (touching the proxy checks that there is a request context)
+            requestCache.toString();
+            return requestCache;
+        } catch ( ContextNotActiveException cnae ) {
+            return null;
+        }
     }
     
     /**
@@ -131,6 +167,8 @@ public class IpGroupsServiceBean {
         alr.setInfo( grp.getIdentifier() );
         if ( roleAssigneeSvc.getAssignmentsFor(grp.getIdentifier()).isEmpty() ) {
             em.remove( grp );
+            permissionCache.invalidate();
+            ipGroupIndex.invalidate();
             actionLogSvc.log(alr);
             
         } else {
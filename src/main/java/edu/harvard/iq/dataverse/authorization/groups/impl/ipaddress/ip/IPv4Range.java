@@ -19,6 +19,8 @@ import javax.persistence.Table;
  */
 @Table(indexes = {@Index(columnList="owner_id")})
 @NamedQueries({
+    @NamedQuery( name="IPv4Range.findAll",
+            query="SELECT r FROM IPv4Range r"),
     @NamedQuery( name="IPv4Range.findAllContainingAddressAsLong",
             query="SELECT r FROM IPv4Range r WHERE r.bottomAsLong<=:addressAsLong AND r.topAsLong>=:addressAsLong"),
     @NamedQuery( name="IPv4Range.findGroupsContainingAddressAsLong", 
@@ -1,5 +1,6 @@
 package edu.harvard.iq.dataverse.authorization.groups.impl.maildomain;
 
+import edu.harvard.iq.dataverse.PermissionCacheService;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
@@ -40,6 +41,8 @@ public class MailDomainGroupServiceBean {
     ConfirmEmailServiceBean confirmEmailSvc;
     @Inject
     ActionLogServiceBean actionLogSvc;
+    @Inject
+    PermissionCacheService permissionCache;
 	
     MailDomainGroupProvider provider;
     
@@ -115,6 +118,7 @@ public class MailDomainGroupServiceBean {
     public MailDomainGroup saveOrUpdate(Optional<String> groupAlias, MailDomainGroup grp ) {
         ActionLogRecord alr = new ActionLogRecord(ActionLogRecord.ActionType.GlobalGroups, "mailDomainCreate");
         alr.setInfo(grp.getIdentifier());
+        permissionCache.invalidate();
         
         // groupAlias present means PUT means idempotence.
         if (groupAlias.isPresent()) {
@@ -155,6 +159,7 @@ public class MailDomainGroupServiceBean {
     
         Optional<MailDomainGroup> tbd = findByAlias(groupAlias);
         em.remove(tbd.orElseThrow(() -> new NotFoundException("Cannot find a group with alias "+groupAlias)));
+        permissionCache.invalidate();
         actionLogSvc.log( alr );
     }
     
@@ -1,9 +1,11 @@
 package edu.harvard.iq.dataverse.authorization.users;
 
+import edu.harvard.iq.dataverse.authorization.ApiTokenCacheListener;
 import java.io.Serializable;
 import java.sql.Timestamp;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -21,6 +23,7 @@ import javax.validation.constraints.NotNull;
     @NamedQuery( name="ApiToken.findByUser",        query="SELECT t FROM ApiToken t WHERE t.authenticatedUser = :user")
 })
 @Table(indexes = {@Index(columnList="authenticateduser_id")})
+@EntityListeners(ApiTokenCacheListener.class)
 public class ApiToken implements Serializable {
 
     @Id
@@ -24,11 +24,18 @@ import java.io.IOException;
 
 
 import edu.harvard.iq.dataverse.DataFile;
+import java.io.ByteArrayInputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -37,9 +44,21 @@ import java.util.zip.ZipOutputStream;
 /**
  *
  * @author Leonid Andreev
+ * 
+ * The files are written to the zip stream one at a time, in the order they 
+ * are added. If the list of files is known in advance (see setPrefetch()), 
+ * the next few files on the list are opened, and their first 
+ * PREFETCH_BUFFER_SIZE bytes read, in the background while the current one 
+ * is being written; so that the latency of opening each file (an S3 request, 
+ * etc.) is not paid one file after another. 
  */
 public class DataFileZipper {
     public static long DEFAULT_ZIPFILE_LIMIT = 100 * 1024 * 1024; // 100MB
+    public static final int DEFAULT_PREFETCH_FILES = 4;
+    // the most that is read ahead of time from each prefetched file; the 
+    // memory used by a download is bounded by this times the number of 
+    // prefetched files:
+    public static final int PREFETCH_BUFFER_SIZE = 1024 * 1024;
     
     private static final Logger logger = Logger.getLogger(DataFileZipper.class.getCanonicalName());
     private static final String MANIFEST_FILE_NAME = "MANIFEST.TXT";
@@ -53,6 +72,21 @@ public class DataFileZipper {
     private String fileManifest = "";
     
     private Set<String> zippedFolders = null; 
+    
+    // files still to be added, in order, and the ones being prefetched:
+    private List<DataFile> upcomingFiles = null;
+    private int nextUpcomingFile = 0;
+    private Deque<PrefetchedFile> prefetchedFiles = new ArrayDeque<>();
+    private boolean prefetchOriginals = false;
+    private int prefetchFiles = 0;
+    private ExecutorService prefetchExecutor = null;
+    
+    // throughput of this download:
+    private long startTime = System.currentTimeMillis();
+    private int filesZipped = 0;
+    private long bytesZipped = 0L;
+    private long inputWaitNanos = 0L;
+    private int filesPrefetched = 0;
 
     public DataFileZipper() {
         fileNameList = new ArrayList<>();
@@ -83,6 +117,49 @@ public class DataFileZipper {
         return this.fileManifest; 
     }
     
+    /**
+     * Enables the prefetching of the files that are going to be added to the 
+     * zip stream. The files must be added in the order of the list; files on 
+     * the list may be skipped (the prefetched copies are then discarded), 
+     * and files not on the list are simply read when added. 
+     * 
+     * @param dataFiles the files that are going to be added, in order
+     * @param getOriginal whether the saved originals of the tabular files 
+     * are going to be added
+     * @param prefetchFiles the number of files to read ahead of the one being
+     * written
+     * @param executor runs the prefetches; owned by the caller, and may be 
+     * shared: the files still being read are cancelled by close() and 
+     * finalizeZipStream()
+     */
+    public void setPrefetch(List<DataFile> dataFiles, boolean getOriginal, int prefetchFiles, ExecutorService executor) {
+        this.upcomingFiles = dataFiles;
+        this.nextUpcomingFile = 0;
+        this.prefetchOriginals = getOriginal;
+        this.prefetchFiles = prefetchFiles;
+        this.prefetchExecutor = executor;
+    }
+    
+    public int getFilesZipped() {
+        return filesZipped;
+    }
+    
+    public long getBytesZipped() {
+        return bytesZipped;
+    }
+    
+    /**
+     * @return The time spent waiting for the files to be read, rather than 
+     * writing them out.
+     */
+    public long getInputWaitMillis() {
+        return inputWaitNanos / 1000000L;
+    }
+    
+    public int getFilesPrefetched() {
+        return filesPrefetched;
+    }
+    
     public void openZipStream() throws IOException {
         if (outputStream == null) {
             throw new IOException("Attempted to create a ZipOutputStream from a NULL OutputStream.");
@@ -101,23 +178,25 @@ public class DataFileZipper {
 
         boolean createManifest = fileManifest != null;
         
-        DataAccessRequest daReq = new DataAccessRequest();
-        StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, daReq);
+        StorageIO<DataFile> accessObject;
+        InputStream instream; 
+        
+        long waitStart = System.nanoTime();
+        PrefetchedFile prefetched = takePrefetchedFile(dataFile, getOriginal);
+        schedulePrefetches();
+        if (prefetched != null) {
+            OpenedFile opened = prefetched.get();
+            accessObject = opened.accessObject;
+            instream = opened.inputStream;
+            filesPrefetched++;
+        } else {
+            DataAccessRequest daReq = new DataAccessRequest();
+            accessObject = openFile(DataAccess.getStorageIO(dataFile, daReq), getOriginal);
+            instream = accessObject != null ? accessObject.getInputStream() : null;
+        }
+        inputWaitNanos += System.nanoTime() - waitStart;
 
         if (accessObject != null) {
-            Boolean gotOriginal = false;
-            if(getOriginal) {
-                StoredOriginalFile sof = new StoredOriginalFile();
-                StorageIO<DataFile> tempAccessObject = sof.retreive(accessObject);
-                if(null != tempAccessObject) { //If there is an original, use it
-                    gotOriginal = true;
-                    accessObject = tempAccessObject; 
-                } 
-            }
-            if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
-                accessObject.open();
-            }
-
             long byteSize = 0;
 
             String fileName = accessObject.getFileName();
@@ -129,7 +208,6 @@ public class DataFileZipper {
             //if (sizeTotal + fileSize < sizeLimit) {
             Boolean Success = true;
 
-            InputStream instream = accessObject.getInputStream();
             if (instream == null) {
                 if (createManifest) {
                     addToManifest(fileName
@@ -197,6 +275,8 @@ public class DataFileZipper {
                 if (byteSize > 0) {
                     zippedFilesList.add(dataFile.getId());
                 }
+                filesZipped++;
+                bytesZipped += byteSize;
             }
             //} else if (createManifest) {
             //    addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + sizeLimit + " bytes.\r\n");
@@ -206,7 +286,179 @@ public class DataFileZipper {
         return 0L;
     }
     
+    /*
+     * Opens the file, or its saved original, for reading. 
+     */
+    private static StorageIO<DataFile> openFile(StorageIO<DataFile> accessObject, boolean getOriginal) throws IOException {
+        if (accessObject == null) {
+            return null;
+        }
+        Boolean gotOriginal = false;
+        if(getOriginal) {
+            StoredOriginalFile sof = new StoredOriginalFile();
+            StorageIO<DataFile> tempAccessObject = sof.retreive(accessObject);
+            if(null != tempAccessObject) { //If there is an original, use it
+                gotOriginal = true;
+                accessObject = tempAccessObject; 
+            } 
+        }
+        if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
+            accessObject.open();
+        }
+        return accessObject;
+    }
+    
+    /*
+     * Returns the prefetched copy of the file, if it is the next one on the 
+     * list of files; the files before it, skipped by the caller, are 
+     * discarded. 
+     */
+    private PrefetchedFile takePrefetchedFile(DataFile dataFile, boolean getOriginal) {
+        if (getOriginal != prefetchOriginals) {
+            return null;
+        }
+        for (PrefetchedFile prefetched : prefetchedFiles) {
+            if (prefetched.dataFile.getId().equals(dataFile.getId())) {
+                PrefetchedFile skipped;
+                while ((skipped = prefetchedFiles.poll()) != prefetched) {
+                    skipped.discard();
+                }
+                return prefetched;
+            }
+        }
+        // Not prefetched (yet): if it is further down the list, the files 
+        // before it were skipped. 
+        if (upcomingFiles != null) {
+            for (int i = nextUpcomingFile; i < upcomingFiles.size(); i++) {
+                if (upcomingFiles.get(i).getId().equals(dataFile.getId())) {
+                    discardPrefetchedFiles();
+                    nextUpcomingFile = i + 1;
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+    
+    private void schedulePrefetches() {
+        if (upcomingFiles == null) {
+            return;
+        }
+        while (prefetchedFiles.size() < prefetchFiles && nextUpcomingFile < upcomingFiles.size()) {
+            DataFile dataFile = upcomingFiles.get(nextUpcomingFile++);
+            try {
+                // The file is opened on this thread, since opening it reads 
+                // the entity (and lazily loads its variables, for the header 
+                // of a tabular file, or its dataset, for the storage key) in 
+                // the persistence context of the request. The background task 
+                // only reads the bytes, from the opened storage object:
+                StorageIO<DataFile> accessObject = openFile(DataAccess.getStorageIO(dataFile, new DataAccessRequest()), prefetchOriginals);
+                if (accessObject == null) {
+                    continue;
+                }
+                prefetchedFiles.add(new PrefetchedFile(dataFile, accessObject, prefetchExecutor.submit(() -> prefetch(accessObject))));
+            } catch (IOException ioex) {
+                // it will be read when added, and the error reported then
+                logger.fine("Failed to prefetch datafile " + dataFile.getId() + ": " + ioex.getMessage());
+            }
+        }
+    }
+    
+    private static OpenedFile prefetch(StorageIO<DataFile> accessObject) throws IOException {
+        InputStream in = accessObject.getInputStream();
+        if (in == null) {
+            return new OpenedFile(accessObject, null);
+        }
+        byte[] buffer = new byte[PREFETCH_BUFFER_SIZE];
+        int length = 0;
+        int n;
+        while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > 0) {
+            length += n;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // discarded while it was being read
+            in.close();
+            return null;
+        }
+        InputStream head = new ByteArrayInputStream(buffer, 0, length);
+        return new OpenedFile(accessObject, length < buffer.length ? closeAndReturn(in, head) : new SequenceInputStream(head, in));
+    }
+    
+    private static InputStream closeAndReturn(InputStream in, InputStream head) throws IOException {
+        // the whole file fits in the buffer
+        in.close();
+        return head;
+    }
+    
+    private void discardPrefetchedFiles() {
+        PrefetchedFile prefetched;
+        while ((prefetched = prefetchedFiles.poll()) != null) {
+            prefetched.discard();
+        }
+    }
+    
+    private static class OpenedFile {
+        final StorageIO<DataFile> accessObject;
+        final InputStream inputStream;
+        
+        OpenedFile(StorageIO<DataFile> accessObject, InputStream inputStream) {
+            this.accessObject = accessObject;
+            this.inputStream = inputStream;
+        }
+    }
+    
+    private static class PrefetchedFile {
+        final DataFile dataFile;
+        final StorageIO<DataFile> accessObject;
+        final Future<OpenedFile> future;
+        
+        PrefetchedFile(DataFile dataFile, StorageIO<DataFile> accessObject, Future<OpenedFile> future) {
+            this.dataFile = dataFile;
+            this.accessObject = accessObject;
+            this.future = future;
+        }
+        
+        OpenedFile get() throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading datafile " + dataFile.getId(), ie);
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+        
+        void discard() {
+            if (future.cancel(true)) {
+                // (a local file is already open)
+                accessObject.closeInputStream();
+                return;
+            }
+            try {
+                OpenedFile opened = future.get();
+                if (opened != null && opened.inputStream != null) {
+                    opened.inputStream.close();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | IOException ex) {
+                // don't care.
+            }
+        }
+    }
+    
+    /**
+     * Discards the files prefetched but not added; to be called if the 
+     * download is aborted before finalizeZipStream(). 
+     */
+    public void close() {
+        discardPrefetchedFiles();
+    }
+    
     public void finalizeZipStream() throws IOException {
+        discardPrefetchedFiles();
         boolean createManifest = fileManifest != null;
         
         if (zipOutputStream == null) {
@@ -228,6 +480,11 @@ public class DataFileZipper {
 
         zipOutputStream.flush();
         zipOutputStream.close();
+        
+        long elapsed = System.currentTimeMillis() - startTime;
+        logger.info("zipped " + filesZipped + " files (" + filesPrefetched + " prefetched), " + bytesZipped + " bytes in " 
+                + elapsed + " ms (" + (elapsed > 0 ? bytesZipped * 1000 / elapsed : bytesZipped) + " bytes/s); " 
+                + getInputWaitMillis() + " ms waiting for input.");
     }
     
     public void addToManifest(String manifestEntry) {
@@ -42,9 +42,13 @@ import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import java.io.FileNotFoundException;
 import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import org.apache.commons.io.input.BoundedInputStream;
 
 
 public class FileAccessIO<T extends DvObject> extends StorageIO<T> {
@@ -641,6 +645,24 @@ public class FileAccessIO<T extends DvObject> extends StorageIO<T> {
         }
         return in;
     }
+
+    @Override
+    public InputStream getRangeAsInputStream(long offset, long length) throws IOException {
+        // a positional read; the channel is closed with the stream:
+        FileChannel fileChannel = FileChannel.open(getFileSystemPath(), StandardOpenOption.READ);
+        return new BoundedInputStream(Channels.newInputStream(fileChannel.position(offset)), length);
+    }
+
+    @Override
+    public InputStream getAuxFileRangeAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        if (!this.isAuxObjectCached(auxItemTag)) {
+            throw new IOException("Failed to open auxiliary file " + auxItemTag);
+        }
+        // a positional read; the channel is closed with the stream:
+        FileChannel auxChannel = FileChannel.open(getAuxObjectAsPath(auxItemTag), StandardOpenOption.READ);
+        return new BoundedInputStream(Channels.newInputStream(auxChannel.position(offset)), length);
+    }
+
     private String stripDriverId(String storageIdentifier) {
     	int separatorIndex = storageIdentifier.indexOf("://");
     	if(separatorIndex>0) {
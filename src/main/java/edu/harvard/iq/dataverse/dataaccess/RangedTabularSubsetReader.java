@@ -0,0 +1,200 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Produces column subsets of a tabular file from its columnar image (see
+ * TabularColumnStore) on storage that cannot be memory mapped, such as S3:
+ * only the byte ranges of the index and the raw bytes of the requested
+ * columns are read, with StorageIO.getAuxFileRangeAsInputStream().
+ *
+ * The rows are read in chunks of about CHUNK_SIZE bytes. Given an executor
+ * (the managed executor service of the server), the chunks are fetched in
+ * parallel, but no more than WINDOW chunks are read ahead of the one being
+ * returned, so the memory used by a subset is bounded regardless of the size
+ * of the file. Without one, the chunks are read one at a time, on the
+ * calling thread.
+ */
+public class RangedTabularSubsetReader implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(RangedTabularSubsetReader.class.getCanonicalName());
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int WINDOW = 4;
+
+    private final TabularColumnStore.RangeReader rangeReader;
+    private final ExecutorService fetchExecutor;
+    private final TabularColumnStore.Headers headers;
+    private final int[] columns;
+    private final int rowsPerChunk;
+    private final int window;
+
+    private final Deque<Future<byte[]>> pendingChunks = new ArrayDeque<>();
+    private int nextChunkRow = 0;
+    private byte[] chunk = null;
+    private int chunkPosition = 0;
+
+    RangedTabularSubsetReader(TabularColumnStore.RangeReader rangeReader, int[] columns, int chunkSize, int window, ExecutorService fetchExecutor) throws IOException {
+        this.rangeReader = rangeReader;
+        this.fetchExecutor = fetchExecutor;
+        this.headers = TabularColumnStore.Headers.read(rangeReader);
+        this.columns = columns;
+        this.window = window;
+
+        long rawLength = 0;
+        for (int column : columns) {
+            if (column < 0 || column >= headers.varcount) {
+                throw new IOException("Column " + column + " is out of bounds.");
+            }
+            rawLength += headers.rawLengths[column];
+        }
+        // the average length of a line of the subset, with the separators:
+        long lineLength = headers.casecount > 0 ? rawLength / headers.casecount + columns.length : 1;
+        rowsPerChunk = (int) Math.max(1, Math.min(headers.casecount, chunkSize / lineLength));
+    }
+
+    /**
+     * @param fetchExecutor The executor the chunks are fetched on, or null to
+     * read them sequentially.
+     * @return A reader of the subset of the given columns of the columnar
+     * image of the file, or null if the file does not have one.
+     */
+    public static RangedTabularSubsetReader open(DataFile dataFile, int[] columns, ExecutorService fetchExecutor) throws IOException {
+        if (!dataFile.isTabularData()) {
+            return null;
+        }
+        StorageIO<DataFile> dataAccess = dataFile.getStorageIO();
+        if (!dataAccess.isAuxObjectCached(TabularColumnStore.AUX_TAG)) {
+            return null;
+        }
+        RangedTabularSubsetReader reader = new RangedTabularSubsetReader((offset, length) -> readRange(dataAccess, offset, length),
+                columns, CHUNK_SIZE, WINDOW, fetchExecutor);
+        if (reader.headers.varcount != dataFile.getDataTable().getVarQuantity()
+                || reader.headers.casecount != dataFile.getDataTable().getCaseQuantity()) {
+            logger.warning("Columnar image of datafile " + dataFile.getId() + " does not match its data table; ignoring it.");
+            return null;
+        }
+        return reader;
+    }
+
+    private static ByteBuffer readRange(StorageIO<DataFile> dataAccess, long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        if (length > 0) {
+            try (InputStream in = dataAccess.getAuxFileRangeAsInputStream(TabularColumnStore.AUX_TAG, offset, length)) {
+                IOUtils.readFully(in, bytes);
+            }
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Same as TabularColumnStore.RowAssembler.read(): the lines of the subset,
+     * the values separated by tabs.
+     *
+     * @return The number of bytes read, or -1 at the end of the subset.
+     */
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            if (chunk == null || chunkPosition == chunk.length) {
+                chunk = nextChunk();
+                chunkPosition = 0;
+                if (chunk == null) {
+                    break;
+                }
+            }
+            int count = Math.min(length - bytesRead, chunk.length - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, buffer, offset + bytesRead, count);
+            chunkPosition += count;
+            bytesRead += count;
+        }
+        return bytesRead > 0 ? bytesRead : -1;
+    }
+
+    private byte[] nextChunk() throws IOException {
+        if (fetchExecutor == null) {
+            if (nextChunkRow >= headers.casecount) {
+                return null;
+            }
+            int firstRow = nextChunkRow;
+            int rows = Math.min(rowsPerChunk, headers.casecount - firstRow);
+            nextChunkRow += rows;
+            return readChunk(firstRow, rows);
+        }
+        while (pendingChunks.size() < window && nextChunkRow < headers.casecount) {
+            final int firstRow = nextChunkRow;
+            final int rows = Math.min(rowsPerChunk, headers.casecount - firstRow);
+            pendingChunks.add(fetchExecutor.submit(() -> readChunk(firstRow, rows)));
+            nextChunkRow += rows;
+        }
+        Future<byte[]> next = pendingChunks.poll();
+        if (next == null) {
+            return null;
+        }
+        try {
+            return next.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the subset", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /*
+     * Reads the index and the raw bytes of the given rows of every column of
+     * the subset, and assembles their lines.
+     */
+    private byte[] readChunk(int firstRow, int rows) throws IOException {
+        int[][] indexes = new int[columns.length][];
+        byte[][] raws = new byte[columns.length][];
+        long length = 0;
+        for (int i = 0; i < columns.length; i++) {
+            int column = columns[i];
+            ByteBuffer index = rangeReader.read(headers.indexOffsets[column] + 4L * firstRow, 4 * (rows + 1));
+            indexes[i] = new int[rows + 1];
+            index.asIntBuffer().get(indexes[i]);
+            int start = indexes[i][0];
+            int end = indexes[i][rows];
+            raws[i] = rangeReader.read(headers.rawOffsets[column] + start, end - start).array();
+            length += end - start;
+        }
+        length += (long) rows * columns.length;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Subset lines too long to read");
+        }
+
+        byte[] lines = new byte[(int) length];
+        int position = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int i = 0; i < columns.length; i++) {
+                int start = indexes[i][row] - indexes[i][0];
+                int valueLength = indexes[i][row + 1] - indexes[i][row];
+                System.arraycopy(raws[i], start, lines, position, valueLength);
+                position += valueLength;
+                lines[position++] = (byte) (i < columns.length - 1 ? '\t' : '\n');
+            }
+        }
+        return lines;
+    }
+
+    @Override
+    public void close() {
+        for (Future<byte[]> pending : pendingChunks) {
+            pending.cancel(true);
+        }
+        pendingChunks.clear();
+    }
+}
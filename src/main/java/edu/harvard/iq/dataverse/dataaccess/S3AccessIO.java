@@ -30,6 +30,7 @@ import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.util.FileUtil;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -286,6 +287,19 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
 
         return super.getInputStream();
     }
+
+    @Override
+    public InputStream getRangeAsInputStream(long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        try {
+            // a ranged GET; the end of the range is inclusive:
+            return s3.getObject(new GetObjectRequest(bucketName, key).withRange(offset, offset + length - 1)).getObjectContent();
+        } catch (SdkClientException sce) {
+            throw new IOException("Cannot get a range of S3 object " + key + " ("+sce.getMessage()+")");
+        }
+    }
     
     @Override
     public Channel getChannel() throws IOException {
@@ -769,6 +783,25 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         }
     }
 
+    @Override
+    public InputStream getAuxFileRangeAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        String destinationKey = getDestinationKey(auxItemTag);
+        try {
+            // a ranged GET; the end of the range is inclusive:
+            S3Object s3object = s3.getObject(new GetObjectRequest(bucketName, destinationKey).withRange(offset, offset + length - 1));
+            if (s3object == null) {
+                throw new IOException("Failed to open auxiliary file " + auxItemTag + " for S3 file");
+            }
+            return s3object.getObjectContent();
+        } catch (AmazonClientException ase) {
+            logger.warning("Caught an AmazonClientException in S3AccessIO.getAuxFileRangeAsInputStream():    " + ase.getMessage());
+            throw new IOException("S3AccessIO: Failed to read a range of auxiliary object : " + auxItemTag);
+        }
+    }
+
     String getDestinationKey(String auxItemTag) throws IOException {
         if (isDirectAccess() || dvObject instanceof DataFile) {
             return getMainFileKey() + "." + auxItemTag;
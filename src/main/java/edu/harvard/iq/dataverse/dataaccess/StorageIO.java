@@ -36,6 +36,8 @@ import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
 
 //import org.apache.commons.httpclient.Header;
@@ -137,6 +139,32 @@ public abstract class StorageIO<T extends DvObject> {
     //This function retrieves auxiliary files related to datasets, and returns them as inputstream
     public abstract InputStream getAuxFileAsInputStream(String auxItemTag) throws IOException ;
     
+    /**
+     * Retrieves a range of bytes of an auxiliary file. This default 
+     * implementation reads the aux file from the start, discarding the bytes 
+     * before the range; drivers that can read a range directly (positional 
+     * reads on the filesystem, ranged GETs on S3) override it. 
+     * 
+     * @param auxItemTag String representing this Auxiliary type ("extension")
+     * @param offset the first byte of the range
+     * @param length the number of bytes in the range
+     * @return an InputStream of (at most) length bytes
+     * @throws IOException if the aux file cannot be read
+     */
+    public InputStream getAuxFileRangeAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        InputStream in = getAuxFileAsInputStream(auxItemTag);
+        if (in == null) {
+            throw new IOException("Failed to open auxiliary file " + auxItemTag);
+        }
+        try {
+            IOUtils.skipFully(in, offset);
+        } catch (IOException ioex) {
+            in.close();
+            throw ioex;
+        }
+        return new BoundedInputStream(in, length);
+    }
+    
     public abstract Channel openAuxChannel(String auxItemTag, DataAccessOption... option) throws IOException;
     
     public abstract long getAuxObjectSize(String auxItemTag) throws IOException; 
@@ -276,6 +304,34 @@ public abstract class StorageIO<T extends DvObject> {
         return in;
     }
     
+    /**
+     * Retrieves a range of bytes of the file, for the Range requests of the 
+     * Access API. Unlike getInputStream(), it can be called any number of 
+     * times, for the parts of a multi-range request. This default 
+     * implementation opens the file again and discards the bytes before the 
+     * range; drivers that can read a range directly (positional reads on the 
+     * filesystem, ranged GETs on S3 and Swift) override it. 
+     * 
+     * @param offset the first byte of the range
+     * @param length the number of bytes in the range
+     * @return an InputStream of (at most) length bytes
+     * @throws IOException if the file cannot be read
+     */
+    public InputStream getRangeAsInputStream(long offset, long length) throws IOException {
+        open(DataAccessOption.READ_ACCESS);
+        InputStream in = getInputStream();
+        if (in == null) {
+            throw new IOException("Failed to open the file for reading");
+        }
+        try {
+            IOUtils.skipFully(in, offset);
+        } catch (IOException ioex) {
+            in.close();
+            throw ioex;
+        }
+        return new BoundedInputStream(in, length);
+    }
+    
     public OutputStream getOutputStream() throws IOException {
         return out; 
     }
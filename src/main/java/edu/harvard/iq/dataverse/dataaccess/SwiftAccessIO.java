@@ -5,6 +5,7 @@ import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import edu.harvard.iq.dataverse.util.StringUtil;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -28,6 +29,8 @@ import javax.crypto.spec.SecretKeySpec;
 import org.javaswift.joss.client.factory.AccountFactory;
 import static org.javaswift.joss.client.factory.AuthenticationMethod.BASIC;
 import static org.javaswift.joss.client.factory.AuthenticationMethod.KEYSTONE_V3;
+import org.javaswift.joss.headers.object.range.AbstractRange;
+import org.javaswift.joss.instructions.DownloadInstructions;
 import org.javaswift.joss.model.Account;
 import org.javaswift.joss.model.Container;
 import org.javaswift.joss.model.StoredObject;
@@ -724,6 +727,45 @@ public class SwiftAccessIO<T extends DvObject> extends StorageIO<T> {
         return swiftFileObject.downloadObjectAsInputStream();
     }
 
+    @Override
+    public InputStream getRangeAsInputStream(long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        if (swiftFileObject == null) {
+            swiftFileObject = initializeSwiftFileObject(false);
+        }
+        return swiftFileObject.downloadObjectAsInputStream(new DownloadInstructions().setRange(new ByteRange(offset, offset + length - 1)));
+    }
+
+    @Override
+    public InputStream getAuxFileRangeAsInputStream(String auxItemTag, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return openSwiftAuxFile(auxItemTag).downloadObjectAsInputStream(new DownloadInstructions().setRange(new ByteRange(offset, offset + length - 1)));
+    }
+
+    /*
+     * A range of bytes, first to last (inclusive); the ranges provided by 
+     * joss only take int offsets.
+     */
+    private static class ByteRange extends AbstractRange {
+        ByteRange(long first, long last) {
+            super(first, last);
+        }
+
+        @Override
+        public long getFrom(int byteArrayLength) {
+            return offset;
+        }
+
+        @Override
+        public long getTo(int byteArrayLength) {
+            return length;
+        }
+    }
+
     private InputStream openSwiftAuxFileAsInputStream(String auxItemTag) throws IOException {
         return initializeSwiftFileObject(false, auxItemTag).downloadObjectAsInputStream();
     }
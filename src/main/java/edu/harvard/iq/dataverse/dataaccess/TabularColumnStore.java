@@ -0,0 +1,619 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.logging.Logger;
+
+/**
+ * Columnar image of an ingested tab-delimited file, written at ingest time
+ * (when :TabularColumnarStorage is enabled) and saved as the "columns" aux
+ * file of the DataFile.
+ *
+ * For every column of the tab file the image contains:
+ * <ul>
+ * <li>the raw bytes of all its values, as they appear in the tab file,
+ * back to back;</li>
+ * <li>an index of (number of cases + 1) int offsets into the raw bytes, so
+ * that the value of any case can be found without scanning;</li>
+ * <li>for numeric columns, the parsed values, as fixed-width 8 byte doubles
+ * (continuous variables) or longs (discrete numeric variables), and a
+ * bitmap of the missing values.</li>
+ * </ul>
+ * The sections are read through memory mapped buffers, so a subset or a
+ * numeric vector is produced without parsing the tab file again, and the
+ * numeric vectors are returned as primitive arrays.
+ *
+ * The raw bytes of a column must fit in a single mapped buffer (2 GB); the
+ * image of a file with a larger column cannot be written, and subsets of that
+ * file are produced from the tab file, as before.
+ *
+ * Images of files that are not stored locally cannot be mapped; subsets of
+ * those are read with ranged reads instead, see RangedTabularSubsetReader.
+ */
+public class TabularColumnStore implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(TabularColumnStore.class.getCanonicalName());
+
+    public static final String AUX_TAG = "columns";
+
+    public static final int COLUMN_TYPE_STRING = 0;
+    public static final int COLUMN_TYPE_LONG = 1;
+    public static final int COLUMN_TYPE_DOUBLE = 2;
+
+    private static final byte[] MAGIC = "DVCOLS01".getBytes(StandardCharsets.US_ASCII);
+    // magic, varcount (int), casecount (int):
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 4;
+    // type (int), offset and length of the raw bytes, offsets of the index,
+    // the values and the missing value bitmap (longs):
+    private static final int COLUMN_HEADER_SIZE = 4 + 5 * 8;
+
+    private final FileChannel channel;
+    private final int varcount;
+    private final int casecount;
+    private final int[] types;
+    private final long[] rawOffsets;
+    private final long[] rawLengths;
+    private final long[] indexOffsets;
+    private final long[] valuesOffsets;
+    private final long[] missingOffsets;
+
+    private final ByteBuffer[] rawBuffers;
+    private final IntBuffer[] indexBuffers;
+
+    private TabularColumnStore(FileChannel channel) throws IOException {
+        this.channel = channel;
+        Headers headers = Headers.read(this::read);
+        varcount = headers.varcount;
+        casecount = headers.casecount;
+        types = headers.types;
+        rawOffsets = headers.rawOffsets;
+        rawLengths = headers.rawLengths;
+        indexOffsets = headers.indexOffsets;
+        valuesOffsets = headers.valuesOffsets;
+        missingOffsets = headers.missingOffsets;
+        rawBuffers = new ByteBuffer[varcount];
+        indexBuffers = new IntBuffer[varcount];
+    }
+
+    /**
+     * Reads a range of bytes of a columnar image, wherever it is stored.
+     */
+    interface RangeReader {
+        ByteBuffer read(long offset, int length) throws IOException;
+    }
+
+    /**
+     * The headers of a columnar image: the numbers of columns and cases, the
+     * types of the columns and the offsets of their sections.
+     */
+    static class Headers {
+        final int varcount;
+        final int casecount;
+        final int[] types;
+        final long[] rawOffsets;
+        final long[] rawLengths;
+        final long[] indexOffsets;
+        final long[] valuesOffsets;
+        final long[] missingOffsets;
+
+        private Headers(int varcount, int casecount) {
+            this.varcount = varcount;
+            this.casecount = casecount;
+            types = new int[varcount];
+            rawOffsets = new long[varcount];
+            rawLengths = new long[varcount];
+            indexOffsets = new long[varcount];
+            valuesOffsets = new long[varcount];
+            missingOffsets = new long[varcount];
+        }
+
+        static Headers read(RangeReader reader) throws IOException {
+            ByteBuffer header = reader.read(0, HEADER_SIZE);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a columnar image of a tabular data file");
+            }
+            int varcount = header.getInt();
+            int casecount = header.getInt();
+            if (varcount < 0 || casecount < 0 || varcount > (Integer.MAX_VALUE - HEADER_SIZE) / COLUMN_HEADER_SIZE) {
+                throw new IOException("Invalid header in the columnar image");
+            }
+
+            Headers headers = new Headers(varcount, casecount);
+            ByteBuffer columnHeaders = reader.read(HEADER_SIZE, varcount * COLUMN_HEADER_SIZE);
+            for (int i = 0; i < varcount; i++) {
+                headers.types[i] = columnHeaders.getInt();
+                headers.rawOffsets[i] = columnHeaders.getLong();
+                headers.rawLengths[i] = columnHeaders.getLong();
+                headers.indexOffsets[i] = columnHeaders.getLong();
+                headers.valuesOffsets[i] = columnHeaders.getLong();
+                headers.missingOffsets[i] = columnHeaders.getLong();
+            }
+            return headers;
+        }
+    }
+
+    public static TabularColumnStore open(Path columnarImage) throws IOException {
+        FileChannel channel = FileChannel.open(columnarImage, StandardOpenOption.READ);
+        try {
+            return new TabularColumnStore(channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return The columnar image of the (locally stored) tabular file, or
+     * null if it does not have one.
+     */
+    public static TabularColumnStore open(DataFile dataFile) throws IOException {
+        if (!dataFile.isTabularData()) {
+            return null;
+        }
+        StorageIO<DataFile> dataAccess = dataFile.getStorageIO();
+        if (!dataAccess.isLocalFile() || !dataAccess.isAuxObjectCached(AUX_TAG)) {
+            return null;
+        }
+        TabularColumnStore columnStore = open(dataAccess.getAuxObjectAsPath(AUX_TAG));
+        if (columnStore.getVarCount() != dataFile.getDataTable().getVarQuantity()
+                || columnStore.getCaseCount() != dataFile.getDataTable().getCaseQuantity()) {
+            logger.warning("Columnar image of datafile " + dataFile.getId() + " does not match its data table; ignoring it.");
+            columnStore.close();
+            return null;
+        }
+        return columnStore;
+    }
+
+    public int getVarCount() {
+        return varcount;
+    }
+
+    public int getCaseCount() {
+        return casecount;
+    }
+
+    public int getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * The type a variable is stored as in the columnar image; the same types
+     * the summary statistics and UNFs are calculated on at ingest.
+     */
+    public static int getColumnType(DataVariable variable) {
+        if (variable.isIntervalContinuous()) {
+            return COLUMN_TYPE_DOUBLE;
+        }
+        if (variable.isIntervalDiscrete() && variable.isTypeNumeric()) {
+            return COLUMN_TYPE_LONG;
+        }
+        return COLUMN_TYPE_STRING;
+    }
+
+    /**
+     * @return The values of a continuous column; missing values are 0, see
+     * {@link #readMissing(int)}.
+     */
+    public double[] readDoubles(int column) throws IOException {
+        checkColumnType(column, COLUMN_TYPE_DOUBLE);
+        double[] values = new double[casecount];
+        DoubleBuffer buffer = map(valuesOffsets[column], (long) casecount * 8).asDoubleBuffer();
+        buffer.get(values);
+        return values;
+    }
+
+    /**
+     * @return The values of a discrete numeric column; missing values are 0,
+     * see {@link #readMissing(int)}.
+     */
+    public long[] readLongs(int column) throws IOException {
+        checkColumnType(column, COLUMN_TYPE_LONG);
+        long[] values = new long[casecount];
+        LongBuffer buffer = map(valuesOffsets[column], (long) casecount * 8).asLongBuffer();
+        buffer.get(values);
+        return values;
+    }
+
+    /**
+     * @return The cases of a numeric column that have missing values.
+     */
+    public BitSet readMissing(int column) throws IOException {
+        if (types[column] == COLUMN_TYPE_STRING) {
+            throw new IOException("Column " + column + " is not numeric");
+        }
+        byte[] bitmap = new byte[(casecount + 7) / 8];
+        map(missingOffsets[column], bitmap.length).get(bitmap);
+        return BitSet.valueOf(bitmap);
+    }
+
+    /**
+     * Same as {@link TabularSubsetGenerator#subsetDoubleVector(DataFile, int)}.
+     */
+    public Double[] readDoubleVector(int column) throws IOException {
+        double[] values = readDoubles(column);
+        BitSet missing = readMissing(column);
+        Double[] vector = new Double[casecount];
+        for (int i = 0; i < casecount; i++) {
+            vector[i] = missing.get(i) ? null : values[i];
+        }
+        return vector;
+    }
+
+    /**
+     * Same as {@link TabularSubsetGenerator#subsetLongVector(DataFile, int)}.
+     */
+    public Long[] readLongVector(int column) throws IOException {
+        long[] values = readLongs(column);
+        BitSet missing = readMissing(column);
+        Long[] vector = new Long[casecount];
+        for (int i = 0; i < casecount; i++) {
+            vector[i] = missing.get(i) ? null : values[i];
+        }
+        return vector;
+    }
+
+    /**
+     * Same as {@link TabularSubsetGenerator#subsetStringVector(DataFile, int)}
+     * (outside of "compatibility mode"): the values of any column as strings,
+     * with the outer quotes stripped and the escaped characters restored;
+     * empty values are missing (null).
+     */
+    public String[] readStrings(int column) throws IOException {
+        ByteBuffer raw = getRawBuffer(column).duplicate();
+        IntBuffer index = getIndexBuffer(column);
+        String[] vector = new String[casecount];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < casecount; i++) {
+            int start = index.get(i);
+            int length = index.get(i + 1) - start;
+            if (length == 0) {
+                continue;
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            raw.position(start);
+            raw.get(bytes, 0, length);
+            vector[i] = TabularSubsetGenerator.unescapeStringValue(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+        return vector;
+    }
+
+    /**
+     * @return A stream of the lines of the tab file with only the given
+     * columns, in the given order.
+     */
+    public RowAssembler rows(int[] columns) throws IOException {
+        return new RowAssembler(columns);
+    }
+
+    /**
+     * Reassembles the lines of a column subset of the tab file from the raw
+     * bytes of its columns: the values of a line separated by tabs, and
+     * terminated by a new line.
+     */
+    public class RowAssembler {
+        private final int[] columns;
+        private final ByteBuffer[] raws;
+        private final IntBuffer[] indexes;
+        private int row = 0;
+        private int subsetColumn = 0;
+        // bytes of the current value already returned:
+        private int valuePosition = 0;
+
+        private RowAssembler(int[] columns) throws IOException {
+            this.columns = columns;
+            raws = new ByteBuffer[columns.length];
+            indexes = new IntBuffer[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                raws[i] = getRawBuffer(columns[i]).duplicate();
+                indexes[i] = getIndexBuffer(columns[i]);
+            }
+        }
+
+        /**
+         * @return The number of bytes read, or -1 at the end of the subset.
+         */
+        public int read(byte[] buffer, int offset, int length) {
+            int bytesRead = 0;
+            while (bytesRead < length && row < casecount) {
+                IntBuffer index = indexes[subsetColumn];
+                int start = index.get(row);
+                int valueLength = index.get(row + 1) - start;
+                if (valuePosition < valueLength) {
+                    int count = Math.min(length - bytesRead, valueLength - valuePosition);
+                    ByteBuffer raw = raws[subsetColumn];
+                    raw.position(start + valuePosition);
+                    raw.get(buffer, offset + bytesRead, count);
+                    bytesRead += count;
+                    valuePosition += count;
+                } else {
+                    if (subsetColumn < columns.length - 1) {
+                        buffer[offset + bytesRead++] = '\t';
+                        subsetColumn++;
+                    } else {
+                        buffer[offset + bytesRead++] = '\n';
+                        subsetColumn = 0;
+                        row++;
+                    }
+                    valuePosition = 0;
+                }
+            }
+            return bytesRead > 0 ? bytesRead : -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            // don't care.
+        }
+    }
+
+    /**
+     * Writes the columnar image of a tab file from its "rotated" image (see
+     * TabularSubsetGenerator), in which the values of each column are already
+     * stored together, each followed by a new line.
+     *
+     * @param columnEndOffsets The offsets of the ends of the columns in the
+     * rotated image; the first column starts right after the header of
+     * varcount longs.
+     */
+    static void write(File rotatedImageFile, long[] columnEndOffsets, int varcount, int casecount, int[] columnTypes, File columnarImageFile) throws IOException {
+        long[] rawOffsets = new long[varcount];
+        long[] rawLengths = new long[varcount];
+        long[] indexOffsets = new long[varcount];
+        long[] valuesOffsets = new long[varcount];
+        long[] missingOffsets = new long[varcount];
+
+        long position = HEADER_SIZE + (long) varcount * COLUMN_HEADER_SIZE;
+
+        try (FileChannel rotatedImage = FileChannel.open(rotatedImageFile.toPath(), StandardOpenOption.READ);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columnarImageFile), 64 * 1024))) {
+            // the headers are filled in at the end
+            out.write(new byte[(int) position]);
+
+            for (int column = 0; column < varcount; column++) {
+                long columnStart = column > 0 ? columnEndOffsets[column - 1] : varcount * 8;
+                long columnLength = columnEndOffsets[column] - columnStart;
+                if (columnLength - casecount > Integer.MAX_VALUE) {
+                    throw new IOException("Column " + column + " is too large for a columnar image");
+                }
+
+                // the raw bytes, without the new lines:
+                rawOffsets[column] = position;
+                try (ValueReader values = new ValueReader(rotatedImage, columnStart, columnLength)) {
+                    for (int i = 0; i < casecount; i++) {
+                        if (!values.next()) {
+                            throw new IOException("Column " + column + " has fewer than " + casecount + " values");
+                        }
+                        out.write(values.bytes, 0, values.length);
+                        position += values.length;
+                    }
+                }
+                rawLengths[column] = position - rawOffsets[column];
+
+                // the index of the offsets of the values in the raw bytes:
+                indexOffsets[column] = position;
+                try (ValueReader values = new ValueReader(rotatedImage, columnStart, columnLength)) {
+                    int offset = 0;
+                    out.writeInt(offset);
+                    for (int i = 0; i < casecount; i++) {
+                        values.next();
+                        offset += values.length;
+                        out.writeInt(offset);
+                    }
+                }
+                position += 4L * (casecount + 1);
+
+                // parsed numeric values, and the missing ones:
+                if (columnTypes[column] != COLUMN_TYPE_STRING) {
+                    valuesOffsets[column] = position;
+                    byte[] missing = new byte[(casecount + 7) / 8];
+                    try (ValueReader values = new ValueReader(rotatedImage, columnStart, columnLength)) {
+                        for (int i = 0; i < casecount; i++) {
+                            values.next();
+                            String token = new String(values.bytes, 0, values.length, StandardCharsets.UTF_8);
+                            if (columnTypes[column] == COLUMN_TYPE_DOUBLE) {
+                                Double value = parseDouble(token);
+                                out.writeDouble(value == null ? 0 : value);
+                                if (value == null) {
+                                    missing[i >> 3] |= 1 << (i & 7);
+                                }
+                            } else {
+                                Long value = parseLong(token);
+                                out.writeLong(value == null ? 0 : value);
+                                if (value == null) {
+                                    missing[i >> 3] |= 1 << (i & 7);
+                                }
+                            }
+                        }
+                    }
+                    position += 8L * casecount;
+                    missingOffsets[column] = position;
+                    out.write(missing);
+                    position += missing.length;
+                }
+            }
+        }
+
+        ByteBuffer headers = ByteBuffer.allocate(HEADER_SIZE + varcount * COLUMN_HEADER_SIZE);
+        headers.put(MAGIC).putInt(varcount).putInt(casecount);
+        for (int column = 0; column < varcount; column++) {
+            headers.putInt(columnTypes[column])
+                    .putLong(rawOffsets[column])
+                    .putLong(rawLengths[column])
+                    .putLong(indexOffsets[column])
+                    .putLong(valuesOffsets[column])
+                    .putLong(missingOffsets[column]);
+        }
+        headers.flip();
+        try (FileChannel columnarImage = FileChannel.open(columnarImageFile.toPath(), StandardOpenOption.WRITE)) {
+            while (headers.hasRemaining()) {
+                columnarImage.write(headers, HEADER_SIZE + varcount * COLUMN_HEADER_SIZE - headers.remaining());
+            }
+        }
+    }
+
+    /*
+     * The same conversions as in TabularSubsetGenerator.subsetObjectVector():
+     */
+    static Double parseDouble(String token) {
+        if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
+            return Double.POSITIVE_INFINITY;
+        } else if ("-inf".equalsIgnoreCase(token)) {
+            return Double.NEGATIVE_INFINITY;
+        } else if (token.equals("")) {
+            return null;
+        }
+        try {
+            return Double.valueOf(token);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    static Long parseLong(String token) {
+        try {
+            return Long.valueOf(token);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private void checkColumnType(int column, int type) throws IOException {
+        if (column < 0 || column >= varcount) {
+            throw new IOException("Column " + column + " is out of bounds.");
+        }
+        if (types[column] != type) {
+            throw new IOException("Column " + column + " is not stored as type " + type);
+        }
+    }
+
+    private synchronized ByteBuffer getRawBuffer(int column) throws IOException {
+        if (column < 0 || column >= varcount) {
+            throw new IOException("Column " + column + " is out of bounds.");
+        }
+        if (rawBuffers[column] == null) {
+            rawBuffers[column] = map(rawOffsets[column], rawLengths[column]);
+        }
+        return rawBuffers[column];
+    }
+
+    private synchronized IntBuffer getIndexBuffer(int column) throws IOException {
+        if (indexBuffers[column] == null) {
+            indexBuffers[column] = map(indexOffsets[column], 4L * (casecount + 1)).asIntBuffer();
+        }
+        return indexBuffers[column];
+    }
+
+    private MappedByteBuffer map(long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Section of the columnar image too large to map");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated columnar image");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads the new line terminated values of one column of the rotated
+     * image, one at a time.
+     */
+    private static class ValueReader implements Closeable {
+        private final InputStream in;
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        ValueReader(FileChannel rotatedImage, long start, long length) throws IOException {
+            in = new BufferedInputStream(new BoundedInputStream(Channels.newInputStream(rotatedImage.position(start)), length), 64 * 1024);
+        }
+
+        boolean next() throws IOException {
+            length = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    return true;
+                }
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                bytes[length++] = (byte) b;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // the channel is closed by the caller
+        }
+    }
+
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import java.util.*;
 import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.*;
 import java.io.*;
 import java.io.FileNotFoundException;
@@ -75,11 +76,26 @@ public class TabularSubsetGenerator implements SubsetGenerator {
     private long[] columnTotalOffsets;
     private long[] columnTotalLengths;
     
+    // used instead of all of the above when the file has a columnar image:
+    private TabularColumnStore columnStore = null;
+    private TabularColumnStore.RowAssembler rowAssembler = null;
+    // ... or, when the file is not stored locally, ranged reads of its columnar image: 
+    private RangedTabularSubsetReader rangedReader = null;
+    
     public TabularSubsetGenerator() {
         
     }
     
     public TabularSubsetGenerator (DataFile datafile, List<DataVariable> variables) throws IOException {
+        this(datafile, variables, null);
+    }
+    
+    /*
+     * The fetchExecutor, if not null, is used to read the columnar image of 
+     * a file that is not stored locally in parallel (see 
+     * RangedTabularSubsetReader). 
+     */
+    public TabularSubsetGenerator (DataFile datafile, List<DataVariable> variables, ExecutorService fetchExecutor) throws IOException {
         if (!datafile.isTabularData()) {
             throw new IOException("DataFile is not tabular data.");
         }
@@ -90,8 +106,43 @@ public class TabularSubsetGenerator implements SubsetGenerator {
            
         
         StorageIO<DataFile> dataAccess = datafile.getStorageIO();
+        
+        if (variables == null || variables.size() < 1 || variables.size() > getVarCount()) {
+            throw new IOException("Illegal number of variables in the subset request");
+        }
+        
+        for (DataVariable var : variables) {
+            if (!datafile.getDataTable().getId().equals(var.getDataTable().getId())) {
+                throw new IOException("Variable in the subset request does not belong to the datafile.");
+            }
+        }
+        
+        // If the file has a columnar image, the lines of the subset are 
+        // assembled from its memory mapped columns: 
+        try {
+            columnStore = TabularColumnStore.open(datafile);
+        } catch (IOException ioex) {
+            dbgLog.warning("Failed to open the columnar image of datafile "+datafile.getId()+"; subsetting the tab file instead. "+ioex.getMessage());
+            columnStore = null; 
+        }
+        int[] columns = new int[variables.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = variables.get(i).getFileOrder();
+        }
+        if (columnStore != null) {
+            rowAssembler = columnStore.rows(columns);
+            return; 
+        }
+        
+        // Files on other storage (S3, etc.) can only be subset if they have 
+        // a columnar image; the lines are then assembled from ranged reads 
+        // of the columns: 
         if (!dataAccess.isLocalFile()) {
-            throw new IOException("Subsetting is supported on local files only!");
+            rangedReader = RangedTabularSubsetReader.open(datafile, columns, fetchExecutor);
+            if (rangedReader == null) {
+                throw new IOException("Subsetting is supported on local files, or on files with a columnar image, only!");
+            }
+            return; 
         }
         
         //File tabfile = datafile.getFileSystemLocation().toFile();
@@ -102,10 +153,6 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         
         fileChannel = (FileChannel.open(Paths.get(rotatedImageFile.getAbsolutePath()), StandardOpenOption.READ));
         
-        if (variables == null || variables.size() < 1 || variables.size() > getVarCount()) {
-            throw new IOException("Illegal number of variables in the subset request");
-        }
-        
         subsetcount = variables.size();
         columnTotalOffsets = new long[subsetcount];
         columnTotalLengths = new long[subsetcount];
@@ -338,7 +385,31 @@ public class TabularSubsetGenerator implements SubsetGenerator {
     } 
     
     
+    public boolean isColumnar() {
+        return rowAssembler != null || rangedReader != null;
+    }
+    
+    /*
+     * Reads the next bytes of the subset (any number of columns), when the
+     * file has a columnar image; returns -1 once the whole subset has been read. 
+     */
+    public int readColumnarSubset(byte[] buffer) throws IOException {
+        if (rangedReader != null) {
+            return rangedReader.read(buffer, 0, buffer.length);
+        }
+        if (rowAssembler == null) {
+            throw new IOException("No columnar image to subset");
+        }
+        return rowAssembler.read(buffer, 0, buffer.length);
+    }
+    
     public void close() {
+        if (columnStore != null) {
+            columnStore.close();
+        }
+        if (rangedReader != null) {
+            rangedReader.close();
+        }
         if (fileChannel != null) {
             try {
                 fileChannel.close();
@@ -565,42 +636,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
                     // An empty string in quotes is an empty string!
                     retVector[caseIndex] = null;
                 } else {
-                    // Strip the outer quotes:
-                    line[column] = line[column].replaceFirst("^\\\"", "");
-                    line[column] = line[column].replaceFirst("\\\"$", "");
-
-                    // We need to restore the special characters that 
-                    // are stored in tab files escaped - quotes, new lines 
-                    // and tabs. Before we do that however, we need to 
-                    // take care of any escaped backslashes stored in 
-                    // the tab file. I.e., "foo\t" should be transformed 
-                    // to "foo<TAB>"; but "foo\\t" should be transformed 
-                    // to "foo\t". This way new lines and tabs that were
-                    // already escaped in the original data are not 
-                    // going to be transformed to unescaped tab and 
-                    // new line characters!
-                    String[] splitTokens = line[column].split(Matcher.quoteReplacement("\\\\"), -2);
-
-                    // (note that it's important to use the 2-argument version 
-                    // of String.split(), and set the limit argument to a
-                    // negative value; otherwise any trailing backslashes 
-                    // are lost.)
-                    for (int i = 0; i < splitTokens.length; i++) {
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
-                        splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
-                    }
-                    // TODO: 
-                    // Make (some of?) the above optional; for ex., we 
-                    // do need to restore the newlines when calculating UNFs;
-                    // But if we are subsetting these vectors in order to 
-                    // create a new tab-delimited file, they will 
-                    // actually break things! -- L.A. Jul. 28 2014
-
-                    line[column] = StringUtils.join(splitTokens, '\\');
-
-                    retVector[caseIndex] = line[column];
+                    retVector[caseIndex] = unescapeStringValue(line[column]);
                 }
 
             } else {
@@ -624,6 +660,48 @@ public class TabularSubsetGenerator implements SubsetGenerator {
 
     }
 
+    /**
+     * Restores a string value as it was before it was stored in a tab file:
+     * without the outer quotes, and with the escaped quotes, tabs and new
+     * lines unescaped.
+     */
+    public static String unescapeStringValue(String value) {
+        // Strip the outer quotes:
+        value = value.replaceFirst("^\\\"", "");
+        value = value.replaceFirst("\\\"$", "");
+
+        // We need to restore the special characters that 
+        // are stored in tab files escaped - quotes, new lines 
+        // and tabs. Before we do that however, we need to 
+        // take care of any escaped backslashes stored in 
+        // the tab file. I.e., "foo\t" should be transformed 
+        // to "foo<TAB>"; but "foo\\t" should be transformed 
+        // to "foo\t". This way new lines and tabs that were
+        // already escaped in the original data are not 
+        // going to be transformed to unescaped tab and 
+        // new line characters!
+        String[] splitTokens = value.split(Matcher.quoteReplacement("\\\\"), -2);
+
+        // (note that it's important to use the 2-argument version 
+        // of String.split(), and set the limit argument to a
+        // negative value; otherwise any trailing backslashes 
+        // are lost.)
+        for (int i = 0; i < splitTokens.length; i++) {
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
+            splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
+        }
+        // TODO: 
+        // Make (some of?) the above optional; for ex., we 
+        // do need to restore the newlines when calculating UNFs;
+        // But if we are subsetting these vectors in order to 
+        // create a new tab-delimited file, they will 
+        // actually break things! -- L.A. Jul. 28 2014
+
+        return StringUtils.join(splitTokens, '\\');
+    }
+
     /*
      * Straightforward method for subsetting a tab-delimited data file, extracting
      * all the columns representing continuous variables and returning them as 
@@ -729,6 +807,11 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         //File tabfile = datafile.getFileSystemLocation().toFile();
         File tabfile = dataAccess.getFileSystemPath().toFile();
 
+        Object[] columnarVector = subsetColumnarVector(dataFile, column, columntype);
+        if (columnarVector != null) {
+            return columnarVector;
+        }
+
         if (columntype == COLUMN_TYPE_STRING) {
             String filename = dataFile.getFileMetadata().getLabel();
             if (filename != null) {
@@ -783,6 +866,70 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         return subsetObjectVector(tabfile, column, varcount, casecount, columntype);
     }
     
+    /*
+     * Reads the vector from the columnar image of the file, if it has one and 
+     * the column is stored there as the requested type (any column can be 
+     * read as strings). Returns null otherwise; and for string columns of 
+     * files with numeric names, which may need the "compatibility mode" below. 
+     */
+    private Object[] subsetColumnarVector(DataFile dataFile, int column, int columntype) {
+        if (columntype == COLUMN_TYPE_FLOAT) {
+            return null;
+        }
+        TabularColumnStore store = null;
+        try {
+            store = TabularColumnStore.open(dataFile);
+            if (store == null) {
+                return null;
+            }
+            if (columntype == COLUMN_TYPE_DOUBLE && store.getColumnType(column) == TabularColumnStore.COLUMN_TYPE_DOUBLE) {
+                return store.readDoubleVector(column);
+            }
+            if (columntype == COLUMN_TYPE_LONG && store.getColumnType(column) == TabularColumnStore.COLUMN_TYPE_LONG) {
+                return store.readLongVector(column);
+            }
+            if (columntype == COLUMN_TYPE_STRING && !isCompatModeFileName(dataFile)) {
+                return store.readStrings(column);
+            }
+        } catch (IOException ioex) {
+            dbgLog.warning("Failed to read column "+column+" from the columnar image of datafile "+dataFile.getId()+": "+ioex.getMessage());
+        } finally {
+            if (store != null) {
+                store.close();
+            }
+        }
+        return null;
+    }
+    
+    private boolean isCompatModeFileName(DataFile dataFile) {
+        String filename = dataFile.getFileMetadata().getLabel();
+        return filename != null && filename.replaceFirst("^_", "").matches("[0-9]+");
+    }
+    
+    /**
+     * Writes the columnar image of a tab file (see TabularColumnStore). It is 
+     * produced from the "rotated" image of the file, which is generated if 
+     * necessary, and deleted afterwards if it was. 
+     */
+    public void createColumnarImage(File tabfile, List<DataVariable> variables, int casecount, File columnarImageFile) throws IOException {
+        int varcount = variables.size();
+        int[] columnTypes = new int[varcount];
+        for (int i = 0; i < varcount; i++) {
+            columnTypes[i] = TabularColumnStore.getColumnType(variables.get(i));
+        }
+        
+        boolean rotatedImageExists = new File(tabfile.getAbsolutePath() + ".90d").exists();
+        File rotatedImageFile = getRotatedImage(tabfile, varcount, casecount);
+        try {
+            long[] columnEndOffsets = extractColumnOffsets(rotatedImageFile, varcount, casecount);
+            TabularColumnStore.write(rotatedImageFile, columnEndOffsets, varcount, casecount, columnTypes, columnarImageFile);
+        } finally {
+            if (!rotatedImageExists) {
+                rotatedImageFile.delete();
+            }
+        }
+    }
+    
     public Object[] subsetObjectVector(File tabfile, int column, int varcount, int casecount, int columntype) throws IOException {
         return subsetObjectVector(tabfile, column, varcount, casecount, columntype, false);
     }
@@ -894,42 +1041,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
                             // An empty string in quotes is an empty string!
                             retVector[caseindex] = null;
                         } else {
-                            // Strip the outer quotes:
-                            token = token.replaceFirst("^\\\"", "");
-                            token = token.replaceFirst("\\\"$", "");
-                            
-                            // We need to restore the special characters that 
-                            // are stored in tab files escaped - quotes, new lines 
-                            // and tabs. Before we do that however, we need to 
-                            // take care of any escaped backslashes stored in 
-                            // the tab file. I.e., "foo\t" should be transformed 
-                            // to "foo<TAB>"; but "foo\\t" should be transformed 
-                            // to "foo\t". This way new lines and tabs that were
-                            // already escaped in the original data are not 
-                            // going to be transformed to unescaped tab and 
-                            // new line characters!
-                            
-                            String[] splitTokens = token.split(Matcher.quoteReplacement("\\\\"), -2);
-                            
-                            // (note that it's important to use the 2-argument version 
-                            // of String.split(), and set the limit argument to a
-                            // negative value; otherwise any trailing backslashes 
-                            // are lost.)
-                            
-                            for (int i = 0; i < splitTokens.length; i++) {
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\\""), "\"");
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\t"), "\t");
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\n"), "\n");
-                                splitTokens[i] = splitTokens[i].replaceAll(Matcher.quoteReplacement("\\r"), "\r");
-                            }
-                            // TODO: 
-                            // Make (some of?) the above optional; for ex., we 
-                            // do need to restore the newlines when calculating UNFs;
-                            // But if we are subsetting these vectors in order to 
-                            // create a new tab-delimited file, they will 
-                            // actually break things! -- L.A. Jul. 28 2014
-                            
-                            token = StringUtils.join(splitTokens, '\\');
+                            token = unescapeStringValue(token);
                             
                             // "compatibility mode" - a hack, to be able to produce
                             // unfs identical to those produced by the "early" 
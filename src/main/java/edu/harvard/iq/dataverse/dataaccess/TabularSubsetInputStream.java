@@ -11,6 +11,7 @@ import edu.harvard.iq.dataverse.datavariable.DataVariable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 /**
@@ -27,6 +28,10 @@ public class TabularSubsetInputStream extends InputStream {
     private byte[] leftoverBytes = null; 
     
     public TabularSubsetInputStream(DataFile datafile, List<DataVariable> variables) throws IOException {
+        this(datafile, variables, null);
+    }
+    
+    public TabularSubsetInputStream(DataFile datafile, List<DataVariable> variables, ExecutorService fetchExecutor) throws IOException {
         if (datafile == null) {
             throw new IOException("Null datafile in subset request");
         }
@@ -39,7 +44,7 @@ public class TabularSubsetInputStream extends InputStream {
             throw new IOException("Null or empty list of variables in subset request.");
         }
         numberOfSubsetVariables = variables.size();
-        subsetGenerator = new TabularSubsetGenerator(datafile, variables);
+        subsetGenerator = new TabularSubsetGenerator(datafile, variables, fetchExecutor);
 
     }
     
@@ -54,6 +59,10 @@ public class TabularSubsetInputStream extends InputStream {
         // Move this code into TabularSubsetGenerator
         logger.fine("subset input stream: read request, on a "+b.length+" byte buffer;");
         
+        if (subsetGenerator.isColumnar()) {
+            return subsetGenerator.readColumnarSubset(b);
+        }
+        
         if (numberOfSubsetVariables == 1) {
             logger.fine("calling the single variable subset read method");
             return subsetGenerator.readSingleColumnSubset(b);
@@ -39,6 +39,7 @@ import edu.harvard.iq.dataverse.search.IndexBatchServiceBean;
 import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
 import edu.harvard.iq.dataverse.search.savedsearch.SavedSearchServiceBean;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
+import edu.harvard.iq.dataverse.storageuse.StorageUseServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import edu.harvard.iq.dataverse.workflow.WorkflowServiceBean;
 import java.util.List;
@@ -144,6 +145,8 @@ public interface CommandContext {
     
     public ActionLogServiceBean actionLog();
     
+    public StorageUseServiceBean storageUse();
+    
     public void beginCommandSequence();
     
     public boolean completeCommandSequence(Command command);
@@ -65,6 +65,11 @@ public class GetDatasetStorageSizeCommand extends AbstractCommand<Long> {
             throw new CommandException(BundleUtil.getStringFromBundle("datasets.api.listing.error"), this);
         }
 
+        if (!countCachedFiles && version == null) {
+            // the total of the archival files is kept up to date in the database:
+            return ctxt.storageUse().findStorageSize(dataset.getId());
+        }
+
         try {
             return ctxt.datasets().findStorageSize(dataset, countCachedFiles, mode, version);
         } catch (IOException ex) {
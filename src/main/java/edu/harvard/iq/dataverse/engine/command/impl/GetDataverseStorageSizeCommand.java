@@ -46,6 +46,10 @@ public class GetDataverseStorageSizeCommand extends AbstractCommand<Long> {
     public Long execute(CommandContext ctxt) throws CommandException {
         logger.fine("getDataverseStorageSize called on "+dataverse.getAlias());
        
+        if (!countCachedFiles) {
+            // the totals of the archival files of the datasets are kept up to date in the database:
+            return ctxt.storageUse().findDataverseStorageSize(dataverse.getId());
+        }
         
         long total = 0L; 
         List<Long> childDatasets = ctxt.dataverses().findAllDataverseDatasetChildren(dataverse.getId());
@@ -140,6 +140,7 @@ public class MoveDatasetCommand extends AbstractVoidCommand {
         // OK, move
         moved.setOwner(destination);
         ctxt.em().merge(moved);
+        ctxt.permissions().permissionsChanged();
 
         try {
             boolean doNormalSolrDocCleanUp = true;
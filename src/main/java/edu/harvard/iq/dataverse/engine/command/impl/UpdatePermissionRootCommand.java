@@ -33,6 +33,7 @@ public class UpdatePermissionRootCommand extends AbstractCommand<Dataverse> {
 
         } else {
 			dvoc.setPermissionRoot(newValue);
+            ctxt.permissions().permissionsChanged();
             return ctxt.dataverses().save(dvoc);
 		}
 	}
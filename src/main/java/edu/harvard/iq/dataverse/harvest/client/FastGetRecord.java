@@ -536,6 +536,15 @@ public class FastGetRecord {
     }
     
     private void processMetadataExtended (String extendedApiUrl) throws IOException {
+        downloadExtendedMetadata(extendedApiUrl, savedMetadataFile);
+    }
+
+    /*
+     * Saves the metadata record of the Dataverse extended protocol
+     * (dataverse_json), which is not sent in the OAI response, but
+     * downloaded from the API url in it. (Used by FastListRecords too.)
+     */
+    static void downloadExtendedMetadata (String extendedApiUrl, File metadataFile) throws IOException {
         InputStream in = null;
         int responseCode = 0;
         HttpURLConnection con = null;
@@ -576,7 +585,7 @@ public class FastGetRecord {
                 in = new InflaterInputStream(con.getInputStream());
             } ...
             */
-            FileOutputStream tempOut = new FileOutputStream(savedMetadataFile);
+            FileOutputStream tempOut = new FileOutputStream(metadataFile);
             
             int bufsize;
             byte[] buffer = new byte[4 * 8192];
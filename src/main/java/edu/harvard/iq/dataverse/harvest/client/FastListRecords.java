@@ -0,0 +1,429 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipInputStream;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/*
+ * A streaming implementation of the OAI-PMH ListRecords verb, the
+ * counterpart of FastGetRecord for harvesting a whole page of records with
+ * one request (instead of a ListIdentifiers call followed by a GetRecord
+ * call for every identifier).
+ * The response is read with an event-driven (StAX) parser; the metadata
+ * payload of every record is copied, event by event, to a temp file of its
+ * own, and the record is handed over as soon as it has been read - so
+ * neither the response nor the records are ever held in memory as a whole.
+ * The records of the Dataverse extended protocol (dataverse_json) are not
+ * in the response; their API url is handed over instead, for the record to
+ * be downloaded when it is imported.
+ */
+public class FastListRecords {
+
+    private static final String DATAVERSE_EXTENDED_METADATA_ATTRIBUTE = "directApiCall";
+    private static final String XSI_PREFIX = "xsi";
+    private static final String OAI_ERROR_NO_RECORDS = "noRecordsMatch";
+    public static final String OAI_ERROR_BAD_RESUMPTION_TOKEN = "badResumptionToken";
+
+    /**
+     * A record of a ListRecords response.
+     */
+    public static class Record {
+        private String identifier;
+        private Date datestamp;
+        private boolean deleted = false;
+        private File metadataFile;
+        private String extendedMetadataUrl;
+
+        public Record() {
+        }
+
+        Record(String identifier) {
+            this.identifier = identifier;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public Date getDatestamp() {
+            return datestamp;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return The temp file with the metadata of the record (to be
+         * deleted once it has been imported), or {@code null} for a deleted
+         * record.
+         */
+        public File getMetadataFile() {
+            return metadataFile;
+        }
+
+        /**
+         * @return The API url of the metadata of a dataverse_json record;
+         * the metadata file is empty until it has been downloaded.
+         */
+        public String getExtendedMetadataUrl() {
+            return extendedMetadataUrl;
+        }
+    }
+
+    /**
+     * Takes the records of the response, one by one, as they are read.
+     */
+    public interface RecordHandler {
+        void handle(Record record) throws InterruptedException;
+    }
+
+    private final XMLInputFactory xmlInputFactory;
+    private final XMLOutputFactory xmlOutputFactory;
+
+    private String errorCode = null;
+    private String errorMessage = null;
+    private int recordCount = 0;
+
+    public FastListRecords() {
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlOutputFactory = XMLOutputFactory.newInstance();
+        xmlOutputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+    }
+
+    /**
+     * @return The code of the OAI error the server responded with, if any.
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return The number of records read so far.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Requests a page of ListRecords, and hands the records in it over to
+     * the handler.
+     *
+     * @param requestURL The url of the request (see {@link #getRequestURL}).
+     * @param handler
+     * @return The resumption token of the next page, or {@code null} if this
+     * was the last one.
+     * @throws IOException if the request failed, or the server responded with
+     * an error (other than that there are no records to harvest).
+     * @throws InterruptedException if the harvest was stopped.
+     */
+    public String harvest(String requestURL, RecordHandler handler) throws IOException, InterruptedException {
+        HttpURLConnection con = (HttpURLConnection) new URL(requestURL).openConnection();
+        con.setRequestProperty("User-Agent", "DataverseHarvester/3.0");
+        con.setRequestProperty("Accept-Encoding", "compress, gzip, identify");
+        int responseCode;
+        try {
+            responseCode = con.getResponseCode();
+        } catch (FileNotFoundException e) {
+            responseCode = HttpURLConnection.HTTP_UNAVAILABLE;
+        }
+        if (responseCode != 200) {
+            throw new IOException("ListRecords request failed. HTTP error code " + responseCode);
+        }
+
+        // support for the standard compress/gzip/deflate compression schemes:
+        String contentEncoding = con.getHeaderField("Content-Encoding");
+        InputStream in;
+        if ("compress".equals(contentEncoding)) {
+            ZipInputStream zis = new ZipInputStream(con.getInputStream());
+            zis.getNextEntry();
+            in = zis;
+        } else if ("gzip".equals(contentEncoding)) {
+            in = new GZIPInputStream(con.getInputStream());
+        } else if ("deflate".equals(contentEncoding)) {
+            in = new InflaterInputStream(con.getInputStream());
+        } else {
+            in = con.getInputStream();
+        }
+
+        try {
+            return parse(in, handler);
+        } catch (XMLStreamException xse) {
+            throw new IOException("Malformed ListRecords response: " + xse.getMessage(), xse);
+        } finally {
+            in.close();
+        }
+    }
+
+    String parse(InputStream in, RecordHandler handler) throws XMLStreamException, IOException, InterruptedException {
+        XMLStreamReader xmlr = xmlInputFactory.createXMLStreamReader(in);
+        String resumptionToken = null;
+        try {
+            xmlr.nextTag();
+            xmlr.require(XMLStreamConstants.START_ELEMENT, null, "OAI-PMH");
+            for (int event = xmlr.next(); event != XMLStreamConstants.END_DOCUMENT; event = xmlr.next()) {
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xmlr.getLocalName();
+                    if (name.equals("error")) {
+                        String code = xmlr.getAttributeValue(null, "code");
+                        String text = xmlr.getElementText();
+                        if (OAI_ERROR_NO_RECORDS.equals(code)) {
+                            // nothing (new) to harvest; not an error.
+                            continue;
+                        }
+                        errorCode = code;
+                        errorMessage = "ListRecords error code: " + code + "; ListRecords error message: " + text;
+                        throw new IOException(errorMessage);
+                    } else if (name.equals("record")) {
+                        Record record = processRecord(xmlr);
+                        recordCount++;
+                        handler.handle(record);
+                    } else if (name.equals("resumptionToken")) {
+                        String token = xmlr.getElementText().trim();
+                        resumptionToken = token.isEmpty() ? null : token;
+                    }
+                }
+            }
+        } finally {
+            xmlr.close();
+        }
+        return resumptionToken;
+    }
+
+    private Record processRecord(XMLStreamReader xmlr) throws XMLStreamException, IOException {
+        Record record = new Record();
+        for (int event = xmlr.next(); event != XMLStreamConstants.END_DOCUMENT; event = xmlr.next()) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xmlr.getLocalName();
+                if (name.equals("header")) {
+                    if ("deleted".equals(xmlr.getAttributeValue(null, "status"))) {
+                        record.deleted = true;
+                    }
+                    processHeader(xmlr, record);
+                } else if (name.equals("metadata")) {
+                    record.metadataFile = File.createTempFile("meta", ".tmp");
+                    String extendedMetadataUrl = xmlr.getAttributeValue(null, DATAVERSE_EXTENDED_METADATA_ATTRIBUTE);
+                    if (extendedMetadataUrl != null) {
+                        record.extendedMetadataUrl = extendedMetadataUrl;
+                        skipElement(xmlr);
+                    } else {
+                        try {
+                            copyMetadata(xmlr, record.metadataFile);
+                        } catch (XMLStreamException | IOException e) {
+                            record.metadataFile.delete();
+                            throw e;
+                        }
+                    }
+                } else {
+                    // <about>, etc.
+                    skipElement(xmlr);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (xmlr.getLocalName().equals("record")) {
+                    break;
+                }
+            }
+        }
+        if (record.identifier == null) {
+            throw new XMLStreamException("ListRecords record without an identifier", xmlr.getLocation());
+        }
+        return record;
+    }
+
+    private void processHeader(XMLStreamReader xmlr, Record record) throws XMLStreamException {
+        for (int event = xmlr.next(); event != XMLStreamConstants.END_DOCUMENT; event = xmlr.next()) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (xmlr.getLocalName().equals("identifier")) {
+                    record.identifier = xmlr.getElementText().trim();
+                } else if (xmlr.getLocalName().equals("datestamp")) {
+                    record.datestamp = parseDatestamp(xmlr.getElementText().trim());
+                } else {
+                    // <setSpec>
+                    skipElement(xmlr);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (xmlr.getLocalName().equals("header")) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /*
+     * Copies the contents of <metadata>...</metadata> to the file, in the
+     * platform encoding (which the importers read it in). As FastGetRecord
+     * does, the xmlns:xsi attribute is added to the top-level element of
+     * the record if it's not there; the stylesheets may need it.
+     * The namespaces declared outside the record are declared in it where
+     * they are used (the writer "repairs" the namespaces).
+     */
+    private void copyMetadata(XMLStreamReader xmlr, File metadataFile) throws XMLStreamException, IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(metadataFile), Charset.defaultCharset())) {
+            XMLStreamWriter xmlw = xmlOutputFactory.createXMLStreamWriter(out);
+            int depth = 0;
+            boolean topElement = true;
+            for (int event = xmlr.next(); event != XMLStreamConstants.END_DOCUMENT; event = xmlr.next()) {
+                switch (event) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        xmlw.writeStartElement(nonNull(xmlr.getPrefix()), xmlr.getLocalName(), nonNull(xmlr.getNamespaceURI()));
+                        boolean xsiDeclared = false;
+                        for (int i = 0; i < xmlr.getNamespaceCount(); i++) {
+                            String prefix = xmlr.getNamespacePrefix(i);
+                            if (prefix == null || prefix.isEmpty()) {
+                                xmlw.writeDefaultNamespace(nonNull(xmlr.getNamespaceURI(i)));
+                            } else {
+                                xmlw.writeNamespace(prefix, xmlr.getNamespaceURI(i));
+                                xsiDeclared |= XSI_PREFIX.equals(prefix);
+                            }
+                        }
+                        for (int i = 0; i < xmlr.getAttributeCount(); i++) {
+                            String namespace = xmlr.getAttributeNamespace(i);
+                            if (namespace == null || namespace.isEmpty()) {
+                                xmlw.writeAttribute(xmlr.getAttributeLocalName(i), xmlr.getAttributeValue(i));
+                            } else {
+                                xmlw.writeAttribute(nonNull(xmlr.getAttributePrefix(i)), namespace, xmlr.getAttributeLocalName(i), xmlr.getAttributeValue(i));
+                                xsiDeclared |= XSI_PREFIX.equals(xmlr.getAttributePrefix(i));
+                            }
+                        }
+                        if (topElement && !xsiDeclared) {
+                            xmlw.writeNamespace(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+                        }
+                        topElement = false;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (depth == 0) {
+                            // </metadata>
+                            xmlw.flush();
+                            return;
+                        }
+                        depth--;
+                        xmlw.writeEndElement();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        if (depth > 0) {
+                            xmlw.writeCharacters(xmlr.getTextCharacters(), xmlr.getTextStart(), xmlr.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        xmlw.writeCData(xmlr.getText());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        xmlw.writeComment(xmlr.getText());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        xmlw.writeProcessingInstruction(xmlr.getPITarget(), xmlr.getPIData());
+                        break;
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        xmlw.writeEntityRef(xmlr.getLocalName());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            throw new XMLStreamException("Unexpected end of the ListRecords response in a metadata record");
+        }
+    }
+
+    private static void skipElement(XMLStreamReader xmlr) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xmlr.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                throw new XMLStreamException("Unexpected end of the ListRecords response");
+            }
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    /*
+     * OAI datestamps are UTC, either days or seconds.
+     */
+    static Date parseDatestamp(String datestamp) {
+        String pattern = datestamp.length() > 10 ? "yyyy-MM-dd'T'HH:mm:ss'Z'" : "yyyy-MM-dd";
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(datestamp);
+        } catch (ParseException pe) {
+            return null;
+        }
+    }
+
+    /**
+     * Construct the url of the first ListRecords request of a harvest.
+     *
+     * @param baseURL
+     * @param metadataPrefix
+     * @param setName The set to harvest, URL-encoded; or {@code null}.
+     * @param fromDate Only the records changed since; or {@code null}.
+     * @return a String with the url.
+     */
+    public static String getRequestURL(String baseURL, String metadataPrefix, String setName, Date fromDate) {
+        StringBuilder requestURL = new StringBuilder(baseURL);
+        requestURL.append("?verb=ListRecords");
+        requestURL.append("&metadataPrefix=").append(metadataPrefix);
+        if (setName != null && !setName.isEmpty()) {
+            requestURL.append("&set=").append(setName);
+        }
+        if (fromDate != null) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            requestURL.append("&from=").append(format.format(fromDate));
+        }
+        return requestURL.toString();
+    }
+
+    /**
+     * Construct the url of a ListRecords request for the next page.
+     *
+     * @param baseURL
+     * @param resumptionToken
+     * @return a String with the url.
+     */
+    public static String getResumptionRequestURL(String baseURL, String resumptionToken) {
+        try {
+            return baseURL + "?verb=ListRecords&resumptionToken=" + URLEncoder.encode(resumptionToken, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+}
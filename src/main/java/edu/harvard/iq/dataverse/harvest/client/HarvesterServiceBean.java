@@ -14,9 +14,11 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 //import java.net.URLEncoder;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -27,21 +29,18 @@ import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.ejb.Timer;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.inject.Named;
 //import javax.xml.bind.Unmarshaller;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
 import org.apache.commons.lang.mutable.MutableBoolean;
-import org.apache.commons.lang.mutable.MutableLong;
-import org.xml.sax.SAXException;
 
-import com.lyncode.xoai.model.oaipmh.Header;
 import edu.harvard.iq.dataverse.EjbDataverseEngine;
 import edu.harvard.iq.dataverse.api.imports.ImportServiceBean;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.harvest.client.oai.OaiHandler;
 import edu.harvard.iq.dataverse.harvest.client.oai.OaiHandlerException;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import javax.persistence.EntityManager;
@@ -73,6 +72,10 @@ public class HarvesterServiceBean {
     EjbDataverseEngine engineService;
     @EJB
     IndexServiceBean indexService;
+    @EJB
+    SystemConfig systemConfig;
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
     
     private static final Logger logger = Logger.getLogger("edu.harvard.iq.dataverse.harvest.client.HarvesterServiceBean");
     private static final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
@@ -80,7 +83,10 @@ public class HarvesterServiceBean {
     
     public static final String HARVEST_RESULT_SUCCESS="success";
     public static final String HARVEST_RESULT_FAILED="failed";
-    private static final Long  INDEXING_CONTENT_BATCH_SIZE = 10000000L;
+    public static final int DEFAULT_IMPORT_WORKERS = 4;
+    // how many records read from the ListRecords responses can be waiting
+    // for each worker:
+    private static final int RECORDS_QUEUED_PER_WORKER = 10;
 
 
     public HarvesterServiceBean() {
@@ -154,12 +160,18 @@ public class HarvesterServiceBean {
         
         List<Long> harvestedDatasetIds = null;
 
-        List<Long> harvestedDatasetIdsThisBatch = new ArrayList<Long>();
+        List<Long> harvestedDatasetIdsThisBatch = Collections.synchronizedList(new ArrayList<Long>());
 
-        List<String> failedIdentifiers = new ArrayList<String>();
-        List<String> deletedIdentifiers = new ArrayList<String>();
+        List<String> failedIdentifiers = Collections.synchronizedList(new ArrayList<String>());
+        List<String> deletedIdentifiers = Collections.synchronizedList(new ArrayList<String>());
         
         Date harvestStartTime = new Date();
+        if (harvestingClientConfig.getResumptionToken() != null && harvestingClientConfig.getResumptionStartTime() != null) {
+            // Resuming a harvest that did not complete; this run counts as 
+            // started when that one did, so that the next harvest does not
+            // miss anything changed in between:
+            harvestStartTime = harvestingClientConfig.getResumptionStartTime();
+        }
         
         try {
             boolean harvestingNow = harvestingClientConfig.isHarvestingNow();
@@ -174,7 +186,7 @@ public class HarvesterServiceBean {
 
                
                 if (harvestingClientConfig.isOai()) {
-                    harvestedDatasetIds = harvestOAI(dataverseRequest, harvestingClientConfig, hdLogger, importCleanupLog, harvestErrorOccurred, failedIdentifiers, deletedIdentifiers, harvestedDatasetIdsThisBatch);
+                    harvestedDatasetIds = harvestOAI(dataverseRequest, harvestingClientConfig, harvestStartTime, hdLogger, importCleanupLog, harvestErrorOccurred, failedIdentifiers, deletedIdentifiers, harvestedDatasetIdsThisBatch);
 
                 } else {
                     throw new IOException("Unsupported harvest type");
@@ -223,19 +235,26 @@ public class HarvesterServiceBean {
     }
 
     /**
+     * Harvests the records with ListRecords: the responses are read as they
+     * arrive, and the records in them are imported, each in a transaction of
+     * its own, by :HarvestImportWorkers workers. As the records are imported,
+     * page by page, the resumption token of the last page fully imported is
+     * saved as the checkpoint of the harvest; if the harvest fails, the next
+     * one resumes from there.
      * 
      * @param harvestingClient  the harvesting client object
+     * @param harvestStartTime  when the harvest started
      * @param hdLogger          custom logger (specific to this harvesting run)
      * @param harvestErrorOccurred  have we encountered any errors during harvest?
-     * @param failedIdentifiers     Study Identifiers for failed "GetRecord" requests
+     * @param failedIdentifiers     Study Identifiers for failed records
      */
-    private List<Long> harvestOAI(DataverseRequest dataverseRequest, HarvestingClient harvestingClient, Logger hdLogger, PrintWriter importCleanupLog, MutableBoolean harvestErrorOccurred, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIdsThisBatch)
-            throws IOException, ParserConfigurationException, SAXException, TransformerException {
+    private List<Long> harvestOAI(DataverseRequest dataverseRequest, HarvestingClient harvestingClient, Date harvestStartTime, Logger hdLogger, PrintWriter importCleanupLog, MutableBoolean harvestErrorOccurred, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIdsThisBatch)
+            throws IOException {
 
         logBeginOaiHarvest(hdLogger, harvestingClient);
         
-        List<Long> harvestedDatasetIds = new ArrayList<Long>();
-        MutableLong processedSizeThisBatch = new MutableLong(0L);
+        List<Long> harvestedDatasetIds = Collections.synchronizedList(new ArrayList<Long>());
+        AtomicLong processedSize = new AtomicLong(0L);
         OaiHandler oaiHandler;
 
         try {
@@ -248,55 +267,74 @@ public class HarvesterServiceBean {
             hdLogger.log(Level.SEVERE, errorMessage);
             throw new IOException(errorMessage);
         }
-                
+        
+        int workerCount = systemConfig.getHarvestImportWorkers();
+        RecordImportQueue importQueue = new RecordImportQueue(managedThreadFactory, workerCount, workerCount * RECORDS_QUEUED_PER_WORKER, record -> {
+            hdLogger.info("processing identifier: " + record.getIdentifier() + ", date: " + record.getDatestamp());
+            MutableBoolean recordErrorOccurred = new MutableBoolean(false);
+            
+            Long datasetId = processRecord(dataverseRequest, hdLogger, importCleanupLog, oaiHandler, record, recordErrorOccurred, processedSize, deletedIdentifiers);
+            
+            if (datasetId != null) {
+                harvestedDatasetIds.add(datasetId);
+                harvestedDatasetIdsThisBatch.add(datasetId);
+            }
+            if (recordErrorOccurred.booleanValue()) {
+                failedIdentifiers.add(record.getIdentifier());
+                harvestErrorOccurred.setValue(true);
+            }
+        });
+        
+        String resumptionToken = harvestingClient.getResumptionToken();
+        String checkpoint = resumptionToken;
+        boolean resuming = resumptionToken != null;
+        if (resuming) {
+            hdLogger.info("Resuming the harvest started " + harvestStartTime + ", from resumption token " + resumptionToken);
+        }
+        
         try {
-            for (Iterator<Header> idIter = oaiHandler.runListIdentifiers(); idIter.hasNext();) {
-
-                Header h = idIter.next();
-                String identifier = h.getIdentifier();
-                Date dateStamp = h.getDatestamp();
-                
-                hdLogger.info("processing identifier: " + identifier + ", date: " + dateStamp);
-
-                MutableBoolean getRecordErrorOccurred = new MutableBoolean(false);
-
-                // Retrieve and process this record with a separate GetRecord call:
-                Long datasetId = processRecord(dataverseRequest, hdLogger, importCleanupLog, oaiHandler, identifier, getRecordErrorOccurred, processedSizeThisBatch, deletedIdentifiers, dateStamp);
-                
-                hdLogger.info("Total content processed in this batch so far: "+processedSizeThisBatch);
-                if (datasetId != null) {
-                    harvestedDatasetIds.add(datasetId);
-                    
-                    if ( harvestedDatasetIdsThisBatch == null ) {
-                        harvestedDatasetIdsThisBatch = new ArrayList<Long>();
+            while (true) {
+                FastListRecords listRecords = new FastListRecords();
+                try {
+                    resumptionToken = listRecords.harvest(oaiHandler.getListRecordsRequestURL(resumptionToken), importQueue::add);
+                } catch (IOException ioe) {
+                    if (resuming && FastListRecords.OAI_ERROR_BAD_RESUMPTION_TOKEN.equals(listRecords.getErrorCode())) {
+                        // The token has expired, or the server no longer 
+                        // knows it; start over:
+                        hdLogger.info("The resumption token of the harvest that did not complete is no longer valid; starting over.");
+                        harvestingClientService.setHarvestCheckpoint(harvestingClient.getId(), null, null);
+                        checkpoint = null;
+                        resuming = false;
+                        resumptionToken = null;
+                        continue;
                     }
-                    harvestedDatasetIdsThisBatch.add(datasetId);
-                    
-                }
-                
-                if (getRecordErrorOccurred.booleanValue() == true) {
-                    failedIdentifiers.add(identifier);
-                    harvestErrorOccurred.setValue(true);
-                    //temporary:
-                    //throw new IOException("Exception occured, stopping harvest");
+                    throw ioe;
                 }
-                
-                // reindexing in batches? - this is from DVN 3; 
-                // we may not need it anymore. 
-                if ( processedSizeThisBatch.longValue() > INDEXING_CONTENT_BATCH_SIZE ) {
-
-                    hdLogger.log(Level.INFO, "REACHED CONTENT BATCH SIZE LIMIT; calling index ("+ harvestedDatasetIdsThisBatch.size()+" datasets in the batch).");
-                    //indexService.updateIndexList(this.harvestedDatasetIdsThisBatch);
-                    hdLogger.log(Level.INFO, "REINDEX DONE.");
-
-
-                    processedSizeThisBatch.setValue(0L);
-                    harvestedDatasetIdsThisBatch = null;
+                resuming = false;
+                importQueue.endPage(resumptionToken);
+                hdLogger.info("Records in this ListRecords page: " + listRecords.getRecordCount() 
+                        + "; records waiting to be imported: " + importQueue.size()
+                        + "; total content processed so far: " + processedSize);
+                checkpoint = saveCheckpoint(harvestingClient, importQueue, checkpoint, harvestStartTime);
+
+                if (resumptionToken == null) {
+                    break;
                 }
-
             }
         } catch (OaiHandlerException e) {
-            throw new IOException("Failed to run ListIdentifiers: " + e.getMessage());
+            throw new IOException("Failed to run ListRecords: " + e.getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The harvest was interrupted");
+        } finally {
+            // import what has been read, so that the checkpoint is as far
+            // along as possible, should the harvest have failed:
+            try {
+                importQueue.finish();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            saveCheckpoint(harvestingClient, importQueue, checkpoint, harvestStartTime);
         }
 
         logCompletedOaiHarvest(hdLogger, harvestingClient);
@@ -305,21 +343,29 @@ public class HarvesterServiceBean {
 
     }
     
+    /**
+     * Saves the checkpoint of the harvest, if the import of the records has
+     * moved it forward.
+     * 
+     * @return the checkpoint saved.
+     */
+    private String saveCheckpoint(HarvestingClient harvestingClient, RecordImportQueue importQueue, String savedCheckpoint, Date harvestStartTime) {
+        String checkpoint = importQueue.getCheckpoint();
+        if (checkpoint != null && !checkpoint.equals(savedCheckpoint)) {
+            harvestingClientService.setHarvestCheckpoint(harvestingClient.getId(), checkpoint, harvestStartTime);
+            return checkpoint;
+        }
+        return savedCheckpoint;
+    }
     
-    
-    private Long processRecord(DataverseRequest dataverseRequest, Logger hdLogger, PrintWriter importCleanupLog, OaiHandler oaiHandler, String identifier, MutableBoolean recordErrorOccurred, MutableLong processedSizeThisBatch, List<String> deletedIdentifiers, Date dateStamp) {
+    private Long processRecord(DataverseRequest dataverseRequest, Logger hdLogger, PrintWriter importCleanupLog, OaiHandler oaiHandler, FastListRecords.Record record, MutableBoolean recordErrorOccurred, AtomicLong processedSize, List<String> deletedIdentifiers) {
         String errMessage = null;
         Dataset harvestedDataset = null;
-        logGetRecord(hdLogger, oaiHandler, identifier);
-        File tempFile = null;
+        String identifier = record.getIdentifier();
+        File tempFile = record.getMetadataFile();
         
         try {  
-            FastGetRecord record = oaiHandler.runGetRecord(identifier);
-            errMessage = record.getErrorMessage();
-
-            if (errMessage != null) {
-                hdLogger.log(Level.SEVERE, "Error calling GetRecord - " + errMessage);
-            } else if (record.isDeleted()) {
+            if (record.isDeleted()) {
                 hdLogger.info("Deleting harvesting dataset for "+identifier+", per the OAI server's instructions.");
                 
                 Dataset dataset = datasetService.getDatasetByHarvestInfo(oaiHandler.getHarvestingClient().getDataverse(), identifier);
@@ -333,27 +379,29 @@ public class HarvesterServiceBean {
                     hdLogger.info("No dataset found for "+identifier+", skipping delete. ");
                 }
 
+            } else if (tempFile == null) {
+                errMessage = "No metadata in the ListRecords record for " + identifier;
+                hdLogger.log(Level.SEVERE, errMessage);
             } else {
-                hdLogger.info("Successfully retrieved GetRecord response.");
-
-                tempFile = record.getMetadataFile();
-                PrintWriter cleanupLog;
+                if (record.getExtendedMetadataUrl() != null) {
+                    FastGetRecord.downloadExtendedMetadata(record.getExtendedMetadataUrl(), tempFile);
+                }
+                
                 harvestedDataset = importService.doImportHarvestedDataset(dataverseRequest, 
                         oaiHandler.getHarvestingClient(),
                         identifier,
                         oaiHandler.getMetadataPrefix(), 
-                        record.getMetadataFile(),
-                        dateStamp,
+                        tempFile,
+                        record.getDatestamp(),
                         importCleanupLog);
                 
                 hdLogger.fine("Harvest Successful for identifier " + identifier);
-                hdLogger.fine("Size of this record: " + record.getMetadataFile().length());
-                processedSizeThisBatch.add(record.getMetadataFile().length());
+                hdLogger.fine("Size of this record: " + tempFile.length());
+                processedSize.addAndGet(tempFile.length());
             }
         } catch (Throwable e) {
-            logGetRecordException(hdLogger, oaiHandler, identifier, e);
-            errMessage = "Caught exception while executing GetRecord on "+identifier;
-            //logException(e, hdLogger);
+            logRecordException(hdLogger, oaiHandler, identifier, e);
+            errMessage = "Caught exception while importing "+identifier;
                 
         } finally {
             if (tempFile != null) {
@@ -364,18 +412,8 @@ public class HarvesterServiceBean {
             }
         }
 
-        // TODO: the message below is taken from DVN3; - figure out what it means...
-        // 
-        // If we got an Error from the OAI server or an exception happened during import, then
-        // set recordErrorOccurred to true (if recordErrorOccurred is being used)
-        // otherwise throw an exception (if recordErrorOccurred is not used, i.e null)
-        
         if (errMessage != null) {
-            if (recordErrorOccurred  != null) {
-                recordErrorOccurred.setValue(true);
-            } else {
-                throw new EJBException(errMessage);
-            }
+            recordErrorOccurred.setValue(true);
         }
 
         return harvestedDataset != null ? harvestedDataset.getId() : null;
@@ -401,29 +439,17 @@ public class HarvesterServiceBean {
                 + harvestingClient.getLastNonEmptyHarvestTime() == null ? "" : "from=" + harvestingClient.getLastNonEmptyHarvestTime());
     }
     
-    public void logGetRecord(Logger hdLogger, OaiHandler oaiHandler, String identifier) {
-        hdLogger.log(Level.FINE, "Calling GetRecord: oaiUrl =" 
-                +oaiHandler.getBaseOaiUrl()
-                +"?verb=GetRecord&identifier=" 
-                +identifier 
-                +"&metadataPrefix=" + oaiHandler.getMetadataPrefix());
-    }
-    
-    public void logGetRecordException(Logger hdLogger, OaiHandler oaiHandler, String identifier, Throwable e) {
-        String errMessage = "Exception processing getRecord(), oaiUrl=" 
+    public void logRecordException(Logger hdLogger, OaiHandler oaiHandler, String identifier, Throwable e) {
+        String errMessage = "Exception processing harvested record, oaiUrl=" 
                 +oaiHandler.getBaseOaiUrl() 
                 +", identifier="
                 +identifier 
                 +", "
                 +e.getClass().getName() 
-                //+" (exception message suppressed)";
                 +", "
                 +e.getMessage();
         
             hdLogger.log(Level.SEVERE, errMessage);
-            
-            // temporary:
-            e.printStackTrace();
     }
     
     
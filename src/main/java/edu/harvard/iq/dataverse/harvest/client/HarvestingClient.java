@@ -509,9 +509,37 @@ public class HarvestingClient implements Serializable {
     }
 
     public void setDeleteInProgress(boolean deleteInProgress) {
-        this.deleted = deleteInProgress; 
+        this.deleted = deleteInProgress;
     }
-    
+
+    // The checkpoint of a harvest that did not complete: the resumption
+    // token of the last ListRecords page whose records have all been
+    // processed, and the time that harvest started. The next harvest
+    // resumes from the token (and is recorded as started at that time, so
+    // that nothing changed since then is missed by the harvests after it).
+
+    @Column(columnDefinition="TEXT")
+    private String resumptionToken;
+
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date resumptionStartTime;
+
+    public String getResumptionToken() {
+        return resumptionToken;
+    }
+
+    public void setResumptionToken(String resumptionToken) {
+        this.resumptionToken = resumptionToken;
+    }
+
+    public Date getResumptionStartTime() {
+        return resumptionStartTime;
+    }
+
+    public void setResumptionStartTime(Date resumptionStartTime) {
+        this.resumptionStartTime = resumptionStartTime;
+    }
+
     @Override
     public int hashCode() {
         int hash = 0;
@@ -185,6 +185,26 @@ public class HarvestingClientServiceBean implements java.io.Serializable {
             currentRun.setFailedDatasetCount(new Long(failedCount));
             currentRun.setDeletedDatasetCount(new Long(deletedCount));
         }
+        
+        // the harvest is complete; the next one starts over:
+        harvestingClient.setResumptionToken(null);
+        harvestingClient.setResumptionStartTime(null);
+    }
+    
+    /**
+     * Saves the checkpoint of a harvest in progress: the resumption token of
+     * the ListRecords page from which a failed harvest can be resumed, and 
+     * the time the harvest (that is, the first one of those resumed) started.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void setHarvestCheckpoint(Long hcId, String resumptionToken, Date startTime) {
+        HarvestingClient harvestingClient = em.find(HarvestingClient.class, hcId);
+        if (harvestingClient == null) {
+            return;
+        }
+        em.refresh(harvestingClient);
+        harvestingClient.setResumptionToken(resumptionToken);
+        harvestingClient.setResumptionStartTime(resumptionToken == null ? null : startTime);
     }
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
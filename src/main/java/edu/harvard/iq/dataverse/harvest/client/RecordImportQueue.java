@@ -0,0 +1,173 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The records of a harvest, read from the ListRecords responses, waiting to
+ * be imported by a number of worker threads.
+ *
+ * Each worker has a queue of its own, and the records with the same
+ * identifier always go to the same worker, so that two records of the same
+ * dataset (e.g. an update and a later delete) are never imported at the same
+ * time, nor out of order.
+ *
+ * The queues are bounded, so reading the responses stops while the workers
+ * catch up. The records are added page by page; once all the records of a
+ * page (and of the pages before it) have been processed, the resumption token
+ * of that page is the checkpoint of the harvest: if the harvest fails, it
+ * can be resumed from there without skipping any record.
+ *
+ * The records are added, and the pages ended and the checkpoint polled, by
+ * one thread - the harvest's.
+ */
+public class RecordImportQueue {
+
+    private static final Logger logger = Logger.getLogger(RecordImportQueue.class.getCanonicalName());
+
+    /**
+     * Imports (or deletes) the dataset of a record. Handles its own errors.
+     */
+    public interface RecordProcessor {
+        void process(FastListRecords.Record record);
+    }
+
+    private static class Page {
+        final AtomicInteger remaining = new AtomicInteger();
+        String resumptionToken;
+    }
+
+    private static class Item {
+        final FastListRecords.Record record;
+        final Page page;
+
+        Item(FastListRecords.Record record, Page page) {
+            this.record = record;
+            this.page = page;
+        }
+    }
+
+    private final List<BlockingQueue<Item>> queues = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final RecordProcessor processor;
+    private final Deque<Page> pages = new ArrayDeque<>();
+    private Page currentPage = new Page();
+    private String checkpoint = null;
+    private volatile boolean finished = false;
+
+    /**
+     * Starts the workers.
+     *
+     * @param threadFactory
+     * @param workerCount
+     * @param capacity The number of records that can be waiting (split
+     * between the workers).
+     * @param processor
+     */
+    public RecordImportQueue(ThreadFactory threadFactory, int workerCount, int capacity, RecordProcessor processor) {
+        this.processor = processor;
+        for (int i = 0; i < workerCount; i++) {
+            BlockingQueue<Item> queue = new ArrayBlockingQueue<>(Math.max(1, capacity / workerCount));
+            queues.add(queue);
+            Thread worker = threadFactory.newThread(() -> work(queue));
+            worker.setName("harvest-import-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Adds a record of the current page to the queue of the worker of its
+     * identifier, waiting for room in that queue.
+     *
+     * @param record
+     * @throws InterruptedException
+     */
+    public void add(FastListRecords.Record record) throws InterruptedException {
+        currentPage.remaining.incrementAndGet();
+        queues.get(Math.floorMod(Objects.hashCode(record.getIdentifier()), queues.size())).put(new Item(record, currentPage));
+    }
+
+    /**
+     * Ends the current page; the records added from now on are on the next.
+     *
+     * @param resumptionToken The resumption token of the next page.
+     */
+    public void endPage(String resumptionToken) {
+        currentPage.resumptionToken = resumptionToken;
+        pages.add(currentPage);
+        currentPage = new Page();
+    }
+
+    /**
+     * @return The resumption token of the last page of those ended so far
+     * whose records, and the records of all the pages before it, have all
+     * been processed; {@code null} if there's no such page, or if that was
+     * the last page of the harvest.
+     */
+    public String getCheckpoint() {
+        while (!pages.isEmpty() && pages.peek().remaining.get() == 0) {
+            checkpoint = pages.poll().resumptionToken;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Stops the workers once every record queued has been processed, and
+     * waits for them to stop.
+     *
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        finished = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * @return The number of records waiting to be processed.
+     */
+    public int size() {
+        int size = 0;
+        for (BlockingQueue<Item> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    private void work(BlockingQueue<Item> queue) {
+        while (true) {
+            Item item;
+            try {
+                item = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                return;
+            }
+            if (item == null) {
+                if (finished) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                processor.process(item.record);
+            } catch (RuntimeException re) {
+                logger.log(Level.SEVERE, "Unexpected error importing harvested record " + item.record.getIdentifier(), re);
+            } finally {
+                item.page.remaining.decrementAndGet();
+            }
+        }
+    }
+
+}
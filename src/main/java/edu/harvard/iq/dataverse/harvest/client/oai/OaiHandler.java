@@ -18,6 +18,7 @@ import com.lyncode.xoai.serviceprovider.exceptions.NoSetHierarchyException;
 import com.lyncode.xoai.serviceprovider.model.Context;
 import com.lyncode.xoai.serviceprovider.parameters.ListIdentifiersParameters;
 import edu.harvard.iq.dataverse.harvest.client.FastGetRecord;
+import edu.harvard.iq.dataverse.harvest.client.FastListRecords;
 import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
 import java.io.IOException;
 import java.io.Serializable;
@@ -256,6 +257,26 @@ public class OaiHandler implements Serializable {
     }
     
     
+    /**
+     * @param resumptionToken The token of the page to request, or
+     * {@code null} for the first page.
+     * @return The url of a ListRecords request, to run with
+     * {@link FastListRecords}.
+     * @throws OaiHandlerException
+     */
+    public String getListRecordsRequestURL(String resumptionToken) throws OaiHandlerException {
+        if (StringUtils.isEmpty(this.baseOaiUrl)) {
+            throw new OaiHandlerException("Attempted to execute ListRecords without server URL specified.");
+        }
+        if (resumptionToken != null) {
+            return FastListRecords.getResumptionRequestURL(this.baseOaiUrl, resumptionToken);
+        }
+        if (StringUtils.isEmpty(this.metadataPrefix)) {
+            throw new OaiHandlerException("Attempted to execute ListRecords without metadataPrefix specified");
+        }
+        return FastListRecords.getRequestURL(this.baseOaiUrl, this.metadataPrefix, this.setName, this.fromDate);
+    }
+
     private ListIdentifiersParameters buildListIdentifiersParams() throws OaiHandlerException {
         ListIdentifiersParameters mip = ListIdentifiersParameters.request();
         
@@ -0,0 +1,444 @@
+package edu.harvard.iq.dataverse.harvest.server;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Bundle of the pre-exported metadata records of one OAI set in one metadata
+ * format, kept in a single local file, so that ListRecords can copy the
+ * records straight from it, through one buffer, instead of opening the
+ * cached export of every dataset through its StorageIO.
+ *
+ * The bundle of a set lives in {@code <dataverse.files.directory>/oai/} and
+ * consists of two files per format:
+ * <ul>
+ * <li>{@code <format>.idx}: the name of the data file on the first line,
+ * then one line per record: global id, offset, length and the export time of
+ * the dataset the record was copied from. The last line of a global id
+ * wins.</li>
+ * <li>{@code <format>-<timestamp>.bundle}: the records, back to back.</li>
+ * </ul>
+ * Both files are only ever appended to: a record is written to the data file
+ * before its line is added to the index. When more than half of the data
+ * file is taken up by records that were superseded, or whose datasets left
+ * the set, the live records are copied into a new data file and the index is
+ * replaced. A record is only served from the bundle if its export time is
+ * still the export time of the dataset; if not, or if anything goes wrong,
+ * the cached export is used as before.
+ *
+ * Bundles are (re)generated by OAIRecordServiceBean.updateOaiRecords, when
+ * the :OAIRecordBundles setting is true.
+ */
+public class OAIRecordBundle {
+
+    private static final Logger logger = Logger.getLogger(OAIRecordBundle.class.getCanonicalName());
+
+    private static final String BUNDLES_DIRECTORY = "oai";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String DATA_SUFFIX = ".bundle";
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The bundles currently in use, by index file. Reloaded when the index
+     * file changes.
+     */
+    private static final Map<Path, OAIRecordBundle> bundles = new ConcurrentHashMap<>();
+
+    /**
+     * Locks of the bundle updates in this JVM, by hash of the index file.
+     */
+    private static final Object[] updateLocks = new Object[16];
+
+    static {
+        for (int i = 0; i < updateLocks.length; i++) {
+            updateLocks[i] = new Object();
+        }
+    }
+
+    private final Path dataFile;
+    private final Map<String, Entry> entries;
+    private final long indexSize;
+    private final FileTime indexModified;
+
+    private OAIRecordBundle(Path dataFile, Map<String, Entry> entries, long indexSize, FileTime indexModified) {
+        this.dataFile = dataFile;
+        this.entries = entries;
+        this.indexSize = indexSize;
+        this.indexModified = indexModified;
+    }
+
+    /**
+     * Where one record is in the data file.
+     */
+    public static class Entry {
+        private final long offset;
+        private final long length;
+        private final long exportTime;
+
+        Entry(long offset, long length, long exportTime) {
+            this.offset = offset;
+            this.length = length;
+            this.exportTime = exportTime;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Copies the record from the data file of its bundle to the output
+         * stream, through one heap buffer. (The output stream is the servlet
+         * response, not a channel, so FileChannel.transferTo could not hand
+         * the bytes over in the kernel anyway; going through
+         * Channels.newChannel would only add a copy.)
+         *
+         * @throws IOException if the record could not be copied; if nothing
+         * was written yet, the cached export can be used instead.
+         */
+        public void writeTo(FileChannel bundleChannel, OutputStream outputStream) throws IOException {
+            if (offset + length > bundleChannel.size()) {
+                throw new IOException("OAI record bundle is shorter than its index");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, COPY_BUFFER_SIZE));
+            long copied = 0;
+            while (copied < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+                int read = bundleChannel.read(buffer, offset + copied);
+                if (read < 0) {
+                    throw new IOException("OAI record bundle is shorter than its index");
+                }
+                outputStream.write(buffer.array(), 0, read);
+                copied += read;
+            }
+        }
+    }
+
+    /**
+     * The number of bytes written to a channel so far.
+     */
+    interface ByteCount {
+        long get() throws IOException;
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code source}, from {@code position}, to
+     * {@code target}: with FileChannel.transferTo for as long as it makes
+     * progress, and through a buffer from there on if it fails, is not
+     * supported by the channels, or stops making progress (it may copy fewer
+     * bytes than asked for, even none).
+     *
+     * @param written The number of bytes written to {@code target} so far,
+     * which tells where the buffered copy has to pick up.
+     */
+    static void copy(FileChannel source, long position, long length, WritableByteChannel target, ByteCount written) throws IOException {
+        long start = written.get();
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                long transferred = source.transferTo(position + length - remaining, remaining, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                remaining -= transferred;
+            }
+        } catch (IOException | UnsupportedOperationException ex) {
+            logger.fine("transferTo failed, copying the rest of the record through a buffer: " + ex);
+        }
+
+        long copied = written.get() - start;
+        if (copied < length) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length - copied, COPY_BUFFER_SIZE));
+            while (copied < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+                int read = source.read(buffer, position + copied);
+                if (read < 0) {
+                    throw new IOException("OAI record bundle is shorter than its index");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                copied += read;
+            }
+        }
+    }
+
+    /**
+     * Source of the records written to the bundles, i.e. the cached exports.
+     */
+    public interface RecordSource {
+        InputStream open(String globalId) throws IOException;
+    }
+
+    /**
+     * @return The base directory of the bundles, or null if
+     * dataverse.files.directory is not configured.
+     */
+    public static Path getBundlesDirectory() {
+        String filesDirectory = System.getProperty(SystemConfig.FILES_DIRECTORY);
+        if (filesDirectory == null || filesDirectory.isEmpty()) {
+            return null;
+        }
+        return Paths.get(filesDirectory, BUNDLES_DIRECTORY);
+    }
+
+    /**
+     * @return The bundle of the set in this format, or null if there is
+     * none.
+     */
+    public static OAIRecordBundle find(String setName, String formatName) {
+        Path bundlesDirectory = getBundlesDirectory();
+        return bundlesDirectory == null ? null : find(bundlesDirectory, setName, formatName);
+    }
+
+    static OAIRecordBundle find(Path bundlesDirectory, String setName, String formatName) {
+        Path indexFile = indexFile(bundlesDirectory, setName, formatName);
+        try {
+            long size = Files.size(indexFile);
+            FileTime modified = Files.getLastModifiedTime(indexFile);
+            OAIRecordBundle bundle = bundles.get(indexFile);
+            if (bundle != null && bundle.indexSize == size && bundle.indexModified.equals(modified)) {
+                return bundle;
+            }
+            bundle = load(indexFile);
+            bundles.put(indexFile, bundle);
+            return bundle;
+        } catch (NoSuchFileException nsfe) {
+            bundles.remove(indexFile);
+            return null;
+        } catch (IOException ioex) {
+            logger.warning("Failed to read OAI record bundle index " + indexFile + ": " + ioex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The record of the dataset, if it is in the bundle and was
+     * copied from the dataset's latest export; null otherwise.
+     */
+    public Entry getEntry(String globalId, Date lastExportTime) {
+        Entry entry = entries.get(globalId);
+        if (entry == null || lastExportTime == null || entry.exportTime != lastExportTime.getTime()) {
+            return null;
+        }
+        return entry;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public FileChannel openChannel() throws IOException {
+        return FileChannel.open(dataFile, StandardOpenOption.READ);
+    }
+
+    /**
+     * Brings the bundle of the set in this format up to date: records that
+     * are missing, or were copied from an older export, are appended.
+     *
+     * @param exportTimes The global ids of the (published and exported)
+     * datasets in the set, and the time they were last exported.
+     * @return The number of records written.
+     */
+    public static int update(String setName, String formatName, Map<String, Date> exportTimes, RecordSource source) throws IOException {
+        Path bundlesDirectory = getBundlesDirectory();
+        if (bundlesDirectory == null) {
+            throw new IOException(SystemConfig.FILES_DIRECTORY + " is not set");
+        }
+        return update(bundlesDirectory, setName, formatName, exportTimes, source);
+    }
+
+    static int update(Path bundlesDirectory, String setName, String formatName, Map<String, Date> exportTimes, RecordSource source) throws IOException {
+        Path indexFile = indexFile(bundlesDirectory, setName, formatName);
+        // one update at a time per bundle, in this JVM; set exports of the
+        // same set are not expected to overlap across the cluster.
+        synchronized (updateLocks[Math.floorMod(indexFile.hashCode(), updateLocks.length)]) {
+            Files.createDirectories(indexFile.getParent());
+            OAIRecordBundle current = find(bundlesDirectory, setName, formatName);
+            if (current != null && !Files.exists(current.dataFile)) {
+                current = null;
+            }
+
+            Map<String, Entry> live = new HashMap<>();
+            List<String> missing = new ArrayList<>();
+            long liveBytes = 0;
+            for (Map.Entry<String, Date> exportTime : exportTimes.entrySet()) {
+                Entry entry = current == null ? null : current.getEntry(exportTime.getKey(), exportTime.getValue());
+                if (entry != null) {
+                    live.put(exportTime.getKey(), entry);
+                    liveBytes += entry.length;
+                } else {
+                    missing.add(exportTime.getKey());
+                }
+            }
+            Collections.sort(missing);
+
+            long dataSize = current == null ? 0 : Files.size(current.dataFile);
+            if (current != null && dataSize - liveBytes <= liveBytes) {
+                return missing.isEmpty() ? 0 : append(current.dataFile, indexFile, missing, exportTimes, source);
+            }
+            return rewrite(current, indexFile, formatName, live, missing, exportTimes, source);
+        }
+    }
+
+    private static int append(Path dataFile, Path indexFile, List<String> missing, Map<String, Date> exportTimes, RecordSource source) throws IOException {
+        StringBuilder indexLines = new StringBuilder();
+        int written = 0;
+        try (FileChannel data = FileChannel.open(dataFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            OutputStream dataStream = Channels.newOutputStream(data);
+            for (String globalId : missing) {
+                long offset = data.size();
+                if (copyRecord(globalId, source, dataStream)) {
+                    appendIndexLine(indexLines, globalId, offset, data.size() - offset, exportTimes.get(globalId));
+                    written++;
+                }
+            }
+            // the records have to be on disk before the index points to them
+            data.force(false);
+        }
+        Files.write(indexFile, indexLines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        return written;
+    }
+
+    private static int rewrite(OAIRecordBundle current, Path indexFile, String formatName, Map<String, Entry> live, List<String> missing, Map<String, Date> exportTimes, RecordSource source) throws IOException {
+        Path dataFile = indexFile.resolveSibling(encode(formatName) + "-" + System.currentTimeMillis() + DATA_SUFFIX);
+        StringBuilder index = new StringBuilder(dataFile.getFileName().toString()).append('\n');
+        int written = 0;
+
+        try (FileChannel data = FileChannel.open(dataFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            if (!live.isEmpty()) {
+                List<String> liveIds = new ArrayList<>(live.keySet());
+                Collections.sort(liveIds);
+                try (FileChannel oldData = current.openChannel()) {
+                    for (String globalId : liveIds) {
+                        Entry entry = live.get(globalId);
+                        long offset = data.size();
+                        if (entry.offset + entry.length > oldData.size()) {
+                            throw new IOException("OAI record bundle " + current.dataFile + " is shorter than its index");
+                        }
+                        copy(oldData, entry.offset, entry.length, data, data::position);
+                        appendIndexLine(index, globalId, offset, entry.length, new Date(entry.exportTime));
+                    }
+                }
+            }
+            OutputStream dataStream = Channels.newOutputStream(data);
+            for (String globalId : missing) {
+                long offset = data.size();
+                if (copyRecord(globalId, source, dataStream)) {
+                    appendIndexLine(index, globalId, offset, data.size() - offset, exportTimes.get(globalId));
+                    written++;
+                }
+            }
+            data.force(false);
+        }
+
+        Path newIndexFile = indexFile.resolveSibling(indexFile.getFileName() + ".new");
+        Files.write(newIndexFile, index.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(newIndexFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // requests that are still reading the old data file keep their open
+        // channel; the ones that have not opened it yet fall back on the
+        // cached exports.
+        if (current != null) {
+            Files.deleteIfExists(current.dataFile);
+        }
+        return written;
+    }
+
+    private static boolean copyRecord(String globalId, RecordSource source, OutputStream dataStream) throws IOException {
+        InputStream record;
+        try {
+            record = source.open(globalId);
+        } catch (IOException ioex) {
+            logger.fine("No export to add to the OAI record bundle for " + globalId + ": " + ioex.getMessage());
+            return false;
+        }
+        if (record == null) {
+            return false;
+        }
+        try (InputStream in = record) {
+            byte[] buffer = new byte[4 * 8192];
+            int bufsize;
+            while ((bufsize = in.read(buffer)) != -1) {
+                dataStream.write(buffer, 0, bufsize);
+            }
+        }
+        dataStream.flush();
+        return true;
+    }
+
+    private static void appendIndexLine(StringBuilder index, String globalId, long offset, long length, Date exportTime) {
+        index.append(globalId).append(FIELD_SEPARATOR)
+                .append(offset).append(FIELD_SEPARATOR)
+                .append(length).append(FIELD_SEPARATOR)
+                .append(exportTime.getTime()).append('\n');
+    }
+
+    private static OAIRecordBundle load(Path indexFile) throws IOException {
+        // stat before reading, so that an append made while we read is
+        // picked up next time
+        long size = Files.size(indexFile);
+        FileTime modified = Files.getLastModifiedTime(indexFile);
+        String index = new String(Files.readAllBytes(indexFile), StandardCharsets.UTF_8);
+
+        String[] lines = index.split("\n", -1);
+        Path dataFile = indexFile.resolveSibling(lines[0].trim());
+        Map<String, Entry> entries = new HashMap<>();
+        // the last element is either empty, or a line that is still being
+        // written
+        for (int i = 1; i < lines.length - 1; i++) {
+            String[] fields = lines[i].split(String.valueOf(FIELD_SEPARATOR));
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+            } catch (NumberFormatException nfe) {
+                logger.fine("Skipping invalid line in " + indexFile + ": " + lines[i]);
+            }
+        }
+        return new OAIRecordBundle(dataFile, entries, size, modified);
+    }
+
+    private static Path indexFile(Path bundlesDirectory, String setName, String formatName) {
+        // the default set has an empty name
+        String setDirectory = "set_" + encode(setName == null ? "" : setName);
+        return bundlesDirectory.resolve(setDirectory).resolve(encode(formatName) + INDEX_SUFFIX);
+    }
+
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+}
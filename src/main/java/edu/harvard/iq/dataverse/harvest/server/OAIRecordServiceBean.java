@@ -10,12 +10,15 @@ import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.export.ExportException;
 import edu.harvard.iq.dataverse.export.ExportService;
+import edu.harvard.iq.dataverse.export.spi.Exporter;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
+import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -52,6 +55,8 @@ public class OAIRecordServiceBean implements java.io.Serializable {
     DatasetServiceBean datasetService;
     @EJB 
     SettingsServiceBean settingsService;
+    @EJB
+    SystemConfig systemConfig;
     //@EJB
     //ExportService exportService;
 
@@ -84,6 +89,10 @@ public class OAIRecordServiceBean implements java.io.Serializable {
             setUpdateLogger.fine("No records in the set yet.");
         }
 
+        // the published datasets of the set, and when they were exported, for
+        // the OAI record bundles:
+        Map<String, Dataset> exportedDatasets = new HashMap<>();
+
         if (datasetIds != null) {
             for (Long datasetId : datasetIds) {
                 setUpdateLogger.fine("processing dataset id=" + datasetId);
@@ -124,6 +133,9 @@ public class OAIRecordServiceBean implements java.io.Serializable {
                     setUpdateLogger.fine("\"last exported\" timestamp, after db refresh: " + dataset.getLastExportTime());
 
                     updateOaiRecordForDataset(dataset, setName, recordMap, setUpdateLogger);
+                    if (dataset.getLastExportTime() != null) {
+                        exportedDatasets.put(dataset.getGlobalIdString(), dataset);
+                    }
                 }
             }
         }
@@ -131,6 +143,58 @@ public class OAIRecordServiceBean implements java.io.Serializable {
         // anything left in the map should be marked as removed!
         markOaiRecordsAsRemoved( recordMap.values(), updateTime, setUpdateLogger);
         
+        if (systemConfig.isOAIRecordBundles()) {
+            updateOaiRecordBundles(setName, exportedDatasets, setUpdateLogger);
+        }
+    }
+    
+    /**
+     * Brings the OAI record bundles of the set (one per harvestable metadata
+     * format) up to date with the cached exports of its datasets. See
+     * OAIRecordBundle.
+     */
+    public void updateOaiRecordBundles(String setName, Map<String, Dataset> exportedDatasets, Logger setUpdateLogger) {
+        if (OAIRecordBundle.getBundlesDirectory() == null) {
+            setUpdateLogger.warning("Not updating the OAI record bundles: " + SystemConfig.FILES_DIRECTORY + " is not set.");
+            return;
+        }
+        Map<String, Date> exportTimes = new HashMap<>();
+        for (Dataset dataset : exportedDatasets.values()) {
+            exportTimes.put(dataset.getGlobalIdString(), dataset.getLastExportTime());
+        }
+        ExportService exportServiceInstance = ExportService.getInstance(settingsService);
+        for (String formatName : getHarvestableFormats(exportServiceInstance)) {
+            try {
+                int written = OAIRecordBundle.update(setName, formatName, exportTimes, globalId -> {
+                    try {
+                        return exportServiceInstance.getExport(exportedDatasets.get(globalId), formatName);
+                    } catch (ExportException ee) {
+                        throw new IOException(ee.getMessage(), ee);
+                    }
+                });
+                setUpdateLogger.fine("Wrote " + written + " records to the " + formatName + " bundle of set \"" + setName + "\"");
+            } catch (IOException ioex) {
+                setUpdateLogger.warning("Failed to update the " + formatName + " OAI record bundle of set \"" + setName + "\": " + ioex.getMessage());
+            }
+        }
+    }
+    
+    // the formats served with pre-exported metadata; same as the ones 
+    // OAIServlet offers, other than dataverse_json, whose records only link 
+    // to the export API.
+    private List<String> getHarvestableFormats(ExportService exportServiceInstance) {
+        List<String> formatNames = new ArrayList<>();
+        for (String[] provider : exportServiceInstance.getExportersLabels()) {
+            try {
+                Exporter exporter = exportServiceInstance.getExporter(provider[1]);
+                if (exporter.isXMLFormat() && exporter.isHarvestable()) {
+                    formatNames.add(provider[1]);
+                }
+            } catch (ExportException ex) {
+                logger.fine("No exporter for " + provider[1]);
+            }
+        }
+        return formatNames;
     }
     
     // This method updates -  creates/refreshes/un-marks-as-deleted - one OAI 
@@ -316,34 +380,7 @@ public class OAIRecordServiceBean implements java.io.Serializable {
         TypedQuery<OAIRecord> query = em.createQuery(queryString, OAIRecord.class);
         if (setName != null) { query.setParameter("setName",setName); }
         if (from != null) { query.setParameter("from",from,TemporalType.TIMESTAMP); }
-        // In order to achieve inclusivity on the "until" matching, we need to do 
-        // the following (if the "until" parameter is supplied):
-        // 1) if the supplied "until" parameter has the time portion (and is not just
-        // a date), we'll increment it by one second. This is because the time stamps we 
-        // keep in the database also have fractional thousands of a second. 
-        // So, a record may be shown as "T17:35:45", but in the database it is 
-        // actually "17:35:45.356", so "<= 17:35:45" isn't going to work on this 
-        // time stamp! - So we want to try "<= 17:35:45" instead. 
-        // 2) if it's just a date, we'll increment it by a *full day*. Otherwise
-        // our database time stamp of 2016-10-23T17:35:45.123Z is NOT going to 
-        // match " <= 2016-10-23" - which is really going to be interpreted as 
-        // "2016-10-23T00:00:00.000". 
-        // -- L.A. 4.6
-        
-        if (until != null) { 
-            // 24 * 3600 * 1000 = number of milliseconds in a day. 
-            
-            if (until.getTime() % (24 * 3600 * 1000) == 0) {
-                // The supplied "until" parameter is a date, with no time
-                // portion. 
-                logger.fine("plain date. incrementing by one day");
-                until.setTime(until.getTime()+(24 * 3600 * 1000));
-            } else {
-                logger.fine("date and time. incrementing by one second");
-                until.setTime(until.getTime()+1000);
-            }
-            query.setParameter("until",until,TemporalType.TIMESTAMP); 
-        }
+        if (until != null) { query.setParameter("until",inclusiveUntil(until),TemporalType.TIMESTAMP); }
                 
         try {
             return query.getResultList();      
@@ -353,6 +390,116 @@ public class OAIRecordServiceBean implements java.io.Serializable {
         }
     }
     
+    /**
+     * Keyset-paginated version of
+     * {@link #findOaiRecordsBySetName(String, Date, Date)}, for serving
+     * ListRecords and ListIdentifiers one resumption token page at a time.
+     * Records are ordered by (lastUpdateTime, id) and the page starts right
+     * after the record with the given lastUpdateTime and id, so the database
+     * does not have to read or skip the records of the earlier pages.
+     *
+     * @param afterTime lastUpdateTime of the last record of the previous page,
+     * or null for the first page.
+     * @param afterId id of the last record of the previous page.
+     * @param offset Only used if afterTime is null: the number of records to
+     * skip, for resumption tokens issued without a keyset cursor. These pages
+     * keep the order those tokens were issued in, by globalId, so that a
+     * harvest started before the keyset cursors neither skips nor repeats
+     * records.
+     * @param maxResults Maximum number of records returned. Ask for one more
+     * than the page size to find out whether there is another page.
+     */
+    public List<OAIRecord> findOaiRecordsBySetName(String setName, Date from, Date until, Date afterTime, Long afterId, int offset, int maxResults) {
+        if (setName == null) {
+            setName = "";
+        }
+
+        String queryString = "SELECT object(h) from OAIRecord h where h.setName = :setName";
+        queryString += from != null ? " and h.lastUpdateTime >= :from" : "";
+        queryString += until != null ? " and h.lastUpdateTime<=:until" : "";
+        if (afterTime != null) {
+            queryString += " and (h.lastUpdateTime > :afterTime or (h.lastUpdateTime = :afterTime and h.id > :afterId))";
+        }
+        if (afterTime == null && offset > 0) {
+            queryString += " order by h.globalId, h.id";
+        } else {
+            queryString += " order by h.lastUpdateTime, h.id";
+        }
+
+        logger.fine("Query: "+queryString);
+
+        TypedQuery<OAIRecord> query = em.createQuery(queryString, OAIRecord.class);
+        query.setParameter("setName", setName);
+        if (from != null) { query.setParameter("from",from,TemporalType.TIMESTAMP); }
+        if (until != null) { query.setParameter("until",inclusiveUntil(until),TemporalType.TIMESTAMP); }
+        if (afterTime != null) {
+            query.setParameter("afterTime", afterTime, TemporalType.TIMESTAMP);
+            query.setParameter("afterId", afterId);
+        } else if (offset > 0) {
+            query.setFirstResult(offset);
+        }
+        query.setMaxResults(maxResults);
+
+        try {
+            return query.getResultList();
+        } catch (Exception ex) {
+            logger.fine("Caught exception; returning null.");
+            return null;
+        }
+    }
+
+    /**
+     * @return The records of the given datasets in sets other than setName,
+     * ordered by globalId.
+     */
+    public List<OAIRecord> findOaiRecordsNotInThisSet(String setName, Collection<String> globalIds) {
+        if (globalIds.isEmpty()) {
+            return null;
+        }
+        if (setName == null) {
+            setName = "";
+        }
+        String queryString = "SELECT object(h) from OAIRecord h where h.globalId in :globalIds"
+                + " and h.setName is not null and h.setName != '' and h.setName != :setName"
+                + " order by h.globalId";
+        try {
+            return em.createQuery(queryString, OAIRecord.class)
+                    .setParameter("globalIds", globalIds)
+                    .setParameter("setName", setName)
+                    .getResultList();
+        } catch (Exception ex) {
+            logger.fine("Caught exception; returning null.");
+            return null;
+        }
+    }
+
+    // In order to achieve inclusivity on the "until" matching, we need to do 
+    // the following (if the "until" parameter is supplied):
+    // 1) if the supplied "until" parameter has the time portion (and is not just
+    // a date), we'll increment it by one second. This is because the time stamps we 
+    // keep in the database also have fractional thousands of a second. 
+    // So, a record may be shown as "T17:35:45", but in the database it is 
+    // actually "17:35:45.356", so "<= 17:35:45" isn't going to work on this 
+    // time stamp! - So we want to try "<= 17:35:45" instead. 
+    // 2) if it's just a date, we'll increment it by a *full day*. Otherwise
+    // our database time stamp of 2016-10-23T17:35:45.123Z is NOT going to 
+    // match " <= 2016-10-23" - which is really going to be interpreted as 
+    // "2016-10-23T00:00:00.000". 
+    // -- L.A. 4.6
+    private Date inclusiveUntil(Date until) {
+        // 24 * 3600 * 1000 = number of milliseconds in a day. 
+
+        if (until.getTime() % (24 * 3600 * 1000) == 0) {
+            // The supplied "until" parameter is a date, with no time
+            // portion. 
+            logger.fine("plain date. incrementing by one day");
+            return new Date(until.getTime()+(24 * 3600 * 1000));
+        } else {
+            logger.fine("date and time. incrementing by one second");
+            return new Date(until.getTime()+1000);
+        }
+    }
+    
     // This method is to only get the records NOT marked as "deleted":
     public List<OAIRecord> findActiveOaiRecordsBySetName(String setName) {
         
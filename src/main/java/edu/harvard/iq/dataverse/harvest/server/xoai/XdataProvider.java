@@ -35,7 +35,7 @@ public class XdataProvider {
     private final XgetRecordHandler getRecordHandler;
     private final ListSetsHandler listSetsHandler;
     private final XlistRecordsHandler listRecordsHandler;
-    private final ListIdentifiersHandler listIdentifiersHandler;
+    private final XlistIdentifiersHandler listIdentifiersHandler;
     private final ListMetadataFormatsHandler listMetadataFormatsHandler;
     private final ErrorHandler errorsHandler;
 
@@ -47,7 +47,7 @@ public class XdataProvider {
         this.listSetsHandler = new ListSetsHandler(context, repository);
         this.listMetadataFormatsHandler = new ListMetadataFormatsHandler(context, repository);
         this.listRecordsHandler = new XlistRecordsHandler(context, repository);
-        this.listIdentifiersHandler = new ListIdentifiersHandler(context, repository);
+        this.listIdentifiersHandler = new XlistIdentifiersHandler(context, repository);
         //this.getRecordHandler = new GetRecordHandler(context, repository);
         this.getRecordHandler = new XgetRecordHandler(context, repository);
         this.errorsHandler = new ErrorHandler();
@@ -104,7 +104,7 @@ public class XdataProvider {
 
     private OAICompiledRequest compileParameters(OAIRequest requestParameters) throws IllegalVerbException, UnknownParameterException, BadArgumentException, DuplicateDefinitionException, BadResumptionToken {
         try {
-            return requestParameters.compile();
+            return OAICompiledRequest.compile(requestParameters, XresumptionTokenHelper.FORMAT);
         } catch (InvalidResumptionTokenException e) {
             throw new BadResumptionToken("The resumption token is invalid");
         }
@@ -21,7 +21,9 @@ import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
 import edu.harvard.iq.dataverse.util.StringUtil;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -112,20 +114,36 @@ public class XitemRepository implements ItemRepository {
 
     @Override
     public ListItemIdentifiersResult getItemIdentifiers(List<ScopedFilter> filters, int offset, int length, String setSpec, Date from, Date until) throws OAIException {
+        return getItemIdentifiers(offset, length, setSpec, from, until, null, null);
+    }
+
+    /**
+     * Like the ItemRepository methods, but can also start the page right after
+     * the last record of the previous one (a keyset cursor), instead of at
+     * offset.
+     *
+     * @param afterTime lastUpdateTime of the last record of the previous page,
+     * or null to start at offset (in the order of the tokens issued without a
+     * keyset cursor, by globalId).
+     * @param afterId id of the last record of the previous page.
+     */
+    public ListItemIdentifiersResult getItemIdentifiers(int offset, int length, String setSpec, Date from, Date until, Date afterTime, Long afterId) throws OAIException {
         logger.fine("calling getItemIdentifiers; offset=" + offset
                 + ", length=" + length
                 + ", setSpec=" + setSpec
                 + ", from=" + from
-                + ", until=" + until);
-
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until);
+                + ", until=" + until
+                + ", afterTime=" + afterTime
+                + ", afterId=" + afterId);
 
-        logger.fine("total " + oaiRecords.size() + " returned");
+        // one more than needed, to find out if there is another page
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until, afterTime, afterId, offset, length + 1);
 
         List<ItemIdentifier> xoaiItems = new ArrayList<>();
         if (oaiRecords != null && !oaiRecords.isEmpty()) {
+            logger.fine("total " + oaiRecords.size() + " returned");
 
-            for (int i = offset; i < offset + length && i < oaiRecords.size(); i++) {
+            for (int i = 0; i < length && i < oaiRecords.size(); i++) {
                 OAIRecord record = oaiRecords.get(i);
                 xoaiItems.add(new Xitem(record));
             }
@@ -133,9 +151,9 @@ public class XitemRepository implements ItemRepository {
             // Run a second pass, looking for records in this set that occur
             // in *other* sets. Then we'll add these multiple sets to the 
             // formatted output in the header:
-            addExtraSets(xoaiItems, setSpec, from, until);
+            addExtraSets(xoaiItems, setSpec);
             
-            boolean hasMore = offset + length < oaiRecords.size();
+            boolean hasMore = oaiRecords.size() > length;
             ListItemIdentifiersResult result = new ListItemIdentifiersResult(hasMore, xoaiItems);
             logger.fine("returning result with " + xoaiItems.size() + " items.");
             return result;
@@ -181,31 +199,48 @@ public class XitemRepository implements ItemRepository {
 
     @Override
     public ListItemsResults getItems(List<ScopedFilter> filters, int offset, int length, String setSpec, Date from, Date until) throws OAIException {
+        return getItems(offset, length, setSpec, from, until, null, null);
+    }
+
+    /**
+     * Keyset version of the ItemRepository getItems methods, see
+     * {@link #getItemIdentifiers(int, int, String, Date, Date, Date, Long)}.
+     *
+     * The datasets of the whole page are looked up at once. Items whose
+     * dataset no longer exists are still returned (without a dataset), so that
+     * the last item is always the last record of the page; they are left out
+     * of the response by XlistRecordsHandler.
+     */
+    public ListItemsResults getItems(int offset, int length, String setSpec, Date from, Date until, Date afterTime, Long afterId) throws OAIException {
         logger.fine("calling getItems; offset=" + offset
                 + ", length=" + length
                 + ", setSpec=" + setSpec
                 + ", from=" + from
-                + ", until=" + until);
+                + ", until=" + until
+                + ", afterTime=" + afterTime
+                + ", afterId=" + afterId);
 
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until);
-
-        logger.fine("total " + oaiRecords.size() + " returned");
+        // one more than needed, to find out if there is another page
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until, afterTime, afterId, offset, length + 1);
 
         List<Item> xoaiItems = new ArrayList<>();
         if (oaiRecords != null && !oaiRecords.isEmpty()) {
+            logger.fine("total " + oaiRecords.size() + " returned");
 
-            for (int i = offset; i < offset + length && i < oaiRecords.size(); i++) {
-                OAIRecord oaiRecord = oaiRecords.get(i);
-                Dataset dataset = datasetService.findByGlobalId(oaiRecord.getGlobalId());
-                if (dataset != null) {
-                    Xitem xItem = new Xitem(oaiRecord).withDataset(dataset);
-                    xoaiItems.add(xItem);
-                }
+            List<OAIRecord> page = oaiRecords.subList(0, Math.min(length, oaiRecords.size()));
+            List<String> globalIds = new ArrayList<>();
+            for (OAIRecord oaiRecord : page) {
+                globalIds.add(oaiRecord.getGlobalId());
+            }
+            Map<String, Dataset> datasets = datasetService.findByGlobalIds(globalIds);
+
+            for (OAIRecord oaiRecord : page) {
+                xoaiItems.add(new Xitem(oaiRecord).withDataset(datasets.get(oaiRecord.getGlobalId())));
             }
             
-            addExtraSets(xoaiItems, setSpec, from, until);
+            addExtraSets(xoaiItems, setSpec);
             
-            boolean hasMore = offset + length < oaiRecords.size();
+            boolean hasMore = oaiRecords.size() > length;
             ListItemsResults result = new ListItemsResults(hasMore, xoaiItems);
             logger.fine("returning result with " + xoaiItems.size() + " items.");
             return result;
@@ -214,33 +249,30 @@ public class XitemRepository implements ItemRepository {
         return new ListItemsResults(false, xoaiItems);
     }
     
-    private void addExtraSets(Object xoaiItemsList, String setSpec, Date from, Date until) {
+    private void addExtraSets(Object xoaiItemsList, String setSpec) {
         
         List<Xitem> xoaiItems = (List<Xitem>)xoaiItemsList;
         
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsNotInThisSet(setSpec, from, until);
+        if (xoaiItems.isEmpty()) {
+            return;
+        }
+        
+        // Look up the other sets of the items on this page only:
+        Map<String, Xitem> itemsByGlobalId = new HashMap<>();
+        for (Xitem xitem : xoaiItems) {
+            itemsByGlobalId.put(xitem.getIdentifier(), xitem);
+        }
+        
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsNotInThisSet(setSpec, itemsByGlobalId.keySet());
         
         if (oaiRecords == null || oaiRecords.isEmpty()) {
             return;
         }
                 
-        // Make a second pass through the list of xoaiItems already found for this set, 
-        // and add any other sets in which this item occurs:
-        
-        int j = 0;
-        for (int i = 0; i < xoaiItems.size(); i++) {
-            // fast-forward the second list, until we find a record with this identifier, 
-            // or until we are past this record (both lists are sorted alphabetically by
-            // the identifier:
-            Xitem xitem = xoaiItems.get(i);
-            
-            while (j < oaiRecords.size() && xitem.getIdentifier().compareTo(oaiRecords.get(j).getGlobalId()) > 0) {
-                j++;
-            }
-            
-            while (j < oaiRecords.size() && xitem.getIdentifier().equals(oaiRecords.get(j).getGlobalId())) {
-                xoaiItems.get(i).getSets().add(new Set(oaiRecords.get(j).getSetName()));
-                j++;
+        for (OAIRecord oaiRecord : oaiRecords) {
+            Xitem xitem = itemsByGlobalId.get(oaiRecord.getGlobalId());
+            if (xitem != null) {
+                xitem.getSets().add(new Set(oaiRecord.getSetName()));
             }
         }
                 
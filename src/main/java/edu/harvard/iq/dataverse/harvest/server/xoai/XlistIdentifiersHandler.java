@@ -0,0 +1,101 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import com.lyncode.xoai.dataprovider.exceptions.DoesNotSupportSetsException;
+import com.lyncode.xoai.dataprovider.exceptions.HandlerException;
+import com.lyncode.xoai.dataprovider.exceptions.NoMatchesException;
+import com.lyncode.xoai.dataprovider.exceptions.OAIException;
+import com.lyncode.xoai.dataprovider.handlers.VerbHandler;
+import com.lyncode.xoai.dataprovider.handlers.helpers.ItemHelper;
+import com.lyncode.xoai.dataprovider.handlers.results.ListItemIdentifiersResult;
+import com.lyncode.xoai.dataprovider.model.Context;
+import com.lyncode.xoai.dataprovider.model.ItemIdentifier;
+import com.lyncode.xoai.dataprovider.model.Set;
+import com.lyncode.xoai.dataprovider.parameters.OAICompiledRequest;
+import com.lyncode.xoai.dataprovider.repository.Repository;
+import com.lyncode.xoai.model.oaipmh.Header;
+import com.lyncode.xoai.model.oaipmh.ListIdentifiers;
+import com.lyncode.xoai.model.oaipmh.ResumptionToken;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Dataverse's own implementation of the ListIdentifiers Verb Handler (used
+ * instead of the ListIdentifiersHandler provided by XOAI), so that, like
+ * XlistRecordsHandler, it pages through the records with the keyset cursor of
+ * the resumption token instead of an offset.
+ */
+public class XlistIdentifiersHandler extends VerbHandler<ListIdentifiers> {
+
+    public XlistIdentifiersHandler(Context context, Repository repository) {
+        super(context, repository);
+    }
+
+    @Override
+    public ListIdentifiers handle(OAICompiledRequest parameters) throws OAIException, HandlerException {
+        ListIdentifiers result = new ListIdentifiers();
+        int length = getRepository().getConfiguration().getMaxListIdentifiers();
+
+        if (parameters.hasSet() && !getRepository().getSetRepository().supportSets())
+            throw new DoesNotSupportSetsException();
+
+        int offset = getOffset(parameters);
+        // validates the metadataPrefix:
+        getContext().formatForPrefix(parameters.getMetadataPrefix());
+
+        Date afterTime = null;
+        Long afterId = null;
+        if (parameters.hasResumptionToken()) {
+            afterTime = XresumptionTokenHelper.getAfterTime(parameters.getResumptionToken());
+            afterId = XresumptionTokenHelper.getAfterId(parameters.getResumptionToken());
+        }
+
+        XitemRepository itemRepository = (XitemRepository) getRepository().getItemRepository();
+        ListItemIdentifiersResult listItemIdentifiersResult = itemRepository.getItemIdentifiers(offset, length,
+                parameters.hasSet() ? parameters.getSet() : null,
+                parameters.hasFrom() ? parameters.getFrom() : null,
+                parameters.hasUntil() ? parameters.getUntil() : null,
+                afterTime, afterId);
+
+        List<ItemIdentifier> itemIdentifiers = listItemIdentifiersResult.getResults();
+        if (itemIdentifiers.isEmpty()) throw new NoMatchesException();
+
+        for (ItemIdentifier itemIdentifier : itemIdentifiers)
+            result.getHeaders().add(createHeader(itemIdentifier));
+
+        ResumptionToken.Value currentResumptionToken = new ResumptionToken.Value();
+        if (parameters.hasResumptionToken()) {
+            currentResumptionToken = parameters.getResumptionToken();
+        } else if (listItemIdentifiersResult.hasMore()) {
+            currentResumptionToken = parameters.extractResumptionToken();
+        }
+
+        XresumptionTokenHelper resumptionTokenHelper = new XresumptionTokenHelper(currentResumptionToken, length);
+        Xitem lastItem = (Xitem) itemIdentifiers.get(itemIdentifiers.size() - 1);
+        result.withResumptionToken(resumptionTokenHelper.resolve(listItemIdentifiersResult.hasMore(), lastItem.getOaiRecord()));
+
+        return result;
+    }
+
+    private int getOffset(OAICompiledRequest parameters) {
+        if (!parameters.hasResumptionToken())
+            return 0;
+        if (parameters.getResumptionToken().getOffset() == null)
+            return 0;
+        return parameters.getResumptionToken().getOffset().intValue();
+    }
+
+    private Header createHeader(ItemIdentifier itemIdentifier) throws OAIException {
+        Header header = new Header();
+        header.withDatestamp(itemIdentifier.getDatestamp());
+        header.withIdentifier(itemIdentifier.getIdentifier());
+        if (itemIdentifier.isDeleted())
+            header.withStatus(Header.Status.DELETED);
+
+        ItemHelper itemHelperWrap = new ItemHelper((Xitem) itemIdentifier);
+        for (Set set : itemHelperWrap.getSets(getContext(), getRepository().getFilterResolver()))
+            header.withSetSpec(set.getSpec());
+
+        return header;
+    }
+
+}
@@ -7,11 +7,13 @@ import com.lyncode.xoai.model.oaipmh.ListRecords;
 import com.lyncode.xoai.model.oaipmh.Record;
 import com.lyncode.xoai.model.oaipmh.ResumptionToken;
 import com.lyncode.xoai.xml.XmlWriter;
-import static com.lyncode.xoai.xml.XmlWriter.defaultContext;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecordBundle;
 import java.io.ByteArrayOutputStream;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
 import javax.xml.stream.XMLStreamException;
 
 /**
@@ -31,17 +33,44 @@ public class XlistRecords extends ListRecords {
     private static final String EXPIRATION_DATE_ATTRIBUTE = "expirationDate";
     private static final String COMPLETE_LIST_SIZE_ATTRIBUTE = "completeListSize"; 
     private static final String CURSOR_ATTRIBUTE = "cursor";
+    private static final Logger logger = Logger.getLogger(XlistRecords.class.getCanonicalName());
+    
+    private OAIRecordBundle bundle;
+    
+    /**
+     * @param bundle The OAI record bundle the records of this list can be
+     * copied from (see Xrecord.withBundleEntry), or null.
+     */
+    public XlistRecords withBundle(OAIRecordBundle bundle) {
+        this.bundle = bundle;
+        return this;
+    }
     
     public void writeToStream(OutputStream outputStream) throws IOException {
         if (!this.records.isEmpty()) {
-            for (Record record : this.records) {
-                outputStream.write(RECORD_START_ELEMENT.getBytes());
-                outputStream.flush();
+            FileChannel bundleChannel = null;
+            if (bundle != null) {
+                try {
+                    bundleChannel = bundle.openChannel();
+                } catch (IOException ioex) {
+                    // the bundle is being rewritten; use the cached exports
+                    logger.fine("Could not open the OAI record bundle: " + ioex.getMessage());
+                }
+            }
+            try {
+                for (Record record : this.records) {
+                    outputStream.write(RECORD_START_ELEMENT.getBytes());
+                    outputStream.flush();
 
-                ((Xrecord)record).writeToStream(outputStream);
+                    ((Xrecord)record).writeToStream(outputStream, bundleChannel);
 
-                outputStream.write(RECORD_CLOSE_ELEMENT.getBytes());
-                outputStream.flush();
+                    outputStream.write(RECORD_CLOSE_ELEMENT.getBytes());
+                    outputStream.flush();
+                }
+            } finally {
+                if (bundleChannel != null) {
+                    bundleChannel.close();
+                }
             }
         }
         
@@ -59,7 +88,7 @@ public class XlistRecords extends ListRecords {
     private String resumptionTokenToString(ResumptionToken token) {
         try {
             ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-            XmlWriter writer = new XmlWriter(byteOutputStream, defaultContext());
+            XmlWriter writer = new XmlWriter(byteOutputStream, XresumptionTokenHelper.writerContext());
 
             writer.writeStartElement(RESUMPTION_TOKEN_FIELD);
             
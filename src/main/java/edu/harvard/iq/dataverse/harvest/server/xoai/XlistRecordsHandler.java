@@ -5,9 +5,7 @@ import com.lyncode.xoai.dataprovider.handlers.*;
 import com.lyncode.xoai.dataprovider.exceptions.*;
 import com.lyncode.xoai.dataprovider.handlers.results.ListItemsResults;
 import com.lyncode.xoai.dataprovider.handlers.helpers.ItemHelper;
-import com.lyncode.xoai.dataprovider.handlers.helpers.ItemRepositoryHelper;
 import com.lyncode.xoai.dataprovider.handlers.helpers.ResumptionTokenHelper;
-import com.lyncode.xoai.dataprovider.handlers.helpers.SetRepositoryHelper;
 import com.lyncode.xoai.dataprovider.model.Context;
 import com.lyncode.xoai.dataprovider.model.Item;
 import com.lyncode.xoai.dataprovider.model.MetadataFormat;
@@ -18,12 +16,14 @@ import com.lyncode.xoai.dataprovider.repository.Repository;
 import com.lyncode.xoai.xml.XSLPipeline;
 import com.lyncode.xoai.xml.XmlWriter;
 import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecordBundle;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -38,13 +38,9 @@ import java.util.List;
  */
 public class XlistRecordsHandler extends VerbHandler<ListRecords> {
     private static java.util.logging.Logger logger = java.util.logging.Logger.getLogger("XlistRecordsHandler");
-    private final ItemRepositoryHelper itemRepositoryHelper;
-    private final SetRepositoryHelper setRepositoryHelper;
 
     public XlistRecordsHandler(Context context, Repository repository) {
         super(context, repository);
-        this.itemRepositoryHelper = new ItemRepositoryHelper(getRepository().getItemRepository());
-        this.setRepositoryHelper = new SetRepositoryHelper(getRepository().getSetRepository());
     }
 
     @Override
@@ -56,50 +52,39 @@ public class XlistRecordsHandler extends VerbHandler<ListRecords> {
             throw new DoesNotSupportSetsException();
 
         int offset = getOffset(parameters);
-        ListItemsResults result;
-        if (!parameters.hasSet()) {
-            if (parameters.hasFrom() && !parameters.hasUntil())
-                result = itemRepositoryHelper.getItems(getContext(), offset,
-                        length, parameters.getMetadataPrefix(),
-                        parameters.getFrom());
-            else if (!parameters.hasFrom() && parameters.hasUntil())
-                result = itemRepositoryHelper.getItemsUntil(getContext(), offset,
-                        length, parameters.getMetadataPrefix(),
-                        parameters.getUntil());
-            else if (parameters.hasFrom() && parameters.hasUntil())
-                result = itemRepositoryHelper.getItems(getContext(), offset,
-                        length, parameters.getMetadataPrefix(),
-                        parameters.getFrom(), parameters.getUntil());
-            else
-                result = itemRepositoryHelper.getItems(getContext(), offset,
-                        length, parameters.getMetadataPrefix());
-        } else {
-            if (!setRepositoryHelper.exists(getContext(), parameters.getSet())) {
-            //    throw new NoMatchesException();
-            }
-            if (parameters.hasFrom() && !parameters.hasUntil())
-                result = itemRepositoryHelper.getItems(getContext(), offset,
-                        length, parameters.getMetadataPrefix(),
-                        parameters.getSet(), parameters.getFrom());
-            else if (!parameters.hasFrom() && parameters.hasUntil())
-                result = itemRepositoryHelper.getItemsUntil(getContext(), offset,
-                        length, parameters.getMetadataPrefix(),
-                        parameters.getSet(), parameters.getUntil());
-            else if (parameters.hasFrom() && parameters.hasUntil())
-                result = itemRepositoryHelper.getItems(getContext(), offset,
-                        length, parameters.getMetadataPrefix(),
-                        parameters.getSet(), parameters.getFrom(),
-                        parameters.getUntil());
-            else
-                result = itemRepositoryHelper.getItems(getContext(), offset,
-                        length, parameters.getMetadataPrefix(),
-                        parameters.getSet());
+        // validates the metadataPrefix:
+        getContext().formatForPrefix(parameters.getMetadataPrefix());
+
+        Date afterTime = null;
+        Long afterId = null;
+        if (parameters.hasResumptionToken()) {
+            afterTime = XresumptionTokenHelper.getAfterTime(parameters.getResumptionToken());
+            afterId = XresumptionTokenHelper.getAfterId(parameters.getResumptionToken());
         }
 
+        XitemRepository itemRepository = (XitemRepository) getRepository().getItemRepository();
+        ListItemsResults result = itemRepository.getItems(offset, length,
+                parameters.hasSet() ? parameters.getSet() : null,
+                parameters.hasFrom() ? parameters.getFrom() : null,
+                parameters.hasUntil() ? parameters.getUntil() : null,
+                afterTime, afterId);
+
         List<Item> results = result.getResults();
         if (results.isEmpty()) throw new NoMatchesException();
-        for (Item i : results)
-            res.withRecord(this.createRecord(parameters, i));
+
+        OAIRecordBundle bundle = OAIRecordBundle.find(parameters.hasSet() ? parameters.getSet() : null, parameters.getMetadataPrefix());
+        res.withBundle(bundle);
+        for (Item i : results) {
+            // records of datasets that no longer exist are skipped
+            if (((Xitem) i).getDataset() != null) {
+                Xrecord xrecord = this.createRecord(parameters, i);
+                if (bundle != null) {
+                    Dataset dataset = ((Xitem) i).getDataset();
+                    xrecord.withBundleEntry(bundle.getEntry(dataset.getGlobalIdString(), dataset.getLastExportTime()));
+                }
+                res.withRecord(xrecord);
+            }
+        }
 
 
         ResumptionToken.Value currentResumptionToken = new ResumptionToken.Value();
@@ -111,7 +96,8 @@ public class XlistRecordsHandler extends VerbHandler<ListRecords> {
 
         XresumptionTokenHelper resumptionTokenHelper = new XresumptionTokenHelper(currentResumptionToken,
                 getRepository().getConfiguration().getMaxListRecords());
-        res.withResumptionToken(resumptionTokenHelper.resolve(result.hasMore()));
+        Xitem lastItem = (Xitem) results.get(results.size() - 1);
+        res.withResumptionToken(resumptionTokenHelper.resolve(result.hasMore(), lastItem.getOaiRecord()));
 
         return res;
     }
@@ -125,7 +111,7 @@ public class XlistRecordsHandler extends VerbHandler<ListRecords> {
         return parameters.getResumptionToken().getOffset().intValue();
     }
 
-    private Record createRecord(OAICompiledRequest parameters, Item item)
+    private Xrecord createRecord(OAICompiledRequest parameters, Item item)
             throws BadArgumentException, CannotDisseminateRecordException,
             OAIException, NoMetadataFormatsException, CannotDisseminateFormatException {
         MetadataFormat format = getContext().formatForPrefix(parameters.getMetadataPrefix());
@@ -9,6 +9,7 @@ import static com.lyncode.xoai.xml.XmlWriter.defaultContext;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.export.ExportException;
 import edu.harvard.iq.dataverse.export.ExportService;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecordBundle;
 import static edu.harvard.iq.dataverse.util.SystemConfig.FQDN;
 import static edu.harvard.iq.dataverse.util.SystemConfig.SITE_URL;
 import java.io.ByteArrayOutputStream;
@@ -17,6 +18,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
 
 /**
  *
@@ -42,6 +44,7 @@ public class Xrecord extends Record {
     
     protected Dataset dataset; 
     protected String formatName;
+    protected OAIRecordBundle.Entry bundleEntry;
     
     
     public Dataset getDataset() {
@@ -64,7 +67,26 @@ public class Xrecord extends Record {
         return this;
     }
     
+    /**
+     * @param bundleEntry Where the metadata of this record is in the OAI
+     * record bundle of the set, if it is there (and up to date).
+     */
+    public Xrecord withBundleEntry(OAIRecordBundle.Entry bundleEntry) {
+        this.bundleEntry = bundleEntry;
+        return this;
+    }
+    
     public void writeToStream(OutputStream outputStream) throws IOException {
+        writeToStream(outputStream, null);
+    }
+    
+    /**
+     * @param bundleChannel Open channel to the data file of the OAI record
+     * bundle that the bundleEntry of this record points into, if any. When
+     * there is one, the metadata is copied from the bundle instead of from
+     * the cached export of the dataset.
+     */
+    public void writeToStream(OutputStream outputStream, FileChannel bundleChannel) throws IOException {
         outputStream.flush();
 
         String headerString = itemHeaderToString(this.header); 
@@ -82,7 +104,9 @@ public class Xrecord extends Record {
   
                 outputStream.flush();
   
-                if (dataset != null && formatName != null) {
+                if (bundleChannel != null && bundleEntry != null) {
+                    bundleEntry.writeTo(bundleChannel, outputStream);
+                } else if (dataset != null && formatName != null) {
                     InputStream inputStream = null;
                     try {
                         inputStream = ExportService.getInstance().getExport(dataset, formatName);
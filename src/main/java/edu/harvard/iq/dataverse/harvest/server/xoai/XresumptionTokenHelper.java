@@ -1,21 +1,49 @@
-
 package edu.harvard.iq.dataverse.harvest.server.xoai;
 
 import com.lyncode.xoai.dataprovider.handlers.helpers.ResumptionTokenHelper;
+import com.lyncode.xoai.exceptions.InvalidResumptionTokenException;
+import com.lyncode.xoai.model.oaipmh.Granularity;
 import com.lyncode.xoai.model.oaipmh.ResumptionToken;
+import com.lyncode.xoai.services.api.ResumptionTokenFormat;
+import com.lyncode.xoai.services.impl.SimpleResumptionTokenFormat;
+import com.lyncode.xoai.xml.XmlWriter;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
 import static java.lang.Math.round;
 import static com.google.common.base.Predicates.isNull;
+import java.util.Date;
 
 /**
  *
  * @author Leonid Andreev
  * Dataverse's own version of the XOAI ResumptionTokenHelper
- * Fixes the issue with the offset cursor: the OAI validation spec 
- * insists that it starts with 0, while the XOAI implementation uses 1 
- * as the initial offset. 
+ * Fixes the issue with the offset cursor: the OAI validation spec
+ * insists that it starts with 0, while the XOAI implementation uses 1
+ * as the initial offset.
+ *
+ * It also puts a keyset cursor in the resumption tokens it issues: the
+ * lastUpdateTime and the id of the last record of the page. The next page
+ * is then looked up starting right after that record, instead of by
+ * skipping "offset" records (see
+ * OAIRecordServiceBean.findOaiRecordsBySetName). The offset is still
+ * included, for the cursor attribute of the token. A harvest resumed with a
+ * token issued before the keyset cursors goes on with offset-only tokens, in
+ * the order those were issued in.
  */
 public class XresumptionTokenHelper {
-        
+
+    /**
+     * Format of the resumption tokens: the XOAI "simple" token, followed by
+     * the keyset cursor, if there is one.
+     */
+    public static final ResumptionTokenFormat FORMAT = new KeysetResumptionTokenFormat();
+
+    /**
+     * XmlWriter context that writes the resumption tokens in {@link #FORMAT}.
+     */
+    public static XmlWriter.WriterContext writerContext() {
+        return new XmlWriter.WriterContext(Granularity.Second, FORMAT);
+    }
+
     private ResumptionToken.Value current;
     private long maxPerPage;
     private Long totalResults;
@@ -31,10 +59,21 @@ public class XresumptionTokenHelper {
     }
 
     public ResumptionToken resolve (boolean hasMoreResults) {
+        return resolve(hasMoreResults, null);
+    }
+
+    /**
+     * @param lastRecord The last record of the current page; the next page
+     * starts after it, unless the current page was found by offset only.
+     */
+    public ResumptionToken resolve (boolean hasMoreResults, OAIRecord lastRecord) {
         if (isInitialOffset() && !hasMoreResults) return null;
         else {
             if (hasMoreResults) {
                 ResumptionToken.Value next = current.next(maxPerPage);
+                if (lastRecord != null && (isInitialOffset() || current instanceof KeysetValue)) {
+                    next = new KeysetValue(next, lastRecord.getLastUpdateTime(), lastRecord.getId());
+                }
                 return populate(new ResumptionToken(next));
             } else {
                 ResumptionToken resumptionToken = new ResumptionToken();
@@ -46,6 +85,19 @@ public class XresumptionTokenHelper {
         }
     }
 
+    /**
+     * @return lastUpdateTime of the last record of the previous page, or null
+     * if the token has no keyset cursor (first page, or a token issued before
+     * they were introduced).
+     */
+    public static Date getAfterTime(ResumptionToken.Value value) {
+        return value instanceof KeysetValue ? ((KeysetValue) value).afterTime : null;
+    }
+
+    public static Long getAfterId(ResumptionToken.Value value) {
+        return value instanceof KeysetValue ? ((KeysetValue) value).afterId : null;
+    }
+
     private boolean isInitialOffset() {
         return isNull().apply(current.getOffset()) || current.getOffset() == 0;
     }
@@ -56,6 +108,52 @@ public class XresumptionTokenHelper {
         resumptionToken.withCursor(round((resumptionToken.getValue().getOffset() - maxPerPage)/ maxPerPage));
         return resumptionToken;
     }
-    
-    
+
+    static class KeysetValue extends ResumptionToken.Value {
+        private final Date afterTime;
+        private final Long afterId;
+
+        KeysetValue(ResumptionToken.Value value, Date afterTime, Long afterId) {
+            this.afterTime = afterTime;
+            this.afterId = afterId;
+            withOffset(value.hasOffset() ? value.getOffset() : 0);
+            withSetSpec(value.getSetSpec());
+            withFrom(value.getFrom());
+            withUntil(value.getUntil());
+            withMetadataPrefix(value.getMetadataPrefix());
+        }
+    }
+
+    static class KeysetResumptionTokenFormat implements ResumptionTokenFormat {
+        // never produced by the base64 encoding of the simple token
+        private static final char SEPARATOR = '!';
+        private final SimpleResumptionTokenFormat simpleFormat = new SimpleResumptionTokenFormat();
+
+        @Override
+        public String format(ResumptionToken.Value value) {
+            String token = simpleFormat.format(value);
+            if (value instanceof KeysetValue) {
+                KeysetValue keysetValue = (KeysetValue) value;
+                token += SEPARATOR + Long.toString(keysetValue.afterTime.getTime()) + SEPARATOR + keysetValue.afterId;
+            }
+            return token;
+        }
+
+        @Override
+        public ResumptionToken.Value parse(String resumptionToken) throws InvalidResumptionTokenException {
+            if (resumptionToken == null || resumptionToken.indexOf(SEPARATOR) < 0) {
+                return simpleFormat.parse(resumptionToken);
+            }
+            String[] parts = resumptionToken.split(String.valueOf(SEPARATOR));
+            if (parts.length != 3) {
+                throw new InvalidResumptionTokenException();
+            }
+            try {
+                return new KeysetValue(simpleFormat.parse(parts[0]), new Date(Long.parseLong(parts[1])), Long.parseLong(parts[2]));
+            } catch (NumberFormatException ex) {
+                throw new InvalidResumptionTokenException(ex);
+            }
+        }
+    }
+
 }
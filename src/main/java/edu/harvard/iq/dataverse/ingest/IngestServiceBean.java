@@ -45,6 +45,7 @@ import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.dataaccess.S3AccessIO;
+import edu.harvard.iq.dataverse.dataaccess.TabularColumnStore;
 import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
 import edu.harvard.iq.dataverse.datavariable.SummaryStatistic;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
@@ -96,6 +97,10 @@ import java.util.Set;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ListIterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.Hashtable;
 import javax.ejb.EJB;
@@ -105,6 +110,7 @@ import javax.jms.Queue;
 import javax.jms.QueueConnectionFactory;
 import javax.annotation.Resource;
 import javax.ejb.Asynchronous;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.jms.JMSException;
 import javax.jms.QueueConnection;
 import javax.jms.QueueSender;
@@ -138,6 +144,8 @@ public class IngestServiceBean {
     Queue queue;
     @Resource(mappedName = "jms/IngestQueueConnectionFactory")
     QueueConnectionFactory factory;
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
     
 
     private static String timeFormat_hmsS = "HH:mm:ss.SSS";
@@ -568,107 +576,141 @@ public class IngestServiceBean {
         /*
         logger.info("Skipping summary statistics and UNF.");
          */
-        produceDiscreteNumericSummaryStatistics(dataFile, generatedTabularFile); 
-        produceContinuousSummaryStatistics(dataFile, generatedTabularFile);
-        produceCharacterSummaryStatistics(dataFile, generatedTabularFile);
+        List<DataVariable> vars = dataFile.getDataTable().getDataVariables();
+        int caseQuantity = dataFile.getDataTable().getCaseQuantity().intValue();
+        
+        // The column of every variable that gets summary statistics and/or 
+        // a UNF, and the type it is read as: 
+        List<Integer> columns = new ArrayList<>();
+        List<TabFileColumnReader.ColumnType> types = new ArrayList<>();
+        for (int i = 0; i < vars.size(); i++) {
+            DataVariable var = vars.get(i);
+            if (var.isIntervalDiscrete() && var.isTypeNumeric()) {
+                columns.add(i);
+                types.add(TabFileColumnReader.ColumnType.LONG);
+            } else if (var.isIntervalContinuous()) {
+                columns.add(i);
+                // Calculating UNFs from *floats*, not *doubles*, when the 
+                // variable is stored as a float (see calculateUNF(Float[]))
+                types.add("float".equals(var.getFormat()) ? TabFileColumnReader.ColumnType.FLOAT : TabFileColumnReader.ColumnType.DOUBLE);
+            } else if (var.isTypeCharacter()) {
+                columns.add(i);
+                types.add(TabFileColumnReader.ColumnType.STRING);
+            }
+        }
+        
+        // The tab file is read once for as many columns as fit in 
+        // MAX_VALUES_PER_PASS; the columns of a pass are then processed in 
+        // parallel. 
+        int columnsPerPass = (int) Math.max(1, MAX_VALUES_PER_PASS / Math.max(1, caseQuantity));
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), Math.min(columns.size(), columnsPerPass)));
+        ExecutorService executor = managedThreadFactory != null 
+                ? Executors.newFixedThreadPool(threads, managedThreadFactory) 
+                : Executors.newFixedThreadPool(threads);
+        try {
+            for (int from = 0; from < columns.size(); from += columnsPerPass) {
+                int to = Math.min(columns.size(), from + columnsPerPass);
+                TabFileColumnReader reader = readColumns(generatedTabularFile, columns.subList(from, to), types.subList(from, to), caseQuantity);
+                
+                List<Future<ColumnSummary>> summaries = new ArrayList<>();
+                for (int slot = 0; slot < to - from; slot++) {
+                    final int columnSlot = slot;
+                    summaries.add(executor.submit(() -> summarizeColumn(reader, columnSlot, vars.get(reader.getColumn(columnSlot)))));
+                }
+                // the results are assigned to the variables on this thread:
+                for (Future<ColumnSummary> future : summaries) {
+                    ColumnSummary summary = getColumnSummary(future);
+                    DataVariable var = vars.get(summary.column);
+                    if (summary.sumStats != null) {
+                        assignContinuousSummaryStatistics(var, summary.sumStats);
+                    }
+                    if (summary.unf != null) {
+                        var.setUnf(summary.unf);
+                    } else {
+                        logger.warning("failed to calculate UNF signature for variable " + summary.column);
+                    }
+                }
+                logger.fine("Done with the summary statistics of variables " + from + " to " + to + ";");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
         
         recalculateDataFileUNF(dataFile);
         recalculateDatasetVersionUNF(dataFile.getFileMetadata().getDatasetVersion());
     }
     
-    public void produceContinuousSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
-
-        /* 
-        // quick, but memory-inefficient way:
-        // - this method just loads the entire file-worth of continuous vectors 
-        // into a Double[][] matrix. 
-        //Double[][] variableVectors = subsetContinuousVectors(dataFile);
-        //calculateContinuousSummaryStatistics(dataFile, variableVectors);
-        
-        // A more sophisticated way: this subsets one column at a time, using 
-        // the new optimized subsetting that does not have to read any extra 
-        // bytes from the file to extract the column:
-        
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        */
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalContinuous()) {
-                logger.fine("subsetting continuous vector");
-
-                if ("float".equals(dataFile.getDataTable().getDataVariables().get(i).getFormat())) {
-                    Float[] variableVector = TabularSubsetGenerator.subsetFloatVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                    logger.fine("Calculating summary statistics on a Float vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    logger.fine("Calculating UNF on a Float vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                } else {
-                    Double[] variableVector = TabularSubsetGenerator.subsetDoubleVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                    logger.fine("Calculating summary statistics on a Double vector;");
-                    calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                    // calculate the UNF while we are at it:
-                    logger.fine("Calculating UNF on a Double vector;");
-                    calculateUNF(dataFile, i, variableVector);
-                    variableVector = null; 
-                }
-                logger.fine("Done! (continuous);");
-            }
+    // The largest number of values (rows times columns) read from the tab 
+    // file in one pass, for the summary statistics and UNFs: 
+    private static final long MAX_VALUES_PER_PASS = 10000000L;
+    
+    private static TabFileColumnReader readColumns(File tabFile, List<Integer> columns, List<TabFileColumnReader.ColumnType> types, int caseQuantity) throws IOException {
+        int[] columnArray = new int[columns.size()];
+        for (int i = 0; i < columnArray.length; i++) {
+            columnArray[i] = columns.get(i);
+        }
+        TabFileColumnReader reader = new TabFileColumnReader(columnArray, types.toArray(new TabFileColumnReader.ColumnType[0]), caseQuantity);
+        try (InputStream in = new FileInputStream(tabFile)) {
+            reader.read(in);
         }
+        return reader;
     }
     
-    public void produceDiscreteNumericSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
+    private static class ColumnSummary {
+        final int column;
+        final double[] sumStats;
+        final String unf;
         
-        //TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isIntervalDiscrete()
-                    && dataFile.getDataTable().getDataVariables().get(i).isTypeNumeric()) {
-                logger.fine("subsetting discrete-numeric vector");
-
-                Long[] variableVector = TabularSubsetGenerator.subsetLongVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                // We are discussing calculating the same summary stats for 
-                // all numerics (the same kind of sumstats that we've been calculating
-                // for numeric continuous type)  -- L.A. Jul. 2014
-                calculateContinuousSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a Long vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (discrete numeric)");
-                variableVector = null; 
-            }
+        ColumnSummary(int column, double[] sumStats, String unf) {
+            this.column = column;
+            this.sumStats = sumStats;
+            this.unf = unf;
         }
     }
     
-    public void produceCharacterSummaryStatistics(DataFile dataFile, File generatedTabularFile) throws IOException {
-
-        /* 
-            At this point it's still not clear what kinds of summary stats we
-            want for character types. Though we are pretty confident we don't 
-            want to keep doing what we used to do in the past, i.e. simply 
-            store the total counts for all the unique values; even if it's a 
-            very long vector, and *every* value in it is unique. (As a result 
-            of this, our Categorical Variable Value table is the single 
-            largest in the production database. With no evidence whatsoever, 
-            that this information is at all useful. 
-                -- L.A. Jul. 2014 
-        
-        TabularSubsetGenerator subsetGenerator = new TabularSubsetGenerator();
-        */
-        
-        for (int i = 0; i < dataFile.getDataTable().getVarQuantity(); i++) {
-            if (dataFile.getDataTable().getDataVariables().get(i).isTypeCharacter()) {
-
-                logger.fine("subsetting character vector");
-                String[] variableVector = TabularSubsetGenerator.subsetStringVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
-                //calculateCharacterSummaryStatistics(dataFile, i, variableVector);
-                // calculate the UNF while we are at it:
-                logger.fine("Calculating UNF on a String vector");
-                calculateUNF(dataFile, i, variableVector);
-                logger.fine("Done! (character)");
-                variableVector = null; 
+    /*
+     * The summary statistics (of the numeric variables) and the UNF of a
+     * column. Runs on the worker threads, so it does not modify the variable.
+     */
+    private static ColumnSummary summarizeColumn(TabFileColumnReader reader, int slot, DataVariable var) throws IOException {
+        int column = reader.getColumn(slot);
+        try {
+            switch (reader.getType(slot)) {
+                case LONG: {
+                    // We are discussing calculating the same summary stats for 
+                    // all numerics (the same kind of sumstats that we've been calculating
+                    // for numeric continuous type)  -- L.A. Jul. 2014
+                    Long[] variableVector = reader.getLongVector(slot);
+                    return new ColumnSummary(column, SumStatCalculator.calculateSummaryStatistics(variableVector), calculateUNF(column, variableVector));
+                }
+                case FLOAT: {
+                    Float[] variableVector = reader.getFloatVector(slot);
+                    return new ColumnSummary(column, SumStatCalculator.calculateSummaryStatistics(variableVector), calculateUNF(column, variableVector));
+                }
+                case DOUBLE: {
+                    Double[] variableVector = reader.getDoubleVector(slot);
+                    return new ColumnSummary(column, SumStatCalculator.calculateSummaryStatistics(variableVector), calculateUNF(column, variableVector));
+                }
+                default: {
+                    //calculateCharacterSummaryStatistics(dataFile, i, variableVector);
+                    String[] variableVector = reader.getStringVector(slot);
+                    return new ColumnSummary(column, null, calculateUNF(var, column, variableVector));
+                }
             }
+        } finally {
+            reader.release(slot);
+        }
+    }
+    
+    private static ColumnSummary getColumnSummary(Future<ColumnSummary> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calculating the summary statistics", ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
         }
     }
 
@@ -681,37 +723,48 @@ public class IngestServiceBean {
 
     public static void produceFrequencies( File generatedTabularFile, List<DataVariable> vars) throws IOException {
 
+        // the categorical variables:
+        List<Integer> columns = new ArrayList<>();
+        List<TabFileColumnReader.ColumnType> types = new ArrayList<>();
         for (int i = 0; i < vars.size(); i++) {
-
-            Collection<VariableCategory> cats = vars.get(i).getCategories();
-            int caseQuantity = vars.get(i).getDataTable().getCaseQuantity().intValue();
-            boolean isNumeric = vars.get(i).isTypeNumeric();
-            Object[] variableVector = null;
-            if (cats.size() > 0) {
-                if (isNumeric) {
-                    variableVector = TabularSubsetGenerator.subsetFloatVector(new FileInputStream(generatedTabularFile), i, caseQuantity);
-                }
-                else {
-                    variableVector = TabularSubsetGenerator.subsetStringVector(new FileInputStream(generatedTabularFile), i, caseQuantity);
-                }
-                if (variableVector != null) {
-                    Hashtable<Object, Double> freq = calculateFrequency(variableVector);
-                    for (VariableCategory cat : cats) {
-                        Object catValue;
-                        if (isNumeric) {
-                            catValue = new Float(cat.getValue());
-                        } else {
-                            catValue = cat.getValue();
-                        }
-                        Double numberFreq = freq.get(catValue);
-                        if (numberFreq != null) {
-                            cat.setFrequency(numberFreq);
-                        } else {
-                            cat.setFrequency(0D);
-                        }
+            if (vars.get(i).getCategories().size() > 0) {
+                columns.add(i);
+                types.add(vars.get(i).isTypeNumeric() ? TabFileColumnReader.ColumnType.FLOAT : TabFileColumnReader.ColumnType.STRING);
+            }
+        }
+        if (columns.isEmpty()) {
+            return;
+        }
+        int caseQuantity = vars.get(columns.get(0)).getDataTable().getCaseQuantity().intValue();
+
+        // read in as many passes over the file as it takes to keep each 
+        // under MAX_VALUES_PER_PASS, as for the summary statistics: 
+        int columnsPerPass = (int) Math.max(1, MAX_VALUES_PER_PASS / Math.max(1, caseQuantity));
+        for (int from = 0; from < columns.size(); from += columnsPerPass) {
+            int to = Math.min(columns.size(), from + columnsPerPass);
+            TabFileColumnReader reader = readColumns(generatedTabularFile, columns.subList(from, to), types.subList(from, to), caseQuantity);
+
+            for (int slot = 0; slot < to - from; slot++) {
+                DataVariable var = vars.get(reader.getColumn(slot));
+                Collection<VariableCategory> cats = var.getCategories();
+                boolean isNumeric = var.isTypeNumeric();
+                Object[] variableVector = isNumeric ? reader.getFloatVector(slot) : reader.getStringVector(slot);
+                reader.release(slot);
+
+                Hashtable<Object, Double> freq = calculateFrequency(variableVector);
+                for (VariableCategory cat : cats) {
+                    Object catValue;
+                    if (isNumeric) {
+                        catValue = new Float(cat.getValue());
+                    } else {
+                        catValue = cat.getValue();
+                    }
+                    Double numberFreq = freq.get(catValue);
+                    if (numberFreq != null) {
+                        cat.setFrequency(numberFreq);
+                    } else {
+                        cat.setFrequency(0D);
                     }
-                } else {
-                    logger.fine("variableVector is null for variable " + vars.get(i).getName());
                 }
             }
         }
@@ -1018,6 +1071,10 @@ public class IngestServiceBean {
                     
                     dataFile = fileService.save(dataFile);
                     logger.fine("saved data file after updating the size");
+                    
+                    if (systemConfig.isTabularColumnarStorage()) {
+                        saveColumnarImage(dataFile, tabFile, dataAccess);
+                    }
 
                     // delete the temp tab-file:
                     tabFile.delete();
@@ -1048,6 +1105,28 @@ public class IngestServiceBean {
         return ingestSuccessful;
     }
 
+    /*
+     * Saves the columnar image of the tab file produced by the ingest (see 
+     * TabularColumnStore) as an aux file. Subsets of the file are produced 
+     * from the tab file if this fails, so it is not an ingest failure. 
+     */
+    private void saveColumnarImage(DataFile dataFile, File tabFile, StorageIO<DataFile> dataAccess) {
+        File columnarImage = null;
+        try {
+            columnarImage = File.createTempFile("columnarImage", ".tmp");
+            new TabularSubsetGenerator().createColumnarImage(tabFile, dataFile.getDataTable().getDataVariables(), 
+                    dataFile.getDataTable().getCaseQuantity().intValue(), columnarImage);
+            dataAccess.savePathAsAux(Paths.get(columnarImage.getAbsolutePath()), TabularColumnStore.AUX_TAG);
+            logger.fine("Saved the columnar image of the tabular file as aux file " + TabularColumnStore.AUX_TAG);
+        } catch (IOException ioex) {
+            logger.warning("Failed to save the columnar image of the tabular file: " + ioex.getMessage());
+        } finally {
+            if (columnarImage != null) {
+                columnarImage.delete();
+            }
+        }
+    }
+
     private BufferedInputStream openFile(DataFile dataFile) throws IOException {
         BufferedInputStream inputStream;
         StorageIO<DataFile> storageIO = dataFile.getStorageIO();
@@ -1542,11 +1621,6 @@ public class IngestServiceBean {
         return contVarFields;
     }
     
-    private void calculateContinuousSummaryStatistics(DataFile dataFile, int varnum, Number[] dataVector) throws IOException {
-        double[] sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector);
-        assignContinuousSummaryStatistics(dataFile.getDataTable().getDataVariables().get(varnum), sumStats);
-    }
-    
     private void assignContinuousSummaryStatistics(DataVariable variable, double[] sumStats) throws IOException {
         if (sumStats == null || sumStats.length != variableService.summaryStatisticTypes.length) {
             throw new IOException ("Wrong number of summary statistics types calculated! ("+sumStats.length+")");
@@ -1566,7 +1640,7 @@ public class IngestServiceBean {
 
     }
     
-    private void calculateUNF(DataFile dataFile, int varnum, Double[] dataVector) {
+    private static String calculateUNF(int varnum, Double[] dataVector) {
         String unf = null;
         try {
             unf = UNFUtil.calculateUNF(dataVector);
@@ -1576,14 +1650,10 @@ public class IngestServiceBean {
             logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (numeric, continuous) variable " + varnum);
         }
         
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
+        return unf;
     }
     
-    private void calculateUNF(DataFile dataFile, int varnum, Long[] dataVector) {
+    private static String calculateUNF(int varnum, Long[] dataVector) {
         String unf = null;
         try {
             unf = UNFUtil.calculateUNF(dataVector);
@@ -1593,23 +1663,19 @@ public class IngestServiceBean {
             logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (numeric, discrete) variable " + varnum);
         }
         
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
+        return unf;
     }
     
-    private void calculateUNF(DataFile dataFile, int varnum, String[] dataVector) throws IOException {
+    private static String calculateUNF(DataVariable variable, int varnum, String[] dataVector) throws IOException {
         String unf = null;
         
         String[] dateFormats = null; 
         
         // Special handling for Character strings that encode dates and times:
         
-        if ("time".equals(dataFile.getDataTable().getDataVariables().get(varnum).getFormatCategory())) {
+        if ("time".equals(variable.getFormatCategory())) {
             dateFormats = new String[dataVector.length];
-            String savedDateTimeFormat = dataFile.getDataTable().getDataVariables().get(varnum).getFormat();
+            String savedDateTimeFormat = variable.getFormat();
             String timeFormat = null;
             if (savedDateTimeFormat != null && !savedDateTimeFormat.equals("")) {
                 timeFormat = savedDateTimeFormat;
@@ -1666,9 +1732,9 @@ public class IngestServiceBean {
                     dateFormats[i] = timeFormat;
                 }
             }
-        } else if ("date".equals(dataFile.getDataTable().getDataVariables().get(varnum).getFormatCategory())) {
+        } else if ("date".equals(variable.getFormatCategory())) {
             dateFormats = new String[dataVector.length];
-            String savedDateFormat = dataFile.getDataTable().getDataVariables().get(varnum).getFormat();
+            String savedDateFormat = variable.getFormat();
             for (int i = 0; i < dataVector.length; i++) {
                 if (dataVector[i] != null) {
                     if (savedDateFormat != null && !savedDateFormat.equals("")) {
@@ -1693,11 +1759,7 @@ public class IngestServiceBean {
             logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for (character) variable " + varnum);
         }
         
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
+        return unf;
     }
     
     // Calculating UNFs from *floats*, not *doubles* - this is to test dataverse
@@ -1708,7 +1770,7 @@ public class IngestServiceBean {
     // TODO: remove this from the final production 4.0!
     // -- L.A., Jul 2014
     
-    private void calculateUNF(DataFile dataFile, int varnum, Float[] dataVector) {
+    private static String calculateUNF(int varnum, Float[] dataVector) {
         String unf = null;
         try {
             unf = UNFUtil.calculateUNF(dataVector);
@@ -1718,11 +1780,7 @@ public class IngestServiceBean {
             logger.warning("UNF Exception: thrown when attempted to calculate UNF signature for numeric, \"continuous\" (float) variable" + varnum);
         }
         
-        if (unf != null) {
-            dataFile.getDataTable().getDataVariables().get(varnum).setUnf(unf);
-        } else {
-            logger.warning("failed to calculate UNF signature for variable " + varnum);
-        }
+        return unf;
     }
     
     // This method takes a list of file ids, checks the format type of the ingested 
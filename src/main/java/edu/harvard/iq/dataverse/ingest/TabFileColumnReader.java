@@ -0,0 +1,277 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.BitSet;
+
+/**
+ * Reads a set of columns of the tab file produced by the ingest in a single
+ * pass over the file, into primitive vectors (one per column, plus a bitmap of
+ * the missing values), for the summary statistics, UNFs and frequencies of the
+ * variables. The TabularSubsetGenerator.subset*Vector() methods read the whole
+ * file for every column; this reads it once for all of them.
+ *
+ * The values are parsed exactly the way subset*Vector() parse them, so that
+ * the statistics and UNFs calculated on the vectors are the same.
+ */
+public class TabFileColumnReader {
+
+    public enum ColumnType {
+        DOUBLE, FLOAT, LONG, STRING
+    }
+
+    private final int[] columns;
+    private final ColumnType[] types;
+    private final int numCases;
+
+    private final double[][] doubles;
+    private final float[][] floats;
+    private final long[][] longs;
+    private final String[][] strings;
+    private final BitSet[] missing;
+
+    // the slots (indexes in the columns array) of every column of the file:
+    private final int[][] slotsByColumn;
+
+    /**
+     * @param columns The columns to read (the same column may be read as more
+     * than one type).
+     * @param types The type each column is read as.
+     * @param numCases The number of rows in the tab file.
+     */
+    public TabFileColumnReader(int[] columns, ColumnType[] types, int numCases) {
+        this.columns = columns;
+        this.types = types;
+        this.numCases = numCases;
+
+        doubles = new double[columns.length][];
+        floats = new float[columns.length][];
+        longs = new long[columns.length][];
+        strings = new String[columns.length][];
+        missing = new BitSet[columns.length];
+
+        int maxColumn = -1;
+        for (int slot = 0; slot < columns.length; slot++) {
+            maxColumn = Math.max(maxColumn, columns[slot]);
+            switch (types[slot]) {
+                case DOUBLE:
+                    doubles[slot] = new double[numCases];
+                    break;
+                case FLOAT:
+                    floats[slot] = new float[numCases];
+                    break;
+                case LONG:
+                    longs[slot] = new long[numCases];
+                    break;
+                default:
+                    strings[slot] = new String[numCases];
+            }
+            missing[slot] = new BitSet(numCases);
+        }
+        int[] slotCounts = new int[maxColumn + 1];
+        for (int column : columns) {
+            slotCounts[column]++;
+        }
+        slotsByColumn = new int[maxColumn + 1][];
+        for (int column = 0; column <= maxColumn; column++) {
+            slotsByColumn[column] = new int[slotCounts[column]];
+            slotCounts[column] = 0;
+        }
+        for (int slot = 0; slot < columns.length; slot++) {
+            slotsByColumn[columns[slot]][slotCounts[columns[slot]]++] = slot;
+        }
+    }
+
+    /**
+     * Reads the columns from the tab file; the stream is not closed.
+     */
+    public void read(InputStream in) throws IOException {
+        // (the default character set, as the Scanner used by subset*Vector())
+        LineReader lineReader = new LineReader(new InputStreamReader(in));
+        String line;
+        for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
+            if ((line = lineReader.readLine()) == null) {
+                throw new IOException("Tab file has fewer rows than the stored number of cases!");
+            }
+            readLine(line, caseIndex);
+        }
+        int tailIndex = numCases;
+        while ((line = lineReader.readLine()) != null) {
+            if (!line.isEmpty()) {
+                throw new IOException("Tab file has more nonempty rows than the stored number of cases (" + numCases + ")! current index: " + tailIndex + ", line: " + line);
+            }
+            tailIndex++;
+        }
+    }
+
+    private void readLine(String line, int caseIndex) throws IOException {
+        int column = 0;
+        int start = 0;
+        while (column < slotsByColumn.length) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            if (slotsByColumn[column].length > 0) {
+                String value = line.substring(start, end);
+                for (int slot : slotsByColumn[column]) {
+                    setValue(slot, caseIndex, value);
+                }
+            }
+            column++;
+            if (end == line.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        if (column < slotsByColumn.length) {
+            throw new IOException("Row " + caseIndex + " of the tab file has only " + column + " columns.");
+        }
+    }
+
+    private void setValue(int slot, int caseIndex, String value) {
+        switch (types[slot]) {
+            case DOUBLE:
+                // (new Double() does not take "Inf", only "Infinity")
+                if ("inf".equalsIgnoreCase(value) || "+inf".equalsIgnoreCase(value)) {
+                    doubles[slot][caseIndex] = Double.POSITIVE_INFINITY;
+                } else if ("-inf".equalsIgnoreCase(value)) {
+                    doubles[slot][caseIndex] = Double.NEGATIVE_INFINITY;
+                } else if (value.isEmpty()) {
+                    missing[slot].set(caseIndex);
+                } else {
+                    try {
+                        doubles[slot][caseIndex] = Double.parseDouble(value);
+                    } catch (NumberFormatException ex) {
+                        missing[slot].set(caseIndex);
+                    }
+                }
+                break;
+            case FLOAT:
+                if ("inf".equalsIgnoreCase(value) || "+inf".equalsIgnoreCase(value)) {
+                    floats[slot][caseIndex] = Float.POSITIVE_INFINITY;
+                } else if ("-inf".equalsIgnoreCase(value)) {
+                    floats[slot][caseIndex] = Float.NEGATIVE_INFINITY;
+                } else if (value.isEmpty()) {
+                    missing[slot].set(caseIndex);
+                } else {
+                    try {
+                        floats[slot][caseIndex] = Float.parseFloat(value);
+                    } catch (NumberFormatException ex) {
+                        missing[slot].set(caseIndex);
+                    }
+                }
+                break;
+            case LONG:
+                try {
+                    longs[slot][caseIndex] = Long.parseLong(value);
+                } catch (NumberFormatException ex) {
+                    missing[slot].set(caseIndex);
+                }
+                break;
+            default:
+                // An empty string is a string missing value;
+                // an empty string in quotes is an empty string.
+                if (value.isEmpty()) {
+                    missing[slot].set(caseIndex);
+                } else {
+                    strings[slot][caseIndex] = TabularSubsetGenerator.unescapeStringValue(value);
+                }
+        }
+    }
+
+    public int getColumn(int slot) {
+        return columns[slot];
+    }
+
+    public ColumnType getType(int slot) {
+        return types[slot];
+    }
+
+    /*
+     * The vectors are boxed one at a time, as they are needed by the
+     * calculations (SumStatCalculator and UNFUtil take arrays of objects,
+     * with nulls for the missing values):
+     */
+
+    public Double[] getDoubleVector(int slot) {
+        Double[] vector = new Double[numCases];
+        for (int i = 0; i < numCases; i++) {
+            vector[i] = missing[slot].get(i) ? null : doubles[slot][i];
+        }
+        return vector;
+    }
+
+    public Float[] getFloatVector(int slot) {
+        Float[] vector = new Float[numCases];
+        for (int i = 0; i < numCases; i++) {
+            vector[i] = missing[slot].get(i) ? null : floats[slot][i];
+        }
+        return vector;
+    }
+
+    public Long[] getLongVector(int slot) {
+        Long[] vector = new Long[numCases];
+        for (int i = 0; i < numCases; i++) {
+            vector[i] = missing[slot].get(i) ? null : longs[slot][i];
+        }
+        return vector;
+    }
+
+    public String[] getStringVector(int slot) {
+        return strings[slot].clone();
+    }
+
+    /**
+     * Frees the vector of a column once it has been used.
+     */
+    public void release(int slot) {
+        doubles[slot] = null;
+        floats[slot] = null;
+        longs[slot] = null;
+        strings[slot] = null;
+        missing[slot] = null;
+    }
+
+    /*
+     * Splits the file on new lines only, like a Scanner with a "\n" delimiter
+     * (BufferedReader.readLine() would also split on carriage returns).
+     */
+    private static class LineReader {
+        private final Reader reader;
+        private final char[] buffer = new char[64 * 1024];
+        private int position = 0;
+        private int limit = 0;
+        private final StringBuilder line = new StringBuilder();
+
+        LineReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        String readLine() throws IOException {
+            line.setLength(0);
+            while (true) {
+                if (position == limit) {
+                    limit = reader.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return line.length() > 0 ? line.toString() : null;
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                line.append(buffer, start, position - start);
+                if (position < limit) {
+                    position++;
+                    return line.toString();
+                }
+            }
+        }
+    }
+}
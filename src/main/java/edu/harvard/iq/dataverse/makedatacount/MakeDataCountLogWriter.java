@@ -0,0 +1,213 @@
+package edu.harvard.iq.dataverse.makedatacount;
+
+import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+
+/**
+ * Appends the Make Data Count entries to the daily counter logs
+ * ({@code counter_yyyy-MM-dd.log} in {@code :MDCLogPath}), keeping the log of
+ * the day open rather than opening and closing it for every entry.
+ *
+ * The entries are put in a lock-free queue by the requests that log them and
+ * written by whoever flushes it: the timer, every second, or the request
+ * whose entry makes {@link #FLUSH_SIZE} of them pending. The log is named
+ * after the day the entry was logged on (in the time zone of the server), so
+ * a new one is started, with the header, at midnight; the log of the previous
+ * day is closed by the first flush of the new day.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MakeDataCountLogWriter {
+
+    private static final Logger logger = Logger.getLogger(MakeDataCountLogWriter.class.getCanonicalName());
+
+    static final int FLUSH_SIZE = 500;
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    /**
+     * An entry waiting to be written, with the log it goes to.
+     */
+    private static class PendingEntry {
+        final Path logFile;
+        final String entry;
+
+        PendingEntry(Path logFile, String entry) {
+            this.logFile = logFile;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * The name of the log of the current day, and when the day ends.
+     */
+    private static class Day {
+        final String logFileName;
+        final long endMillis;
+
+        Day(String logFileName, long endMillis) {
+            this.logFileName = logFileName;
+            this.endMillis = endMillis;
+        }
+    }
+
+    private final Queue<PendingEntry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Day currentDay = null;
+    private ZoneId zone = ZoneId.systemDefault();
+
+    // the writer of the open log, used under the lock only:
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private Path openLogFile = null;
+    private Writer openWriter = null;
+
+    /**
+     * Queues an entry for the counter log of today.
+     *
+     * @param logDir The directory of the logs.
+     * @param entry The entry, a line of the log (ending with a new line).
+     */
+    public void log(String logDir, String entry) {
+        queue.add(new PendingEntry(Paths.get(logDir, getLogFileName()), entry));
+        if (pending.incrementAndGet() >= FLUSH_SIZE && writeLock.tryLock()) {
+            try {
+                write();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return The name of the counter log of today.
+     */
+    public String getLogFileName() {
+        long now = System.currentTimeMillis();
+        Day day = currentDay;
+        if (day == null || now >= day.endMillis) {
+            LocalDate today = LocalDate.now(zone);
+            day = new Day("counter_" + today.format(DAY_FORMAT) + ".log",
+                    today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli());
+            currentDay = day;
+        }
+        return day.logFileName;
+    }
+
+    /**
+     * Writes the pending entries to the logs, and closes the log of the
+     * previous day once the day is over.
+     */
+    @Schedule(hour = "*", minute = "*", second = "*", persistent = false)
+    public void flush() {
+        writeLock.lock();
+        try {
+            write();
+            if (openLogFile != null && !openLogFile.getFileName().toString().equals(getLogFileName())) {
+                close(openLogFile);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        writeLock.lock();
+        try {
+            write();
+            if (openLogFile != null) {
+                close(openLogFile);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void write() {
+        PendingEntry next = queue.poll();
+        if (next == null) {
+            return;
+        }
+        int count = 0;
+        for (; next != null; next = queue.poll()) {
+            count++;
+            try {
+                getWriter(next.logFile).write(next.entry);
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Error saving log report: " + next.logFile + " " + ex.getMessage());
+                close(next.logFile);
+            }
+        }
+        pending.addAndGet(-count);
+        if (openWriter != null) {
+            try {
+                openWriter.flush();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Error saving log report: " + openLogFile + " " + ex.getMessage());
+                close(openLogFile);
+            }
+        }
+    }
+
+    private Writer getWriter(Path logFile) throws IOException {
+        if (openWriter != null && logFile.equals(openLogFile)) {
+            return openWriter;
+        }
+        if (openLogFile != null) {
+            close(openLogFile);
+        }
+        Files.createDirectories(logFile.getParent());
+        boolean isNew = !Files.exists(logFile) || Files.size(logFile) == 0;
+        // (the platform encoding, which the logs have always been written in)
+        Writer writer = Files.newBufferedWriter(logFile, Charset.defaultCharset(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (isNew) {
+            writer.write(LOG_HEADER);
+        }
+        openLogFile = logFile;
+        openWriter = writer;
+        return writer;
+    }
+
+    private void close(Path logFile) {
+        if (openWriter != null && logFile.equals(openLogFile)) {
+            try {
+                openWriter.close();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Error closing log report: " + logFile + " " + ex.getMessage());
+            }
+            openWriter = null;
+            openLogFile = null;
+        }
+    }
+
+    void setZone(ZoneId zone) {
+        this.zone = zone;
+        this.currentDay = null;
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+}
@@ -9,8 +9,6 @@ import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.DataverseRequestServiceBean;
-import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
-import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
@@ -36,15 +34,19 @@ public class MakeDataCountLoggingServiceBean {
     
     @EJB
     SystemConfig systemConfig;
+    
+    @EJB
+    MakeDataCountLogWriter logWriter;
 
     public void logEntry(MakeDataCountEntry entry) {
-        if(systemConfig.getMDCLogPath() != null) {
-            LoggingUtil.saveLogFileAppendWithHeader(entry.toString(), systemConfig.getMDCLogPath(), getLogFileName() , LOG_HEADER);
+        String logPath = systemConfig.getMDCLogPath();
+        if(logPath != null) {
+            logWriter.log(logPath, entry.toString());
         }
     }
     
     public String getLogFileName() {
-        return "counter_"+new SimpleDateFormat("yyyy-MM-dd").format(new Timestamp(new Date().getTime()))+".log";
+        return logWriter.getLogFileName();
     }
     
     public static class MakeDataCountEntry {
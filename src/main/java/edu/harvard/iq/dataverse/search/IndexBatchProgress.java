@@ -0,0 +1,171 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.sql.Timestamp;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Progress of one run of "index all" (or of one partition of it), shared
+ * between the workers of the run and the {@code api/admin/index/status}
+ * endpoints. All counters are updated concurrently by the indexing workers.
+ */
+public class IndexBatchProgress {
+
+    private final long numPartitions;
+    private final long partitionId;
+    private final int workers;
+    private final Timestamp resumedFrom;
+    private final long startTime;
+    private volatile long finishTime = 0L;
+    private volatile boolean completed = false;
+
+    private volatile long dataverseTotal = 0L;
+    private volatile long datasetTotal = 0L;
+    private final AtomicLong dataversesIndexed = new AtomicLong();
+    private final AtomicLong datasetsIndexed = new AtomicLong();
+    private final AtomicLong dataverseFailures = new AtomicLong();
+    private final AtomicLong datasetFailures = new AtomicLong();
+
+    public IndexBatchProgress(long numPartitions, long partitionId, int workers, Timestamp resumedFrom) {
+        this(numPartitions, partitionId, workers, resumedFrom, System.currentTimeMillis());
+    }
+
+    IndexBatchProgress(long numPartitions, long partitionId, int workers, Timestamp resumedFrom, long startTime) {
+        this.numPartitions = numPartitions;
+        this.partitionId = partitionId;
+        this.workers = workers;
+        this.resumedFrom = resumedFrom;
+        this.startTime = startTime;
+    }
+
+    public void setTotals(long dataverseTotal, long datasetTotal) {
+        this.dataverseTotal = dataverseTotal;
+        this.datasetTotal = datasetTotal;
+    }
+
+    public void dataverseIndexed() {
+        dataversesIndexed.incrementAndGet();
+    }
+
+    public void dataverseFailed() {
+        dataverseFailures.incrementAndGet();
+    }
+
+    public void datasetIndexed() {
+        datasetsIndexed.incrementAndGet();
+    }
+
+    public void datasetFailed() {
+        datasetFailures.incrementAndGet();
+    }
+
+    /**
+     * Ends the run, whether it got through all of its dvObjects or not; the
+     * counts stay as they were at that point.
+     *
+     * @param completed false if the run was interrupted, or failed, before
+     * all of its dvObjects were processed.
+     */
+    public void finish(boolean completed) {
+        finish(completed, System.currentTimeMillis());
+    }
+
+    void finish(boolean completed, long finishTime) {
+        this.completed = completed;
+        this.finishTime = finishTime;
+    }
+
+    public boolean isFinished() {
+        return finishTime > 0L;
+    }
+
+    /**
+     * @return Whether the run ended before all of its dvObjects were
+     * processed.
+     */
+    public boolean isInterrupted() {
+        return isFinished() && !completed;
+    }
+
+    public long getDataverseFailures() {
+        return dataverseFailures.get();
+    }
+
+    public long getDatasetFailures() {
+        return datasetFailures.get();
+    }
+
+    /**
+     * @return The number of dvObjects processed so far, whether the indexing
+     * of the object succeeded or not.
+     */
+    public long getProcessed() {
+        return dataversesIndexed.get() + datasetsIndexed.get() + dataverseFailures.get() + datasetFailures.get();
+    }
+
+    public long getTotal() {
+        return dataverseTotal + datasetTotal;
+    }
+
+    public long getElapsedMillis() {
+        return (isFinished() ? finishTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return Throughput of the run so far, in dvObjects (each producing one or
+     * more Solr documents) per second.
+     */
+    public double getObjectsPerSecond() {
+        long elapsed = getElapsedMillis();
+        if (elapsed <= 0) {
+            return 0.0;
+        }
+        return getProcessed() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return Estimated number of seconds until the run completes, based on the
+     * throughput so far, or -1 if no estimate can be made yet (or ever, once
+     * the run was interrupted).
+     */
+    public long getEtaSeconds() {
+        if (isInterrupted()) {
+            return -1L;
+        }
+        if (isFinished()) {
+            return 0L;
+        }
+        double objectsPerSecond = getObjectsPerSecond();
+        if (objectsPerSecond <= 0.0) {
+            return -1L;
+        }
+        long remaining = Math.max(0L, getTotal() - getProcessed());
+        return (long) Math.ceil(remaining / objectsPerSecond);
+    }
+
+    public JsonObjectBuilder toJson() {
+        JsonObjectBuilder progress = Json.createObjectBuilder()
+                .add("numPartitions", numPartitions)
+                .add("partitionId", partitionId)
+                .add("workers", workers)
+                .add("status", isInterrupted() ? "interrupted" : isFinished() ? "finished" : "running")
+                .add("startTime", new Timestamp(startTime).toString())
+                .add("dataverses", Json.createObjectBuilder()
+                        .add("total", dataverseTotal)
+                        .add("indexed", dataversesIndexed.get())
+                        .add("failed", dataverseFailures.get()))
+                .add("datasets", Json.createObjectBuilder()
+                        .add("total", datasetTotal)
+                        .add("indexed", datasetsIndexed.get())
+                        .add("failed", datasetFailures.get()))
+                .add("elapsedSeconds", getElapsedMillis() / 1000)
+                .add("objectsPerSecond", Math.round(getObjectsPerSecond() * 100) / 100.0)
+                .add("etaSeconds", getEtaSeconds());
+        if (resumedFrom != null) {
+            progress.add("resumedFromCheckpoint", resumedFrom.toString());
+        }
+        return progress;
+    }
+
+}
@@ -5,15 +5,31 @@ import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -44,30 +60,61 @@ public class IndexBatchServiceBean {
     DvObjectServiceBean dvObjectService;
     @EJB
     SystemConfig systemConfig;
+    @EJB
+    SettingsServiceBean settingsService;
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
+
+    /**
+     * Progress of the "index all" runs started on this server, keyed by
+     * partition spec, so they can be reported by api/admin/index/status.
+     */
+    private static final Map<String, IndexBatchProgress> progressByPartition = new ConcurrentHashMap<>();
 
+    /**
+     * Same as the 5-argument method, which this one calls on the bean itself
+     * rather than through the container, so it needs the same transaction
+     * attribute.
+     */
     @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public Future<JsonObjectBuilder> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed, boolean previewOnly) {
+        return indexAllOrSubset(numPartitions, partitionId, skipIndexed, previewOnly, true);
+    }
+
+    /**
+     * Runs "index all" (or one partition of it) outside of any transaction;
+     * each dvObject is indexed in a transaction of its own, and the checkpoint
+     * has to be committed as soon as it's written for it to survive a crash.
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Future<JsonObjectBuilder> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed, boolean previewOnly, boolean resume) {
         JsonObjectBuilder response = Json.createObjectBuilder();
-        Future<String> responseFromIndexAllOrSubset = indexAllOrSubset(numPartitions, partitionId, skipIndexed);
+        Future<String> responseFromIndexAllOrSubset = doIndexAllOrSubset(numPartitions, partitionId, skipIndexed, resume);
         String status = "indexAllOrSubset has begun";
         response.add("responseFromIndexAllOrSubset", status);
         return new AsyncResult<>(response);
     }
 
     public JsonObjectBuilder indexAllOrSubsetPreview(long numPartitions, long partitionId, boolean skipIndexed) {
+        return indexAllOrSubsetPreview(numPartitions, partitionId, skipIndexed, true);
+    }
+
+    public JsonObjectBuilder indexAllOrSubsetPreview(long numPartitions, long partitionId, boolean skipIndexed, boolean resume) {
         JsonObjectBuilder response = Json.createObjectBuilder();
         JsonObjectBuilder previewOfWorkload = Json.createObjectBuilder();
         JsonObjectBuilder dvContainerIds = Json.createObjectBuilder();
         
-        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
+        Timestamp checkpoint = (resume && !skipIndexed) ? findCheckpoint(numPartitions, partitionId) : null;
+        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(numPartitions, partitionId, skipIndexed, checkpoint);
         
         JsonArrayBuilder dataverseIdsJson = Json.createArrayBuilder();
-        //List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
         for (Long id : dataverseIds) {
             dataverseIdsJson.add(id);
         }
         
-        List<Long> datasetIds = datasetService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
+        List<Long> datasetIds = datasetService.findAllOrSubset(numPartitions, partitionId, skipIndexed, checkpoint);
 
         JsonArrayBuilder datasetIdsJson = Json.createArrayBuilder();
         for (Long id : datasetIds) {
@@ -79,11 +126,19 @@ public class IndexBatchServiceBean {
         previewOfWorkload.add("dataverseCount", dataverseIds.size());
         previewOfWorkload.add("datasetCount", datasetIds.size());
         previewOfWorkload.add("partitionId", partitionId);
+        previewOfWorkload.add("workers", systemConfig.getIndexBatchWorkers());
+        if (checkpoint != null) {
+            previewOfWorkload.add("resumingFromCheckpoint", checkpoint.toString());
+        }
         response.add("previewOfPartitionWorkload", previewOfWorkload);
         return response;
     }
 
     public Future<String> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed) {
+        return doIndexAllOrSubset(numPartitions, partitionId, skipIndexed, true);
+    }
+
+    private Future<String> doIndexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed, boolean resume) {
         long indexAllTimeBegin = System.currentTimeMillis();
         String status;
 
@@ -115,55 +170,175 @@ public class IndexBatchServiceBean {
             resultOfClearingIndexTimes = "Solr index was not cleared before indexing.";
         }
 
-        // List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
-        // Note: no support for "partitions" in this experimental branch. 
-        // The method below returns the ids of all the unindexed dataverses.
-        List<Long> dataverseIds = dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
-        
-        int dataverseIndexCount = 0;
-        int dataverseFailureCount = 0;
-        //for (Dataverse dataverse : dataverses) {
-        for (Long id : dataverseIds) {
-            try {
-                dataverseIndexCount++;
-                Dataverse dataverse = dataverseService.find(id);
-                logger.info("indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ", persistentId=" + dataverse.getAlias() + ")");
-                Future<String> result = indexService.indexDataverseInNewTransaction(dataverse);
-                dataverse = null;
-            } catch (Exception e) {
-                //We want to keep running even after an exception so throw some more info into the log
-                dataverseFailureCount++;
-                logger.info("FAILURE indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ") Exception info: " + e.getMessage());
+        /**
+         * In "continue" mode the index timestamps already tell us what's left
+         * to do. Otherwise we record the start time of the run as a
+         * checkpoint: every dvObject indexed by this run gets an indexTime
+         * after it, so if the run is interrupted the next one only has to look
+         * at the objects indexed before it.
+         */
+        Timestamp checkpoint = null;
+        if (!skipIndexed) {
+            checkpoint = resume ? findCheckpoint(numPartitions, partitionId) : null;
+            if (checkpoint != null) {
+                logger.info("resuming index all (partition " + partitionId + " of " + numPartitions + ") from checkpoint " + checkpoint);
+            } else {
+                saveCheckpoint(numPartitions, partitionId, new Timestamp(indexAllTimeBegin));
             }
         }
 
-        int datasetIndexCount = 0;
-        int datasetFailureCount = 0;
-        List<Long> datasetIds = datasetService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
-        for (Long id : datasetIds) {
-            try {
-                datasetIndexCount++;
-                logger.info("indexing dataset " + datasetIndexCount + " of " + datasetIds.size() + " (id=" + id + ")");
-                Future<String> result = indexService.indexDatasetInNewTransaction(id);
-            } catch (Exception e) {
-                //We want to keep running even after an exception so throw some more info into the log
-                datasetFailureCount++;
-                logger.info("FAILURE indexing dataset " + datasetIndexCount + " of " + datasetIds.size() + " (id=" + id + ") Exception info: " + e.getMessage());
+        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(numPartitions, partitionId, skipIndexed, checkpoint);
+        List<Long> datasetIds = datasetService.findAllOrSubset(numPartitions, partitionId, skipIndexed, checkpoint);
+
+        int workers = systemConfig.getIndexBatchWorkers();
+        IndexBatchProgress progress = new IndexBatchProgress(numPartitions, partitionId, workers, checkpoint);
+        progress.setTotals(dataverseIds.size(), datasetIds.size());
+        progressByPartition.put(getPartitionKey(numPartitions, partitionId), progress);
+
+        // The run is marked as finished (or interrupted) whatever happens, so
+        // that its progress does not keep reporting it as running: 
+        boolean interrupted = true;
+        try {
+            // Dataverses are few and cheap to index, and the datasets' paths
+            // depend on them, so we index them first, one at a time.
+            int dataverseIndexCount = 0;
+            for (Long id : dataverseIds) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                try {
+                    dataverseIndexCount++;
+                    Dataverse dataverse = dataverseService.find(id);
+                    logger.info("indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ", persistentId=" + dataverse.getAlias() + ")");
+                    Future<String> result = indexService.indexDataverseInNewTransaction(dataverse);
+                    dataverse = null;
+                    progress.dataverseIndexed();
+                } catch (Exception e) {
+                    //We want to keep running even after an exception so throw some more info into the log
+                    progress.dataverseFailed();
+                    logger.info("FAILURE indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ") Exception info: " + e.getMessage());
+                }
+            }
+
+            interrupted = Thread.currentThread().isInterrupted() || !indexDatasetsInParallel(datasetIds, workers, progress);
+        } finally {
+            progress.finish(!interrupted);
+        }
+        if (interrupted) {
+            logger.warning("index all was interrupted; the checkpoint has been kept so that the next run can resume from it");
+        } else {
+            logger.info("done iterating through all datasets");
+            if (!skipIndexed) {
+                deleteCheckpoint(numPartitions, partitionId);
             }
         }
-        logger.info("done iterating through all datasets");
 
         long indexAllTimeEnd = System.currentTimeMillis();
         String timeElapsed = "index all took " + (indexAllTimeEnd - indexAllTimeBegin) + " milliseconds";
         logger.info(timeElapsed);
+        long dataverseFailureCount = progress.getDataverseFailures();
+        long datasetFailureCount = progress.getDatasetFailures();
         if (datasetFailureCount + dataverseFailureCount > 0){
             String failureMessage = "There were index failures. " + dataverseFailureCount + " dataverse(s) and " + datasetFailureCount + " dataset(s) failed to index. Please check the log for more information.";
             logger.info(failureMessage);            
         }
-        status = dataverseIndexCount + " dataverses and " + datasetIndexCount + " datasets indexed. " + timeElapsed + ". " + resultOfClearingIndexTimes + "\n";
+        status = dataverseIds.size() + " dataverses and " + datasetIds.size() + " datasets indexed. " + timeElapsed + ". " + resultOfClearingIndexTimes + "\n";
         logger.info(status);
         return new AsyncResult<>(status);
     }
+
+    /**
+     * Spreads the datasets over a fixed pool of workers, each of which keeps
+     * taking the next id from a shared queue until it's empty. Every dataset
+     * is indexed in its own transaction.
+     *
+     * @return false if the run was interrupted before all datasets were done.
+     */
+    private boolean indexDatasetsInParallel(List<Long> datasetIds, int workers, IndexBatchProgress progress) {
+        if (datasetIds.isEmpty()) {
+            return true;
+        }
+        int total = datasetIds.size();
+        Queue<Long> todo = new ConcurrentLinkedQueue<>(datasetIds);
+        AtomicInteger datasetIndexCount = new AtomicInteger();
+        int poolSize = Math.min(workers, total);
+        logger.info("indexing " + total + " datasets with " + poolSize + " worker(s)");
+
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, managedThreadFactory);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < poolSize; i++) {
+                running.add(executor.submit(() -> {
+                    Long id;
+                    while ((id = todo.poll()) != null && !Thread.currentThread().isInterrupted()) {
+                        int count = datasetIndexCount.incrementAndGet();
+                        try {
+                            logger.info("indexing dataset " + count + " of " + total + " (id=" + id + ")");
+                            indexService.indexDatasetInNewTransaction(id);
+                            progress.datasetIndexed();
+                        } catch (Exception e) {
+                            //We want to keep running even after an exception so throw some more info into the log
+                            progress.datasetFailed();
+                            logger.info("FAILURE indexing dataset " + count + " of " + total + " (id=" + id + ") Exception info: " + e.getMessage());
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : running) {
+                worker.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            logger.log(Level.WARNING, "index worker failed", ex.getCause());
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+        return todo.isEmpty();
+    }
+
+    /**
+     * @return Progress of the "index all" runs started on this server since it
+     * was last restarted, one entry per partition.
+     */
+    public JsonArrayBuilder getIndexAllProgress() {
+        JsonArrayBuilder runs = Json.createArrayBuilder();
+        for (IndexBatchProgress progress : progressByPartition.values()) {
+            runs.add(progress.toJson());
+        }
+        return runs;
+    }
+
+    private static String getPartitionKey(long numPartitions, long partitionId) {
+        return numPartitions + "." + partitionId;
+    }
+
+    private static String getCheckpointSettingName(long numPartitions, long partitionId) {
+        return SettingsServiceBean.Key.IndexBatchCheckpoint + "." + getPartitionKey(numPartitions, partitionId);
+    }
+
+    private Timestamp findCheckpoint(long numPartitions, long partitionId) {
+        String checkpoint = settingsService.get(getCheckpointSettingName(numPartitions, partitionId));
+        if (checkpoint == null) {
+            return null;
+        }
+        try {
+            return new Timestamp(Long.parseLong(checkpoint));
+        } catch (NumberFormatException ex) {
+            logger.warning("ignoring invalid index all checkpoint: " + checkpoint);
+            return null;
+        }
+    }
+
+    private void saveCheckpoint(long numPartitions, long partitionId, Timestamp runStart) {
+        settingsService.set(getCheckpointSettingName(numPartitions, partitionId), Long.toString(runStart.getTime()));
+    }
+
+    private void deleteCheckpoint(long numPartitions, long partitionId) {
+        settingsService.delete(getCheckpointSettingName(numPartitions, partitionId));
+    }
         
     @Asynchronous
     public void indexDataverseRecursively(Dataverse dataverse) {
@@ -2,6 +2,7 @@ package edu.harvard.iq.dataverse.search;
 
 import edu.harvard.iq.dataverse.ControlledVocabularyValue;
 import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
 import edu.harvard.iq.dataverse.DataFileTag;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetField;
@@ -42,6 +43,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -70,10 +72,9 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.CursorMarkParams;
 import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.io.IOUtils;
 import org.apache.tika.metadata.Metadata;
@@ -116,9 +117,13 @@ public class IndexServiceBean {
     SettingsServiceBean settingsService;
     @EJB
     SolrClientService solrClientService;
+    @EJB
+    SolrUpdateService solrUpdateService;
 
     @EJB
     VariableServiceBean variableService;
+    @EJB
+    DataFileServiceBean dataFileService;
 
     public static final String solrDocIdentifierDataverse = "dataverse_";
     public static final String solrDocIdentifierFile = "datafile_";
@@ -129,6 +134,11 @@ public class IndexServiceBean {
     private static final String groupPrefix = "group_";
     private static final String groupPerUserPrefix = "group_user";
     private static final String publicGroupIdString = "public";
+    /**
+     * Rows per request when reading every document that matches a query, see
+     * {@link #queryAllDocuments(SolrQuery)}.
+     */
+    private static final int SOLR_QUERY_PAGE_SIZE = 1000;
     private static final String publicGroupString = groupPrefix + "public";
     public static final String PUBLISHED_STRING = "Published";
     private static final String UNPUBLISHED_STRING = "Unpublished";
@@ -286,27 +296,13 @@ public class IndexServiceBean {
         solrInputDocument.addField(SearchFields.SUBTREE, dataversePaths);
         docs.add(solrInputDocument);
 
-        String status;
-        try {
-            if (dataverse.getId() != null) {
-                solrClientService.getSolrClient().add(docs);
-            } else {
-                logger.info("WARNING: indexing of a dataverse with no id attempted");
-            }
-        } catch (SolrServerException | IOException ex) {
-            status = ex.toString();
-            logger.info(status);
-            return new AsyncResult<>(status);
-        }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            status = ex.toString();
-            logger.info(status);
-            return new AsyncResult<>(status);
+        if (dataverse.getId() != null) {
+            // (the index time is set once the document has been sent)
+            solrUpdateService.add(docs, dataverse.getId());
+        } else {
+            logger.info("WARNING: indexing of a dataverse with no id attempted");
         }
 
-        dvObjectService.updateContentIndexTime(dataverse);
         IndexResponse indexResponse = solrIndexService.indexPermissionsForOneDvObject(dataverse);
         String msg = "indexed dataverse " + dataverse.getId() + ":" + dataverse.getAlias() + ". Response from permission indexing: " + indexResponse.getMessage();
         return new AsyncResult<>(msg);
@@ -347,6 +343,29 @@ public class IndexServiceBean {
     }
     
     public Future<String> indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) throws  SolrServerException, IOException {
+        IndexedDocHashes indexedDocs = null;
+        if (systemConfig.isSolrIncrementalIndexing()) {
+            try {
+                indexedDocs = findIndexedDocHashes(dataset.getId());
+            } catch (SearchException ex) {
+                logger.fine("could not look up indexed documents of dataset " + dataset.getId() + ", reindexing all of them: " + ex);
+            }
+        }
+        Future<String> result = indexDataset(dataset, doNormalSolrDocCleanUp, indexedDocs);
+        if (indexedDocs != null) {
+            logger.fine("dataset " + dataset.getId() + ": " + indexedDocs.getUnchangedCount() + " unchanged Solr document(s) kept");
+            if (doNormalSolrDocCleanUp) {
+                solrIndexService.deleteMultipleSolrIds(indexedDocs.getDocIdsToDelete());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param indexedDocs If not null, unchanged documents are skipped and the
+     * preemptive delete of the dataset's file documents is left to the caller.
+     */
+    private Future<String> indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp, IndexedDocHashes indexedDocs) throws  SolrServerException, IOException {
         logger.fine("indexing dataset " + dataset.getId());
         /**
          * @todo should we use solrDocIdentifierDataset or
@@ -364,6 +383,32 @@ public class IndexServiceBean {
         int numPublishedVersions = 0;
         List<DatasetVersion> versions = dataset.getVersions();
         List<String> solrIdsOfFilesToDelete = new ArrayList<>();
+        try {
+            /**
+             * Preemptively delete *all* Solr documents for files associated
+             * with the dataset based on a Solr query.
+             *
+             * We must query Solr for this information because the file has
+             * been deleted from the database ( perhaps when Solr was down,
+             * as reported in https://github.com/IQSS/dataverse/issues/2086
+             * ) so the database doesn't even know about the file. It's an
+             * orphan.
+             *
+             * @todo This Solr query should make the iteration below based
+             * on the database unnecessary because it the Solr query should
+             * find all files for the dataset. We can probably remove the
+             * iteration below after an "index all" has been performed.
+             * Without an "index all" we won't be able to find files based
+             * on parentId because that field wasn't searchable in 4.0.
+             *
+             * @todo We should also delete the corresponding Solr
+             * "permission" documents for the files.
+             */
+            List<String> allFilesForDataset = findFilesOfParentDataset(dataset.getId());
+            solrIdsOfFilesToDelete.addAll(allFilesForDataset);
+        } catch (SearchException | NullPointerException ex) {
+            logger.fine("could not run search of files to delete: " + ex);
+        }
         for (DatasetVersion datasetVersion : versions) {
             Long versionDatabaseId = datasetVersion.getId();
             String versionTitle = datasetVersion.getTitle();
@@ -393,32 +438,6 @@ public class IndexServiceBean {
                 solrIdsOfFilesToDelete.add(solrIdOfPublishedFile);
                 fileInfo.add(fileMetadata.getDataFile().getId() + ":" + fileMetadata.getLabel());
             }
-            try {
-                /**
-                 * Preemptively delete *all* Solr documents for files associated
-                 * with the dataset based on a Solr query.
-                 *
-                 * We must query Solr for this information because the file has
-                 * been deleted from the database ( perhaps when Solr was down,
-                 * as reported in https://github.com/IQSS/dataverse/issues/2086
-                 * ) so the database doesn't even know about the file. It's an
-                 * orphan.
-                 *
-                 * @todo This Solr query should make the iteration above based
-                 * on the database unnecessary because it the Solr query should
-                 * find all files for the dataset. We can probably remove the
-                 * iteration above after an "index all" has been performed.
-                 * Without an "index all" we won't be able to find files based
-                 * on parentId because that field wasn't searchable in 4.0.
-                 *
-                 * @todo We should also delete the corresponding Solr
-                 * "permission" documents for the files.
-                 */
-                List<String> allFilesForDataset = findFilesOfParentDataset(dataset.getId());
-                solrIdsOfFilesToDelete.addAll(allFilesForDataset);
-            } catch (SearchException | NullPointerException ex) {
-                logger.fine("could not run search of files to delete: " + ex);
-            }
             int numFiles = 0;
             if (fileMetadatas != null) {
                 numFiles = fileMetadatas.size();
@@ -426,7 +445,13 @@ public class IndexServiceBean {
             debug.append("- files: " + numFiles + " " + fileInfo.toString() + "\n");
         }
         debug.append("numPublishedVersions: " + numPublishedVersions + "\n");
-        if (doNormalSolrDocCleanUp) {
+        if (doNormalSolrDocCleanUp && indexedDocs != null) {
+            // (not found by the query above yet)
+            solrIdsOfFilesToDelete.addAll(indexedDocs.getUnsettledFileDocIds());
+            // files that end up unchanged or reindexed are kept, see indexDataset(Dataset, boolean)
+            indexedDocs.deleteUnlessReindexed(solrIdsOfFilesToDelete);
+            debug.append("deletion of published files deferred until reindexing is done\n");
+        } else if (doNormalSolrDocCleanUp) {
             IndexResponse resultOfAttemptToPremptivelyDeletePublishedFiles = solrIndexService.deleteMultipleSolrIds(solrIdsOfFilesToDelete);
             debug.append("result of attempt to premptively deleted published files before reindexing: " + resultOfAttemptToPremptivelyDeletePublishedFiles + "\n");
         }
@@ -455,7 +480,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, true);
                 IndexableDataset indexableDraftVersion = new IndexableDataset(latestVersion);
-                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion);
+                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion, null, indexedDocs);
                 results.append("The latest version is a working copy (latestVersionState: ")
                         .append(latestVersionStateString).append(") and indexing was attempted for ")
                         .append(solrIdDraftDataset).append(" (limited discoverability). Result: ")
@@ -510,7 +535,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.DEACCESSIONED, true);
                 IndexableDataset indexableDeaccessionedVersion = new IndexableDataset(latestVersion);
-                String indexDeaccessionedVersionResult = addOrUpdateDataset(indexableDeaccessionedVersion);
+                String indexDeaccessionedVersionResult = addOrUpdateDataset(indexableDeaccessionedVersion, null, indexedDocs);
                 results.append("No draft version. Attempting to index as deaccessioned. Result: ").append(indexDeaccessionedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, false);
@@ -566,7 +591,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, true);
                 IndexableDataset indexableReleasedVersion = new IndexableDataset(releasedVersion);
-                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion);
+                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, null, indexedDocs);
                 results.append("Attempted to index " + solrIdPublished).append(". Result: ").append(indexReleasedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, false);
@@ -618,14 +643,14 @@ public class IndexServiceBean {
                 for (FileMetadata fm : latestVersion.getFileMetadatas()) {
                     datafilesInDraftVersion.add(fm.getDataFile().getId());
                 }
-                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion);
+                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion, null, indexedDocs);
                 results.append("The latest version is a working copy (latestVersionState: ")
                         .append(latestVersionStateString).append(") and will be indexed as ")
                         .append(solrIdDraftDataset).append(" (limited visibility). Result: ").append(indexDraftResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, true);
                 IndexableDataset indexableReleasedVersion = new IndexableDataset(releasedVersion);
-                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, datafilesInDraftVersion);
+                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, datafilesInDraftVersion, indexedDocs);
                 results.append("There is a published version we will attempt to index. Result: ").append(indexReleasedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.DEACCESSIONED, false);
@@ -695,11 +720,7 @@ public class IndexServiceBean {
         return indexResponse;
     }
 
-    private String addOrUpdateDataset(IndexableDataset indexableDataset) throws  SolrServerException, IOException {
-        return addOrUpdateDataset(indexableDataset, null);
-    }
-    
-    private String addOrUpdateDataset(IndexableDataset indexableDataset, Set<Long> datafilesInDraftVersion) throws  SolrServerException, IOException {
+    private String addOrUpdateDataset(IndexableDataset indexableDataset, Set<Long> datafilesInDraftVersion, IndexedDocHashes indexedDocs) throws  SolrServerException, IOException {
         IndexableDataset.DatasetState state = indexableDataset.getDatasetState();
         Dataset dataset = indexableDataset.getDatasetVersion().getDataset();
         logger.fine("adding or updating Solr document for dataset id " + dataset.getId());
@@ -899,7 +920,13 @@ public class IndexServiceBean {
             }
         }
 
-        docs.add(solrInputDocument);
+        String datasetContentHash = IndexedDocHashes.hash(solrInputDocument, null);
+        if (indexedDocs != null && indexedDocs.isUnchanged(datasetSolrDocId, datasetContentHash)) {
+            logger.fine(datasetSolrDocId + " hasn't changed since it was last indexed; skipping it.");
+        } else {
+            solrInputDocument.addField(SearchFields.CONTENT_HASH, datasetContentHash);
+            docs.add(solrInputDocument);
+        }
 
         /**
          * File Indexing
@@ -907,51 +934,81 @@ public class IndexServiceBean {
         boolean doFullTextIndexing = settingsService.isTrueForKey(SettingsServiceBean.Key.SolrFullTextIndexing, false);
         Long maxFTIndexingSize = settingsService.getValueForKeyAsLong(SettingsServiceBean.Key.SolrMaxFileSizeForFullTextIndexing);
         long maxSize = maxFTIndexingSize != null ? maxFTIndexingSize.longValue() : Long.MAX_VALUE;
+        // the full text isn't in the document when its hash is computed
+        String fullTextSettings = doFullTextIndexing + ":" + maxSize;
 
         List<String> filesIndexed = new ArrayList<>();
         if (datasetVersion != null) {
+            // (the same for all the files)
+            String parentCitation = dataset.getCitation();
+            // what the file documents copy from the dataset, for their source hashes
+            String versionSource = null;
+            if (indexedDocs != null) {
+                versionSource = IndexedDocHashes.sourceHash(dataverseVersion, dataset.getPersistentURL(),
+                        dataset.getDataverseContext().getIndexableCategoryName(), findRootDataverseCached().getName(),
+                        majorVersionReleaseDate, dataset.getPublicationDate(), dataversePaths, dataset.getId(),
+                        dataset.getGlobalId(), parentCitation, parentDatasetTitle, datasetVersion.getId(),
+                        datasetVersion.isInReview(), state, fullTextSettings);
+            }
             List<FileMetadata> fileMetadatas = datasetVersion.getFileMetadatas();
             boolean checkForDuplicateMetadata = false;
+            Map<Long, FileMetadata> releasedFileMetadatas = new HashMap<>();
             if (datasetVersion.isDraft() && dataset.isReleased() && dataset.getReleasedVersion() != null) {
                 checkForDuplicateMetadata = true;
                 logger.fine(
                         "We are indexing a draft version of a dataset that has a released version. We'll be checking file metadatas if they are exact clones of the released versions.");
+                // (only read from, so loaded in bulk rather than through the entity)
+                for (FileMetadata releasedFileMetadata : dataFileService.findFileMetadataOptimized(dataset.getReleasedVersion())) {
+                    if (releasedFileMetadata.getDataFile() != null) {
+                        releasedFileMetadatas.put(releasedFileMetadata.getDataFile().getId(), releasedFileMetadata);
+                    }
+                }
             }
             for (FileMetadata fileMetadata : fileMetadatas) {
                 
                 boolean indexThisMetadata = true;
-                if (checkForDuplicateMetadata) {
+                if (checkForDuplicateMetadata && fileMetadata.getDataFile() != null) {
                     
                     logger.fine("Checking if this file metadata is a duplicate.");
-                    for (FileMetadata releasedFileMetadata : dataset.getReleasedVersion().getFileMetadatas()) {
-                        if (fileMetadata.getDataFile() != null && fileMetadata.getDataFile().equals(releasedFileMetadata.getDataFile())) {
-                            /*
-                             * Duplicate if metadata matches and, for full text indexing and the
-                             * SearchFields.ACCESS field, if the restricted status of the file hasn't
-                             * changed. To address the case where full text indexing was on when a file was
-                             * not restricted and it is now restricted and full text indexing has been shut
-                             * off, we need to check for the change in restricted status regardless of
-                             * whether full text indexing is on now.
-                             */
-                            if ((fileMetadata.getDataFile().isRestricted() == releasedFileMetadata.getDataFile().isRestricted())) {
-                                if (fileMetadata.contentEquals(releasedFileMetadata)
-                                     /* SEK 3/12/2020 remove variable metadata indexing*/
-                                     //   && variableMetadataUtil.compareVariableMetadata(releasedFileMetadata,fileMetadata)
-                                        ) {
-                                    indexThisMetadata = false;
-                                    logger.fine("This file metadata hasn't changed since the released version; skipping indexing.");
-                                } else {
-                                    logger.fine("This file metadata has changed since the released version; we want to index it!");
-                                }
+                    FileMetadata releasedFileMetadata = releasedFileMetadatas.get(fileMetadata.getDataFile().getId());
+                    if (releasedFileMetadata != null) {
+                        /*
+                         * Duplicate if metadata matches and, for full text indexing and the
+                         * SearchFields.ACCESS field, if the restricted status of the file hasn't
+                         * changed. To address the case where full text indexing was on when a file was
+                         * not restricted and it is now restricted and full text indexing has been shut
+                         * off, we need to check for the change in restricted status regardless of
+                         * whether full text indexing is on now.
+                         */
+                        if ((fileMetadata.getDataFile().isRestricted() == releasedFileMetadata.getDataFile().isRestricted())) {
+                            if (fileMetadata.contentEquals(releasedFileMetadata)
+                                 /* SEK 3/12/2020 remove variable metadata indexing*/
+                                 //   && variableMetadataUtil.compareVariableMetadata(releasedFileMetadata,fileMetadata)
+                                    ) {
+                                indexThisMetadata = false;
+                                logger.fine("This file metadata hasn't changed since the released version; skipping indexing.");
                             } else {
-                                logger.fine("This file's restricted status has changed since the released version; we want to index it!");
+                                logger.fine("This file metadata has changed since the released version; we want to index it!");
                             }
-                            break;
+                        } else {
+                            logger.fine("This file's restricted status has changed since the released version; we want to index it!");
                         }
                     }
                 }
-                if (indexThisMetadata) {
-                    
+                if (indexThisMetadata && indexableDataset.isFilesShouldBeIndexed()) {
+                    DataFile datafile = fileMetadata.getDataFile();
+                    String fileSolrDocId = solrDocIdentifierFile + datafile.getId();
+                    if (state.equals(IndexableDataset.DatasetState.WORKING_COPY)) {
+                        fileSolrDocId = solrDocIdentifierFile + datafile.getId() + state.getSuffix();
+                    }
+                    String fileSourceHash = null;
+                    if (indexedDocs != null) {
+                        fileSourceHash = fileSourceHash(versionSource, fileMetadata, datafilesInDraftVersion);
+                        if (indexedDocs.isSourceUnchanged(fileSolrDocId, fileSourceHash)) {
+                            logger.fine(fileSolrDocId + " hasn't changed since it was last indexed; skipping it.");
+                            continue;
+                        }
+                    }
 
                     SolrInputDocument datafileSolrInputDocument = new SolrInputDocument();
                     Long fileEntityId = fileMetadata.getDataFile().getId();
@@ -962,55 +1019,6 @@ public class IndexServiceBean {
                     datafileSolrInputDocument.addField(SearchFields.TYPE, "files");
                     datafileSolrInputDocument.addField(SearchFields.CATEGORY_OF_DATAVERSE, dataset.getDataverseContext().getIndexableCategoryName());
 
-                    /* Full-text indexing using Apache Tika */
-                    if (doFullTextIndexing) {
-                        if (!dataset.isHarvested() && !fileMetadata.getDataFile().isRestricted() && !fileMetadata.getDataFile().isFilePackage()) {
-                            StorageIO<DataFile> accessObject = null;
-                            InputStream instream = null;
-                            ContentHandler textHandler = null;
-                            try {
-                                accessObject = DataAccess.getStorageIO(fileMetadata.getDataFile(),
-                                        new DataAccessRequest());
-                                if (accessObject != null) {
-                                    accessObject.open();
-                                    // If the size is >max, we don't use the stream. However, for S3, the stream is
-                                    // currently opened in the call above (see
-                                    // https://github.com/IQSS/dataverse/issues/5165), so we want to get a handle so
-                                    // we can close it below.
-                                    instream = accessObject.getInputStream();
-                                    if (accessObject.getSize() <= maxSize) {
-                                        AutoDetectParser autoParser = new AutoDetectParser();
-                                        textHandler = new BodyContentHandler(-1);
-                                        Metadata metadata = new Metadata();
-                                        ParseContext context = new ParseContext();
-                                        /*
-                                         * Try parsing the file. Note that, other than by limiting size, there's been no
-                                         * check see whether this file is a good candidate for text extraction (e.g.
-                                         * based on type).
-                                         */
-                                        autoParser.parse(instream, textHandler, metadata, context);
-                                        datafileSolrInputDocument.addField(SearchFields.FULL_TEXT,
-                                                textHandler.toString());
-                                    }
-                                }
-                            } catch (Exception e) {
-                                // Needs better logging of what went wrong in order to
-                                // track down "bad" documents.
-                                logger.warning(String.format("Full-text indexing for %s failed",
-                                        fileMetadata.getDataFile().getDisplayName()));
-                                e.printStackTrace();
-                                continue;
-                            } catch (OutOfMemoryError e) {
-                                textHandler = null;
-                                logger.warning(String.format("Full-text indexing for %s failed due to OutOfMemoryError",
-                                        fileMetadata.getDataFile().getDisplayName()));
-                                continue;
-                            } finally {
-                                IOUtils.closeQuietly(instream);
-                            }
-                        }
-                    }
-
                     String filenameCompleteFinal = "";
                     if (fileMetadata != null) {
                         String filenameComplete = fileMetadata.getLabel();
@@ -1050,7 +1058,6 @@ public class IndexServiceBean {
                      * via https://redmine.hmdc.harvard.edu/issues/3701
                      */
                     Date fileSortByDate = new Date();
-                    DataFile datafile = fileMetadata.getDataFile();
                     if (datafile != null) {
                         boolean fileHasBeenReleased = datafile.isReleased();
                         if (fileHasBeenReleased) {
@@ -1102,9 +1109,7 @@ public class IndexServiceBean {
                         datafileSolrInputDocument.addField(SearchFields.PUBLICATION_STATUS, IN_REVIEW_STRING);
                     }
 
-                    String fileSolrDocId = solrDocIdentifierFile + fileEntityId;
                     if (indexableDataset.getDatasetState().equals(indexableDataset.getDatasetState().PUBLISHED)) {
-                        fileSolrDocId = solrDocIdentifierFile + fileEntityId;
                         datafileSolrInputDocument.addField(SearchFields.PUBLICATION_STATUS, PUBLISHED_STRING);
                         // datafileSolrInputDocument.addField(SearchFields.PERMS, publicGroupString);
                         addDatasetReleaseDateToSolrDoc(datafileSolrInputDocument, dataset);
@@ -1113,7 +1118,6 @@ public class IndexServiceBean {
                             datafileSolrInputDocument.addField(SearchFields.FILE_DELETED, true);
                         }
                     } else if (indexableDataset.getDatasetState().equals(indexableDataset.getDatasetState().WORKING_COPY)) {
-                        fileSolrDocId = solrDocIdentifierFile + fileEntityId + indexableDataset.getDatasetState().getSuffix();
                         datafileSolrInputDocument.addField(SearchFields.PUBLICATION_STATUS, DRAFT_STRING);
                     }
                     datafileSolrInputDocument.addField(SearchFields.ID, fileSolrDocId);
@@ -1147,7 +1151,7 @@ public class IndexServiceBean {
                     // dataFile.getDataset().getTitle());
                     datafileSolrInputDocument.addField(SearchFields.PARENT_ID, fileMetadata.getDataFile().getOwner().getId());
                     datafileSolrInputDocument.addField(SearchFields.PARENT_IDENTIFIER, fileMetadata.getDataFile().getOwner().getGlobalId().toString());
-                    datafileSolrInputDocument.addField(SearchFields.PARENT_CITATION, fileMetadata.getDataFile().getOwner().getCitation());
+                    datafileSolrInputDocument.addField(SearchFields.PARENT_CITATION, parentCitation);
 
                     datafileSolrInputDocument.addField(SearchFields.PARENT_NAME, parentDatasetTitle);
 
@@ -1216,39 +1220,92 @@ public class IndexServiceBean {
                         }
                     }
 
-                    if (indexableDataset.isFilesShouldBeIndexed()) {
-                        filesIndexed.add(fileSolrDocId);
-                        docs.add(datafileSolrInputDocument);
+                    String fileContentHash = IndexedDocHashes.hash(datafileSolrInputDocument, fullTextSettings);
+                    if (indexedDocs != null && indexedDocs.isUnchanged(fileSolrDocId, fileContentHash)) {
+                        // (its stored source hash stays out of date, so it is built again next time)
+                        logger.fine(fileSolrDocId + " hasn't changed since it was last indexed; skipping it.");
+                        continue;
                     }
+                    /* Full-text indexing using Apache Tika */
+                    if (doFullTextIndexing && !addFullText(datafileSolrInputDocument, fileMetadata, dataset, maxSize)) {
+                        continue;
+                    }
+                    datafileSolrInputDocument.addField(SearchFields.CONTENT_HASH, fileContentHash);
+                    if (fileSourceHash != null) {
+                        datafileSolrInputDocument.addField(SearchFields.SOURCE_HASH, fileSourceHash);
+                    }
+                    filesIndexed.add(fileSolrDocId);
+                    if (indexedDocs != null) {
+                        indexedDocs.indexed(fileSolrDocId);
+                    }
+                    docs.add(datafileSolrInputDocument);
                 }
             }
         }
         
-        try {
-            solrClientService.getSolrClient().add(docs);
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            if (ex.getCause() instanceof SolrServerException) {
-                throw new SolrServerException(ex);
-            } else if (ex.getCause() instanceof IOException) {
-                throw new IOException(ex);
-            }
-        }
-
         Long dsId = dataset.getId();
-        /// Dataset updatedDataset =
-        /// (Dataset)dvObjectService.updateContentIndexTime(dataset);
-        /// updatedDataset = null;
-        // instead of making a call to dvObjectService, let's try and
-        // modify the index time stamp using the local EntityManager:
-        DvObject dvObjectToModify = em.find(DvObject.class, dsId);
-        dvObjectToModify.setIndexTime(new Timestamp(new Date().getTime()));
-        dvObjectToModify = em.merge(dvObjectToModify);
-        dvObjectToModify = null;
+        // The index time stamp is set once the documents have been sent to
+        // Solr, rather than now: they are only buffered until then.
+        solrUpdateService.add(docs, dsId);
 
         return "indexed dataset " + dsId + " as " + datasetSolrDocId + ". filesIndexed: " + filesIndexed;
     }
 
+    /**
+     * Full-text indexing using Apache Tika.
+     *
+     * @return false if the text of the file could not be extracted, in which
+     * case the file is not indexed at all.
+     */
+    private boolean addFullText(SolrInputDocument datafileSolrInputDocument, FileMetadata fileMetadata, Dataset dataset, long maxSize) {
+        if (!dataset.isHarvested() && !fileMetadata.getDataFile().isRestricted() && !fileMetadata.getDataFile().isFilePackage()) {
+            StorageIO<DataFile> accessObject = null;
+            InputStream instream = null;
+            ContentHandler textHandler = null;
+            try {
+                accessObject = DataAccess.getStorageIO(fileMetadata.getDataFile(),
+                        new DataAccessRequest());
+                if (accessObject != null) {
+                    accessObject.open();
+                    // If the size is >max, we don't use the stream. However, for S3, the stream is
+                    // currently opened in the call above (see
+                    // https://github.com/IQSS/dataverse/issues/5165), so we want to get a handle so
+                    // we can close it below.
+                    instream = accessObject.getInputStream();
+                    if (accessObject.getSize() <= maxSize) {
+                        AutoDetectParser autoParser = new AutoDetectParser();
+                        textHandler = new BodyContentHandler(-1);
+                        Metadata metadata = new Metadata();
+                        ParseContext context = new ParseContext();
+                        /*
+                         * Try parsing the file. Note that, other than by limiting size, there's been no
+                         * check see whether this file is a good candidate for text extraction (e.g.
+                         * based on type).
+                         */
+                        autoParser.parse(instream, textHandler, metadata, context);
+                        datafileSolrInputDocument.addField(SearchFields.FULL_TEXT,
+                                textHandler.toString());
+                    }
+                }
+            } catch (Exception e) {
+                // Needs better logging of what went wrong in order to
+                // track down "bad" documents.
+                logger.warning(String.format("Full-text indexing for %s failed",
+                        fileMetadata.getDataFile().getDisplayName()));
+                e.printStackTrace();
+                return false;
+            } catch (OutOfMemoryError e) {
+                textHandler = null;
+                logger.warning(String.format("Full-text indexing for %s failed due to OutOfMemoryError",
+                        fileMetadata.getDataFile().getDisplayName()));
+                return false;
+            } finally {
+                IOUtils.closeQuietly(instream);
+            }
+        }
+        return true;
+    }
+
     /**
      * If the "Topic Classification" has a "Vocabulary", return both the "Term"
      * and the "Vocabulary" with the latter in parentheses. For example, the
@@ -1369,6 +1426,30 @@ public class IndexServiceBean {
         }
     }
 
+    /**
+     * @return A hash of what the document of a file is built from, see
+     * {@link IndexedDocHashes}: the file, its metadata in the version, and
+     * (in {@code versionSource}) what it copies from the dataset.
+     */
+    private String fileSourceHash(String versionSource, FileMetadata fileMetadata, Set<Long> datafilesInDraftVersion) {
+        DataFile datafile = fileMetadata.getDataFile();
+        Long dataTableId = null;
+        List<String> tabularTags = new ArrayList<>();
+        if (datafile.isTabularData()) {
+            dataTableId = datafile.getDataTable().getId();
+            for (DataFileTag tag : datafile.getTags()) {
+                tabularTags.add(tag.getTypeLabel());
+            }
+        }
+        return IndexedDocHashes.sourceHash(versionSource, fileMetadata.getId(), fileMetadata.getVersion(),
+                fileMetadata.getLabel(), fileMetadata.getDescription(), fileMetadata.isRestricted(),
+                fileMetadata.getCategoriesByName(), datafile.getId(), datafile.isReleased(), datafile.getPublicationDate(),
+                datafile.getCreateDate(), datafile.isRestricted(), datafile.isHarvested(), datafile.getContentType(),
+                datafile.getFilesize(), datafile.getChecksumType(), datafile.getChecksumValue(), datafile.getGlobalId(),
+                datafile.getUnf(), dataTableId, tabularTags,
+                datafilesInDraftVersion != null && !datafilesInDraftVersion.contains(datafile.getId()));
+    }
+
     private void addDatasetReleaseDateToSolrDoc(SolrInputDocument solrInputDocument, Dataset dataset) {
         if (dataset.getPublicationDate() != null) {
             Calendar calendar = Calendar.getInstance();
@@ -1414,44 +1495,55 @@ public class IndexServiceBean {
     
     
     private void updatePathForExistingSolrDocs(DvObject object) throws SolrServerException, IOException {
-        SolrQuery solrQuery = new SolrQuery();
-        solrQuery.setQuery(SearchUtil.constructQuery(SearchFields.ENTITY_ID, object.getId().toString()));
+        // (so that the documents read below are the latest ones, including
+        // those still waiting in the buffer)
+        solrUpdateService.flush();
+
+        List<String> paths =  object.isInstanceofDataset() ? retrieveDVOPaths(datasetService.find(object.getId())) 
+                : retrieveDVOPaths(dataverseService.find(object.getId()));
+        if (updatePathForExistingSolrDocs(object.getId(), paths) && object.isInstanceofDataset()) {
+            for (DataFile df : datasetService.find(object.getId()).getFiles()) {
+                updatePathForExistingSolrDocs(df.getId(), paths);
+            }
+        }
+    }
 
+    /**
+     * Queues the Solr documents of an object again, with the paths given. The
+     * documents are read with a real-time get, which sees the updates sent to
+     * Solr but not committed yet, and are not queued if a newer add or delete
+     * of the same document is waiting in the buffer.
+     *
+     * @return whether the object has any documents in the index
+     */
+    private boolean updatePathForExistingSolrDocs(Long entityId, List<String> paths) throws SolrServerException, IOException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(SearchUtil.constructQuery(SearchFields.ENTITY_ID, entityId.toString()));
+        solrQuery.setFields(SearchFields.ID);
         QueryResponse res = solrClientService.getSolrClient().query(solrQuery);
-        
-        if (!res.getResults().isEmpty()) {            
-            SolrDocument doc = res.getResults().get(0);
-            SolrInputDocument sid = new SolrInputDocument();
+        if (res.getResults().isEmpty()) {
+            return false;
+        }
 
+        List<String> ids = new ArrayList<>();
+        for (SolrDocument doc : res.getResults()) {
+            ids.add((String) doc.getFieldValue(SearchFields.ID));
+        }
+        for (SolrDocument doc : solrClientService.getSolrClient().getById(ids)) {
+            SolrInputDocument sid = new SolrInputDocument();
             for (String fieldName : doc.getFieldNames()) {
-                sid.addField(fieldName, doc.getFieldValue(fieldName));
+                // Leave out the internal fields: _version_ in particular would
+                // turn the add into one that fails if the document changed
+                // since it was read (and _text_ is filled in by Solr).
+                if (!fieldName.startsWith("_")) {
+                    sid.addField(fieldName, doc.getFieldValue(fieldName));
+                }
             }
-
-            List<String> paths =  object.isInstanceofDataset() ? retrieveDVOPaths(datasetService.find(object.getId())) 
-                    : retrieveDVOPaths(dataverseService.find(object.getId()));
-  
             sid.removeField(SearchFields.SUBTREE);
             sid.addField(SearchFields.SUBTREE, paths);
-            UpdateResponse addResponse = solrClientService.getSolrClient().add(sid);
-            UpdateResponse commitResponse = solrClientService.getSolrClient().commit();
-            if (object.isInstanceofDataset()) {
-                for (DataFile df : datasetService.find(object.getId()).getFiles()) {
-                    solrQuery.setQuery(SearchUtil.constructQuery(SearchFields.ENTITY_ID, df.getId().toString()));
-                    res = solrClientService.getSolrClient().query(solrQuery);
-                    if (!res.getResults().isEmpty()) {
-                        doc = res.getResults().get(0);
-                        sid = new SolrInputDocument();
-                        for (String fieldName : doc.getFieldNames()) {
-                            sid.addField(fieldName, doc.getFieldValue(fieldName));
-                        }
-                        sid.removeField(SearchFields.SUBTREE);
-                        sid.addField(SearchFields.SUBTREE, paths);
-                        addResponse = solrClientService.getSolrClient().add(sid);
-                        commitResponse = solrClientService.getSolrClient().commit();
-                    }
-                }
-            }
-        }            
+            solrUpdateService.addUnlessPending(sid);
+        }
+        return true;
     }
     
     
@@ -1505,18 +1597,8 @@ public class IndexServiceBean {
 
     public String delete(Dataverse doomed) {
         logger.fine("deleting Solr document for dataverse " + doomed.getId());
-        UpdateResponse updateResponse;
-        try {
-            updateResponse = solrClientService.getSolrClient().deleteById(solrDocIdentifierDataverse + doomed.getId());
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
-        String response = "Successfully deleted dataverse " + doomed.getId() + " from Solr index. updateReponse was: " + updateResponse.toString();
+        solrUpdateService.deleteById(solrDocIdentifierDataverse + doomed.getId());
+        String response = "Queued deletion of dataverse " + doomed.getId() + " from Solr index.";
         logger.fine(response);
         return response;
     }
@@ -1530,18 +1612,8 @@ public class IndexServiceBean {
     public String removeSolrDocFromIndex(String doomed) {
 
         logger.fine("deleting Solr document: " + doomed);
-        UpdateResponse updateResponse;
-        try {
-            updateResponse = solrClientService.getSolrClient().deleteById(doomed);
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            return ex.toString();
-        }
-        String response = "Attempted to delete " + doomed + " from Solr index. updateReponse was: " + updateResponse.toString();
+        solrUpdateService.deleteById(doomed);
+        String response = "Queued deletion of " + doomed + " from Solr index.";
         logger.fine(response);
         return response;
     }
@@ -1736,16 +1808,14 @@ public class IndexServiceBean {
     private List<Long> findDvObjectInSolrOnly(String type) throws SearchException {
         SolrQuery solrQuery = new SolrQuery();
         solrQuery.setQuery("*");
-        solrQuery.setRows(Integer.MAX_VALUE);
         solrQuery.addFilterQuery(SearchFields.TYPE + ":" + type);
         List<Long> dvObjectInSolrOnly = new ArrayList<>();
-        QueryResponse queryResponse = null;
+        List<SolrDocument> results;
         try {
-            queryResponse = solrClientService.getSolrClient().query(solrQuery);
+            results = queryAllDocuments(solrQuery);
         } catch (SolrServerException | IOException ex) {
             throw new SearchException("Error searching Solr for " + type, ex);
         }
-        SolrDocumentList results = queryResponse.getResults();
         for (SolrDocument solrDocument : results) {
             Object idObject = solrDocument.getFieldValue(SearchFields.ENTITY_ID);
             if (idObject != null) {
@@ -1766,20 +1836,19 @@ public class IndexServiceBean {
     private List<String> findFilesOfParentDataset(long parentDatasetId) throws SearchException {
         SolrQuery solrQuery = new SolrQuery();
         solrQuery.setQuery("*");
-        solrQuery.setRows(Integer.MAX_VALUE);
         solrQuery.addFilterQuery(SearchFields.PARENT_ID + ":" + parentDatasetId);
         /**
          * @todo "files" should be a constant
          */
         solrQuery.addFilterQuery(SearchFields.TYPE + ":" + "files");
+        solrQuery.setFields(SearchFields.ID);
         List<String> dvObjectInSolrOnly = new ArrayList<>();
-        QueryResponse queryResponse = null;
+        List<SolrDocument> results;
         try {
-            queryResponse = solrClientService.getSolrClient().query(solrQuery);
+            results = queryAllDocuments(solrQuery);
         } catch (SolrServerException | IOException ex) {
             throw new SearchException("Error searching Solr for dataset parent id " + parentDatasetId, ex);
         }
-        SolrDocumentList results = queryResponse.getResults();
         for (SolrDocument solrDocument : results) {
             Object idObject = solrDocument.getFieldValue(SearchFields.ID);
             if (idObject != null) {
@@ -1790,6 +1859,70 @@ public class IndexServiceBean {
         return dvObjectInSolrOnly;
     }
 
+    /**
+     * @return The content and source hashes stored in Solr for the documents
+     * of the dataset and of its files, for all versions, overridden by those
+     * of the documents that Solr may not show yet.
+     */
+    private IndexedDocHashes findIndexedDocHashes(long datasetId) throws SearchException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery("*");
+        solrQuery.addFilterQuery("(" + SearchFields.TYPE + ":files AND " + SearchFields.PARENT_ID + ":" + datasetId + ")"
+                + " OR (" + SearchFields.TYPE + ":datasets AND " + SearchFields.ENTITY_ID + ":" + datasetId + ")");
+        solrQuery.setFields(SearchFields.ID, SearchFields.CONTENT_HASH, SearchFields.SOURCE_HASH);
+        List<SolrDocument> results;
+        try {
+            results = queryAllDocuments(solrQuery);
+        } catch (SolrServerException | IOException ex) {
+            throw new SearchException("Error searching Solr for documents of dataset id " + datasetId, ex);
+        }
+        Map<String, String> storedHashes = new HashMap<>();
+        Map<String, String> storedSourceHashes = new HashMap<>();
+        Set<String> ids = new HashSet<>();
+        for (SolrDocument solrDocument : results) {
+            Object id = solrDocument.getFieldValue(SearchFields.ID);
+            if (id == null) {
+                continue;
+            }
+            ids.add((String) id);
+            Object hash = solrDocument.getFieldValue(SearchFields.CONTENT_HASH);
+            if (hash != null) {
+                storedHashes.put((String) id, (String) hash);
+                Object sourceHash = solrDocument.getFieldValue(SearchFields.SOURCE_HASH);
+                if (sourceHash != null) {
+                    storedSourceHashes.put((String) id, (String) sourceHash);
+                }
+            }
+        }
+        IndexedDocHashes indexedDocs = new IndexedDocHashes(storedHashes, storedSourceHashes);
+        // (read after Solr, so that nothing sent in between is missed)
+        indexedDocs.applyUnsettled(solrUpdateService.getUnsettledDocs(datasetId, ids));
+        return indexedDocs;
+    }
+
+    /**
+     * @return All documents matching the query, read with a cursor in pages of
+     * {@link #SOLR_QUERY_PAGE_SIZE} rows, rather than asking Solr for
+     * Integer.MAX_VALUE rows, which it allocates room for up front.
+     */
+    private List<SolrDocument> queryAllDocuments(SolrQuery solrQuery) throws SolrServerException, IOException {
+        solrQuery.setRows(SOLR_QUERY_PAGE_SIZE);
+        // a cursor requires a sort on the unique key
+        solrQuery.setSort(SolrQuery.SortClause.asc(SearchFields.ID));
+        List<SolrDocument> documents = new ArrayList<>();
+        String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+        while (true) {
+            solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            QueryResponse queryResponse = solrClientService.getSolrClient().query(solrQuery);
+            documents.addAll(queryResponse.getResults());
+            String nextCursorMark = queryResponse.getNextCursorMark();
+            if (nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+                return documents;
+            }
+            cursorMark = nextCursorMark;
+        }
+    }
+
     // This is a convenience method for deleting all the SOLR documents
     // (Datasets and DataFiles) harvested by a specific HarvestingClient.
     // The delete logic is a bit simpler, than when deleting "real", local
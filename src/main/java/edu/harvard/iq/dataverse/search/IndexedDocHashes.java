@@ -0,0 +1,179 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+/**
+ * Bookkeeping for the incremental (re)indexing of one dataset, see
+ * {@code :SolrIncrementalIndexing}.
+ *
+ * Every dataset and file document is stored with a hash of its content in
+ * {@link SearchFields#CONTENT_HASH}. When a dataset is reindexed, a document
+ * whose freshly computed hash matches the hash already in Solr is not sent
+ * again, and its full text is not extracted again. File documents are also
+ * stored with a hash of what they are built from ({@link SearchFields#SOURCE_HASH}:
+ * the fields of the file, its file metadata and the parts of the dataset
+ * that they copy), which is cheap to compute; a file whose source hash
+ * matches is not even rebuilt. The Solr documents of the dataset that would
+ * normally be deleted before reindexing are only deleted afterwards, and
+ * only if they were neither kept nor reindexed.
+ *
+ * The hashes in Solr are overridden by those of the documents of the dataset
+ * that are not visible to searches yet, see {@link #applyUnsettled(Map)}.
+ */
+class IndexedDocHashes {
+
+    /**
+     * Solr document id to the content hash stored in Solr.
+     */
+    private final Map<String, String> storedHashes;
+    /**
+     * Solr document id to the source hash stored in Solr.
+     */
+    private final Map<String, String> storedSourceHashes;
+    private final Set<String> unsettledFileDocIds = new HashSet<>();
+    private final Set<String> unchanged = new HashSet<>();
+    private final Set<String> indexed = new HashSet<>();
+    private final Set<String> toDelete = new HashSet<>();
+
+    IndexedDocHashes(Map<String, String> storedHashes) {
+        this(storedHashes, new HashMap<>());
+    }
+
+    IndexedDocHashes(Map<String, String> storedHashes, Map<String, String> storedSourceHashes) {
+        this.storedHashes = storedHashes;
+        this.storedSourceHashes = storedSourceHashes;
+    }
+
+    /**
+     * Overrides the hashes read from Solr with the operations on the documents
+     * of the dataset that Solr may not show yet (see
+     * {@link SolrUpdateService#getUnsettledDocs(long)}): they are newer. A
+     * delete, or a document without hashes, leaves the document with no
+     * stored hash, so that it is reindexed.
+     */
+    void applyUnsettled(Map<String, SolrUpdateService.UnsettledDoc> unsettled) {
+        for (Map.Entry<String, SolrUpdateService.UnsettledDoc> doc : unsettled.entrySet()) {
+            String solrDocId = doc.getKey();
+            SolrUpdateService.UnsettledDoc unsettledDoc = doc.getValue();
+            if (unsettledDoc == null || unsettledDoc.contentHash == null) {
+                storedHashes.remove(solrDocId);
+                storedSourceHashes.remove(solrDocId);
+            } else {
+                storedHashes.put(solrDocId, unsettledDoc.contentHash);
+                if (unsettledDoc.sourceHash == null) {
+                    storedSourceHashes.remove(solrDocId);
+                } else {
+                    storedSourceHashes.put(solrDocId, unsettledDoc.sourceHash);
+                }
+            }
+            if (unsettledDoc != null && unsettledDoc.file) {
+                unsettledFileDocIds.add(solrDocId);
+            }
+        }
+    }
+
+    /**
+     * @return The file documents of the dataset that Solr may not show yet,
+     * and which its query for the file documents of the dataset therefore
+     * misses.
+     */
+    Set<String> getUnsettledFileDocIds() {
+        return unsettledFileDocIds;
+    }
+
+    /**
+     * @return true if Solr already has this document built from the same
+     * source, in which case it is remembered as one to keep (and need not be
+     * built).
+     */
+    boolean isSourceUnchanged(String solrDocId, String sourceHash) {
+        if (sourceHash.equals(storedSourceHashes.get(solrDocId))) {
+            unchanged.add(solrDocId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if Solr already has this document with this content, in
+     * which case it is remembered as one to keep.
+     */
+    boolean isUnchanged(String solrDocId, String contentHash) {
+        if (contentHash.equals(storedHashes.get(solrDocId))) {
+            unchanged.add(solrDocId);
+            return true;
+        }
+        return false;
+    }
+
+    void indexed(String solrDocId) {
+        indexed.add(solrDocId);
+    }
+
+    void deleteUnlessReindexed(Collection<String> solrDocIds) {
+        toDelete.addAll(solrDocIds);
+    }
+
+    int getUnchangedCount() {
+        return unchanged.size();
+    }
+
+    /**
+     * @return The documents that were up for deletion and were neither kept
+     * nor reindexed.
+     */
+    List<String> getDocIdsToDelete() {
+        List<String> stale = new ArrayList<>();
+        for (String solrDocId : toDelete) {
+            if (!unchanged.contains(solrDocId) && !indexed.contains(solrDocId)) {
+                stale.add(solrDocId);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * MD5 of all field names and values of the document, in the order they
+     * were added, plus {@code extra} for anything that affects the document
+     * but is not in it yet (e.g. the full text indexing settings).
+     */
+    static String hash(SolrInputDocument doc, String extra) {
+        StringBuilder content = new StringBuilder();
+        for (SolrInputField field : doc) {
+            if (SearchFields.CONTENT_HASH.equals(field.getName()) || SearchFields.SOURCE_HASH.equals(field.getName())) {
+                continue;
+            }
+            content.append(field.getName()).append('\u0001');
+            for (Object value : field.getValues()) {
+                content.append(value).append('\u0002');
+            }
+            content.append('\u0003');
+        }
+        if (extra != null) {
+            content.append(extra);
+        }
+        return DigestUtils.md5Hex(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * MD5 of the values given, for the source hashes.
+     */
+    static String sourceHash(Object... values) {
+        StringBuilder content = new StringBuilder();
+        for (Object value : values) {
+            content.append(value).append('\u0001');
+        }
+        return DigestUtils.md5Hex(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,349 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.PermissionCacheService;
+import edu.harvard.iq.dataverse.authorization.groups.Group;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+/**
+ * The permission filter query of the searches of the users who are not
+ * superusers: what they can find is what the permission documents of the
+ * groups they are in (their own "user private group" included) make
+ * discoverable, besides the public content.
+ *
+ * The filter used to be a join from the permission documents of all those
+ * groups, one per user, which Solr could rarely reuse from its filter cache.
+ * Now the public content is always the same join, shared by all the searches;
+ * the content discoverable by the other groups of the user is looked up once,
+ * and filtered by id with a "terms" query, unless there is more of it than
+ * {@code :SearchPermissionFilterTermsLimit} documents - then it is a join
+ * again, on the sorted groups, so that the users in the same groups share it.
+ *
+ * Both the groups of a user (for a source address) and the filter of a set of
+ * groups are cached, for at most {@code :SearchPermissionFilterCacheTtlSeconds}.
+ * Both are tied to the generation of the {@link PermissionCacheService}, whose
+ * version stamp is checked on every search, so they are looked up again after
+ * a change of groups or role assignments on any server of a cluster. The
+ * filters are also looked up again once the permission documents sent to Solr
+ * change, by this server (see
+ * {@link SolrUpdateService#getPermissionsVisibleTime()}) or by any other (see
+ * {@link PermissionCacheService#getSearchPermissionsVisibleTime()}).
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class PermissionFilterQueryService {
+
+    private static final Logger logger = Logger.getLogger(PermissionFilterQueryService.class.getCanonicalName());
+
+    public static final int DEFAULT_TTL_SECONDS = 60;
+    public static final int DEFAULT_TERMS_LIMIT = 1000;
+    public static final int DEFAULT_SIZE = 10000;
+
+    private static final String JOIN = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}";
+
+    @EJB
+    SolrClientService solrClientService;
+    @EJB
+    SolrUpdateService solrUpdateService;
+    @EJB
+    GroupServiceBean groupService;
+    @EJB
+    PermissionCacheService permissionCache;
+    @EJB
+    SystemConfig systemConfig;
+
+    private static class CachedGroups {
+        final List<String> groups;
+        final long generation;
+        final long expires;
+
+        CachedGroups(List<String> groups, long generation, long expires) {
+            this.groups = groups;
+            this.generation = generation;
+            this.expires = expires;
+        }
+    }
+
+    private static class CachedFilter {
+        final String filterQuery;
+        final long generation;
+        final long resolved;
+        final long expires;
+
+        CachedFilter(String filterQuery, long generation, long resolved, long expires) {
+            this.filterQuery = filterQuery;
+            this.generation = generation;
+            this.resolved = resolved;
+            this.expires = expires;
+        }
+    }
+
+    private volatile long ttlMillis = DEFAULT_TTL_SECONDS * 1000L;
+    private volatile int termsLimit = DEFAULT_TERMS_LIMIT;
+
+    // least recently used first:
+    private final Map<String, CachedGroups> groupsByUser = new LinkedHashMap<String, CachedGroups>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedGroups> eldest) {
+            return size() > DEFAULT_SIZE;
+        }
+    };
+    private final Map<String, CachedFilter> filtersByGroups = new LinkedHashMap<String, CachedFilter>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFilter> eldest) {
+            return size() > DEFAULT_SIZE;
+        }
+    };
+
+    private final AtomicLong groupHits = new AtomicLong();
+    private final AtomicLong groupMisses = new AtomicLong();
+    private final AtomicLong filterHits = new AtomicLong();
+    private final AtomicLong filterMisses = new AtomicLong();
+    private final AtomicLong termsFilters = new AtomicLong();
+    private final AtomicLong joinFilters = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        refreshSettings();
+    }
+
+    /**
+     * Re-reads the settings, so changes take effect without a restart.
+     */
+    @Schedule(hour = "*", minute = "*", persistent = false)
+    public void refreshSettings() {
+        ttlMillis = systemConfig.getSearchPermissionFilterCacheTtlSeconds() * 1000L;
+        termsLimit = systemConfig.getSearchPermissionFilterTermsLimit();
+        if (ttlMillis <= 0) {
+            synchronized (groupsByUser) {
+                groupsByUser.clear();
+            }
+            synchronized (filtersByGroups) {
+                filtersByGroups.clear();
+            }
+        }
+    }
+
+    /**
+     * @param request
+     * @param user The user of the request, or {@code null} for a guest.
+     * @return The permission filter query for the searches of the user.
+     */
+    public String getFilterQuery(DataverseRequest request, AuthenticatedUser user) {
+        // (so that changes made on other servers are seen)
+        permissionCache.checkVersion();
+        List<String> groups = getGroups(request, user);
+        if (groups.isEmpty()) {
+            return publicFilterQuery();
+        }
+        long ttl = ttlMillis;
+        if (ttl <= 0) {
+            joinFilters.incrementAndGet();
+            return joinFilterQuery(groups);
+        }
+        String key = String.join(" ", groups);
+        long generation = permissionCache.getGeneration();
+        synchronized (filtersByGroups) {
+            CachedFilter entry = filtersByGroups.get(key);
+            if (entry != null) {
+                if (entry.expires >= System.currentTimeMillis() && entry.generation == generation
+                        && entry.resolved > permissionsVisibleTime()) {
+                    filterHits.incrementAndGet();
+                    return entry.filterQuery;
+                }
+                filtersByGroups.remove(key);
+            }
+        }
+        filterMisses.incrementAndGet();
+        long resolved = System.currentTimeMillis();
+        String filterQuery = resolveFilterQuery(groups);
+        synchronized (filtersByGroups) {
+            // (unless the permissions changed in the meantime)
+            if (permissionCache.getGeneration() == generation && resolved > permissionsVisibleTime()) {
+                filtersByGroups.put(key, new CachedFilter(filterQuery, generation, resolved, resolved + ttl));
+            }
+        }
+        return filterQuery;
+    }
+
+    /**
+     * @return The time by which the permission documents sent to Solr so far,
+     * by any server, are visible to searches.
+     */
+    private long permissionsVisibleTime() {
+        return Math.max(solrUpdateService.getPermissionsVisibleTime(), permissionCache.getSearchPermissionsVisibleTime());
+    }
+
+    /**
+     * @return The groups of the user, as indexed in the permission documents
+     * (the public group aside), sorted.
+     */
+    List<String> getGroups(DataverseRequest request, AuthenticatedUser user) {
+        long ttl = ttlMillis;
+        String key = (user == null ? ":guest" : user.getIdentifier()) + "@" + request.getSourceAddress();
+        long generation = permissionCache.getGeneration();
+        if (ttl > 0) {
+            synchronized (groupsByUser) {
+                CachedGroups entry = groupsByUser.get(key);
+                if (entry != null) {
+                    if (entry.expires >= System.currentTimeMillis() && entry.generation == generation) {
+                        groupHits.incrementAndGet();
+                        return entry.groups;
+                    }
+                    groupsByUser.remove(key);
+                }
+            }
+        }
+        groupMisses.incrementAndGet();
+
+        SortedSet<String> groupStrings = new TreeSet<>();
+        if (user != null) {
+            groupStrings.add(IndexServiceBean.getGroupPerUserPrefix() + user.getId());
+        }
+        for (Group group : groupService.collectAncestors(groupService.groupsFor(request))) {
+            String groupAlias = group.getAlias();
+            if (groupAlias != null && !groupAlias.isEmpty()) {
+                // i.e. group_builtIn/all-users, group_builtIn/authenticated-users, group_1-explictGroup1, group_shib/2
+                groupStrings.add(IndexServiceBean.getGroupPrefix() + groupAlias);
+            }
+        }
+        List<String> groups = Collections.unmodifiableList(new ArrayList<>(groupStrings));
+
+        if (ttl > 0) {
+            synchronized (groupsByUser) {
+                if (permissionCache.getGeneration() == generation) {
+                    groupsByUser.put(key, new CachedGroups(groups, generation, System.currentTimeMillis() + ttl));
+                }
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Looks up the content discoverable by the groups, and filters it by id
+     * if there is little enough of it; joins on the groups otherwise.
+     */
+    private String resolveFilterQuery(List<String> groups) {
+        int limit = termsLimit;
+        if (limit > 0) {
+            SolrQuery query = new SolrQuery("*:*");
+            query.addFilterQuery(SearchFields.DISCOVERABLE_BY + ":(" + String.join(" OR ", groups) + ")");
+            query.setFields(SearchFields.DEFINITION_POINT);
+            query.setRows(limit + 1);
+            try {
+                SolrDocumentList permissionDocs = solrClientService.getSolrClient().query(query).getResults();
+                if (permissionDocs.getNumFound() <= limit) {
+                    SortedSet<String> ids = new TreeSet<>();
+                    for (SolrDocument permissionDoc : permissionDocs) {
+                        Object id = permissionDoc.getFieldValue(SearchFields.DEFINITION_POINT);
+                        if (id != null) {
+                            ids.add(id.toString());
+                        }
+                    }
+                    String filterQuery = termsFilterQuery(ids);
+                    if (filterQuery != null) {
+                        termsFilters.incrementAndGet();
+                        return filterQuery;
+                    }
+                }
+            } catch (SolrServerException | IOException | RuntimeException ex) {
+                logger.log(Level.WARNING, "Failed to look up the content discoverable by " + groups + "; filtering with a join", ex);
+            }
+        }
+        joinFilters.incrementAndGet();
+        return joinFilterQuery(groups);
+    }
+
+    /**
+     * @return The filter of the public content only.
+     */
+    static String publicFilterQuery() {
+        return JOIN + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + ")";
+    }
+
+    /**
+     * @return The filter of the public content and of the content
+     * discoverable by the groups.
+     */
+    static String joinFilterQuery(Collection<String> groups) {
+        StringBuilder sb = new StringBuilder(JOIN).append(SearchFields.DISCOVERABLE_BY).append(":(")
+                .append(IndexServiceBean.getPublicGroupString());
+        for (String group : groups) {
+            sb.append(" OR ").append(group);
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * @param ids The Solr ids of the (non-public) content the user can find.
+     * @return The filter of the public content (the same join as
+     * {@link #publicFilterQuery()}, cached separately by Solr) and of the
+     * content with those ids; {@code null} if an id cannot be quoted in it.
+     */
+    static String termsFilterQuery(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return publicFilterQuery();
+        }
+        for (String id : ids) {
+            if (id.isEmpty() || id.matches(".*[\\s,'\\\\].*")) {
+                return null;
+            }
+        }
+        return "filter({!join from=" + SearchFields.DEFINITION_POINT + " to=id v='" + SearchFields.DISCOVERABLE_BY
+                + ":(" + IndexServiceBean.getPublicGroupString() + ")'})"
+                + " OR filter({!terms f=id v='" + String.join(",", ids) + "'})";
+    }
+
+    public JsonObjectBuilder getStatus() {
+        int groupsSize;
+        synchronized (groupsByUser) {
+            groupsSize = groupsByUser.size();
+        }
+        int filtersSize;
+        synchronized (filtersByGroups) {
+            filtersSize = filtersByGroups.size();
+        }
+        return Json.createObjectBuilder()
+                .add("groupHits", groupHits.get())
+                .add("groupMisses", groupMisses.get())
+                .add("filterHits", filterHits.get())
+                .add("filterMisses", filterMisses.get())
+                .add("termsFilters", termsFilters.get())
+                .add("joinFilters", joinFilters.get())
+                .add("cachedUsers", groupsSize)
+                .add("cachedFilters", filtersSize)
+                .add("maxSize", DEFAULT_SIZE)
+                .add("ttlSeconds", ttlMillis / 1000L)
+                .add("termsLimit", termsLimit);
+    }
+
+}
@@ -0,0 +1,239 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetVersionServiceBean;
+import edu.harvard.iq.dataverse.GlobalId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+/**
+ * Fills in the search result cards of a page of search results from the
+ * database, with a fixed number of queries for the whole page (each one
+ * looking up the objects of all the cards with an {@code IN} list), rather
+ * than a few queries for every card.
+ */
+@Named
+@Stateless
+public class SearchCardServiceBean {
+
+    private static final Logger logger = Logger.getLogger(SearchCardServiceBean.class.getCanonicalName());
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    @EJB
+    DataFileServiceBean dataFileService;
+    @EJB
+    DatasetVersionServiceBean datasetVersionService;
+
+    /**
+     * Fills in the cards of the search results: the affiliation and the
+     * aliases of the dataverses; the state, the dataverse alias and the
+     * dataset (with its thumbnail) of the datasets; and the files.
+     *
+     * A published dataset without a thumbnail of its own gets the first of its
+     * unrestricted files that already has a preview image, if any, as the
+     * thumbnail (the same file {@link DatasetVersionServiceBean#getThumbnailByVersionId}
+     * would pick first).
+     *
+     * @param solrSearchResults the search results of a page
+     */
+    public void populateSearchCards(List<SolrSearchResult> solrSearchResults) {
+        List<SolrSearchResult> dataverseCards = new ArrayList<>();
+        List<SolrSearchResult> datasetCards = new ArrayList<>();
+        List<SolrSearchResult> fileCards = new ArrayList<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            if (solrSearchResult.getEntityId() == null) {
+                continue;
+            }
+            if (SearchConstants.DATAVERSES.equals(solrSearchResult.getType())) {
+                dataverseCards.add(solrSearchResult);
+            } else if (SearchConstants.DATASETS.equals(solrSearchResult.getType())) {
+                datasetCards.add(solrSearchResult);
+            } else if (SearchConstants.FILES.equals(solrSearchResult.getType())) {
+                fileCards.add(solrSearchResult);
+            }
+        }
+
+        populateDataverseCards(dataverseCards);
+        Set<Long> fileIds = populateDatasetCards(datasetCards);
+        for (SolrSearchResult solrSearchResult : fileCards) {
+            fileIds.add(solrSearchResult.getEntityId());
+        }
+
+        Map<Long, DataFile> dataFiles = dataFileService.findCheapAndEasy(fileIds);
+        for (SolrSearchResult solrSearchResult : datasetCards) {
+            if (solrSearchResult.getEntity() != null) {
+                Dataset dataset = (Dataset) solrSearchResult.getEntity();
+                if (dataset.getThumbnailFile() != null) {
+                    // (a placeholder with the id, until now)
+                    dataset.setThumbnailFile(dataFiles.get(dataset.getThumbnailFile().getId()));
+                }
+            }
+        }
+        for (SolrSearchResult solrSearchResult : fileCards) {
+            solrSearchResult.setEntity(dataFiles.get(solrSearchResult.getEntityId()));
+        }
+        logger.fine("Populated " + solrSearchResults.size() + " search cards");
+    }
+
+    private void populateDataverseCards(List<SolrSearchResult> dataverseCards) {
+        if (dataverseCards.isEmpty()) {
+            return;
+        }
+        Map<Long, Object[]> dataverses = findRows("SELECT t0.ID, t0.AFFILIATION, t0.ALIAS, t2.ALIAS FROM DATAVERSE t0 "
+                + "JOIN DVOBJECT t1 ON t0.ID = t1.ID "
+                + "LEFT JOIN DATAVERSE t2 ON t1.OWNER_ID = t2.ID "
+                + "WHERE t0.ID = ANY(?1)", entityIds(dataverseCards));
+
+        for (SolrSearchResult solrSearchResult : dataverseCards) {
+            Object[] searchResult = dataverses.get(solrSearchResult.getEntityId());
+            if (searchResult == null) {
+                continue;
+            }
+            if (searchResult[1] != null) {
+                solrSearchResult.setDataverseAffiliation((String) searchResult[1]);
+            }
+            if (searchResult[2] != null) {
+                solrSearchResult.setDataverseAlias((String) searchResult[2]);
+            }
+            if (solrSearchResult.getParentIdAsLong() != null && searchResult[3] != null) {
+                solrSearchResult.setDataverseParentAlias((String) searchResult[3]);
+            }
+        }
+    }
+
+    /**
+     * @return the ids of the thumbnail files of the datasets, to be looked
+     * up along with the files of the page
+     */
+    private Set<Long> populateDatasetCards(List<SolrSearchResult> datasetCards) {
+        Set<Long> thumbnailFileIds = new HashSet<>();
+        List<SolrSearchResult> cards = new ArrayList<>();
+        Set<Long> versionIds = new HashSet<>();
+        Set<Long> dataverseIds = new HashSet<>();
+        for (SolrSearchResult solrSearchResult : datasetCards) {
+            Long dataverseId = solrSearchResult.getParentIdAsLong();
+            if (dataverseId == null || dataverseId == 0) {
+                continue;
+            }
+            cards.add(solrSearchResult);
+            versionIds.add(solrSearchResult.getDatasetVersionId());
+            dataverseIds.add(dataverseId);
+        }
+        if (cards.isEmpty()) {
+            return thumbnailFileIds;
+        }
+
+        Map<Long, Object[]> versions = findRows("SELECT ID, VERSIONSTATE FROM DATASETVERSION WHERE ID = ANY(?1)", versionIds);
+        Map<Long, Object[]> dataverses = findRows("SELECT ID, ALIAS FROM DATAVERSE WHERE ID = ANY(?1)", dataverseIds);
+        Map<Long, Object[]> datasets = findRows("SELECT t2.ID, t2.THUMBNAILFILE_ID, t2.USEGENERICTHUMBNAIL, t3.STORAGEIDENTIFIER FROM DATASET t2, DVOBJECT t3 "
+                + "WHERE t2.ID = t3.ID AND t2.ID = ANY(?1)", entityIds(cards));
+
+        Map<Long, Dataset> autoselectedDatasets = new HashMap<>();
+        for (SolrSearchResult solrSearchResult : cards) {
+            Object[] version = versions.get(solrSearchResult.getDatasetVersionId());
+            Object[] dataverse = dataverses.get(solrSearchResult.getParentIdAsLong());
+            Object[] dataset = datasets.get(solrSearchResult.getEntityId());
+            if (version == null || dataverse == null || dataset == null) {
+                continue;
+            }
+
+            if ("DEACCESSIONED".equals(version[1])) {
+                solrSearchResult.setDeaccessionedState(true);
+            }
+            if (dataverse[1] != null) {
+                solrSearchResult.setDataverseAlias((String) dataverse[1]);
+            }
+
+            Dataset datasetEntity = new Dataset();
+            GlobalId globalId = new GlobalId(solrSearchResult.getIdentifier());
+            datasetEntity.setProtocol(globalId.getProtocol());
+            datasetEntity.setAuthority(globalId.getAuthority());
+            datasetEntity.setIdentifier(globalId.getIdentifier());
+            if (dataset[3] != null) {
+                datasetEntity.setStorageIdentifier(dataset[3].toString());
+            }
+            datasetEntity.setUseGenericThumbnail(dataset[2] != null && (Boolean) dataset[2]);
+            if (dataset[1] != null) {
+                // This is the image file specifically assigned as the "icon" for
+                // the dataset:
+                datasetEntity.setThumbnailFile(thumbnailFile(((Number) dataset[1]).longValue(), thumbnailFileIds));
+            } else if (!datasetEntity.isUseGenericThumbnail() && solrSearchResult.isPublishedState() && !solrSearchResult.isHarvested()) {
+                autoselectedDatasets.put(solrSearchResult.getDatasetVersionId(), datasetEntity);
+            }
+            solrSearchResult.setEntity(datasetEntity);
+        }
+
+        if (!autoselectedDatasets.isEmpty()) {
+            Map<Long, Object[]> previews = findRows("SELECT fm.DATASETVERSION_ID, MIN(df.ID) FROM DATAFILE df, FILEMETADATA fm, DVOBJECT o "
+                    + "WHERE df.ID = o.ID "
+                    + "AND fm.DATAFILE_ID = df.ID "
+                    + "AND df.RESTRICTED = false "
+                    + "AND o.PREVIEWIMAGEAVAILABLE = true "
+                    + "AND fm.DATASETVERSION_ID = ANY(?1) "
+                    + "GROUP BY fm.DATASETVERSION_ID", autoselectedDatasets.keySet());
+            for (Map.Entry<Long, Object[]> preview : previews.entrySet()) {
+                Long thumbnailFileId = ((Number) preview.getValue()[1]).longValue();
+                autoselectedDatasets.get(preview.getKey()).setThumbnailFile(thumbnailFile(thumbnailFileId, thumbnailFileIds));
+                // (once for every dataset: it is the thumbnail of the dataset from now on)
+                datasetVersionService.assignDatasetThumbnailByNativeQuery(preview.getKey(), thumbnailFileId);
+            }
+        }
+        return thumbnailFileIds;
+    }
+
+    private static DataFile thumbnailFile(Long id, Set<Long> thumbnailFileIds) {
+        DataFile thumbnailFile = new DataFile();
+        thumbnailFile.setId(id);
+        thumbnailFileIds.add(id);
+        return thumbnailFile;
+    }
+
+    /**
+     * @param query a native query taking the ids as its only parameter, an
+     * array ({@code ... = ANY(?1)})
+     * @return the rows of the query, by their first column (an id)
+     */
+    private Map<Long, Object[]> findRows(String query, Collection<Long> ids) {
+        Map<Long, Object[]> rows = new HashMap<>();
+        List<Object[]> results;
+        try {
+            results = em.createNativeQuery(query).setParameter(1, idArray(ids)).getResultList();
+        } catch (PersistenceException ex) {
+            logger.warning("Failed to look up the search cards: " + ex);
+            return rows;
+        }
+        for (Object[] result : results) {
+            rows.put(((Number) result[0]).longValue(), result);
+        }
+        return rows;
+    }
+
+    private static Set<Long> entityIds(List<SolrSearchResult> solrSearchResults) {
+        Set<Long> ids = new HashSet<>();
+        for (SolrSearchResult solrSearchResult : solrSearchResults) {
+            ids.add(solrSearchResult.getEntityId());
+        }
+        return ids;
+    }
+
+    static long[] idArray(Collection<Long> ids) {
+        return ids.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+}
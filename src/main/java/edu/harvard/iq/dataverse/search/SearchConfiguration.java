@@ -0,0 +1,413 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DatasetFieldConstant;
+import edu.harvard.iq.dataverse.DatasetFieldType;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DataverseFacet;
+import edu.harvard.iq.dataverse.util.BundleUtil;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What the searches need to know about the metadata fields, besides the
+ * query: the fields to highlight, the dataset field of each facet field, the
+ * display names of both, and the facets of each dataverse.
+ *
+ * It used to be worked out from all the dataset field types on every search.
+ * Now {@link SearchConfigurationService} builds it once, and again only after
+ * the metadata blocks or the facets of a dataverse change. It is not changed
+ * once built, except for what it works out on first use: the display names in
+ * the locale of a request, and the facets of a dataverse.
+ */
+public class SearchConfiguration {
+
+    private static final Logger logger = Logger.getLogger(SearchConfiguration.class.getCanonicalName());
+
+    /**
+     * A field clause of a query: the field, then what it is searched for.
+     */
+    private static final Pattern FIELD_CLAUSE = Pattern.compile("([A-Za-z_][A-Za-z0-9_.]*):.+", Pattern.DOTALL);
+
+    /**
+     * The metadata block and name of the dataset field of a facet field.
+     */
+    public static class DatasetFacetField {
+
+        private final String metadataBlockName;
+        private final String datasetFieldName;
+
+        DatasetFacetField(String metadataBlockName, String datasetFieldName) {
+            this.metadataBlockName = metadataBlockName;
+            this.datasetFieldName = datasetFieldName;
+        }
+
+        public String getMetadataBlockName() {
+            return metadataBlockName;
+        }
+
+        public String getDatasetFieldName() {
+            return datasetFieldName;
+        }
+    }
+
+    /**
+     * What the display name of a dataset field type is made of; see
+     * {@link DatasetFieldType#getDisplayName()}.
+     */
+    private static class FieldTitle {
+
+        final String name;
+        final String title;
+        final String metadataBlockName;
+        final FieldTitle parent;
+
+        FieldTitle(DatasetFieldType fieldType) {
+            name = fieldType.getName();
+            title = fieldType.getTitle();
+            metadataBlockName = fieldType.getMetadataBlock() == null ? null : fieldType.getMetadataBlock().getName();
+            DatasetFieldType parentType = fieldType.getParentDatasetFieldType();
+            parent = parentType != null && !parentType.getTitle().equals(title) ? new FieldTitle(parentType) : null;
+        }
+
+        String getLocaleTitle() {
+            if (metadataBlockName == null) {
+                return title;
+            }
+            try {
+                return BundleUtil.getStringFromPropertyFile("datasetfieldtype." + name + ".title", metadataBlockName);
+            } catch (MissingResourceException e) {
+                return title;
+            }
+        }
+
+        String getDisplayName() {
+            return parent == null ? getLocaleTitle() : parent.getLocaleTitle() + " " + getLocaleTitle();
+        }
+    }
+
+    /**
+     * The display names in one locale.
+     */
+    public class Labels {
+
+        private final Map<String, String> highlightDisplayNames;
+        private final Map<String, String> datasetFieldFriendlyNames;
+        private final ConcurrentMap<String, String> facetCategoryFriendlyNames = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, String> staticFieldFriendlyNames = new ConcurrentHashMap<>();
+
+        private Labels() {
+            Map<String, String> displayNames = staticHighlightDisplayNames();
+            Map<String, String> friendlyNames = new HashMap<>();
+            for (Map.Entry<String, FieldTitle> entry : searchableFieldTitles.entrySet()) {
+                displayNames.put(entry.getKey(), entry.getValue().getDisplayName());
+            }
+            for (Map.Entry<String, FieldTitle> entry : facetableFieldTitles.entrySet()) {
+                friendlyNames.put(entry.getKey(), entry.getValue().getDisplayName());
+            }
+            highlightDisplayNames = Collections.unmodifiableMap(displayNames);
+            datasetFieldFriendlyNames = Collections.unmodifiableMap(friendlyNames);
+        }
+
+        /**
+         * @return The display name of a highlighted field, or {@code null}
+         * if it is not highlighted.
+         */
+        public String getHighlightDisplayName(String solrField) {
+            return highlightDisplayNames.get(solrField);
+        }
+
+        /**
+         * @return The name shown for the facet category of a facet field: the
+         * display name of its dataset field, or that of the search field (see
+         * {@link SearchFields}); the name of the facet field otherwise.
+         */
+        public String getFacetCategoryFriendlyName(String facetField) {
+            return facetCategoryFriendlyNames.computeIfAbsent(facetField, this::findFacetCategoryFriendlyName);
+        }
+
+        private String findFacetCategoryFriendlyName(String facetField) {
+            String staticFieldName = staticFieldNames.get(facetField);
+            if (staticFieldName != null) {
+                String friendlyName = BundleUtil.getStringFromBundle("staticSearchFields." + facetField);
+                if (friendlyName == null || friendlyName.isEmpty()) {
+                    StringBuilder sb = new StringBuilder();
+                    for (String part : staticFieldName.toLowerCase().split("_")) {
+                        if (!part.isEmpty()) {
+                            sb.append(sb.length() == 0 ? "" : " ").append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+                        }
+                    }
+                    friendlyName = sb.toString();
+                }
+                staticFieldFriendlyNames.put(facetField, friendlyName);
+                return friendlyName;
+            }
+            FieldTitle fieldTitle = facetCategoryFieldTitles.get(facetField);
+            return fieldTitle == null ? facetField : fieldTitle.getDisplayName();
+        }
+
+        /**
+         * @return The display names of the dataset fields, by facet field.
+         */
+        public Map<String, String> getDatasetFieldFriendlyNames() {
+            return datasetFieldFriendlyNames;
+        }
+
+        /**
+         * @return The names shown for the facet categories of the search
+         * fields (see {@link SearchFields}) that have been faceted on so far,
+         * by field.
+         */
+        public Map<String, String> getStaticFieldFriendlyNames() {
+            return Collections.unmodifiableMap(staticFieldFriendlyNames);
+        }
+    }
+
+    private final Map<String, SolrField> highlightFields;
+    private final String allHighlightFields;
+    private final Map<String, FieldTitle> searchableFieldTitles;
+    private final Map<String, FieldTitle> facetableFieldTitles;
+    private final Map<String, FieldTitle> facetCategoryFieldTitles;
+    private final Map<String, DatasetFacetField> datasetFacetFields;
+    private final Map<String, String> staticFieldNames;
+    private final String titleSolrField;
+
+    private final ConcurrentMap<Locale, Labels> labelsByLocale = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, List<String>> facetFieldsByFacetRoot = new ConcurrentHashMap<>();
+
+    /**
+     * @param datasetFieldTypes All the dataset field types, ordered by id.
+     */
+    public SearchConfiguration(List<DatasetFieldType> datasetFieldTypes) {
+        Map<String, SolrField> highlighted = new LinkedHashMap<>();
+        for (String solrField : staticHighlightDisplayNames().keySet()) {
+            highlighted.put(solrField, highlightedSolrField(solrField));
+        }
+        Map<String, FieldTitle> searchable = new LinkedHashMap<>();
+        Map<String, FieldTitle> facetable = new HashMap<>();
+        Map<String, FieldTitle> facetCategories = new HashMap<>();
+        Map<String, DatasetFacetField> facets = new HashMap<>();
+        String title = null;
+        for (DatasetFieldType fieldType : datasetFieldTypes) {
+            SolrField solrField = fieldType.getSolrField();
+            FieldTitle fieldTitle = new FieldTitle(fieldType);
+            String searchableName = solrField.getNameSearchable();
+            highlighted.put(searchableName, highlightedSolrField(searchableName));
+            searchable.put(searchableName, fieldTitle);
+
+            String facetableName = solrField.getNameFacetable();
+            if (facetableName != null) {
+                facetable.put(facetableName, fieldTitle);
+                if (fieldType.getMetadataBlock() != null) {
+                    facets.putIfAbsent(facetableName, new DatasetFacetField(fieldType.getMetadataBlock().getName(), fieldType.getName()));
+                }
+                // (the first with a display name, as when this was worked out for every facet field)
+                String displayName = fieldTitle.getDisplayName();
+                if (!facetableName.endsWith(fieldType.getTmpNullFieldTypeIdentifier()) && displayName != null && !displayName.isEmpty()) {
+                    facetCategories.putIfAbsent(facetableName, fieldTitle);
+                }
+            }
+            if (DatasetFieldConstant.title.equals(fieldType.getName())) {
+                title = searchableName;
+            }
+        }
+        highlightFields = Collections.unmodifiableMap(highlighted);
+        allHighlightFields = String.join(",", highlighted.keySet());
+        searchableFieldTitles = Collections.unmodifiableMap(searchable);
+        facetableFieldTitles = Collections.unmodifiableMap(facetable);
+        facetCategoryFieldTitles = Collections.unmodifiableMap(facetCategories);
+        datasetFacetFields = Collections.unmodifiableMap(facets);
+        staticFieldNames = Collections.unmodifiableMap(staticFieldNames());
+        titleSolrField = title;
+    }
+
+    /**
+     * @todo Do not hard code "Name" etc as English here.
+     */
+    private static Map<String, String> staticHighlightDisplayNames() {
+        Map<String, String> displayNames = new LinkedHashMap<>();
+        displayNames.put(SearchFields.NAME, "Name");
+        displayNames.put(SearchFields.AFFILIATION, "Affiliation");
+        displayNames.put(SearchFields.FILE_TYPE_FRIENDLY, "File Type");
+        displayNames.put(SearchFields.DESCRIPTION, "Description");
+        displayNames.put(SearchFields.VARIABLE_NAME, "Variable Name");
+        displayNames.put(SearchFields.VARIABLE_LABEL, "Variable Label");
+        displayNames.put(SearchFields.LITERAL_QUESTION, BundleUtil.getStringFromBundle("search.datasets.literalquestion"));
+        displayNames.put(SearchFields.INTERVIEW_INSTRUCTIONS, BundleUtil.getStringFromBundle("search.datasets.interviewinstructions"));
+        displayNames.put(SearchFields.POST_QUESTION, BundleUtil.getStringFromBundle("search.datasets.postquestion"));
+        displayNames.put(SearchFields.VARIABLE_UNIVERSE, BundleUtil.getStringFromBundle("search.datasets.variableuniverse"));
+        displayNames.put(SearchFields.VARIABLE_NOTES, BundleUtil.getStringFromBundle("search.datasets.variableNotes"));
+
+        displayNames.put(SearchFields.FILE_TYPE_SEARCHABLE, "File Type");
+        displayNames.put(SearchFields.DATASET_PUBLICATION_DATE, "Publication Year");
+        displayNames.put(SearchFields.DATASET_PERSISTENT_ID, BundleUtil.getStringFromBundle("advanced.search.datasets.persistentId"));
+        displayNames.put(SearchFields.FILE_PERSISTENT_ID, BundleUtil.getStringFromBundle("advanced.search.files.persistentId"));
+        /**
+         * @todo Dataverse subject and affiliation should be highlighted but
+         * this is commented out right now because the "friendly" names are not
+         * being shown on the dataverse cards. See also
+         * https://github.com/IQSS/dataverse/issues/1431
+         */
+//        displayNames.put(SearchFields.DATAVERSE_SUBJECT, "Subject");
+//        displayNames.put(SearchFields.DATAVERSE_AFFILIATION, "Affiliation");
+        /**
+         * @todo: show highlight on file card?
+         * https://redmine.hmdc.harvard.edu/issues/3848
+         */
+        displayNames.put(SearchFields.FILENAME_WITHOUT_EXTENSION, "Filename Without Extension");
+        displayNames.put(SearchFields.FILE_TAG_SEARCHABLE, "File Tag");
+        return displayNames;
+    }
+
+    /**
+     * @todo only SolrField.SolrType.STRING? that's not right... knit the
+     * SolrField object more into the highlighting stuff
+     */
+    private static SolrField highlightedSolrField(String solrField) {
+        return new SolrField(solrField, SolrField.SolrType.STRING, true, true);
+    }
+
+    /**
+     * @return The names of the constants of {@link SearchFields}, by value.
+     */
+    private static Map<String, String> staticFieldNames() {
+        Map<String, String> names = new HashMap<>();
+        for (Field field : SearchFields.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                try {
+                    names.putIfAbsent((String) field.get(null), field.getName());
+                } catch (IllegalArgumentException | IllegalAccessException ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return The display names in the locale of the current request.
+     */
+    public Labels getLabels() {
+        return labelsByLocale.computeIfAbsent(BundleUtil.getCurrentLocale(), locale -> new Labels());
+    }
+
+    /**
+     * @return The fields to highlight for the query, as the "hl.fl" parameter:
+     * none for a query that matches everything; only those the query searches,
+     * if it is made of field clauses only; all the highlighted fields
+     * otherwise.
+     */
+    public String getHighlightFields(String query) {
+        String trimmed = query == null ? "" : query.trim();
+        if (trimmed.isEmpty() || trimmed.equals("*") || trimmed.equals("*:*")) {
+            return "";
+        }
+        Set<String> fields = new LinkedHashSet<>();
+        for (String clause : splitClauses(trimmed)) {
+            if (clause.equals("AND") || clause.equals("OR") || clause.equals("NOT") || clause.equals("&&") || clause.equals("||")) {
+                continue;
+            }
+            int start = 0;
+            while (start < clause.length() && "+-!(".indexOf(clause.charAt(start)) >= 0) {
+                start++;
+            }
+            Matcher matcher = FIELD_CLAUSE.matcher(clause.substring(start));
+            if (!matcher.matches()) {
+                return allHighlightFields;
+            }
+            if (highlightFields.containsKey(matcher.group(1))) {
+                fields.add(matcher.group(1));
+            }
+        }
+        return String.join(",", fields);
+    }
+
+    /**
+     * Splits the query on the white space that is not in a quoted phrase.
+     */
+    private static List<String> splitClauses(String query) {
+        List<String> clauses = new ArrayList<>();
+        StringBuilder clause = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '\\' && i + 1 < query.length()) {
+                clause.append(c).append(query.charAt(++i));
+            } else if (c == '"') {
+                quoted = !quoted;
+                clause.append(c);
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (clause.length() > 0) {
+                    clauses.add(clause.toString());
+                    clause.setLength(0);
+                }
+            } else {
+                clause.append(c);
+            }
+        }
+        if (clause.length() > 0) {
+            clauses.add(clause.toString());
+        }
+        return clauses;
+    }
+
+    /**
+     * @return The {@link SolrField} of a highlighted field, or {@code null} if
+     * it is not highlighted.
+     */
+    public SolrField getHighlightSolrField(String solrField) {
+        return highlightFields.get(solrField);
+    }
+
+    /**
+     * @return The dataset field of a facet field, or {@code null} for the
+     * facet fields that are not dataset fields.
+     */
+    public DatasetFacetField getDatasetFacetField(String facetField) {
+        return datasetFacetFields.get(facetField);
+    }
+
+    /**
+     * @return The Solr field searched for the title of the datasets, or
+     * {@code null} if there is no title field.
+     */
+    public String getTitleSolrField() {
+        return titleSolrField;
+    }
+
+    /**
+     * @return The facet fields of the dataverse, in order; those of the
+     * dataverse it inherits its facets from, if it does.
+     */
+    public List<String> getFacetFields(Dataverse dataverse) {
+        Long facetRootId = dataverse.getFacetRootId();
+        if (facetRootId == null) {
+            return facetFields(dataverse);
+        }
+        return facetFieldsByFacetRoot.computeIfAbsent(facetRootId, id -> facetFields(dataverse));
+    }
+
+    private static List<String> facetFields(Dataverse dataverse) {
+        List<String> facetFields = new ArrayList<>();
+        for (DataverseFacet dataverseFacet : dataverse.getDataverseFacets()) {
+            facetFields.add(dataverseFacet.getDatasetFieldType().getSolrField().getNameFacetable());
+        }
+        return Collections.unmodifiableList(facetFields);
+    }
+
+}
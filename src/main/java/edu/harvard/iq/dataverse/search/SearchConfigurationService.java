@@ -0,0 +1,83 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DatasetFieldServiceBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Holds the {@link SearchConfiguration} of the searches on this server. It is
+ * built on the first search, and again on the first search after the dataset
+ * field types, the metadata blocks or the facets of a dataverse change on this
+ * server.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class SearchConfigurationService {
+
+    private static final Logger logger = Logger.getLogger(SearchConfigurationService.class.getCanonicalName());
+
+    @EJB
+    DatasetFieldServiceBean datasetFieldService;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+
+    private volatile SearchConfiguration configuration;
+    private final AtomicLong generation = new AtomicLong();
+
+    public SearchConfiguration getConfiguration() {
+        SearchConfiguration current = configuration;
+        if (current == null) {
+            long builtGeneration = generation.get();
+            current = new SearchConfiguration(datasetFieldService.findAllOrderedById());
+            synchronized (this) {
+                // (unless it was invalidated in the meantime)
+                if (generation.get() == builtGeneration) {
+                    configuration = current;
+                }
+            }
+            logger.fine("Built the search configuration");
+        }
+        return current;
+    }
+
+    /**
+     * Drops the configuration, right away and once again after the current
+     * transaction commits, so that a configuration built in between, from the
+     * metadata as it was before the transaction, is not kept either.
+     */
+    public void invalidate() {
+        clear();
+        if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        clear();
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void clear() {
+        generation.incrementAndGet();
+        configuration = null;
+    }
+
+}
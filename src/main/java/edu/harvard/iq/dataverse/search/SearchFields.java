@@ -264,4 +264,18 @@ public class SearchFields {
 
     public static final String FULL_TEXT = "_text_";
 
+    /**
+     * Hash of the rest of the document, used to skip unchanged documents when
+     * a dataset is reindexed. Uses the "*_s" dynamic field, so no schema
+     * change is needed.
+     */
+    public static final String CONTENT_HASH = "contentHash_s";
+
+    /**
+     * Hash of what a file document is built from (see
+     * {@link IndexedDocHashes}), used to skip building the documents of the
+     * files that have not changed.
+     */
+    public static final String SOURCE_HASH = "sourceHash_s";
+
 }
@@ -1,14 +1,12 @@
 package edu.harvard.iq.dataverse.search;
 
 import edu.harvard.iq.dataverse.DataFile;
-import edu.harvard.iq.dataverse.DataFileServiceBean;
 import edu.harvard.iq.dataverse.DataFileTag;
 import edu.harvard.iq.dataverse.DataTable;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetFieldType;
 import edu.harvard.iq.dataverse.DatasetFieldType.FieldType;
 import edu.harvard.iq.dataverse.DatasetServiceBean;
-import edu.harvard.iq.dataverse.DatasetVersionServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseFacet;
 import edu.harvard.iq.dataverse.DataversePage;
@@ -64,14 +62,12 @@ public class SearchIncludeFragment implements java.io.Serializable {
     @EJB
     SearchServiceBean searchService;
     @EJB
+    SearchCardServiceBean searchCardService;
+    @EJB
     DataverseServiceBean dataverseService;
     @EJB
     DatasetServiceBean datasetService;
     @EJB
-    DatasetVersionServiceBean datasetVersionService;
-    @EJB
-    DataFileServiceBean dataFileService;
-    @EJB
     PermissionServiceBean permissionService;
     @EJB
     DvObjectServiceBean dvObjectService;
@@ -401,6 +397,7 @@ public class SearchIncludeFragment implements java.io.Serializable {
              * solrSearchResult.setCitation method but only the dataset card in
              * the UI (currently) shows this "citation" field.
              */
+            List<SolrSearchResult> searchCards = new ArrayList<>();
             for (SolrSearchResult solrSearchResult : searchResults) {
                 if (solrSearchResult.getEntityId() == null) {
                     // avoiding EJBException a la https://redmine.hmdc.harvard.edu/issues/3809
@@ -412,32 +409,31 @@ public class SearchIncludeFragment implements java.io.Serializable {
                 solrSearchResult.setIsInTree(true);
                 // (we'll review this later!)
                 
-                if (solrSearchResult.getType().equals("dataverses")) {
-                    dataverseService.populateDvSearchCard(solrSearchResult);
-                    
-                    /*
-                    Dataverses cannot be harvested yet.
-                    if (isHarvestedDataverse(solrSearchResult.getEntityId())) {
-                        solrSearchResult.setHarvested(true);
-                    }*/
-
-                } else if (solrSearchResult.getType().equals("datasets")) {
-                    datasetVersionService.populateDatasetSearchCard(solrSearchResult);
-
+                searchCards.add(solrSearchResult);
+            }
+            
+            // (the dataverse, dataset and file cards of the page, all at once)
+            searchCardService.populateSearchCards(searchCards);
+            
+            for (SolrSearchResult solrSearchResult : searchCards) {
+                if (solrSearchResult.getType().equals("datasets")) {
                     // @todo - the 3 lines below, should they be moved inside
                     // searchServiceBean.search()?
                     String deaccesssionReason = solrSearchResult.getDeaccessionReason();
                     if (deaccesssionReason != null) {
                         solrSearchResult.setDescriptionNoSnippet(deaccesssionReason);
                     }
-                    
-                } else if (solrSearchResult.getType().equals("files")) {
-                    dataFileService.populateFileSearchCard(solrSearchResult);
-
-                    /**
-                     * @todo: show DataTable variables
-                     */
                 }
+                
+                /*
+                Dataverses cannot be harvested yet.
+                if (isHarvestedDataverse(solrSearchResult.getEntityId())) {
+                    solrSearchResult.setHarvested(true);
+                }*/
+                
+                /**
+                 * @todo: show DataTable variables
+                 */
             }
 
             // populate preview counts: https://redmine.hmdc.harvard.edu/issues/3560
@@ -2,14 +2,10 @@ package edu.harvard.iq.dataverse.search;
 
 import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.DatasetFieldConstant;
-import edu.harvard.iq.dataverse.DatasetFieldServiceBean;
-import edu.harvard.iq.dataverse.DatasetFieldType;
 import edu.harvard.iq.dataverse.DatasetVersionServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.DataverseFacet;
+import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
-import edu.harvard.iq.dataverse.authorization.groups.Group;
-import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.authorization.users.GuestUser;
 import edu.harvard.iq.dataverse.authorization.users.PrivateUrlUser;
@@ -18,7 +14,6 @@ import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -26,19 +21,16 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.MissingResourceException;
-import java.util.logging.Level;
+import java.util.Set;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
-import javax.ejb.EJBTransactionRolledbackException;
 import javax.ejb.Stateless;
-import javax.ejb.TransactionRolledbackLocalException;
 import javax.inject.Named;
-import javax.persistence.NoResultException;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.SortClause;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -49,6 +41,7 @@ import org.apache.solr.client.solrj.response.RangeFacet;
 import org.apache.solr.client.solrj.response.SpellCheckResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.HighlightParams;
 
 @Stateless
 @Named
@@ -60,17 +53,14 @@ public class SearchServiceBean {
      * We're trying to make the SearchServiceBean lean, mean, and fast, with as
      * few injections of EJBs as possible.
      */
-    /**
-     * @todo Can we do without the DatasetFieldServiceBean?
-     */
     @EJB
     DvObjectServiceBean dvObjectService;
     @EJB
     DatasetVersionServiceBean datasetVersionService;
     @EJB
-    DatasetFieldServiceBean datasetFieldService;
+    SearchConfigurationService searchConfigurationService;
     @EJB
-    GroupServiceBean groupService;
+    PermissionFilterQueryService permissionFilterQueryService;
     @EJB
     SystemConfig systemConfig;
     @EJB
@@ -141,55 +131,18 @@ public class SearchServiceBean {
 //            solrQuery.setSort(sortClause);
 //        }
 //        solrQuery.setSort(sortClause);
-        solrQuery.setHighlight(true).setHighlightSnippets(1);
-        Integer fragSize = systemConfig.getSearchHighlightFragmentSize();
-        if (fragSize != null) {
-            solrQuery.setHighlightFragsize(fragSize);
-        }
-        solrQuery.setHighlightSimplePre("<span class=\"search-term-match\">");
-        solrQuery.setHighlightSimplePost("</span>");
-        Map<String, String> solrFieldsToHightlightOnMap = new HashMap<>();
-        // TODO: Do not hard code "Name" etc as English here.
-        solrFieldsToHightlightOnMap.put(SearchFields.NAME, "Name");
-        solrFieldsToHightlightOnMap.put(SearchFields.AFFILIATION, "Affiliation");
-        solrFieldsToHightlightOnMap.put(SearchFields.FILE_TYPE_FRIENDLY, "File Type");
-        solrFieldsToHightlightOnMap.put(SearchFields.DESCRIPTION, "Description");
-        solrFieldsToHightlightOnMap.put(SearchFields.VARIABLE_NAME, "Variable Name");
-        solrFieldsToHightlightOnMap.put(SearchFields.VARIABLE_LABEL, "Variable Label");
-        solrFieldsToHightlightOnMap.put(SearchFields.LITERAL_QUESTION, BundleUtil.getStringFromBundle("search.datasets.literalquestion"));
-        solrFieldsToHightlightOnMap.put(SearchFields.INTERVIEW_INSTRUCTIONS, BundleUtil.getStringFromBundle("search.datasets.interviewinstructions"));
-        solrFieldsToHightlightOnMap.put(SearchFields.POST_QUESTION, BundleUtil.getStringFromBundle("search.datasets.postquestion"));
-        solrFieldsToHightlightOnMap.put(SearchFields.VARIABLE_UNIVERSE, BundleUtil.getStringFromBundle("search.datasets.variableuniverse"));
-        solrFieldsToHightlightOnMap.put(SearchFields.VARIABLE_NOTES, BundleUtil.getStringFromBundle("search.datasets.variableNotes"));
-
-        solrFieldsToHightlightOnMap.put(SearchFields.FILE_TYPE_SEARCHABLE, "File Type");
-        solrFieldsToHightlightOnMap.put(SearchFields.DATASET_PUBLICATION_DATE, "Publication Year");
-        solrFieldsToHightlightOnMap.put(SearchFields.DATASET_PERSISTENT_ID, BundleUtil.getStringFromBundle("advanced.search.datasets.persistentId"));
-        solrFieldsToHightlightOnMap.put(SearchFields.FILE_PERSISTENT_ID, BundleUtil.getStringFromBundle("advanced.search.files.persistentId"));
-        /**
-         * @todo Dataverse subject and affiliation should be highlighted but
-         * this is commented out right now because the "friendly" names are not
-         * being shown on the dataverse cards. See also
-         * https://github.com/IQSS/dataverse/issues/1431
-         */
-//        solrFieldsToHightlightOnMap.put(SearchFields.DATAVERSE_SUBJECT, "Subject");
-//        solrFieldsToHightlightOnMap.put(SearchFields.DATAVERSE_AFFILIATION, "Affiliation");
-        /**
-         * @todo: show highlight on file card?
-         * https://redmine.hmdc.harvard.edu/issues/3848
-         */
-        solrFieldsToHightlightOnMap.put(SearchFields.FILENAME_WITHOUT_EXTENSION, "Filename Without Extension");
-        solrFieldsToHightlightOnMap.put(SearchFields.FILE_TAG_SEARCHABLE, "File Tag");
-        List<DatasetFieldType> datasetFields = datasetFieldService.findAllOrderedById();
-        for (DatasetFieldType datasetFieldType : datasetFields) {
-            String solrField = datasetFieldType.getSolrField().getNameSearchable();
-            String displayName = datasetFieldType.getDisplayName();
-            solrFieldsToHightlightOnMap.put(solrField, displayName);
-        }
-        for (Map.Entry<String, String> entry : solrFieldsToHightlightOnMap.entrySet()) {
-            String solrField = entry.getKey();
-            // String displayName = entry.getValue();
-            solrQuery.addHighlightField(solrField);
+        SearchConfiguration searchConfiguration = searchConfigurationService.getConfiguration();
+        SearchConfiguration.Labels labels = searchConfiguration.getLabels();
+        String highlightFields = searchConfiguration.getHighlightFields(query);
+        if (!highlightFields.isEmpty()) {
+            solrQuery.setHighlight(true).setHighlightSnippets(1);
+            Integer fragSize = systemConfig.getSearchHighlightFragmentSize();
+            if (fragSize != null) {
+                solrQuery.setHighlightFragsize(fragSize);
+            }
+            solrQuery.setHighlightSimplePre("<span class=\"search-term-match\">");
+            solrQuery.setHighlightSimplePost("</span>");
+            solrQuery.setParam(HighlightParams.FIELDS, highlightFields);
         }
         solrQuery.setParam("fl", "*,score");
         solrQuery.setParam("qt", "/select");
@@ -240,9 +193,8 @@ public class SearchServiceBean {
                     solrQuery.addFilterQuery(permissionFilterQuery);
                 }
                 if (dataverse != null) {
-                    for (DataverseFacet dataverseFacet : dataverse.getDataverseFacets()) {
-                        DatasetFieldType datasetField = dataverseFacet.getDatasetFieldType();
-                        solrQuery.addFacetField(datasetField.getSolrField().getNameFacetable());
+                    for (String facetField : searchConfiguration.getFacetFields(dataverse)) {
+                        solrQuery.addFacetField(facetField);
                     }
                 }
             }
@@ -340,27 +292,8 @@ public class SearchServiceBean {
         SolrDocumentList docs = queryResponse.getResults();
         List<SolrSearchResult> solrSearchResults = new ArrayList<>();
 
-        /**
-         * @todo refactor SearchFields to a hashmap (or something? put in
-         * database? internationalize?) to avoid the crazy reflection and string
-         * manipulation below
-         */
-        Object searchFieldsObject = new SearchFields();
-        Field[] staticSearchFields = searchFieldsObject.getClass().getDeclaredFields();
-        String titleSolrField = null;
-        try {
-            DatasetFieldType titleDatasetField = datasetFieldService.findByName(DatasetFieldConstant.title);
-            titleSolrField = titleDatasetField.getSolrField().getNameSearchable();
-        } catch (EJBTransactionRolledbackException ex) {
-            logger.info("Couldn't find " + DatasetFieldConstant.title);
-            if (ex.getCause() instanceof TransactionRolledbackLocalException) {
-                if (ex.getCause().getCause() instanceof NoResultException) {
-                    logger.info("Caught NoResultException");
-                }
-            }
-        }
-        Map<String, String> datasetfieldFriendlyNamesBySolrField = new HashMap<>();
-        Map<String, String> staticSolrFieldFriendlyNamesBySolrField = new HashMap<>();
+        String titleSolrField = searchConfiguration.getTitleSolrField();
+        Map<String, Map<String, List<String>>> highlighting = queryResponse.getHighlighting();
         String baseUrl = systemConfig.getDataverseSiteUrl();
 
         //Going through the results
@@ -394,21 +327,15 @@ public class SearchServiceBean {
             Map<SolrField, Highlight> highlightsMap = new HashMap<>();
             Map<SolrField, List<String>> highlightsMap2 = new HashMap<>();
             Map<String, Highlight> highlightsMap3 = new HashMap<>();
-            if (queryResponse.getHighlighting().get(id) != null) {
-                for (Map.Entry<String, String> entry : solrFieldsToHightlightOnMap.entrySet()) {
+            Map<String, List<String>> highlightSnippetsByField = highlighting == null ? null : highlighting.get(id);
+            if (highlightSnippetsByField != null) {
+                for (Map.Entry<String, List<String>> entry : highlightSnippetsByField.entrySet()) {
                     String field = entry.getKey();
-                    String displayName = entry.getValue();
-
-                    List<String> highlightSnippets = queryResponse.getHighlighting().get(id).get(field);
-                    if (highlightSnippets != null) {
+                    SolrField solrField = searchConfiguration.getHighlightSolrField(field);
+                    List<String> highlightSnippets = entry.getValue();
+                    if (solrField != null && highlightSnippets != null) {
                         matchedFields.add(field);
-                        /**
-                         * @todo only SolrField.SolrType.STRING? that's not
-                         * right... knit the SolrField object more into the
-                         * highlighting stuff
-                         */
-                        SolrField solrField = new SolrField(field, SolrField.SolrType.STRING, true, true);
-                        Highlight highlight = new Highlight(solrField, highlightSnippets, displayName);
+                        Highlight highlight = new Highlight(solrField, highlightSnippets, labels.getHighlightDisplayName(field));
                         highlights.add(highlight);
                         highlightsMap.put(solrField, highlight);
                         highlightsMap2.put(solrField, highlightSnippets);
@@ -430,9 +357,6 @@ public class SearchServiceBean {
 //            logger.info(id + ": " + description);
             solrSearchResult.setId(id);
             solrSearchResult.setEntityId(entityid);
-            if (retrieveEntities) {
-                solrSearchResult.setEntity(dvObjectService.findDvObject(entityid));
-            }
             solrSearchResult.setIdentifier(identifier);
             solrSearchResult.setPersistentUrl(persistentUrl);
             solrSearchResult.setType(type);
@@ -573,6 +497,19 @@ public class SearchServiceBean {
             solrSearchResult.setParent(parent);
             solrSearchResults.add(solrSearchResult);
         }
+        if (retrieveEntities) {
+            // (the objects of the whole page, with one query)
+            Set<Long> entityIds = new HashSet<>();
+            for (SolrSearchResult solrSearchResult : solrSearchResults) {
+                if (solrSearchResult.getEntityId() != null) {
+                    entityIds.add(solrSearchResult.getEntityId());
+                }
+            }
+            Map<Long, DvObject> entities = dvObjectService.findDvObjects(entityIds);
+            for (SolrSearchResult solrSearchResult : solrSearchResults) {
+                solrSearchResult.setEntity(entities.get(solrSearchResult.getEntityId()));
+            }
+        }
         Map<String, List<String>> spellingSuggestionsByToken = new HashMap<>();
         SpellCheckResponse spellCheckResponse = queryResponse.getSpellCheckResponse();
         if (spellCheckResponse != null) {
@@ -600,13 +537,10 @@ public class SearchServiceBean {
              * ===facetField: authorName_ss   metadatablockname : citation
              * ===facetField: dvCategory  metadatablockname : ""
              */
-            for (DatasetFieldType datasetField : datasetFields) {
-                String solrFieldNameForDataset = datasetField.getSolrField().getNameFacetable();
-                if (solrFieldNameForDataset != null && facetField.getName().equals(solrFieldNameForDataset)) {
-                    metadataBlockName = datasetField.getMetadataBlock().getName() ;
-                    datasetFieldName = datasetField.getName();
-                    break;
-                }
+            SearchConfiguration.DatasetFacetField datasetFacetField = searchConfiguration.getDatasetFacetField(facetField.getName());
+            if (datasetFacetField != null) {
+                metadataBlockName = datasetFacetField.getMetadataBlockName();
+                datasetFieldName = datasetFacetField.getDatasetFieldName();
             }
 
 
@@ -649,63 +583,7 @@ public class SearchServiceBean {
             }
             facetCategory.setName(facetField.getName());
             // hopefully people will never see the raw facetField.getName() because it may well have an _s at the end
-            facetCategory.setFriendlyName(facetField.getName());
-            // try to find a friendlier name to display as a facet
-            /**
-             * @todo hmm, we thought we wanted the datasetFields array to go
-             * away once we have more granularity than findAll() available per
-             * the todo above but we need a way to lookup by Solr field, so
-             * we'll build a hashmap
-             */
-            for (DatasetFieldType datasetField : datasetFields) {
-                String solrFieldNameForDataset = datasetField.getSolrField().getNameFacetable();
-                String friendlyName = datasetField.getDisplayName();
-                if (solrFieldNameForDataset != null && facetField.getName().endsWith(datasetField.getTmpNullFieldTypeIdentifier())) {
-                    // give it the non-friendly name so we remember to update the reference data script for datasets
-                    facetCategory.setName(facetField.getName());
-                } else if (solrFieldNameForDataset != null && facetField.getName().equals(solrFieldNameForDataset)) {
-                    if (friendlyName != null && !friendlyName.isEmpty()) {
-                        facetCategory.setFriendlyName(friendlyName);
-                        // stop examining available dataset fields. we found a match
-                        break;
-                    }
-                }
-                datasetfieldFriendlyNamesBySolrField.put(datasetField.getSolrField().getNameFacetable(), friendlyName);
-            }
-            /**
-             * @todo get rid of this crazy reflection, per todo above... or
-             * should we... let's put into a hash the friendly names of facet
-             * categories, indexed by Solr field
-             */
-            for (Field fieldObject : staticSearchFields) {
-                String name = fieldObject.getName();
-                String staticSearchField = null;
-                try {
-                    staticSearchField = (String) fieldObject.get(searchFieldsObject);
-                } catch (IllegalArgumentException | IllegalAccessException ex) {
-                    Logger.getLogger(SearchServiceBean.class.getName()).log(Level.SEVERE, null, ex);
-                }
-                if (staticSearchField != null && facetField.getName().equals(staticSearchField)) {
-                    String friendlyName = BundleUtil.getStringFromBundle("staticSearchFields."+staticSearchField);
-                    if(friendlyName != null && friendlyName.length() > 0) {
-                        facetCategory.setFriendlyName(friendlyName);
-                    } else {
-                        String[] parts = name.split("_");
-                        StringBuilder stringBuilder = new StringBuilder();
-                        for (String part : parts) {
-                            stringBuilder.append(getCapitalizedName(part.toLowerCase()) + " ");
-                        }
-                        String friendlyNameWithTrailingSpace = stringBuilder.toString();
-                        friendlyName = friendlyNameWithTrailingSpace.replaceAll(" $", "");
-                        facetCategory.setFriendlyName(friendlyName);
-                    }
-
-//                    logger.info("adding <<<" + staticSearchField + ":" + friendlyName + ">>>");
-                    staticSolrFieldFriendlyNamesBySolrField.put(staticSearchField, friendlyName);
-                    // stop examining the declared/static fields in the SearchFields object. we found a match
-                    break;
-                }
-            }
+            facetCategory.setFriendlyName(labels.getFacetCategoryFriendlyName(facetField.getName()));
 
             facetCategory.setFacetLabel(facetLabelList);
             if (!facetLabelList.isEmpty()) {
@@ -768,8 +646,8 @@ public class SearchServiceBean {
         solrQueryResponse.setTypeFacetCategories(typeFacetCategories);
         solrQueryResponse.setNumResultsFound(queryResponse.getResults().getNumFound());
         solrQueryResponse.setResultsStart(queryResponse.getResults().getStart());
-        solrQueryResponse.setDatasetfieldFriendlyNamesBySolrField(datasetfieldFriendlyNamesBySolrField);
-        solrQueryResponse.setStaticSolrFieldFriendlyNamesBySolrField(staticSolrFieldFriendlyNamesBySolrField);
+        solrQueryResponse.setDatasetfieldFriendlyNamesBySolrField(labels.getDatasetFieldFriendlyNames());
+        solrQueryResponse.setStaticSolrFieldFriendlyNamesBySolrField(labels.getStaticFieldFriendlyNames());
         String[] filterQueriesArray = solrQuery.getFilterQueries();
         if (filterQueriesArray != null) {
             // null check added because these tests were failing: mvn test -Dtest=SearchIT
@@ -830,16 +708,6 @@ public class SearchServiceBean {
         if (solrQuery == null) {
             throw new NullPointerException("solrQuery cannot be null");
         }
-        /**
-         * @todo For people who are not logged in, should we show stuff indexed
-         * with "AllUsers" group or not? If so, uncomment the allUsersString
-         * stuff below.
-         */
-//        String allUsersString = IndexServiceBean.getGroupPrefix() + AllUsers.get().getAlias();
-//        String publicOnly = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + " OR " + allUsersString + ")";
-        String publicOnly = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + ")";
-//        String publicOnly = "{!join from=" + SearchFields.GROUPS + " to=" + SearchFields.PERMS + "}id:" + IndexServiceBean.getPublicGroupString();
-        // initialize to public only to be safe
         String dangerZoneNoSolrJoin = null;
 
         if (user instanceof PrivateUrlUser) {
@@ -851,21 +719,7 @@ public class SearchServiceBean {
         // Yes, see if GuestUser is part of any groups such as IP Groups.
         // ----------------------------------------------------
         if (user instanceof GuestUser) {
-            String groupsFromProviders = "";
-            Set<Group> groups = groupService.collectAncestors(groupService.groupsFor(dataverseRequest));
-            StringBuilder sb = new StringBuilder();
-            for (Group group : groups) {
-                logger.fine("found group " + group.getIdentifier() + " with alias " + group.getAlias());
-                String groupAlias = group.getAlias();
-                if (groupAlias != null && !groupAlias.isEmpty()) {
-                    sb.append(" OR ");
-                    // i.e. group_builtIn/all-users, ip/ipGroup3
-                    sb.append(IndexServiceBean.getGroupPrefix()).append(groupAlias);
-                }
-            }
-            groupsFromProviders = sb.toString();
-            logger.fine("groupsFromProviders:" + groupsFromProviders);
-            String guestWithGroups = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + groupsFromProviders + ")";
+            String guestWithGroups = permissionFilterQueryService.getFilterQuery(dataverseRequest, null);
             logger.fine(guestWithGroups);
             return guestWithGroups;
         }
@@ -913,57 +767,22 @@ public class SearchServiceBean {
         // ----------------------------------------------------
         // (5) Work with Authenticated User who is not a Superuser
         // ----------------------------------------------------
-        /**
-         * @todo all this code needs cleanup and clarification.
-         */
         /**
          * Every AuthenticatedUser is part of a "User Private Group" (UGP), a
          * concept we borrow from RHEL:
          * https://access.redhat.com/site/documentation/en-US/Red_Hat_Enterprise_Linux/6/html/Deployment_Guide/ch-Managing_Users_and_Groups.html#s2-users-groups-private-groups
          */
-        /**
-         * @todo rename this from publicPlusUserPrivateGroup. Confusing
-         */
-        // safe default: public only
-        String publicPlusUserPrivateGroup = publicOnly;
-//                    + (onlyDatatRelatedToMe ? "" : (publicOnly + " OR "))
-//                    + "{!join from=" + SearchFields.GROUPS + " to=" + SearchFields.PERMS + "}id:" + IndexServiceBean.getGroupPerUserPrefix() + au.getId() + ")";
-
-//            /**
-//             * @todo add onlyDatatRelatedToMe option into the experimental JOIN
-//             * before enabling it.
-//             */
         /**
          * From a search perspective, we don't care about if the group was
          * created within one dataverse or another. We just want a list of *all*
          * the groups the user is part of. We are greedy. We want all BuiltIn
          * Groups, Shibboleth Groups, IP Groups, "system" groups, everything.
          *
-         * A JOIN on "permission documents" will determine if the user can find
-         * a given "content document" (dataset version, etc) in Solr.
+         * The "permission documents" of these groups determine if the user can
+         * find a given "content document" (dataset version, etc) in Solr; see
+         * PermissionFilterQueryService for how they are turned into a filter.
          */
-        String groupsFromProviders = "";
-        Set<Group> groups = groupService.collectAncestors(groupService.groupsFor(dataverseRequest));
-        StringBuilder sb = new StringBuilder();
-        for (Group group : groups) {
-            logger.fine("found group " + group.getIdentifier() + " with alias " + group.getAlias());
-            String groupAlias = group.getAlias();
-            if (groupAlias != null && !groupAlias.isEmpty()) {
-                sb.append(" OR ");
-                // i.e. group_builtIn/all-users, group_builtIn/authenticated-users, group_1-explictGroup1, group_shib/2
-                sb.append(IndexServiceBean.getGroupPrefix() + groupAlias);
-            }
-        }
-        groupsFromProviders = sb.toString();
-
-        logger.fine(groupsFromProviders);
-        if (true) {
-            /**
-             * @todo get rid of "experimental" in name
-             */
-            String experimentalJoin = "{!join from=" + SearchFields.DEFINITION_POINT + " to=id}" + SearchFields.DISCOVERABLE_BY + ":(" + IndexServiceBean.getPublicGroupString() + " OR " + IndexServiceBean.getGroupPerUserPrefix() + au.getId() + groupsFromProviders + ")";
-            publicPlusUserPrivateGroup = experimentalJoin;
-        }
+        String publicPlusUserPrivateGroup = permissionFilterQueryService.getFilterQuery(dataverseRequest, au);
 
         //permissionFilterQuery = publicPlusUserPrivateGroup;
         logger.fine(publicPlusUserPrivateGroup);
@@ -32,7 +32,6 @@ import javax.json.JsonObjectBuilder;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
-import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrInputDocument;
 
 @Named
@@ -57,6 +56,8 @@ public class SolrIndexServiceBean {
     IndexServiceBean indexService;
     @EJB
     SolrClientService solrClientService;
+    @EJB
+    SolrUpdateService solrUpdateService;
 
     public static String numRowsClearedByClearAllIndexTimes = "numRowsClearedByClearAllIndexTimes";
     public static String messageString = "message";
@@ -361,11 +362,7 @@ public class SolrIndexServiceBean {
             return;
         }
         logger.fine("persisting to Solr...");
-        /**
-         * @todo Do something with these responses from Solr.
-         */
-        UpdateResponse addResponse = solrClientService.getSolrClient().add(docs);
-        UpdateResponse commitResponse = solrClientService.getSolrClient().commit();
+        solrUpdateService.add(docs);
     }
 
     public IndexResponse indexPermissionsOnSelfAndChildren(long definitionPointId) {
@@ -513,25 +510,15 @@ public class SolrIndexServiceBean {
         if (solrIdsToDelete.isEmpty()) {
             return new IndexResponse("nothing to delete");
         }
-        try {
-            solrClientService.getSolrClient().deleteById(solrIdsToDelete);
-        } catch (SolrServerException | IOException ex) {
-            /**
-             * @todo mark these for re-deletion
-             */
-            return new IndexResponse("problem deleting the following documents from Solr: " + solrIdsToDelete);
-        }
-        try {
-            solrClientService.getSolrClient().commit();
-        } catch (SolrServerException | IOException ex) {
-            return new IndexResponse("problem committing deletion of the following documents from Solr: " + solrIdsToDelete);
-        }
-        return new IndexResponse("no known problem deleting the following documents from Solr:" + solrIdsToDelete);
+        solrUpdateService.deleteById(solrIdsToDelete);
+        return new IndexResponse("queued deletion of the following documents from Solr:" + solrIdsToDelete);
     }
 
     public JsonObjectBuilder deleteAllFromSolrAndResetIndexTimes() throws SolrServerException, IOException {
         JsonObjectBuilder response = Json.createObjectBuilder();
         logger.info("attempting to delete all Solr documents before a complete re-index");
+        // send anything still buffered first, so it doesn't reappear after the clear
+        solrUpdateService.flush();
         solrClientService.getSolrClient().deleteByQuery("*:*");
         solrClientService.getSolrClient().commit();
         int numRowsAffected = dvObjectService.clearAllIndexTimes();
@@ -0,0 +1,96 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Counters for the batches sent to Solr by {@link SolrUpdateService}.
+ */
+public class SolrUpdateMetrics {
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong docsSent = new AtomicLong();
+    private final AtomicLong deletesSent = new AtomicLong();
+    private final AtomicLong docsFailed = new AtomicLong();
+    private final AtomicLong docsRequeued = new AtomicLong();
+    private final AtomicLong docsGivenUp = new AtomicLong();
+    private final AtomicLong totalFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private volatile long lastFlushMillis = 0L;
+    private volatile long lastBatchSize = 0L;
+
+    public void recordFlush(int docs, int deletes, long millis) {
+        flushes.incrementAndGet();
+        docsSent.addAndGet(docs);
+        deletesSent.addAndGet(deletes);
+        totalFlushMillis.addAndGet(millis);
+        maxFlushMillis.accumulateAndGet(millis, Math::max);
+        maxBatchSize.accumulateAndGet(docs + deletes, Math::max);
+        lastFlushMillis = millis;
+        lastBatchSize = docs + deletes;
+    }
+
+    public void recordFailure(int docs, int deletes) {
+        failedFlushes.incrementAndGet();
+        docsFailed.addAndGet(docs + deletes);
+    }
+
+    public void recordRequeued(int operations) {
+        docsRequeued.addAndGet(operations);
+    }
+
+    public void recordGivenUp(int operations) {
+        docsGivenUp.addAndGet(operations);
+    }
+
+    public long getDocsGivenUp() {
+        return docsGivenUp.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    public double getAverageBatchSize() {
+        long n = flushes.get();
+        return n == 0 ? 0.0 : (docsSent.get() + deletesSent.get()) / (double) n;
+    }
+
+    public double getAverageFlushMillis() {
+        long n = flushes.get();
+        return n == 0 ? 0.0 : totalFlushMillis.get() / (double) n;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis.get();
+    }
+
+    public JsonObjectBuilder toJson() {
+        return Json.createObjectBuilder()
+                .add("flushes", flushes.get())
+                .add("failedFlushes", failedFlushes.get())
+                .add("docsSent", docsSent.get())
+                .add("deletesSent", deletesSent.get())
+                .add("docsFailed", docsFailed.get())
+                .add("docsRequeued", docsRequeued.get())
+                .add("docsGivenUp", docsGivenUp.get())
+                .add("lastBatchSize", lastBatchSize)
+                .add("averageBatchSize", Math.round(getAverageBatchSize() * 100) / 100.0)
+                .add("maxBatchSize", maxBatchSize.get())
+                .add("lastFlushMillis", lastFlushMillis)
+                .add("averageFlushMillis", Math.round(getAverageFlushMillis() * 100) / 100.0)
+                .add("maxFlushMillis", maxFlushMillis.get());
+    }
+
+}
@@ -0,0 +1,794 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.PermissionCacheService;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.inject.Named;
+import javax.json.JsonObjectBuilder;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Buffers the document updates and deletes sent to Solr by the indexing code
+ * and sends them in batches, with "commitWithin" instead of one hard commit per
+ * object.
+ *
+ * A batch is sent when it reaches {@code :SolrUpdateBatchSize} operations, or
+ * when its oldest operation has waited {@code :SolrCommitWithinMillis}; Solr
+ * then makes it visible to searches within that many milliseconds. So a change
+ * shows up in search results at most about twice that long after it was
+ * indexed. Setting {@code :SolrCommitWithinMillis} to 0 restores the old
+ * behavior: every update is sent and hard-committed right away.
+ *
+ * Within a batch only the last operation on each Solr document id is kept, so
+ * an add that follows a delete of the same document (or vice versa) does not
+ * depend on the order Solr applies them in.
+ *
+ * The content index time of an object indexed with
+ * {@link #add(Collection, long)} is only written once all of its documents have
+ * been sent, so that an object whose documents were lost with the buffer (in a
+ * crash or a redeploy) is still seen as not indexed by the index status check
+ * and "continue" reindexing. The index times are written every second, by
+ * {@link #flushIfDue()}, rather than by the thread that happens to send the
+ * batch, which may be in the middle of a transaction of its own.
+ *
+ * The operations of a batch that fails are put back in the buffer (unless a
+ * newer operation on the same document is already there) and sent again with
+ * the next batch, up to {@link #MAX_RETRIES} times. After that they are sent
+ * one at a time, and the index times of the objects whose operations still
+ * fail are cleared instead, so that the index status check and "continue"
+ * reindexing find them. The deletes that still fail are kept aside and
+ * sent again every minute until they succeed, since nothing else would find
+ * the documents they leave behind.
+ *
+ * The dataset and file documents that searches may not show yet (those still
+ * in the buffer, being sent, or sent less than {@code :SolrCommitWithinMillis}
+ * plus {@link #SETTLE_MILLIS} ago) are kept track of, see
+ * {@link #getUnsettledDocs(long, Collection)}, so that incremental reindexing
+ * does not compare against what Solr showed before them.
+ */
+@Named
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SolrUpdateService {
+
+    private static final Logger logger = Logger.getLogger(SolrUpdateService.class.getCanonicalName());
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_COMMIT_WITHIN_MILLIS = 1000;
+    /**
+     * How many times the operations of a failed batch are sent again with the
+     * following batches before they are given up on.
+     */
+    static final int MAX_RETRIES = 2;
+    /**
+     * How much longer than {@code :SolrCommitWithinMillis} the documents sent
+     * are still taken as possibly not visible to searches.
+     */
+    static final long SETTLE_MILLIS = 60000L;
+
+    @EJB
+    SolrClientService solrClientService;
+    @EJB
+    SystemConfig systemConfig;
+    @EJB
+    DvObjectServiceBean dvObjectService;
+    @EJB
+    PermissionCacheService permissionCache;
+
+    /**
+     * Pending operations, keyed by Solr document id. A {@code null} value is a
+     * delete.
+     */
+    private Map<String, SolrInputDocument> pending = new LinkedHashMap<>();
+    private long oldestPendingTime = 0L;
+    /**
+     * The number of failed sends of the operations put back in the buffer, by
+     * document id.
+     */
+    private final Map<String, Integer> failures = new HashMap<>();
+    /**
+     * The objects indexed with {@link #add(Collection, long)} whose documents
+     * have not all been sent yet, in the order they were queued.
+     */
+    private final List<IndexedObject> indexedObjects = new ArrayList<>();
+    /**
+     * The number of objects queued with {@link #add(Collection, long)} so
+     * far, see {@link IndexedObject#sequence}.
+     */
+    private long indexedObjectSequence = 0L;
+    /**
+     * Content index times to write, by object id; {@code null} clears the
+     * index times of the object.
+     */
+    private Map<Long, Timestamp> indexTimes = new LinkedHashMap<>();
+    /**
+     * The deletes that were given up on, sent again by
+     * {@link #retryFailedDeletes()}.
+     */
+    private final Set<String> failedDeletes = new LinkedHashSet<>();
+    /**
+     * The dataset and file operations being sent or sent recently, by
+     * document id, see {@link #getUnsettledDocs(long, Collection)}.
+     */
+    private final Map<String, UnsettledDoc> unsettled = new HashMap<>();
+    /**
+     * The ids of the added documents in {@link #unsettled}, by dataset id.
+     */
+    private final Map<Long, Set<String>> unsettledByDataset = new HashMap<>();
+    private final Object bufferLock = new Object();
+    /**
+     * Held while a batch is sent, so that batches reach Solr in the order they
+     * were taken from the buffer.
+     */
+    private final Object flushLock = new Object();
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile int commitWithinMillis = DEFAULT_COMMIT_WITHIN_MILLIS;
+
+    /**
+     * When the permission documents sent so far become visible to searches;
+     * see {@link #getPermissionsVisibleTime()}.
+     */
+    private volatile long permissionsVisibleTime = 0L;
+
+    private final SolrUpdateMetrics metrics = new SolrUpdateMetrics();
+
+    @PostConstruct
+    public void init() {
+        refreshSettings();
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+        writeIndexTimes();
+        synchronized (bufferLock) {
+            if (!failedDeletes.isEmpty()) {
+                logger.severe("Solr documents that could not be deleted: " + failedDeletes);
+            }
+        }
+    }
+
+    /**
+     * Queues a document to be added to (or replaced in) the index.
+     */
+    public void add(SolrInputDocument doc) {
+        boolean full;
+        synchronized (bufferLock) {
+            put((String) doc.getFieldValue(SearchFields.ID), doc);
+            full = pending.size() >= batchSize;
+        }
+        if (full || commitWithinMillis <= 0) {
+            flush();
+        }
+    }
+
+    public void add(Collection<SolrInputDocument> docs) {
+        boolean full;
+        synchronized (bufferLock) {
+            for (SolrInputDocument doc : docs) {
+                put((String) doc.getFieldValue(SearchFields.ID), doc);
+            }
+            full = pending.size() >= batchSize;
+        }
+        if (full || commitWithinMillis <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues the documents of an object, whose content index time is set once
+     * they have all been sent to Solr (right away if there are none).
+     */
+    public void add(Collection<SolrInputDocument> docs, long dvObjectId) {
+        boolean full;
+        synchronized (bufferLock) {
+            Set<String> unsent = new HashSet<>();
+            for (SolrInputDocument doc : docs) {
+                String id = (String) doc.getFieldValue(SearchFields.ID);
+                put(id, doc);
+                unsent.add(id);
+            }
+            Timestamp indexTime = new Timestamp(System.currentTimeMillis());
+            if (unsent.isEmpty()) {
+                indexed(dvObjectId, indexTime);
+            } else {
+                indexedObjects.add(new IndexedObject(dvObjectId, indexTime, unsent, ++indexedObjectSequence));
+            }
+            full = pending.size() >= batchSize;
+        }
+        if (full || commitWithinMillis <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues a document rebuilt from the one in the index, unless an add or a
+     * delete of the same document is already waiting in the buffer: that one
+     * was queued later, so it is newer.
+     */
+    public void addUnlessPending(SolrInputDocument doc) {
+        String id = (String) doc.getFieldValue(SearchFields.ID);
+        boolean full;
+        synchronized (bufferLock) {
+            if (pending.containsKey(id)) {
+                return;
+            }
+            put(id, doc);
+            full = pending.size() >= batchSize;
+        }
+        if (full || commitWithinMillis <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues the deletion of a Solr document.
+     */
+    public void deleteById(String id) {
+        deleteById(Collections.singletonList(id));
+    }
+
+    public void deleteById(List<String> ids) {
+        boolean full;
+        synchronized (bufferLock) {
+            for (String id : ids) {
+                put(id, null);
+            }
+            full = pending.size() >= batchSize;
+        }
+        if (full || commitWithinMillis <= 0) {
+            flush();
+        }
+    }
+
+    private void put(String id, SolrInputDocument doc) {
+        if (pending.isEmpty()) {
+            oldestPendingTime = System.currentTimeMillis();
+        }
+        // remove first so that the re-queued id moves to the end
+        pending.remove(id);
+        pending.put(id, doc);
+        failedDeletes.remove(id);
+    }
+
+    /**
+     * Remembers the index time of an object whose documents have all been
+     * sent, unless its index times are to be cleared: one of its documents
+     * was given up on since.
+     */
+    private void indexed(long dvObjectId, Timestamp indexTime) {
+        if (!indexTimes.containsKey(dvObjectId) || indexTimes.get(dvObjectId) != null) {
+            indexTimes.put(dvObjectId, indexTime);
+        }
+    }
+
+    /**
+     * Sends whatever is buffered to Solr now. Failures are logged and counted
+     * in the metrics, and the operations of a failed batch are put back in the
+     * buffer (see above).
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, SolrInputDocument> batch;
+            long sequence;
+            synchronized (bufferLock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                oldestPendingTime = 0L;
+                sequence = indexedObjectSequence;
+                for (Map.Entry<String, SolrInputDocument> op : batch.entrySet()) {
+                    unsettle(op.getKey(), op.getValue(), Long.MAX_VALUE);
+                }
+            }
+            send(batch, sequence);
+        }
+    }
+
+    /**
+     * @param sequence The last object queued before the batch was taken from
+     * the buffer: the batch has the (latest) documents of the objects up to
+     * that one, but maybe not of those queued while it was being sent.
+     */
+    private void send(Map<String, SolrInputDocument> batch, long sequence) {
+        try {
+            process(batch);
+            long visibleTime = System.currentTimeMillis() + Math.max(commitWithinMillis, 0) + SETTLE_MILLIS;
+            synchronized (bufferLock) {
+                for (String id : batch.keySet()) {
+                    UnsettledDoc unsettledDoc = unsettled.get(id);
+                    if (unsettledDoc != null && unsettledDoc.visibleTime == Long.MAX_VALUE) {
+                        unsettledDoc.visibleTime = visibleTime;
+                    }
+                }
+                if (!failures.isEmpty()) {
+                    failures.keySet().removeAll(batch.keySet());
+                }
+                for (Iterator<IndexedObject> it = indexedObjects.iterator(); it.hasNext();) {
+                    IndexedObject indexedObject = it.next();
+                    if (indexedObject.sequence > sequence) {
+                        break;
+                    }
+                    indexedObject.unsent.removeAll(batch.keySet());
+                    if (indexedObject.unsent.isEmpty()) {
+                        indexed(indexedObject.dvObjectId, indexedObject.indexTime);
+                        it.remove();
+                    }
+                }
+            }
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Failed to send a batch of " + batch.size() + " operation(s) to Solr; "
+                    + "they will be sent again. Ids: " + batch.keySet(), ex);
+            synchronized (bufferLock) {
+                // (back in the buffer, or given up on below)
+                for (String id : batch.keySet()) {
+                    UnsettledDoc unsettledDoc = unsettled.get(id);
+                    if (unsettledDoc != null && unsettledDoc.visibleTime == Long.MAX_VALUE) {
+                        settle(id);
+                    }
+                }
+            }
+            requeue(batch);
+        }
+    }
+
+    private void process(Map<String, SolrInputDocument> batch) throws SolrServerException, IOException {
+        List<String> deletes = new ArrayList<>();
+        List<SolrInputDocument> docs = new ArrayList<>();
+        boolean permissions = false;
+        for (Map.Entry<String, SolrInputDocument> op : batch.entrySet()) {
+            if (op.getValue() == null) {
+                deletes.add(op.getKey());
+            } else {
+                docs.add(op.getValue());
+            }
+            permissions |= op.getKey().endsWith(IndexServiceBean.discoverabilityPermissionSuffix);
+        }
+        if (permissions) {
+            // (not known yet)
+            permissionsVisibleTime = Long.MAX_VALUE;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            UpdateRequest request = new UpdateRequest();
+            if (!deletes.isEmpty()) {
+                request.deleteById(deletes);
+            }
+            if (!docs.isEmpty()) {
+                request.add(docs);
+            }
+            int commitWithin = commitWithinMillis;
+            if (commitWithin > 0) {
+                request.setCommitWithin(commitWithin);
+                request.process(solrClientService.getSolrClient());
+            } else {
+                request.process(solrClientService.getSolrClient());
+                solrClientService.getSolrClient().commit();
+            }
+            metrics.recordFlush(docs.size(), deletes.size(), System.currentTimeMillis() - start);
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            metrics.recordFailure(docs.size(), deletes.size());
+            throw ex;
+        } finally {
+            if (permissions) {
+                permissionsVisibleTime = System.currentTimeMillis() + Math.max(commitWithinMillis, 0);
+                // (and the other servers of a cluster)
+                if (permissionCache != null) {
+                    permissionCache.searchPermissionsChanged();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the operations of a failed batch back in the buffer, and gives up
+     * on those that failed too many times.
+     */
+    private void requeue(Map<String, SolrInputDocument> batch) {
+        Map<String, SolrInputDocument> givenUp = new LinkedHashMap<>();
+        int requeued = 0;
+        synchronized (bufferLock) {
+            for (Map.Entry<String, SolrInputDocument> op : batch.entrySet()) {
+                String id = op.getKey();
+                if (pending.containsKey(id)) {
+                    // (replaced by a newer operation on the same document)
+                    failures.remove(id);
+                } else if (failures.merge(id, 1, Integer::sum) > MAX_RETRIES) {
+                    failures.remove(id);
+                    givenUp.put(id, op.getValue());
+                } else {
+                    put(id, op.getValue());
+                    requeued++;
+                }
+            }
+        }
+        metrics.recordRequeued(requeued);
+        if (!givenUp.isEmpty()) {
+            giveUp(givenUp);
+        }
+    }
+
+    /**
+     * Sends the operations one at a time, so that one bad document does not
+     * take the others with it. The index times of the objects of the
+     * operations that still fail are to be cleared, rather than set, and the
+     * deletes that still fail are kept for {@link #retryFailedDeletes()}.
+     */
+    private void giveUp(Map<String, SolrInputDocument> batch) {
+        for (Map.Entry<String, SolrInputDocument> op : batch.entrySet()) {
+            try {
+                process(Collections.singletonMap(op.getKey(), op.getValue()));
+                synchronized (bufferLock) {
+                    if (!pending.containsKey(op.getKey())) {
+                        unsettle(op.getKey(), op.getValue(),
+                                System.currentTimeMillis() + Math.max(commitWithinMillis, 0) + SETTLE_MILLIS);
+                    }
+                    for (Iterator<IndexedObject> it = indexedObjects.iterator(); it.hasNext();) {
+                        IndexedObject indexedObject = it.next();
+                        indexedObject.unsent.remove(op.getKey());
+                        if (indexedObject.unsent.isEmpty()) {
+                            indexed(indexedObject.dvObjectId, indexedObject.indexTime);
+                            it.remove();
+                        }
+                    }
+                }
+            } catch (SolrServerException | IOException | RuntimeException ex) {
+                metrics.recordGivenUp(1);
+                logger.log(Level.SEVERE, "Failed to send " + op.getKey() + " to Solr", ex);
+                synchronized (bufferLock) {
+                    for (Iterator<IndexedObject> it = indexedObjects.iterator(); it.hasNext();) {
+                        IndexedObject indexedObject = it.next();
+                        if (indexedObject.unsent.contains(op.getKey())) {
+                            indexTimes.put(indexedObject.dvObjectId, null);
+                            it.remove();
+                        }
+                    }
+                    Long dvObjectId = dvObjectId(op.getKey());
+                    if (dvObjectId != null) {
+                        indexTimes.put(dvObjectId, null);
+                    }
+                    if (op.getValue() == null && !pending.containsKey(op.getKey())) {
+                        failedDeletes.add(op.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remembers an operation on a dataset or file document as not visible to
+     * searches before {@code visibleTime}.
+     */
+    private void unsettle(String id, SolrInputDocument doc, long visibleTime) {
+        UnsettledDoc unsettledDoc = UnsettledDoc.of(id, doc, visibleTime);
+        settle(id);
+        if (unsettledDoc != null) {
+            unsettled.put(id, unsettledDoc);
+            if (unsettledDoc.datasetId != null) {
+                unsettledByDataset.computeIfAbsent(unsettledDoc.datasetId, k -> new HashSet<>()).add(id);
+            }
+        }
+    }
+
+    private void settle(String id) {
+        UnsettledDoc unsettledDoc = unsettled.remove(id);
+        if (unsettledDoc != null && unsettledDoc.datasetId != null) {
+            Set<String> ids = unsettledByDataset.get(unsettledDoc.datasetId);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                unsettledByDataset.remove(unsettledDoc.datasetId);
+            }
+        }
+    }
+
+    /**
+     * The operations on the documents of a dataset that searches may not show
+     * yet, newest first: those in the buffer, then those being sent or sent
+     * recently.
+     *
+     * @param datasetId The dataset whose added dataset and file documents are
+     * returned.
+     * @param indexedIds The documents read from Solr, whose deletes are also
+     * returned (as {@code null}).
+     * @return The operations by document id.
+     */
+    public Map<String, UnsettledDoc> getUnsettledDocs(long datasetId, Collection<String> indexedIds) {
+        Map<String, UnsettledDoc> docs = new HashMap<>();
+        long now = System.currentTimeMillis();
+        synchronized (bufferLock) {
+            for (String id : unsettledByDataset.getOrDefault(datasetId, Collections.emptySet())) {
+                UnsettledDoc unsettledDoc = unsettled.get(id);
+                if (unsettledDoc.visibleTime > now) {
+                    docs.put(id, unsettledDoc);
+                }
+            }
+            for (String id : indexedIds) {
+                UnsettledDoc unsettledDoc = unsettled.get(id);
+                if (unsettledDoc != null && unsettledDoc.contentHash == null && unsettledDoc.visibleTime > now) {
+                    docs.put(id, null);
+                }
+            }
+            for (Map.Entry<String, SolrInputDocument> op : pending.entrySet()) {
+                UnsettledDoc unsettledDoc = UnsettledDoc.of(op.getKey(), op.getValue(), Long.MAX_VALUE);
+                if (unsettledDoc == null) {
+                    continue;
+                }
+                if (unsettledDoc.contentHash == null) {
+                    if (docs.containsKey(op.getKey()) || indexedIds.contains(op.getKey())) {
+                        docs.put(op.getKey(), null);
+                    }
+                } else if (unsettledDoc.datasetId != null && unsettledDoc.datasetId == datasetId) {
+                    docs.put(op.getKey(), unsettledDoc);
+                }
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Forgets the operations that searches show by now.
+     */
+    private void settleVisible() {
+        long now = System.currentTimeMillis();
+        synchronized (bufferLock) {
+            List<String> visible = new ArrayList<>();
+            for (Map.Entry<String, UnsettledDoc> unsettledDoc : unsettled.entrySet()) {
+                if (unsettledDoc.getValue().visibleTime <= now) {
+                    visible.add(unsettledDoc.getKey());
+                }
+            }
+            for (String id : visible) {
+                settle(id);
+            }
+        }
+    }
+
+    /**
+     * Writes the index times of the objects whose documents have been sent,
+     * and clears those of the objects whose documents were given up on.
+     */
+    void writeIndexTimes() {
+        Map<Long, Timestamp> toWrite;
+        synchronized (bufferLock) {
+            if (indexTimes.isEmpty()) {
+                return;
+            }
+            toWrite = indexTimes;
+            indexTimes = new LinkedHashMap<>();
+        }
+        Map<Long, Timestamp> toSet = new LinkedHashMap<>();
+        Set<Long> toClear = new TreeSet<>();
+        for (Map.Entry<Long, Timestamp> indexTime : toWrite.entrySet()) {
+            if (indexTime.getValue() == null) {
+                toClear.add(indexTime.getKey());
+            } else {
+                toSet.put(indexTime.getKey(), indexTime.getValue());
+            }
+        }
+        try {
+            if (!toSet.isEmpty()) {
+                dvObjectService.updateContentIndexTimes(toSet);
+            }
+            if (!toClear.isEmpty()) {
+                dvObjectService.clearIndexTimes(toClear);
+                logger.severe("Cleared the index times of the objects whose Solr documents could not be sent: " + toClear);
+            }
+        } catch (SQLException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Failed to write the index times of " + toWrite.size() + " object(s); will try again", ex);
+            synchronized (bufferLock) {
+                // (unless there is a newer one)
+                for (Map.Entry<Long, Timestamp> indexTime : toWrite.entrySet()) {
+                    indexTimes.putIfAbsent(indexTime.getKey(), indexTime.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the id of the object of a Solr document (such as 42 for
+     * {@code dataset_42_draft}), or {@code null} if there is none
+     */
+    static Long dvObjectId(String solrId) {
+        for (String prefix : new String[]{IndexServiceBean.solrDocIdentifierDataverse,
+            IndexServiceBean.solrDocIdentifierDataset, IndexServiceBean.solrDocIdentifierFile}) {
+            if (solrId.startsWith(prefix)) {
+                String rest = solrId.substring(prefix.length());
+                int end = rest.indexOf('_');
+                try {
+                    return Long.valueOf(end < 0 ? rest : rest.substring(0, end));
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends the buffer once its oldest operation is due. Runs every second on
+     * every server, since each one has its own buffer.
+     */
+    @Schedule(hour = "*", minute = "*", second = "*", persistent = false)
+    public void flushIfDue() {
+        long oldest;
+        synchronized (bufferLock) {
+            oldest = oldestPendingTime;
+        }
+        if (oldest > 0L && System.currentTimeMillis() - oldest >= commitWithinMillis) {
+            flush();
+        }
+        writeIndexTimes();
+        settleVisible();
+    }
+
+    /**
+     * Sends the deletes that were given up on again, with the next batch.
+     */
+    @Schedule(hour = "*", minute = "*", persistent = false)
+    public void retryFailedDeletes() {
+        synchronized (bufferLock) {
+            if (failedDeletes.isEmpty()) {
+                return;
+            }
+            logger.warning("Sending " + failedDeletes.size() + " delete(s) to Solr again, that failed before");
+            for (String id : new ArrayList<>(failedDeletes)) {
+                put(id, null);
+            }
+        }
+    }
+
+    /**
+     * Re-reads the batch settings, so changes take effect without a restart.
+     */
+    @Schedule(hour = "*", minute = "*", persistent = false)
+    public void refreshSettings() {
+        batchSize = systemConfig.getSolrUpdateBatchSize();
+        commitWithinMillis = systemConfig.getSolrCommitWithinMillis();
+    }
+
+    /**
+     * @return The time by which the permission documents sent to Solr by this
+     * server so far are visible to searches ({@link Long#MAX_VALUE} while
+     * some are being sent). What was read from the permission documents
+     * before then may be out of date.
+     */
+    public long getPermissionsVisibleTime() {
+        return permissionsVisibleTime;
+    }
+
+    public int getPendingCount() {
+        synchronized (bufferLock) {
+            return pending.size();
+        }
+    }
+
+    public int getFailedDeleteCount() {
+        synchronized (bufferLock) {
+            return failedDeletes.size();
+        }
+    }
+
+    public JsonObjectBuilder getMetrics() {
+        return metrics.toJson()
+                .add("pending", getPendingCount())
+                .add("failedDeletes", getFailedDeleteCount())
+                .add("batchSize", batchSize)
+                .add("commitWithinMillis", commitWithinMillis);
+    }
+
+    /**
+     * An operation on a dataset or file document that searches may not show
+     * yet.
+     */
+    public static class UnsettledDoc {
+
+        /**
+         * {@code null} for a delete.
+         */
+        final String contentHash;
+        final String sourceHash;
+        /**
+         * The dataset of an added dataset or file document.
+         */
+        final Long datasetId;
+        final boolean file;
+        /**
+         * {@link Long#MAX_VALUE} until sent.
+         */
+        long visibleTime;
+
+        UnsettledDoc(String contentHash, String sourceHash, Long datasetId, boolean file, long visibleTime) {
+            this.contentHash = contentHash;
+            this.sourceHash = sourceHash;
+            this.datasetId = datasetId;
+            this.file = file;
+            this.visibleTime = visibleTime;
+        }
+
+        /**
+         * @return {@code null} unless the operation is on a dataset or file
+         * document (and not on a permission document).
+         */
+        static UnsettledDoc of(String id, SolrInputDocument doc, long visibleTime) {
+            if (doc == null) {
+                if ((id.startsWith(IndexServiceBean.solrDocIdentifierDataset) || id.startsWith(IndexServiceBean.solrDocIdentifierFile))
+                        && !id.endsWith(IndexServiceBean.discoverabilityPermissionSuffix)) {
+                    return new UnsettledDoc(null, null, null, false, visibleTime);
+                }
+                return null;
+            }
+            Object type = doc.getFieldValue(SearchFields.TYPE);
+            boolean file = "files".equals(type);
+            Object datasetId;
+            if (file) {
+                datasetId = doc.getFieldValue(SearchFields.PARENT_ID);
+            } else if ("datasets".equals(type)) {
+                datasetId = doc.getFieldValue(SearchFields.ENTITY_ID);
+            } else {
+                return null;
+            }
+            if (!(datasetId instanceof Number)) {
+                return null;
+            }
+            // (no hash: the document was built without incremental indexing)
+            String contentHash = (String) doc.getFieldValue(SearchFields.CONTENT_HASH);
+            return new UnsettledDoc(contentHash == null ? "" : contentHash, (String) doc.getFieldValue(SearchFields.SOURCE_HASH),
+                    ((Number) datasetId).longValue(), file, visibleTime);
+        }
+    }
+
+    /**
+     * An object queued with {@link #add(Collection, long)}.
+     */
+    private static class IndexedObject {
+
+        final long dvObjectId;
+        final Timestamp indexTime;
+        /**
+         * The ids of its documents not sent yet.
+         */
+        final Set<String> unsent;
+        /**
+         * Increases with every object queued, to tell the objects queued
+         * before a batch was taken from the buffer from the later ones.
+         */
+        final long sequence;
+
+        IndexedObject(long dvObjectId, Timestamp indexTime, Set<String> unsent, long sequence) {
+            this.dvObjectId = dvObjectId;
+            this.indexTime = indexTime;
+            this.unsent = unsent;
+            this.sequence = sequence;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+/**
+ * An in-memory copy of the {@code setting} table, read by
+ * {@link SettingsServiceBean} instead of querying the database on every
+ * lookup.
+ *
+ * The whole table is loaded at startup, and again on the first lookup after
+ * the copy has been invalidated. SettingsServiceBean invalidates it when a
+ * change it made is committed. The changes made on other servers of a cluster
+ * (or directly in the database) are picked up through the {@code setting}
+ * version stamp in the {@code cacheversion} table, which a trigger bumps on
+ * every change to the settings, and which every server polls every few
+ * seconds.
+ *
+ * The lookups run outside of the caller's transaction, so that uncommitted
+ * changes never make it into the cache.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupFlywayMigrator")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class SettingsCacheService {
+
+    private static final Logger logger = Logger.getLogger(SettingsCacheService.class.getCanonicalName());
+
+    @PersistenceContext
+    EntityManager em;
+
+    /**
+     * The settings as of a version of the table. Never modified once loaded.
+     */
+    static class Snapshot {
+        final long version;
+        final Map<String, String> values;
+        final long loadTime;
+
+        Snapshot(long version, Map<String, String> values) {
+            this.version = version;
+            this.values = values;
+            this.loadTime = System.currentTimeMillis();
+        }
+    }
+
+    private volatile Snapshot snapshot = null;
+    // incremented by every invalidation, so that a load that started before
+    // one does not replace the snapshot it invalidated:
+    private final AtomicLong generation = new AtomicLong();
+    private final Object loadLock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong localInvalidations = new AtomicLong();
+    private final AtomicLong remoteInvalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        try {
+            getSnapshot();
+        } catch (PersistenceException pe) {
+            // will be retried on the first lookup
+            logger.log(Level.WARNING, "Failed to load the settings at startup", pe);
+        }
+    }
+
+    /**
+     * @return The value of the setting (not localized), or {@code null}.
+     */
+    public String get(String name) {
+        return getSnapshot().values.get(name);
+    }
+
+    /**
+     * @return The value of the setting in the given language, or {@code null}.
+     */
+    public String get(String name, String lang) {
+        return getSnapshot().values.get(localizedKey(name, lang));
+    }
+
+    /**
+     * Discards the cached settings; they are loaded again on the next lookup.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+        localInvalidations.incrementAndGet();
+    }
+
+    /**
+     * Discards the cached settings if the settings have changed since they
+     * were loaded, on this server or on any other.
+     */
+    @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+    public void checkVersion() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        try {
+            if (loadVersion() != current.version) {
+                logger.fine("The settings have changed; discarding the cached settings");
+                generation.incrementAndGet();
+                snapshot = null;
+                remoteInvalidations.incrementAndGet();
+            }
+        } catch (PersistenceException pe) {
+            logger.log(Level.WARNING, "Failed to check the version of the settings", pe);
+        }
+    }
+
+    Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            hits.incrementAndGet();
+            return current;
+        }
+        synchronized (loadLock) {
+            current = snapshot;
+            if (current != null) {
+                hits.incrementAndGet();
+                return current;
+            }
+            misses.incrementAndGet();
+            long loadGeneration = generation.get();
+            current = load();
+            if (generation.get() == loadGeneration) {
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    private Snapshot load() {
+        // the version is read first: if the settings change in between, the
+        // new values are cached under the old version, and loaded once more.
+        long version = loadVersion();
+        List<Setting> settings = em.createNamedQuery("Setting.findAll", Setting.class).getResultList();
+        Map<String, String> values = new HashMap<>();
+        for (Setting setting : settings) {
+            if (setting.getContent() != null) {
+                String key = setting.getLang() == null ? setting.getName() : localizedKey(setting.getName(), setting.getLang());
+                values.putIfAbsent(key, setting.getContent());
+            }
+        }
+        logger.fine("Loaded " + values.size() + " settings, version " + version);
+        return new Snapshot(version, Collections.unmodifiableMap(values));
+    }
+
+    private long loadVersion() {
+        List<?> versions = em.createNativeQuery("SELECT version FROM cacheversion WHERE name = 'setting'").getResultList();
+        return versions.isEmpty() ? 0L : ((Number) versions.get(0)).longValue();
+    }
+
+    private static String localizedKey(String name, String lang) {
+        return lang + "/" + name;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public JsonObjectBuilder getStatus() {
+        Snapshot current = snapshot;
+        JsonObjectBuilder status = Json.createObjectBuilder()
+                .add("hits", hits.get())
+                .add("misses", misses.get())
+                .add("localInvalidations", localInvalidations.get())
+                .add("remoteInvalidations", remoteInvalidations.get())
+                .add("loaded", current != null);
+        if (current != null) {
+            status.add("version", current.version)
+                    .add("settings", current.values.size())
+                    .add("loadTime", current.loadTime);
+        }
+        return status;
+    }
+
+}
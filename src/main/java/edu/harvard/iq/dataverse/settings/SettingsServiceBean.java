@@ -13,13 +13,18 @@ import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
  * Service bean accessing a persistent hash map, used as settings in the application.
@@ -434,7 +439,105 @@ public class SettingsServiceBean {
         /**
          * Sort Date Facets Chronologically instead or presenting them in order of # of hits as other facets are. Default is true
          */
-        ChronologicalDateFacets
+        ChronologicalDateFacets,
+        /**
+         * Number of worker threads used by "index all" (api/admin/index) to
+         * index datasets in parallel. Default is 4.
+         */
+        IndexBatchWorkers,
+        /**
+         * Checkpoint of an "index all" run, written by the batch indexer so an
+         * interrupted run can be resumed. Stored with the partition spec
+         * appended to the name, e.g. ":IndexBatchCheckpoint.1.0"
+         */
+        IndexBatchCheckpoint,
+        /**
+         * Number of document updates and deletes buffered before they are sent
+         * to Solr in one request. Default is 100.
+         */
+        SolrUpdateBatchSize,
+        /**
+         * Maximum time, in milliseconds, an indexed object waits in the buffer
+         * before it is sent to Solr, and the "commitWithin" time Solr is given
+         * to make it searchable. Default is 1000. 0 sends and hard-commits
+         * every update right away.
+         */
+        SolrCommitWithinMillis,
+        /**
+         * Reindex only the dataset and file documents whose content changed,
+         * based on a hash stored with each document. Default is false.
+         */
+        SolrIncrementalIndexing,
+        /**
+         * Keep bundles of the pre-exported records of each OAI set, to serve
+         * ListRecords from. Default is false.
+         */
+        OAIRecordBundles,
+        /**
+         * Write a columnar image of each ingested tabular file, to produce
+         * subsets and vectors from. Default is false.
+         */
+        TabularColumnarStorage,
+        /**
+         * Number of files a zipped multi-file download opens and starts
+         * reading ahead of the one being written; 0 turns the read-ahead
+         * off. Default is DataFileZipper.DEFAULT_PREFETCH_FILES.
+         */
+        ZipDownloadPrefetchFiles,
+        /**
+         * Number of seconds the permissions granted by role assignments are
+         * cached for; 0 turns the shared permission cache off. Default is
+         * PermissionCacheService.DEFAULT_TTL_SECONDS.
+         */
+        PermissionCacheTtlSeconds,
+        /**
+         * Maximum number of entries in the shared permission cache. Default
+         * is PermissionCacheService.DEFAULT_SIZE.
+         */
+        PermissionCacheSize,
+        /**
+         * Number of action log records queued for the background writer;
+         * 0 turns the queue off, and the records are written synchronously.
+         * Default is ActionLogWriter.DEFAULT_QUEUE_SIZE. Needs a restart.
+         */
+        ActionLogQueueSize,
+        /**
+         * What logging an action does when the action log queue is full:
+         * "block" (the default) waits for room in it, "drop" drops the
+         * record.
+         */
+        ActionLogQueueFullPolicy,
+        /**
+         * Number of records of an OAI harvest imported concurrently, each in
+         * a transaction of its own. Default is
+         * HarvesterServiceBean.DEFAULT_IMPORT_WORKERS.
+         */
+        HarvestImportWorkers,
+        /**
+         * How long (in seconds) the users of the API tokens are cached for;
+         * 0 turns the cache off. Default is
+         * ApiTokenCacheService.DEFAULT_TTL_SECONDS.
+         */
+        ApiTokenCacheTtlSeconds,
+        /**
+         * Maximum number of API tokens whose users are cached. Default is
+         * ApiTokenCacheService.DEFAULT_SIZE.
+         */
+        ApiTokenCacheSize,
+        /**
+         * How long (in seconds) the groups of the users, and the permission
+         * filter queries of the groups, are cached for by the search; 0 turns
+         * the caches off. Default is
+         * PermissionFilterQueryService.DEFAULT_TTL_SECONDS.
+         */
+        SearchPermissionFilterCacheTtlSeconds,
+        /**
+         * Maximum number of documents the (non-public) groups of a user can
+         * make discoverable for the search to filter them by id rather than
+         * with a join; 0 always joins. Default is
+         * PermissionFilterQueryService.DEFAULT_TERMS_LIMIT.
+         */
+        SearchPermissionFilterTermsLimit
         
         ;
 
@@ -450,20 +553,21 @@ public class SettingsServiceBean {
     @EJB
     ActionLogServiceBean actionLogSvc;
     
+    @EJB
+    SettingsCacheService settingsCache;
+    
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+    
     /**
      * Basic functionality - get the name, return the setting, or {@code null}.
+     * The settings are read from {@link SettingsCacheService}, not from the
+     * database.
      * @param name of the setting
      * @return the actual setting, or {@code null}.
      */
     public String get( String name ) {
-        List<Setting> tokens = em.createNamedQuery("Setting.findByName", Setting.class)
-                .setParameter("name", name )
-                .getResultList();
-        String val = null;
-        if(tokens.size() > 0) {
-            val = tokens.get(0).getContent();
-        }
-        return (val!=null) ? val : null;
+        return settingsCache.get(name);
     }
     
     /**
@@ -556,14 +660,7 @@ public class SettingsServiceBean {
     }
 
     public String get(String name, String lang, String defaultValue ) {
-        List<Setting> tokens = em.createNamedQuery("Setting.findByNameAndLang", Setting.class)
-                .setParameter("name", name )
-                .setParameter("lang", lang )
-                .getResultList();
-        String val = null;
-        if(tokens.size() > 0) {
-            val = tokens.get(0).getContent();
-        }
+        String val = settingsCache.get(name, lang);
         return (val!=null) ? val : defaultValue;
     }
     
@@ -593,6 +690,7 @@ public class SettingsServiceBean {
         }
         
         s = em.merge(s);
+        invalidateCacheOnCommit();
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                             .setInfo(name + ": " + content));
         return s;
@@ -617,6 +715,7 @@ public class SettingsServiceBean {
         }
         
         em.merge(s);
+        invalidateCacheOnCommit();
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                 .setInfo(name + ": " +lang + ": " + content));
         return s;
@@ -656,6 +755,7 @@ public class SettingsServiceBean {
         em.createNamedQuery("Setting.deleteByName")
                 .setParameter("name", name)
                 .executeUpdate();
+        invalidateCacheOnCommit();
     }
 
     public void delete( String name, String lang ) {
@@ -665,11 +765,43 @@ public class SettingsServiceBean {
                 .setParameter("name", name)
                 .setParameter("lang", lang)
                 .executeUpdate();
+        invalidateCacheOnCommit();
     }
     
     public Set<Setting> listAll() {
         return new HashSet<>(em.createNamedQuery("Setting.findAll", Setting.class).getResultList());
     }
     
+    /**
+     * Hits, misses and invalidations of the settings cache of this server.
+     */
+    public JsonObjectBuilder getCacheStatus() {
+        return settingsCache.getStatus();
+    }
+    
+    /*
+     * The cached settings are discarded once the change is committed (so that
+     * they are not reloaded before it is visible); the other servers notice it 
+     * from the version of the settings.
+     */
+    private void invalidateCacheOnCommit() {
+        if (transactionRegistry == null || transactionRegistry.getTransactionKey() == null) {
+            settingsCache.invalidate();
+            return;
+        }
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    settingsCache.invalidate();
+                }
+            }
+        });
+    }
+    
     
 }
@@ -1,17 +1,122 @@
 package edu.harvard.iq.dataverse.sitemap;
 
-import edu.harvard.iq.dataverse.Dataset;
-import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.GlobalId;
+import edu.harvard.iq.dataverse.sitemap.SiteMapUtil.SiteMapUrl;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import javax.ejb.Asynchronous;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 @Stateless
 public class SiteMapServiceBean {
 
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    static final int PAGE_SIZE = 10000;
+
+    /**
+     * The dataverses and the datasets after the id given, in the order of
+     * their ids, with what decides whether they are in the sitemap (see
+     * {@link #toSiteMapUrl(Object[])}): their publication dates, the harvesting
+     * clients of the datasets, and the states of their versions.
+     */
+    private static final String SITEMAP_OBJECTS = "SELECT o.ID, o.DTYPE, dv.ALIAS, o.PROTOCOL, o.AUTHORITY, o.IDENTIFIER, o.MODIFICATIONTIME, "
+            + "o.PUBLICATIONDATE, ds.HARVESTINGCLIENT_ID, "
+            + "CASE WHEN ds.ID IS NULL THEN NULL ELSE (SELECT string_agg(DISTINCT v.VERSIONSTATE, ',') FROM DATASETVERSION v WHERE v.DATASET_ID = o.ID) END "
+            + "FROM DVOBJECT o LEFT JOIN DATAVERSE dv ON dv.ID = o.ID LEFT JOIN DATASET ds ON ds.ID = o.ID "
+            + "WHERE o.ID > ?1 AND o.DTYPE IN ('Dataverse', 'Dataset') "
+            + "ORDER BY o.ID LIMIT " + PAGE_SIZE;
+
+    /**
+     * Writes the sitemap, reading the dataverses and the datasets a page of
+     * ids and modification times at a time (outside of a transaction, as it
+     * can take a while).
+     */
     @Asynchronous
-    public void updateSiteMap(List<Dataverse> dataverses, List<Dataset> datasets) {
-        SiteMapUtil.updateSiteMap(dataverses, datasets);
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void updateSiteMap() {
+        SiteMapUtil.updateSiteMap(new SiteMapUrls());
+    }
+
+    /**
+     * @param row A row of {@link #SITEMAP_OBJECTS}.
+     * @return The URL of the dataverse or dataset of the row, or {@code null}
+     * if it is not in the sitemap: if it is not published, or if it is a
+     * harvested or deaccessioned dataset (as in
+     * {@link edu.harvard.iq.dataverse.Dataset#isDeaccessioned()}: all its
+     * versions are deaccessioned, and none is released or a draft).
+     */
+    static SiteMapUrl toSiteMapUrl(Object[] row) {
+        long id = ((Number) row[0]).longValue();
+        Date modificationTime = (Date) row[6];
+        if (row[7] == null) {
+            return null;
+        }
+        if ("Dataverse".equals(row[1])) {
+            return SiteMapUrl.forDataverse(id, (String) row[2], modificationTime);
+        }
+        if (row[8] != null) {
+            return null;
+        }
+        List<String> versionStates = row[9] == null ? Collections.emptyList() : Arrays.asList(((String) row[9]).split(","));
+        if (versionStates.contains(DatasetVersion.VersionState.DEACCESSIONED.name())
+                && !versionStates.contains(DatasetVersion.VersionState.RELEASED.name())
+                && !versionStates.contains(DatasetVersion.VersionState.DRAFT.name())) {
+            return null;
+        }
+        String persistentId = new GlobalId((String) row[3], (String) row[4], (String) row[5]).asString();
+        return SiteMapUrl.forDataset(id, persistentId, modificationTime);
+    }
+
+    /**
+     * The URLs of the sitemap, looked up a page at a time.
+     */
+    class SiteMapUrls implements Iterator<SiteMapUrl> {
+
+        private Iterator<Object[]> page = Collections.emptyIterator();
+        private int pageSize = PAGE_SIZE;
+        private long lastId = 0;
+        private SiteMapUrl next = null;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (!page.hasNext()) {
+                    if (pageSize < PAGE_SIZE) {
+                        return false;
+                    }
+                    List<Object[]> results = em.createNativeQuery(SITEMAP_OBJECTS).setParameter(1, lastId).getResultList();
+                    pageSize = results.size();
+                    page = results.iterator();
+                    continue;
+                }
+                Object[] row = page.next();
+                lastId = ((Number) row[0]).longValue();
+                next = toSiteMapUrl(row);
+            }
+            return true;
+        }
+
+        @Override
+        public SiteMapUrl next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SiteMapUrl url = next;
+            next = null;
+            return url;
+        }
+
     }
 
 }
@@ -1,203 +1,334 @@
 package edu.harvard.iq.dataverse.sitemap;
 
-import edu.harvard.iq.dataverse.Dataset;
-import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.DvObjectContainer;
 import edu.harvard.iq.dataverse.util.SystemConfig;
-import edu.harvard.iq.dataverse.util.xml.XmlValidator;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.SAXException;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
+/**
+ * Writes the sitemap: a sitemap index ({@value #SITEMAP_FILENAME_FINAL}) of
+ * gzipped sitemap shards of {@value #URLS_PER_SHARD} URLs each, the most a
+ * sitemap may have ("each Sitemap file that you provide must have no more
+ * than 50,000 URLs", https://www.sitemaps.org/protocol.html). The URLs come
+ * in the order of the ids of their objects, so new objects go to the last
+ * shard; only an object that leaves the sitemap moves the URLs of the shards
+ * after its own.
+ *
+ * The shards are served from the root ({@code /sitemap-0.xml.gz}, by a
+ * rewrite rule in pretty-config.xml, like the index), since a sitemap may
+ * only list URLs below its own location.
+ *
+ * All the shards are regenerated on every run, but a shard whose contents
+ * are the same as in the last run (compared by their hashes) is left alone,
+ * with its old last modification date in the index, so that the search
+ * engines only fetch the shards that changed.
+ */
 public class SiteMapUtil {
 
     private static final Logger logger = Logger.getLogger(SiteMapUtil.class.getCanonicalName());
 
     static final String SITEMAP_FILENAME_FINAL = "sitemap.xml";
     static final String SITEMAP_FILENAME_STAGED = "sitemap.xml.staged";
+    static final String STAGED_SUFFIX = ".staged";
+    static final int URLS_PER_SHARD = 50000;
+
+    private static final String SITEMAP_NAMESPACE = "http://www.sitemaps.org/schemas/sitemap/0.9";
+    private static final Pattern SHARD_FILENAME = Pattern.compile("sitemap-[0-9]+\\.xml\\.gz");
 
     /**
-     * TODO: Handle more than 50,000 entries in the sitemap.
-     *
-     * (As of this writing Harvard Dataverse only has ~3000 dataverses and
-     * ~30,000 datasets.)
-     *
-     * "each Sitemap file that you provide must have no more than 50,000 URLs"
-     * https://www.sitemaps.org/protocol.html
-     *
-     * Consider using a third party library: "One sitemap can contain a maximum
-     * of 50,000 URLs. (Some sitemaps, like Google News sitemaps, can contain
-     * only 1,000 URLs.) If you need to put more URLs than that in a sitemap,
-     * you'll have to use a sitemap index file. Fortunately, WebSitemapGenerator
-     * can manage the whole thing for you."
-     * https://github.com/dfabulich/sitemapgen4j
+     * A URL of the sitemap, with the id of its object.
      */
-    public static void updateSiteMap(List<Dataverse> dataverses, List<Dataset> datasets) {
+    public static class SiteMapUrl {
 
-        logger.info("BEGIN updateSiteMap");
+        private final long id;
+        private final String loc;
+        private final Date lastmod;
 
-        String sitemapPathString = getSitemapPathString();
-        String stagedSitemapPathAndFileString = sitemapPathString + File.separator + SITEMAP_FILENAME_STAGED;
-        String finalSitemapPathAndFileString = sitemapPathString + File.separator + SITEMAP_FILENAME_FINAL;
+        public SiteMapUrl(long id, String loc, Date lastmod) {
+            this.id = id;
+            this.loc = loc;
+            this.lastmod = lastmod;
+        }
 
-        Path stagedPath = Paths.get(stagedSitemapPathAndFileString);
-        if (Files.exists(stagedPath)) {
-            logger.warning("Unable to update sitemap! The staged file from a previous run already existed. Delete " + stagedSitemapPathAndFileString + " and try again.");
-            return;
+        public static SiteMapUrl forDataverse(long id, String alias, Date lastmod) {
+            return new SiteMapUrl(id, SystemConfig.getDataverseSiteUrlStatic() + "/dataverse/" + alias, lastmod);
         }
 
-        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder documentBuilder = null;
-        try {
-            documentBuilder = documentBuilderFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            logger.warning("Unable to update sitemap! ParserConfigurationException: " + ex.getLocalizedMessage());
-            return;
+        public static SiteMapUrl forDataset(long id, String persistentId, Date lastmod) {
+            return new SiteMapUrl(id, SystemConfig.getDataverseSiteUrlStatic() + "/dataset.xhtml?persistentId=" + persistentId, lastmod);
         }
-        Document document = documentBuilder.newDocument();
 
-        Element urlSet = document.createElement("urlset");
-        urlSet.setAttribute("xmlns", "http://www.sitemaps.org/schemas/sitemap/0.9");
-        urlSet.setAttribute("xmlns:xhtml", "http://www.w3.org/1999/xhtml");
-        document.appendChild(urlSet);
+        public long getId() {
+            return id;
+        }
 
-        for (Dataverse dataverse : dataverses) {
-            if (!dataverse.isReleased()) {
-                continue;
-            }
-            Element url = document.createElement("url");
-            urlSet.appendChild(url);
+        public String getLoc() {
+            return loc;
+        }
+
+        public Date getLastmod() {
+            return lastmod;
+        }
 
-            Element loc = document.createElement("loc");
-            String dataverseAlias = dataverse.getAlias();
-            loc.appendChild(document.createTextNode(SystemConfig.getDataverseSiteUrlStatic() + "/dataverse/" + dataverseAlias));
-            url.appendChild(loc);
+    }
 
-            Element lastmod = document.createElement("lastmod");
-            lastmod.appendChild(document.createTextNode(getLastModDate(dataverse)));
-            url.appendChild(lastmod);
+    /**
+     * @param urls the URLs of the published dataverses and datasets, in the
+     * order of their ids
+     */
+    public static void updateSiteMap(Iterator<SiteMapUrl> urls) {
+        updateSiteMap(urls, URLS_PER_SHARD);
+    }
+
+    static void updateSiteMap(Iterator<SiteMapUrl> urls, int urlsPerShard) {
+
+        logger.info("BEGIN updateSiteMap");
+
+        String sitemapPathString = getSitemapPathString();
+        Path sitemapPath = Paths.get(sitemapPathString);
+        Path stagedPath = sitemapPath.resolve(SITEMAP_FILENAME_STAGED);
+        Path finalPath = sitemapPath.resolve(SITEMAP_FILENAME_FINAL);
+
+        try {
+            Files.createDirectories(sitemapPath);
+            // (the staged index is there for as long as the update runs)
+            Files.createFile(stagedPath);
+        } catch (FileAlreadyExistsException ex) {
+            logger.warning("Unable to update sitemap! The staged file from a previous run already existed. Delete " + stagedPath + " and try again.");
+            return;
+        } catch (IOException ex) {
+            logger.warning("Unable to update sitemap! Unable to create " + stagedPath + ". IOException: " + ex.getLocalizedMessage());
+            return;
         }
 
-        for (Dataset dataset : datasets) {
-            if (!dataset.isReleased()) {
-                continue;
-            }
-            if (dataset.isHarvested()) {
-                continue;
+        ShardWriter shard = null;
+        try {
+            // the shards written, with their last modification dates:
+            Map<String, Date> shards = new LinkedHashMap<>();
+            long lastId = Long.MIN_VALUE;
+            int shardSize = 0;
+            while (urls.hasNext()) {
+                SiteMapUrl url = urls.next();
+                if (url.getId() < lastId) {
+                    throw new IllegalArgumentException("The sitemap URLs are not in the order of their ids: " + url.getId());
+                }
+                lastId = url.getId();
+                if (shard == null || shardSize == urlsPerShard) {
+                    if (shard != null) {
+                        shards.put(shard.getFilename(), shard.finish());
+                    }
+                    shard = new ShardWriter(sitemapPath, shards.size());
+                    shardSize = 0;
+                }
+                shard.write(url);
+                shardSize++;
             }
-            // The deaccessioned check is last because it has to iterate through dataset versions.
-            if (dataset.isDeaccessioned()) {
-                continue;
+            if (shard != null) {
+                shards.put(shard.getFilename(), shard.finish());
+                shard = null;
             }
-            Element url = document.createElement("url");
-            urlSet.appendChild(url);
 
-            Element loc = document.createElement("loc");
-            String datasetPid = dataset.getGlobalId().asString();
-            loc.appendChild(document.createTextNode(SystemConfig.getDataverseSiteUrlStatic() + "/dataset.xhtml?persistentId=" + datasetPid));
-            url.appendChild(loc);
+            logger.info("Writing staged sitemap index to " + stagedPath);
+            writeIndex(stagedPath, shards);
+            logger.info("Moving staged sitemap index from " + stagedPath + " to " + finalPath);
+            Files.move(stagedPath, finalPath, StandardCopyOption.REPLACE_EXISTING);
 
-            Element lastmod = document.createElement("lastmod");
-            lastmod.appendChild(document.createTextNode(getLastModDate(dataset)));
-            url.appendChild(lastmod);
+            deleteShardsOtherThan(sitemapPath, shards);
+            logger.info("END updateSiteMap: " + shards.size() + " shards");
+        } catch (IOException | XMLStreamException | RuntimeException ex) {
+            logger.warning("Unable to update sitemap! " + ex.getClass().getSimpleName() + ": " + ex.getLocalizedMessage());
+            if (shard != null) {
+                shard.discard();
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(stagedPath);
+            } catch (IOException ex) {
+                logger.warning("Unable to delete the staged sitemap " + stagedPath + ": " + ex.getLocalizedMessage());
+            }
         }
+    }
 
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = null;
-        try {
-            transformer = transformerFactory.newTransformer();
-        } catch (TransformerConfigurationException ex) {
-            logger.warning("Unable to update sitemap! TransformerConfigurationException: " + ex.getLocalizedMessage());
-            return;
+    /**
+     * Writes one shard into a staged file, and replaces the shard with it if
+     * its contents changed.
+     */
+    private static class ShardWriter {
+
+        final long number;
+        final Path finalPath;
+        final Path stagedPath;
+        final MessageDigest digest;
+        final OutputStream out;
+        final XMLStreamWriter writer;
+
+        ShardWriter(Path sitemapPath, long number) throws IOException, XMLStreamException {
+            this.number = number;
+            finalPath = sitemapPath.resolve(getShardFilename(number));
+            stagedPath = sitemapPath.resolve(getShardFilename(number) + STAGED_SUFFIX);
+            digest = newDigest();
+            out = new DigestOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(stagedPath))), digest);
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("urlset");
+            writer.writeDefaultNamespace(SITEMAP_NAMESPACE);
+            writer.writeNamespace("xhtml", "http://www.w3.org/1999/xhtml");
         }
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        DOMSource source = new DOMSource(document);
-        File directory = new File(sitemapPathString);
-        if (!directory.exists()) {
-            directory.mkdir();
+
+        String getFilename() {
+            return finalPath.getFileName().toString();
         }
 
-        boolean debug = false;
-        if (debug) {
-            logger.info("Writing sitemap to console/logs");
-            StreamResult consoleResult = new StreamResult(System.out);
-            try {
-                transformer.transform(source, consoleResult);
-            } catch (TransformerException ex) {
-                logger.warning("Unable to print sitemap to the console: " + ex.getLocalizedMessage());
+        void write(SiteMapUrl url) throws XMLStreamException {
+            writer.writeCharacters("\n  ");
+            writer.writeStartElement("url");
+            writer.writeStartElement("loc");
+            writer.writeCharacters(url.getLoc());
+            writer.writeEndElement();
+            if (url.getLastmod() != null) {
+                writer.writeStartElement("lastmod");
+                writer.writeCharacters(getLastModDate(url.getLastmod()));
+                writer.writeEndElement();
             }
+            writer.writeEndElement();
         }
 
-        logger.info("Writing staged sitemap to " + stagedSitemapPathAndFileString);
-        StreamResult result = new StreamResult(new File(stagedSitemapPathAndFileString));
-        try {
-            transformer.transform(source, result);
-        } catch (TransformerException ex) {
-            logger.warning("Unable to update sitemap! Unable to write staged sitemap to " + stagedSitemapPathAndFileString + ". TransformerException: " + ex.getLocalizedMessage());
-            return;
+        /**
+         * @return the last modification date of the shard: now, if it
+         * changed; the date of the last change otherwise
+         */
+        Date finish() throws IOException, XMLStreamException {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+            out.close();
+
+            if (Files.exists(finalPath) && Arrays.equals(digest.digest(), digestOf(finalPath))) {
+                Files.delete(stagedPath);
+            } else {
+                Files.move(stagedPath, finalPath, StandardCopyOption.REPLACE_EXISTING);
+                logger.fine("Updated sitemap shard " + finalPath);
+            }
+            return new Date(Files.getLastModifiedTime(finalPath).toMillis());
         }
 
-        logger.info("Checking staged sitemap for well-formedness. The staged file is " + stagedSitemapPathAndFileString);
-        try {
-            XmlValidator.validateXmlWellFormed(stagedSitemapPathAndFileString);
-        } catch (Exception ex) {
-            logger.warning("Unable to update sitemap! Staged sitemap file is not well-formed XML! The exception for " + stagedSitemapPathAndFileString + " is " + ex.getLocalizedMessage());
-            return;
+        void discard() {
+            try {
+                out.close();
+            } catch (IOException ex) {
+                // (it is going away anyway)
+            }
+            try {
+                Files.deleteIfExists(stagedPath);
+            } catch (IOException ex) {
+                logger.warning("Unable to delete the staged sitemap shard " + stagedPath + ": " + ex.getLocalizedMessage());
+            }
         }
 
-        logger.info("Checking staged sitemap against XML schema. The staged file is " + stagedSitemapPathAndFileString);
-        URL schemaUrl = null;
-        try {
-            schemaUrl = new URL("https://www.sitemaps.org/schemas/sitemap/0.9/sitemap.xsd");
-        } catch (MalformedURLException ex) {
-            // This URL is hard coded and it's fine. We should never get MalformedURLException so we just swallow the exception and carry on.
+    }
+
+    private static void writeIndex(Path path, Map<String, Date> shards) throws IOException, XMLStreamException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("sitemapindex");
+            writer.writeDefaultNamespace(SITEMAP_NAMESPACE);
+            for (Map.Entry<String, Date> shard : shards.entrySet()) {
+                writer.writeCharacters("\n  ");
+                writer.writeStartElement("sitemap");
+                writer.writeStartElement("loc");
+                writer.writeCharacters(SystemConfig.getDataverseSiteUrlStatic() + "/" + shard.getKey());
+                writer.writeEndElement();
+                writer.writeStartElement("lastmod");
+                writer.writeCharacters(getLastModDate(shard.getValue()));
+                writer.writeEndElement();
+                writer.writeEndElement();
+            }
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
         }
-        try {
-            XmlValidator.validateXmlSchema(stagedSitemapPathAndFileString, schemaUrl);
-        } catch (SAXException | IOException ex) {
-            logger.warning("Unable to update sitemap! Exception caught while checking XML staged file (" + stagedSitemapPathAndFileString + " ) against XML schema: " + ex.getLocalizedMessage());
-            return;
+    }
+
+    /**
+     * Deletes the shards of earlier runs that have no URLs any more.
+     */
+    private static void deleteShardsOtherThan(Path sitemapPath, Map<String, Date> shards) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(sitemapPath)) {
+            for (Path file : files) {
+                String filename = file.getFileName().toString();
+                if (SHARD_FILENAME.matcher(filename).matches() && !shards.containsKey(filename)) {
+                    logger.fine("Deleting sitemap shard " + file);
+                    Files.delete(file);
+                }
+            }
         }
+    }
 
-        Path finalPath = Paths.get(finalSitemapPathAndFileString);
-        logger.info("Copying staged sitemap from " + stagedSitemapPathAndFileString + " to " + finalSitemapPathAndFileString);
-        try {
-            Files.move(stagedPath, finalPath, StandardCopyOption.REPLACE_EXISTING);
+    static String getShardFilename(long number) {
+        return "sitemap-" + number + ".xml.gz";
+    }
+
+    /**
+     * @return the digest of the uncompressed contents of a shard
+     */
+    private static byte[] digestOf(Path shard) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(shard))) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
         } catch (IOException ex) {
-            logger.warning("Unable to update sitemap! Unable to copy staged sitemap from " + stagedSitemapPathAndFileString + " to " + finalSitemapPathAndFileString + ". IOException: " + ex.getLocalizedMessage());
-            return;
+            // (not a shard we can read: it will be replaced)
+            logger.warning("Unable to read the sitemap shard " + shard + ": " + ex.getLocalizedMessage());
+            return null;
         }
+        return digest.digest();
+    }
 
-        logger.info("END updateSiteMap");
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
     }
 
-    private static String getLastModDate(DvObjectContainer dvObjectContainer) {
+    private static String getLastModDate(Date date) {
         // TODO: Decide if YYYY-MM-DD is enough. https://www.sitemaps.org/protocol.html
         // says "The date of last modification of the file. This date should be in W3C Datetime format.
         // This format allows you to omit the time portion, if desired, and use YYYY-MM-DD."
-        return new SimpleDateFormat("yyyy-MM-dd").format(dvObjectContainer.getModificationTime());
+        return new SimpleDateFormat("yyyy-MM-dd").format(date);
     }
 
     public static boolean stageFileExists() {
@@ -211,7 +342,7 @@ public class SiteMapUtil {
         return false;
     }
 
-    private static String getSitemapPathString() {
+    static String getSitemapPathString() {
         String sitemapPathString = "/tmp";
         // i.e. /usr/local/glassfish4/glassfish/domains/domain1
         String domainRoot = System.getProperty("com.sun.aas.instanceRoot");
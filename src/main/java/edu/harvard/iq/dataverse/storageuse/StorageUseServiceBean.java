@@ -0,0 +1,79 @@
+package edu.harvard.iq.dataverse.storageuse;
+
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ejb.Asynchronous;
+import javax.ejb.Stateless;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * The storage use of the datasets and the dataverses: the combined size of
+ * the files of a dataset (the saved originals of the tabular files included),
+ * and of all the datasets in a dataverse and its sub-dataverses. The totals
+ * of the datasets are kept in the {@code storageuse} table by database
+ * triggers on the files, so looking one up is a single row read; the total of
+ * a dataverse is the sum of these rows, without reading any of the files.
+ */
+@Named
+@Stateless
+public class StorageUseServiceBean {
+
+    private static final Logger logger = Logger.getLogger(StorageUseServiceBean.class.getCanonicalName());
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    /**
+     * The datasets in a dataverse and in all its sub-dataverses, found through
+     * the index on the owners of the objects.
+     */
+    private static final String DATAVERSE_STORAGE_SIZE = "WITH RECURSIVE dataverses(id) AS ("
+            + "SELECT id FROM dvobject WHERE id = ?1 "
+            + "UNION "
+            + "SELECT o.id FROM dvobject o, dataverses dv WHERE o.owner_id = dv.id AND o.dtype = 'Dataverse') "
+            + "SELECT SUM(u.sizeinbytes) FROM dataverses dv, dvobject o, storageuse u "
+            + "WHERE o.owner_id = dv.id AND o.dtype = 'Dataset' AND u.dvobject_id = o.id";
+
+    /**
+     * @param datasetId the id of a dataset
+     * @return the total size in bytes of the files in it (0 for a harvested
+     * dataset, or for a dataset without any files)
+     */
+    public long findStorageSize(Long datasetId) {
+        return sizeInBytes(em.createNativeQuery("SELECT sizeinbytes FROM storageuse WHERE dvobject_id = ?1")
+                .setParameter(1, datasetId)
+                .getResultList());
+    }
+
+    /**
+     * @param dataverseId the id of a dataverse
+     * @return the total size in bytes of the files of the datasets in it and
+     * in all its sub-dataverses
+     */
+    public long findDataverseStorageSize(Long dataverseId) {
+        return sizeInBytes(em.createNativeQuery(DATAVERSE_STORAGE_SIZE)
+                .setParameter(1, dataverseId)
+                .getResultList());
+    }
+
+    private static long sizeInBytes(List<Object> results) {
+        if (results.isEmpty() || results.get(0) == null) {
+            return 0L;
+        }
+        return ((Number) results.get(0)).longValue();
+    }
+
+    /**
+     * Rebuilds all the totals from the sizes of the files, for when they went
+     * off (after the files were changed with the triggers disabled, say).
+     */
+    @Asynchronous
+    public void recompute() {
+        logger.info("Recomputing the storage use");
+        Object objects = em.createNativeQuery("SELECT storageuse_recompute()").getSingleResult();
+        logger.info("Recomputed the storage use of " + objects + " datasets");
+    }
+
+}
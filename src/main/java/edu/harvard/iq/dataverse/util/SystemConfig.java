@@ -4,10 +4,17 @@ import com.ocpsoft.pretty.PrettyContext;
 import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
+import edu.harvard.iq.dataverse.PermissionCacheService;
+import edu.harvard.iq.dataverse.actionlogging.ActionLogWriter;
+import edu.harvard.iq.dataverse.authorization.ApiTokenCacheService;
 import edu.harvard.iq.dataverse.authorization.AuthenticationServiceBean;
 import edu.harvard.iq.dataverse.authorization.providers.builtin.BuiltinAuthenticationProvider;
 import edu.harvard.iq.dataverse.authorization.providers.oauth2.AbstractOAuth2AuthenticationProvider;
+import edu.harvard.iq.dataverse.dataaccess.DataFileZipper;
 import static edu.harvard.iq.dataverse.datasetutility.FileSizeChecker.bytesToHumanReadable;
+import edu.harvard.iq.dataverse.harvest.client.HarvesterServiceBean;
+import edu.harvard.iq.dataverse.search.PermissionFilterQueryService;
+import edu.harvard.iq.dataverse.search.SolrUpdateService;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.validation.PasswordValidatorUtil;
 import java.io.FileInputStream;
@@ -94,6 +101,7 @@ public class SystemConfig {
     private static final int defaultZipUploadFilesLimit = 1000; 
     private static final int defaultMultipleUploadFilesLimit = 1000;
     private static final int defaultLoginSessionTimeout = 480; // = 8 hours
+    private static final int defaultIndexBatchWorkers = 4;
 
     private static String appVersionString = null; 
     private static String buildNumberString = null; 
@@ -429,6 +437,17 @@ public class SystemConfig {
         return getLongLimitFromStringOrDefault(zipLimitOption, 0L);
     }
     
+    /**
+     * Number of files prefetched ahead of the one being written by a 
+     * download-as-zip; 0 if the files should be read one at a time. 
+     */
+    public int getZipDownloadPrefetchFiles() {
+        int prefetchFiles = getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.ZipDownloadPrefetchFiles),
+                DataFileZipper.DEFAULT_PREFETCH_FILES);
+        return prefetchFiles < 0 ? 0 : prefetchFiles;
+    }
+    
     public int getZipUploadFilesLimit() {
         String limitOption = settingsService.getValueForKey(SettingsServiceBean.Key.ZipUploadFilesLimit);
         return getIntLimitFromStringOrDefault(limitOption, defaultZipUploadFilesLimit);
@@ -453,6 +472,97 @@ public class SystemConfig {
         return getIntLimitFromStringOrDefault(limitOption, defaultMultipleUploadFilesLimit);
     }
     
+    /**
+     * Number of parallel workers used when (re)indexing all datasets.
+     */
+    public int getIndexBatchWorkers() {
+        int workers = getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.IndexBatchWorkers),
+                defaultIndexBatchWorkers);
+        return workers < 1 ? 1 : workers;
+    }
+
+    public int getSolrUpdateBatchSize() {
+        int batchSize = getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.SolrUpdateBatchSize),
+                SolrUpdateService.DEFAULT_BATCH_SIZE);
+        return batchSize < 1 ? 1 : batchSize;
+    }
+
+    public int getSolrCommitWithinMillis() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.SolrCommitWithinMillis),
+                SolrUpdateService.DEFAULT_COMMIT_WITHIN_MILLIS);
+    }
+
+    /**
+     * How long the permissions granted by role assignments are cached for;
+     * 0 turns the shared permission cache off.
+     */
+    public int getPermissionCacheTtlSeconds() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.PermissionCacheTtlSeconds),
+                PermissionCacheService.DEFAULT_TTL_SECONDS);
+    }
+
+    public int getPermissionCacheSize() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.PermissionCacheSize),
+                PermissionCacheService.DEFAULT_SIZE);
+    }
+
+    /**
+     * How long the users of the API tokens are cached for; 0 turns the cache
+     * off.
+     */
+    public int getApiTokenCacheTtlSeconds() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.ApiTokenCacheTtlSeconds),
+                ApiTokenCacheService.DEFAULT_TTL_SECONDS);
+    }
+
+    public int getApiTokenCacheSize() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.ApiTokenCacheSize),
+                ApiTokenCacheService.DEFAULT_SIZE);
+    }
+
+    public int getSearchPermissionFilterCacheTtlSeconds() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.SearchPermissionFilterCacheTtlSeconds),
+                PermissionFilterQueryService.DEFAULT_TTL_SECONDS);
+    }
+
+    public int getSearchPermissionFilterTermsLimit() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.SearchPermissionFilterTermsLimit),
+                PermissionFilterQueryService.DEFAULT_TERMS_LIMIT);
+    }
+
+    public int getActionLogQueueSize() {
+        return getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.ActionLogQueueSize),
+                ActionLogWriter.DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Whether action log records are dropped, rather than waited for, when
+     * the queue of the action log writer is full.
+     */
+    public boolean isActionLogDropWhenQueueFull() {
+        return "drop".equalsIgnoreCase(settingsService.getValueForKey(SettingsServiceBean.Key.ActionLogQueueFullPolicy));
+    }
+
+    /**
+     * The number of records of an OAI harvest imported concurrently (at
+     * least 1).
+     */
+    public int getHarvestImportWorkers() {
+        return Math.max(1, getIntLimitFromStringOrDefault(
+                settingsService.getValueForKey(SettingsServiceBean.Key.HarvestImportWorkers),
+                HarvesterServiceBean.DEFAULT_IMPORT_WORKERS));
+    }
+
     public long getGuestbookResponsesPageDisplayLimit() {
         String limitSetting = settingsService.getValueForKey(SettingsServiceBean.Key.GuestbookResponsesPageDisplayLimit);
         return getLongLimitFromStringOrDefault(limitSetting, DEFAULT_GUESTBOOK_RESPONSES_DISPLAY_LIMIT);
@@ -535,6 +645,16 @@ public class SystemConfig {
         return settingsService.isTrueForKey(SettingsServiceBean.Key.MyDataDoesNotUseSolrPermissionDocs, safeDefaultIfKeyNotFound);
     }
 
+    public boolean isSolrIncrementalIndexing() {
+        boolean safeDefaultIfKeyNotFound = false;
+        return settingsService.isTrueForKey(SettingsServiceBean.Key.SolrIncrementalIndexing, safeDefaultIfKeyNotFound);
+    }
+
+    public boolean isTabularColumnarStorage() {
+        boolean safeDefaultIfKeyNotFound = false;
+        return settingsService.isTrueForKey(SettingsServiceBean.Key.TabularColumnarStorage, safeDefaultIfKeyNotFound);
+    }
+
     public boolean isFilesOnDatasetPageFromSolr() {
         boolean safeDefaultIfKeyNotFound = false;
         return settingsService.isTrueForKey(SettingsServiceBean.Key.FilesOnDatasetPageFromSolr, safeDefaultIfKeyNotFound);
@@ -605,6 +725,11 @@ public class SystemConfig {
         return settingsService.isTrueForKey(SettingsServiceBean.Key.OAIServerEnabled, defaultResponse);
     }
     
+    public boolean isOAIRecordBundles() {
+        boolean safeDefaultIfKeyNotFound = false;
+        return settingsService.isTrueForKey(SettingsServiceBean.Key.OAIRecordBundles, safeDefaultIfKeyNotFound);
+    }
+
     public void enableOAIServer() {
         settingsService.setValueForKey(SettingsServiceBean.Key.OAIServerEnabled, "true");
     }
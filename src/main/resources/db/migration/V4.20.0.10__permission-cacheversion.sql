@@ -0,0 +1,68 @@
+-- The permissions that roles grant (see V4.20.0.9 for the cacheversion table):
+-- role assignments, roles, groups and their members, permission roots, and
+-- the owners of the objects. Every server checks the version once per request
+-- before using the permissions it has cached.
+--
+-- These are deferred (constraint) triggers, so the row of the version is only
+-- locked while the transaction commits, rather than from the first change to,
+-- e.g., a role assignment until the end of a long command, which would hold up
+-- every other change to the permissions in the meantime.
+INSERT INTO cacheversion (name, version) VALUES ('permission', 0) ON CONFLICT DO NOTHING;
+
+DROP TRIGGER IF EXISTS roleassignment_cacheversion_trigger ON roleassignment;
+CREATE CONSTRAINT TRIGGER roleassignment_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON roleassignment
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS dataverserole_cacheversion_trigger ON dataverserole;
+CREATE CONSTRAINT TRIGGER dataverserole_cacheversion_trigger AFTER UPDATE OR DELETE ON dataverserole
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_cacheversion_trigger ON explicitgroup;
+CREATE CONSTRAINT TRIGGER explicitgroup_cacheversion_trigger AFTER UPDATE OR DELETE ON explicitgroup
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_authenticateduser_cacheversion_trigger ON explicitgroup_authenticateduser;
+CREATE CONSTRAINT TRIGGER explicitgroup_authenticateduser_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON explicitgroup_authenticateduser
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_containedroleassignees_cacheversion_trigger ON explicitgroup_containedroleassignees;
+CREATE CONSTRAINT TRIGGER explicitgroup_containedroleassignees_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON explicitgroup_containedroleassignees
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_explicitgroup_cacheversion_trigger ON explicitgroup_explicitgroup;
+CREATE CONSTRAINT TRIGGER explicitgroup_explicitgroup_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON explicitgroup_explicitgroup
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+-- IP and mail domain groups:
+DROP TRIGGER IF EXISTS persistedglobalgroup_cacheversion_trigger ON persistedglobalgroup;
+CREATE CONSTRAINT TRIGGER persistedglobalgroup_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON persistedglobalgroup
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS ipv4range_cacheversion_trigger ON ipv4range;
+CREATE CONSTRAINT TRIGGER ipv4range_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON ipv4range
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS ipv6range_cacheversion_trigger ON ipv6range;
+CREATE CONSTRAINT TRIGGER ipv6range_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON ipv6range
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS shibgroup_cacheversion_trigger ON shibgroup;
+CREATE CONSTRAINT TRIGGER shibgroup_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE ON shibgroup
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE bump_cacheversion('permission');
+
+-- Permission roots, and objects moved to another owner:
+DROP TRIGGER IF EXISTS dataverse_permissionroot_cacheversion_trigger ON dataverse;
+CREATE CONSTRAINT TRIGGER dataverse_permissionroot_cacheversion_trigger AFTER UPDATE OF permissionroot ON dataverse
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW
+    WHEN (OLD.permissionroot IS DISTINCT FROM NEW.permissionroot)
+    EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS dvobject_owner_cacheversion_trigger ON dvobject;
+CREATE CONSTRAINT TRIGGER dvobject_owner_cacheversion_trigger AFTER UPDATE OF owner_id ON dvobject
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW
+    WHEN (OLD.owner_id IS DISTINCT FROM NEW.owner_id)
+    EXECUTE PROCEDURE bump_cacheversion('permission');
+
+-- The permission documents in Solr: bumped by the application itself whenever
+-- a server sends some, for the permission filters the others have cached.
+INSERT INTO cacheversion (name, version) VALUES ('searchpermission', 0) ON CONFLICT DO NOTHING;
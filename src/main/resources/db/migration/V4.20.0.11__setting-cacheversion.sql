@@ -0,0 +1,12 @@
+-- The version stamp of the setting table moves to cacheversion, next to the
+-- stamps of the other caches, in place of the settingversion table.
+INSERT INTO cacheversion (name, version) SELECT 'setting', version FROM settingversion WHERE id = 1 ON CONFLICT DO NOTHING;
+INSERT INTO cacheversion (name, version) VALUES ('setting', 0) ON CONFLICT DO NOTHING;
+
+DROP TRIGGER IF EXISTS setting_version_trigger ON setting;
+DROP TRIGGER IF EXISTS setting_cacheversion_trigger ON setting;
+CREATE TRIGGER setting_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON setting
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('setting');
+
+DROP FUNCTION IF EXISTS bump_settingversion();
+DROP TABLE IF EXISTS settingversion;
@@ -0,0 +1,68 @@
+-- Bumps a cache version stamp once per transaction, rather than once per row
+-- changed: the first trigger that fires in a transaction bumps it, and marks
+-- the transaction (with a setting local to it) so that the others do nothing.
+CREATE OR REPLACE FUNCTION bump_cacheversion() RETURNS TRIGGER AS $$
+DECLARE
+    bumped TEXT := 'dataverse.cacheversion_bumped_' || TG_ARGV[0];
+BEGIN
+    IF current_setting(bumped, true) = 'on' THEN
+        RETURN NULL;
+    END IF;
+    PERFORM set_config(bumped, 'on', true);
+    INSERT INTO cacheversion (name, version) VALUES (TG_ARGV[0], 1)
+    ON CONFLICT (name) DO UPDATE SET version = cacheversion.version + 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The permission triggers of V4.20.0.10 on the tables changed by short
+-- administrative transactions become statement-level.
+--
+-- Those on role assignments, permission roots and owners stay deferred
+-- (constraint) triggers, which can only be row-level: they are changed by long
+-- commands (creating a dataset, for one), and a statement-level trigger would
+-- lock the row of the stamp from the first change until the end of the
+-- command, holding up every other change to the permissions in the meantime.
+-- With the function above they write the row once per transaction anyway.
+--
+-- Every role assignment bumps the stamp, including the one that gives the
+-- creator of a new dataverse or dataset a role on it (nothing can have cached
+-- the permissions on an object before it exists, but a trigger cannot tell
+-- that role assignment from the others): creating an object clears the
+-- permission caches of all the servers once. The permission cache hit rate of
+-- an installation where objects are created all the time is lower for it.
+DROP TRIGGER IF EXISTS dataverserole_cacheversion_trigger ON dataverserole;
+CREATE TRIGGER dataverserole_cacheversion_trigger AFTER UPDATE OR DELETE OR TRUNCATE ON dataverserole
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_cacheversion_trigger ON explicitgroup;
+CREATE TRIGGER explicitgroup_cacheversion_trigger AFTER UPDATE OR DELETE OR TRUNCATE ON explicitgroup
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_authenticateduser_cacheversion_trigger ON explicitgroup_authenticateduser;
+CREATE TRIGGER explicitgroup_authenticateduser_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON explicitgroup_authenticateduser
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_containedroleassignees_cacheversion_trigger ON explicitgroup_containedroleassignees;
+CREATE TRIGGER explicitgroup_containedroleassignees_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON explicitgroup_containedroleassignees
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS explicitgroup_explicitgroup_cacheversion_trigger ON explicitgroup_explicitgroup;
+CREATE TRIGGER explicitgroup_explicitgroup_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON explicitgroup_explicitgroup
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS persistedglobalgroup_cacheversion_trigger ON persistedglobalgroup;
+CREATE TRIGGER persistedglobalgroup_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON persistedglobalgroup
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS ipv4range_cacheversion_trigger ON ipv4range;
+CREATE TRIGGER ipv4range_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON ipv4range
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS ipv6range_cacheversion_trigger ON ipv6range;
+CREATE TRIGGER ipv6range_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON ipv6range
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
+
+DROP TRIGGER IF EXISTS shibgroup_cacheversion_trigger ON shibgroup;
+CREATE TRIGGER shibgroup_cacheversion_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON shibgroup
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('permission');
@@ -0,0 +1,2 @@
+-- OAI ListRecords/ListIdentifiers page through the records of a set by (lastupdatetime, id)
+CREATE INDEX IF NOT EXISTS index_oairecord_setname_lastupdatetime_id ON oairecord (setname, lastupdatetime, id);
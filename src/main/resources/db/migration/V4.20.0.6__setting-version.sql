@@ -0,0 +1,19 @@
+-- A version stamp of the setting table, bumped by every change to it (including
+-- the ones made directly in the database); each server polls it to know when
+-- to reload its cache of the settings.
+CREATE TABLE IF NOT EXISTS settingversion (
+    id INTEGER PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+INSERT INTO settingversion (id, version) VALUES (1, 0) ON CONFLICT DO NOTHING;
+
+CREATE OR REPLACE FUNCTION bump_settingversion() RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE settingversion SET version = version + 1 WHERE id = 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS setting_version_trigger ON setting;
+CREATE TRIGGER setting_version_trigger AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON setting
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_settingversion();
@@ -0,0 +1,4 @@
+-- The checkpoint of an OAI harvest that did not complete, so that the next
+-- harvest resumes from the last ListRecords page that was fully imported.
+ALTER TABLE harvestingclient ADD COLUMN IF NOT EXISTS resumptiontoken TEXT;
+ALTER TABLE harvestingclient ADD COLUMN IF NOT EXISTS resumptionstarttime TIMESTAMP;
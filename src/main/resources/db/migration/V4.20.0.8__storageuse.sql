@@ -0,0 +1,97 @@
+-- The storage use of the datasets: the sizes of the files of a dataset (plus
+-- the saved originals of the tabular files). The triggers below keep the
+-- totals up to date as the files are added, replaced, ingested, deleted and
+-- moved; storageuse_recompute() rebuilds them from scratch. Harvested datasets
+-- are not counted. Only the row of the dataset itself is updated, so that
+-- changes to the files of different datasets never wait on each other; the
+-- total of a dataverse is the sum of the rows of the datasets under it.
+CREATE TABLE IF NOT EXISTS storageuse (
+    dvobject_id BIGINT PRIMARY KEY REFERENCES dvobject(id) ON DELETE CASCADE,
+    sizeinbytes BIGINT NOT NULL DEFAULT 0
+);
+
+-- Adds delta bytes to the dataset given.
+CREATE OR REPLACE FUNCTION storageuse_add(dataset_id BIGINT, delta BIGINT) RETURNS VOID AS $$
+BEGIN
+    IF dataset_id IS NULL OR delta IS NULL OR delta = 0 THEN
+        RETURN;
+    END IF;
+    IF NOT EXISTS (SELECT 1 FROM dataset d WHERE d.id = dataset_id AND d.harvestingclient_id IS NULL) THEN
+        RETURN;
+    END IF;
+    INSERT INTO storageuse (dvobject_id, sizeinbytes) VALUES (dataset_id, delta)
+    ON CONFLICT (dvobject_id) DO UPDATE SET sizeinbytes = storageuse.sizeinbytes + EXCLUDED.sizeinbytes;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION storageuse_datafile() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM storageuse_add((SELECT owner_id FROM dvobject WHERE id = NEW.id), COALESCE(NEW.filesize, 0));
+    ELSIF TG_OP = 'DELETE' THEN
+        PERFORM storageuse_add((SELECT owner_id FROM dvobject WHERE id = OLD.id), -COALESCE(OLD.filesize, 0));
+    ELSE
+        PERFORM storageuse_add((SELECT owner_id FROM dvobject WHERE id = NEW.id), COALESCE(NEW.filesize, 0) - COALESCE(OLD.filesize, 0));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION storageuse_datatable() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM storageuse_add((SELECT owner_id FROM dvobject WHERE id = OLD.datafile_id), -COALESCE(OLD.originalfilesize, 0));
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM storageuse_add((SELECT owner_id FROM dvobject WHERE id = NEW.datafile_id), COALESCE(NEW.originalfilesize, 0));
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- A file given another owner takes its size along. (A dataset or a dataverse
+-- that is moved keeps its own row, and is summed under its new owner.)
+CREATE OR REPLACE FUNCTION storageuse_datafile_owner() RETURNS TRIGGER AS $$
+DECLARE
+    size BIGINT;
+BEGIN
+    SELECT COALESCE(f.filesize, 0) + COALESCE((SELECT SUM(t.originalfilesize) FROM datatable t WHERE t.datafile_id = f.id), 0)
+        INTO size FROM datafile f WHERE f.id = NEW.id;
+    PERFORM storageuse_add(OLD.owner_id, -size);
+    PERFORM storageuse_add(NEW.owner_id, size);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Rebuilds all the totals; the table is locked for the duration, so the
+-- changes of the files made meanwhile are added on top of the new totals.
+CREATE OR REPLACE FUNCTION storageuse_recompute() RETURNS BIGINT AS $$
+DECLARE
+    datasets BIGINT;
+BEGIN
+    LOCK TABLE storageuse IN EXCLUSIVE MODE;
+    DELETE FROM storageuse;
+    INSERT INTO storageuse (dvobject_id, sizeinbytes)
+    SELECT o.owner_id, SUM(COALESCE(f.filesize, 0) + COALESCE((SELECT SUM(t.originalfilesize) FROM datatable t WHERE t.datafile_id = f.id), 0))
+    FROM datafile f, dvobject o, dataset d
+    WHERE o.id = f.id AND d.id = o.owner_id AND d.harvestingclient_id IS NULL
+    GROUP BY o.owner_id;
+    GET DIAGNOSTICS datasets = ROW_COUNT;
+    RETURN datasets;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS storageuse_datafile_trigger ON datafile;
+CREATE TRIGGER storageuse_datafile_trigger AFTER INSERT OR DELETE OR UPDATE OF filesize ON datafile
+    FOR EACH ROW EXECUTE PROCEDURE storageuse_datafile();
+
+DROP TRIGGER IF EXISTS storageuse_datatable_trigger ON datatable;
+CREATE TRIGGER storageuse_datatable_trigger AFTER INSERT OR DELETE OR UPDATE OF originalfilesize, datafile_id ON datatable
+    FOR EACH ROW EXECUTE PROCEDURE storageuse_datatable();
+
+DROP TRIGGER IF EXISTS storageuse_dvobject_trigger ON dvobject;
+CREATE TRIGGER storageuse_dvobject_trigger AFTER UPDATE OF owner_id ON dvobject
+    FOR EACH ROW WHEN (NEW.dtype = 'DataFile' AND OLD.owner_id IS DISTINCT FROM NEW.owner_id)
+    EXECUTE PROCEDURE storageuse_datafile_owner();
+
+SELECT storageuse_recompute();
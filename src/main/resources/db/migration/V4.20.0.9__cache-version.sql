@@ -0,0 +1,24 @@
+-- Version stamps of the caches that each server keeps in memory, one per
+-- cache, bumped by triggers on the tables the cache is built from; each server
+-- polls them to know when to drop what it has cached (changes made on the
+-- server itself are dropped right away, without waiting for the poll).
+CREATE TABLE IF NOT EXISTS cacheversion (
+    name VARCHAR(255) PRIMARY KEY,
+    version BIGINT NOT NULL
+);
+
+-- The name of the cache is the argument of the trigger.
+CREATE OR REPLACE FUNCTION bump_cacheversion() RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO cacheversion (name, version) VALUES (TG_ARGV[0], 1)
+    ON CONFLICT (name) DO UPDATE SET version = cacheversion.version + 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The users of the API tokens: a token regenerated, expired or deleted (new
+-- tokens are not in any cache yet).
+INSERT INTO cacheversion (name, version) VALUES ('apitoken', 0) ON CONFLICT DO NOTHING;
+DROP TRIGGER IF EXISTS apitoken_cacheversion_trigger ON apitoken;
+CREATE TRIGGER apitoken_cacheversion_trigger AFTER UPDATE OR DELETE OR TRUNCATE ON apitoken
+    FOR EACH STATEMENT EXECUTE PROCEDURE bump_cacheversion('apitoken');
@@ -95,6 +95,25 @@ public class DatasetVersionTest {
         assertFalse(nonDraft.isInReview());
     }
 
+    @Test
+    public void testContainsDataFile() {
+        DatasetVersion version = new DatasetVersion();
+        version.setVersionState(DatasetVersion.VersionState.RELEASED);
+        List<DataFile> files = MocksFactory.makeFiles(3);
+        for (DataFile df : files.subList(0, 2)) {
+            version.getFileMetadatas().add(df.getFileMetadata());
+        }
+
+        assertTrue(version.containsDataFile(files.get(0)));
+        assertTrue(version.containsDataFile(files.get(1)));
+        assertFalse(version.containsDataFile(files.get(2)));
+        assertFalse(version.containsDataFile(new DataFile()));
+
+        // files added after the first lookup are found too:
+        version.getFileMetadatas().add(files.get(2).getFileMetadata());
+        assertTrue(version.containsDataFile(files.get(2)));
+    }
+
     /**
      * See also SchemaDotOrgExporterTest.java for more extensive tests.
      */
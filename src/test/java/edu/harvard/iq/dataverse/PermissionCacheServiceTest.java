@@ -0,0 +1,134 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PermissionCacheServiceTest {
+
+    private PermissionCacheService cache;
+    private SystemConfig systemConfig;
+
+    private final Set<Permission> viewOnly = EnumSet.of(Permission.ViewUnpublishedDataset);
+
+    @Before
+    public void setUp() {
+        systemConfig = mock(SystemConfig.class);
+        when(systemConfig.getPermissionCacheTtlSeconds()).thenReturn(60);
+        when(systemConfig.getPermissionCacheSize()).thenReturn(2);
+
+        cache = new PermissionCacheService();
+        cache.systemConfig = systemConfig;
+        cache.init();
+    }
+
+    @Test
+    public void testGetAndPut() {
+        assertNull(cache.get("@jdoe|1"));
+        cache.put("@jdoe|1", viewOnly, cache.getGeneration());
+        assertEquals(viewOnly, cache.get("@jdoe|1"));
+        assertEquals(1, cache.getSharedHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        long generation = cache.getGeneration();
+        cache.put("@jdoe|1", viewOnly, generation);
+        cache.put("@jdoe|2", viewOnly, generation);
+        cache.get("@jdoe|1");
+        cache.put("@jdoe|3", viewOnly, generation);
+
+        assertNotNull(cache.get("@jdoe|1"));
+        assertNull(cache.get("@jdoe|2"));
+        assertNotNull(cache.get("@jdoe|3"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        long before = cache.getGeneration();
+        cache.put("@jdoe|1", viewOnly, before);
+        cache.invalidate();
+        assertNull(cache.get("@jdoe|1"));
+
+        // computed before the invalidation, so not cached:
+        cache.put("@jdoe|1", viewOnly, before);
+        assertNull(cache.get("@jdoe|1"));
+
+        cache.put("@jdoe|1", viewOnly, cache.getGeneration());
+        assertEquals(viewOnly, cache.get("@jdoe|1"));
+    }
+
+    @Test
+    public void testZeroTtlDisablesTheCache() {
+        cache.put("@jdoe|1", viewOnly, cache.getGeneration());
+        when(systemConfig.getPermissionCacheTtlSeconds()).thenReturn(0);
+        cache.refreshSettings();
+
+        assertNull(cache.get("@jdoe|1"));
+        cache.put("@jdoe|1", viewOnly, cache.getGeneration());
+        assertNull(cache.get("@jdoe|1"));
+    }
+
+    private static List<Object[]> versions(long permission, long searchPermission) {
+        return Arrays.asList(new Object[]{"permission", permission}, new Object[]{"searchpermission", searchPermission});
+    }
+
+    @Test
+    public void testPermissionsChangedOnAnotherServer() {
+        EntityManager em = mock(EntityManager.class);
+        Query query = mock(Query.class);
+        when(em.createNativeQuery(anyString())).thenReturn(query);
+        when(query.getResultList()).thenReturn(versions(5L, 0L));
+        cache.em = em;
+        cache.checkVersion();
+
+        long before = cache.getGeneration();
+        cache.put("@jdoe|1", viewOnly, before);
+        cache.checkVersion();
+        assertEquals(viewOnly, cache.get("@jdoe|1"));
+
+        when(query.getResultList()).thenReturn(versions(6L, 0L));
+        cache.checkVersion();
+        assertNull(cache.get("@jdoe|1"));
+        // computed before the change was seen, so not cached:
+        cache.put("@jdoe|1", viewOnly, before);
+        assertNull(cache.get("@jdoe|1"));
+        assertEquals(1, cache.getStatus().build().getInt("remoteInvalidations"));
+
+        // checked a moment ago, so not checked again:
+        when(query.getResultList()).thenReturn(versions(7L, 0L));
+        cache.checkVersionIfStale();
+        verify(query, times(3)).getResultList();
+    }
+
+    @Test
+    public void testSearchPermissionsChangedOnAnotherServer() {
+        when(systemConfig.getSolrCommitWithinMillis()).thenReturn(1000);
+        EntityManager em = mock(EntityManager.class);
+        Query query = mock(Query.class);
+        when(em.createNativeQuery(anyString())).thenReturn(query);
+        when(query.getResultList()).thenReturn(versions(5L, 3L));
+        cache.em = em;
+        cache.checkVersion();
+        assertEquals(0L, cache.getSearchPermissionsVisibleTime());
+
+        long before = System.currentTimeMillis();
+        when(query.getResultList()).thenReturn(versions(5L, 4L));
+        cache.checkVersion();
+        assertTrue(cache.getSearchPermissionsVisibleTime() >= before + 1000);
+        // (the permissions themselves have not changed)
+        assertEquals(0, cache.getStatus().build().getInt("remoteInvalidations"));
+    }
+
+}
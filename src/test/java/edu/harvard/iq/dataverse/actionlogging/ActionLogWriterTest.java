@@ -0,0 +1,83 @@
+package edu.harvard.iq.dataverse.actionlogging;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ActionLogWriterTest {
+
+    private ActionLogWriter writer;
+    private SystemConfig systemConfig;
+    private PreparedStatement insert;
+
+    @Before
+    public void setUp() throws SQLException {
+        systemConfig = mock(SystemConfig.class);
+        when(systemConfig.getActionLogQueueSize()).thenReturn(2);
+        when(systemConfig.isActionLogDropWhenQueueFull()).thenReturn(true);
+
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        insert = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(insert);
+
+        // a writer thread that does nothing, so that the queue is only
+        // drained by flush():
+        ManagedThreadFactory threadFactory = mock(ManagedThreadFactory.class);
+        when(threadFactory.newThread(any())).thenReturn(new Thread());
+
+        writer = new ActionLogWriter();
+        writer.systemConfig = systemConfig;
+        writer.dataSource = dataSource;
+        writer.managedThreadFactory = threadFactory;
+        writer.init();
+    }
+
+    @Test
+    public void testFlushWritesABatch() throws SQLException {
+        ActionLogRecord rec = new ActionLogRecord(ActionLogRecord.ActionType.Command, "TestCommand");
+        rec.setUserIdentifier("@jdoe");
+        assertTrue(writer.enqueue(rec));
+        assertTrue(writer.enqueue(new ActionLogRecord(ActionLogRecord.ActionType.Admin, "test")));
+        assertNotNull(rec.getId());
+        assertEquals(2, writer.getQueueDepth());
+
+        writer.flush();
+
+        assertEquals(0, writer.getQueueDepth());
+        assertEquals(2, writer.getWritten());
+        verify(insert, times(2)).addBatch();
+        verify(insert, times(1)).executeBatch();
+        verify(insert).setString(8, "@jdoe");
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(writer.enqueue(new ActionLogRecord(ActionLogRecord.ActionType.Admin, "test")));
+        }
+        assertEquals(2, writer.getQueueDepth());
+        assertEquals(1, writer.getDropped());
+    }
+
+    @Test
+    public void testQueueOff() {
+        when(systemConfig.getActionLogQueueSize()).thenReturn(0);
+        ActionLogWriter synchronous = new ActionLogWriter();
+        synchronous.systemConfig = systemConfig;
+        synchronous.init();
+
+        assertFalse(synchronous.enqueue(new ActionLogRecord(ActionLogRecord.ActionType.Admin, "test")));
+    }
+
+}
@@ -0,0 +1,72 @@
+package edu.harvard.iq.dataverse.api;
+
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testParseSingleRange() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-499", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(499, ranges.get(0).getEnd());
+        assertEquals(500, ranges.get(0).getLength());
+        assertEquals("bytes 0-499/1000", ranges.get(0).toContentRange(1000));
+    }
+
+    @Test
+    public void testParseOpenAndSuffixRanges() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=900-, -100,500-5000", 1000);
+        assertEquals(3, ranges.size());
+        assertEquals(900, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+        assertEquals(900, ranges.get(1).getStart());
+        assertEquals(999, ranges.get(1).getEnd());
+        // the end is adjusted to the size of the file:
+        assertEquals(500, ranges.get(2).getStart());
+        assertEquals(999, ranges.get(2).getEnd());
+
+        ranges = ByteRange.parse("bytes=-5000", 1000);
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(1000, ranges.get(0).getLength());
+    }
+
+    @Test
+    public void testParseInvalid() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=abc", 1000));
+        assertNull(ByteRange.parse("bytes=10-5", 1000));
+        assertNull(ByteRange.parse("bytes=1-x", 1000));
+        StringBuilder tooMany = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRange.MAX_RANGES; i++) {
+            tooMany.append(',').append(i).append('-').append(i);
+        }
+        assertNull(ByteRange.parse(tooMany.toString(), 1000));
+    }
+
+    @Test
+    public void testParseUnsatisfiable() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=2000-3000,-0", 1000).isEmpty());
+        // only the ranges in the file are kept:
+        assertEquals(1, ByteRange.parse("bytes=2000-3000,0-9", 1000).size());
+    }
+
+    @Test
+    public void testIfRange() {
+        Date lastModified = new Date(1546300800123L); // 2019-01-01T00:00:00.123Z
+        assertTrue(ByteRange.isIfRangeSatisfied(null, "MD5-abc", lastModified));
+        assertTrue(ByteRange.isIfRangeSatisfied("\"MD5-abc\"", "MD5-abc", lastModified));
+        assertFalse(ByteRange.isIfRangeSatisfied("\"MD5-def\"", "MD5-abc", lastModified));
+        assertFalse(ByteRange.isIfRangeSatisfied("W/\"MD5-abc\"", "MD5-abc", lastModified));
+        assertFalse(ByteRange.isIfRangeSatisfied("\"MD5-abc\"", null, lastModified));
+        assertTrue(ByteRange.isIfRangeSatisfied("Tue, 1 Jan 2019 00:00:00 GMT", "MD5-abc", lastModified));
+        assertFalse(ByteRange.isIfRangeSatisfied("Wed, 2 Jan 2019 00:00:00 GMT", "MD5-abc", lastModified));
+        assertFalse(ByteRange.isIfRangeSatisfied("yesterday", "MD5-abc", lastModified));
+    }
+
+}
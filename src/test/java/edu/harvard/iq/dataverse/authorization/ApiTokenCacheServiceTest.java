@@ -0,0 +1,126 @@
+package edu.harvard.iq.dataverse.authorization;
+
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.util.Collections;
+import java.util.Date;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ApiTokenCacheServiceTest {
+
+    private ApiTokenCacheService cache;
+    private SystemConfig systemConfig;
+    private final Long jdoe = 1L;
+    private final Long jsmith = 2L;
+
+    @Before
+    public void setUp() {
+        systemConfig = mock(SystemConfig.class);
+        when(systemConfig.getApiTokenCacheTtlSeconds()).thenReturn(60);
+        when(systemConfig.getApiTokenCacheSize()).thenReturn(3);
+
+        cache = new ApiTokenCacheService();
+        cache.systemConfig = systemConfig;
+        cache.init();
+    }
+
+    @Test
+    public void testGetAndPut() {
+        assertNull(cache.get("token-1"));
+        cache.put("token-1", jdoe, null, cache.getGeneration());
+        assertEquals(jdoe, cache.get("token-1"));
+        assertNull(cache.get("token-2"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiredTokenIsNotCached() {
+        cache.put("token-1", jdoe, new Date(System.currentTimeMillis() - 1000), cache.getGeneration());
+        assertNull(cache.get("token-1"));
+    }
+
+    @Test
+    public void testInvalidateUser() {
+        long before = cache.getGeneration();
+        cache.put("token-1", jdoe, null, before);
+        cache.put("token-2", jdoe, null, before);
+        cache.put("token-3", jsmith, null, before);
+
+        cache.invalidateUser(jdoe);
+        assertNull(cache.get("token-1"));
+        assertNull(cache.get("token-2"));
+        assertEquals(jsmith, cache.get("token-3"));
+
+        // looked up before the invalidation, so not cached:
+        cache.put("token-1", jdoe, null, before);
+        assertNull(cache.get("token-1"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        long generation = cache.getGeneration();
+        cache.put("token-1", jdoe, null, generation);
+        cache.put("token-2", jdoe, null, generation);
+        cache.put("token-3", jdoe, null, generation);
+        cache.get("token-1");
+        cache.put("token-4", jsmith, null, generation);
+
+        assertNotNull(cache.get("token-1"));
+        assertNull(cache.get("token-2"));
+        assertNotNull(cache.get("token-4"));
+    }
+
+    @Test
+    public void testZeroTtlDisablesTheCache() {
+        cache.put("token-1", jdoe, null, cache.getGeneration());
+        when(systemConfig.getApiTokenCacheTtlSeconds()).thenReturn(0);
+        cache.refreshSettings();
+
+        assertNull(cache.get("token-1"));
+        cache.put("token-1", jdoe, null, cache.getGeneration());
+        assertNull(cache.get("token-1"));
+    }
+
+    @Test
+    public void testTokensChangedOnAnotherServer() {
+        EntityManager em = mock(EntityManager.class);
+        Query query = mock(Query.class);
+        when(em.createNativeQuery(anyString())).thenReturn(query);
+        when(query.getResultList()).thenReturn(Collections.singletonList(5L));
+        cache.em = em;
+        cache.checkVersion();
+
+        long before = cache.getGeneration();
+        cache.put("token-1", jdoe, null, before);
+        cache.checkVersion();
+        assertEquals(jdoe, cache.get("token-1"));
+
+        when(query.getResultList()).thenReturn(Collections.singletonList(6L));
+        cache.checkVersion();
+        assertNull(cache.get("token-1"));
+        cache.put("token-1", jdoe, null, before);
+        assertNull(cache.get("token-1"));
+        assertEquals(1, cache.getStatus().build().getInt("remoteInvalidations"));
+    }
+
+    @Test
+    public void testLastApiUseIsWrittenOnceAMinute() {
+        assertTrue(cache.isLastApiUseDue(jdoe));
+        assertFalse(cache.isLastApiUseDue(jdoe));
+        assertTrue(cache.isLastApiUseDue(jsmith));
+    }
+
+    @Test
+    public void testHash() {
+        assertEquals(64, ApiTokenCacheService.hash("token-1").length());
+        assertEquals(ApiTokenCacheService.hash("token-1"), ApiTokenCacheService.hash("token-1"));
+        assertNotEquals(ApiTokenCacheService.hash("token-1"), ApiTokenCacheService.hash("token-2"));
+    }
+
+}
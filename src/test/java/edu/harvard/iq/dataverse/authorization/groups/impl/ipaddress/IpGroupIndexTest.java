@@ -0,0 +1,78 @@
+package edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress;
+
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddressRange;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IpGroupIndexTest {
+
+    private final List<IpAddressRange> ranges = new ArrayList<>();
+
+    private IpGroup group(String alias, String... bottomsAndTops) {
+        IpGroup grp = new IpGroup();
+        grp.setId(MocksFactory.nextId());
+        grp.setPersistedGroupAlias(alias);
+        for (int i = 0; i < bottomsAndTops.length; i += 2) {
+            IpAddressRange range = IpAddressRange.make(IpAddress.valueOf(bottomsAndTops[i]), IpAddress.valueOf(bottomsAndTops[i + 1]));
+            grp.add(range);
+            ranges.add(range);
+        }
+        return grp;
+    }
+
+    @Test
+    public void testIPv4() {
+        IpGroup a = group("a", "10.0.0.0", "10.0.255.255", "192.168.1.1", "192.168.1.1");
+        IpGroup b = group("b", "10.0.128.0", "10.1.0.0");
+        IpGroup all = group("all", "0.0.0.0", "255.255.255.255");
+        IpGroupIndex sut = new IpGroupIndex(ranges);
+
+        assertEquals(Collections.singleton(all), sut.groupsContaining(IpAddress.valueOf("9.255.255.255")));
+        assertEquals(new HashSet<>(Arrays.asList(a, all)), sut.groupsContaining(IpAddress.valueOf("10.0.0.0")));
+        assertEquals(new HashSet<>(Arrays.asList(a, all)), sut.groupsContaining(IpAddress.valueOf("10.0.127.255")));
+        assertEquals(new HashSet<>(Arrays.asList(a, b, all)), sut.groupsContaining(IpAddress.valueOf("10.0.128.0")));
+        assertEquals(new HashSet<>(Arrays.asList(a, b, all)), sut.groupsContaining(IpAddress.valueOf("10.0.255.255")));
+        assertEquals(new HashSet<>(Arrays.asList(b, all)), sut.groupsContaining(IpAddress.valueOf("10.1.0.0")));
+        assertEquals(Collections.singleton(all), sut.groupsContaining(IpAddress.valueOf("10.1.0.1")));
+        assertEquals(new HashSet<>(Arrays.asList(a, all)), sut.groupsContaining(IpAddress.valueOf("192.168.1.1")));
+        assertEquals(Collections.singleton(all), sut.groupsContaining(IpAddress.valueOf("192.168.1.2")));
+        assertEquals(Collections.singleton(all), sut.groupsContaining(IpAddress.valueOf("255.255.255.255")));
+        assertTrue(sut.groupsContaining(IpAddress.valueOf("::1")).isEmpty());
+    }
+
+    @Test
+    public void testIPv6() {
+        IpGroup a = group("a", "2001:db8::", "2001:db8::ffff:ffff:ffff:ffff");
+        IpGroup b = group("b", "2001:db8::8000:0:0:0", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+        IpGroupIndex sut = new IpGroupIndex(ranges);
+
+        assertTrue(sut.groupsContaining(IpAddress.valueOf("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff")).isEmpty());
+        assertEquals(Collections.singleton(a), sut.groupsContaining(IpAddress.valueOf("2001:db8::1")));
+        assertEquals(new HashSet<>(Arrays.asList(a, b)), sut.groupsContaining(IpAddress.valueOf("2001:db8::9000:0:0:1")));
+        assertEquals(Collections.singleton(b), sut.groupsContaining(IpAddress.valueOf("2001:db8:0:1::")));
+        assertEquals(Collections.singleton(b), sut.groupsContaining(IpAddress.valueOf("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertTrue(sut.groupsContaining(IpAddress.valueOf("10.0.0.1")).isEmpty());
+    }
+
+    @Test
+    public void testMatchesTheGroups() {
+        IpGroup a = group("a", "1.2.3.0", "1.2.3.255", "1:2::", "1:2::ffff");
+        IpGroup b = group("b", "1.2.3.128", "1.2.4.10", "1:2::f000", "1:3::");
+        IpGroupIndex sut = new IpGroupIndex(ranges);
+
+        for (String address : new String[]{"1.2.2.255", "1.2.3.0", "1.2.3.127", "1.2.3.128", "1.2.4.10", "1.2.4.11",
+                                           "1::ffff", "1:2::", "1:2::f000", "1:2::ffff", "1:2::1:0", "1:3::", "1:3::1"}) {
+            IpAddress ipa = IpAddress.valueOf(address);
+            assertEquals(address, a.containsAddress(ipa), sut.groupsContaining(ipa).contains(a));
+            assertEquals(address, b.containsAddress(ipa), sut.groupsContaining(ipa).contains(b));
+        }
+    }
+
+}
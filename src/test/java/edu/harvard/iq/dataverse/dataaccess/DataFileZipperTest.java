@@ -0,0 +1,107 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DataFileZipperTest {
+
+    private List<DataFile> dataFiles;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        System.setProperty("dataverse.files.file.type", "file");
+        Dataset dataset = MocksFactory.makeDataset();
+        dataset.setAuthority("tmp");
+        dataset.setIdentifier("zipper");
+        dataFiles = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            DataFile dataFile = MocksFactory.makeDataFile();
+            dataFile.setOwner(dataset);
+            dataFile.setStorageIdentifier("file://zipped" + i);
+            dataFile.getFileMetadata().setLabel("file" + i + ".txt");
+            File file = new File("/tmp/files/tmp/zipper/zipped" + i);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), content(i));
+            dataFiles.add(dataFile);
+        }
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(new File("/tmp/files/"));
+    }
+
+    private static byte[] content(int i) {
+        StringBuilder content = new StringBuilder();
+        // one file larger than the prefetch buffer:
+        int lines = i == 2 ? 100000 : 10;
+        for (int line = 0; line < lines; line++) {
+            content.append("file ").append(i).append(", line ").append(line).append('\n');
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testPrefetchedFilesAreZippedInOrder() throws IOException {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(zip);
+        zipper.setFileManifest(null);
+        zipper.setPrefetch(dataFiles, false, 3, executor);
+        // files 1 and 4 are skipped, e.g. because of the size limit:
+        for (int i : new int[]{0, 2, 3, 5}) {
+            assertEquals(content(i).length, zipper.addFileToZipStream(dataFiles.get(i)));
+        }
+        zipper.finalizeZipStream();
+        assertEquals(4, zipper.getFilesZipped());
+        // all but the first one:
+        assertEquals(3, zipper.getFilesPrefetched());
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                names.add(entry.getName());
+                int i = Integer.parseInt(entry.getName().substring(4, 5));
+                assertArrayEquals(content(i), IOUtils.toByteArray(in));
+            }
+        }
+        assertEquals(Arrays.asList("file0.txt", "file2.txt", "file3.txt", "file5.txt"), names);
+    }
+
+    @Test
+    public void testWithoutPrefetch() throws IOException {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        DataFileZipper zipper = new DataFileZipper(zip);
+        zipper.setFileManifest(null);
+        for (DataFile dataFile : dataFiles) {
+            zipper.addFileToZipStream(dataFile);
+        }
+        zipper.finalizeZipStream();
+        assertEquals(6, zipper.getFilesZipped());
+        assertEquals(0, zipper.getFilesPrefetched());
+    }
+
+}
@@ -0,0 +1,133 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class RangedTabularSubsetReaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final int CASES = 50;
+
+    private File columnarImage;
+    private String[] lines;
+    private AtomicInteger rangesRead;
+    private ExecutorService fetchExecutor;
+
+    private static DataVariable variable(boolean numeric) {
+        DataVariable variable = new DataVariable();
+        if (numeric) {
+            variable.setTypeNumeric();
+        } else {
+            variable.setTypeCharacter();
+        }
+        variable.setIntervalDiscrete();
+        return variable;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        lines = new String[CASES];
+        StringBuilder tab = new StringBuilder();
+        for (int i = 0; i < CASES; i++) {
+            lines[i] = i + "\t" + (i % 3 == 0 ? "" : "\"value " + i + "\"") + "\t" + (i * 7);
+            tab.append(lines[i]).append('\n');
+        }
+        File tabFile = tempFolder.newFile("data.tab");
+        Files.write(tabFile.toPath(), tab.toString().getBytes(StandardCharsets.UTF_8));
+        columnarImage = tempFolder.newFile("data.columns");
+        List<DataVariable> variables = Arrays.asList(variable(true), variable(false), variable(true));
+        new TabularSubsetGenerator().createColumnarImage(tabFile, variables, CASES, columnarImage);
+        rangesRead = new AtomicInteger();
+        fetchExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        fetchExecutor.shutdownNow();
+    }
+
+    private TabularColumnStore.RangeReader fileRangeReader() {
+        return (offset, length) -> {
+            rangesRead.incrementAndGet();
+            byte[] bytes = new byte[length];
+            try (RandomAccessFile file = new RandomAccessFile(columnarImage, "r")) {
+                file.seek(offset);
+                file.readFully(bytes);
+            }
+            return ByteBuffer.wrap(bytes);
+        };
+    }
+
+    private static String readAll(RangedTabularSubsetReader reader) throws IOException {
+        ByteArrayOutputStream subset = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int n;
+        while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+            subset.write(buffer, 0, n);
+        }
+        return new String(subset.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private String expectedSubset(int... columns) {
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines) {
+            String[] values = line.split("\t", -1);
+            for (int i = 0; i < columns.length; i++) {
+                expected.append(values[columns[i]]).append(i < columns.length - 1 ? '\t' : '\n');
+            }
+        }
+        return expected.toString();
+    }
+
+    @Test
+    public void testSubsetInSmallChunks() throws IOException {
+        // a few rows per chunk, and a window of 3 chunks:
+        try (RangedTabularSubsetReader reader = new RangedTabularSubsetReader(fileRangeReader(), new int[]{2, 1}, 64, 3, fetchExecutor)) {
+            assertEquals(expectedSubset(2, 1), readAll(reader));
+        }
+        assertTrue(rangesRead.get() > 10);
+    }
+
+    @Test
+    public void testSubsetInSmallChunksSequentially() throws IOException {
+        // without an executor, the chunks are read on the calling thread:
+        try (RangedTabularSubsetReader reader = new RangedTabularSubsetReader(fileRangeReader(), new int[]{2, 1}, 64, 3, null)) {
+            assertEquals(expectedSubset(2, 1), readAll(reader));
+        }
+        assertTrue(rangesRead.get() > 10);
+    }
+
+    @Test
+    public void testSubsetInOneChunk() throws IOException {
+        try (RangedTabularSubsetReader reader = new RangedTabularSubsetReader(fileRangeReader(), new int[]{0}, 1024 * 1024, 4, fetchExecutor)) {
+            assertEquals(expectedSubset(0), readAll(reader));
+        }
+        // the two headers, then the index and the raw bytes of the column:
+        assertEquals(4, rangesRead.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void testColumnOutOfBounds() throws IOException {
+        new RangedTabularSubsetReader(fileRangeReader(), new int[]{3}, 64, 3, fetchExecutor);
+    }
+
+}
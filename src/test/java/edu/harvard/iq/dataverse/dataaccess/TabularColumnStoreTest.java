@@ -0,0 +1,105 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.datavariable.DataVariable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class TabularColumnStoreTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String[] LINES = {
+        "1.5\t3\t\"hello\"",
+        "inf\t\t\"tab\\tand \\\"quotes\\\"\"",
+        "\t-7\t",
+        "-Inf\t42\t\"\"",
+        "2.0E10\tx\t\"last value\""
+    };
+    private static final int CASES = LINES.length;
+
+    private File tabFile;
+    private File columnarImage;
+    private List<DataVariable> variables;
+
+    private static DataVariable variable(boolean numeric, boolean continuous) {
+        DataVariable variable = new DataVariable();
+        if (numeric) {
+            variable.setTypeNumeric();
+        } else {
+            variable.setTypeCharacter();
+        }
+        if (continuous) {
+            variable.setIntervalContinuous();
+        } else {
+            variable.setIntervalDiscrete();
+        }
+        return variable;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        tabFile = tempFolder.newFile("data.tab");
+        Files.write(tabFile.toPath(), (String.join("\n", LINES) + "\n").getBytes(StandardCharsets.UTF_8));
+        columnarImage = tempFolder.newFile("data.columns");
+        variables = Arrays.asList(variable(true, true), variable(true, false), variable(false, false));
+        new TabularSubsetGenerator().createColumnarImage(tabFile, variables, CASES, columnarImage);
+    }
+
+    @Test
+    public void testVectorsMatchTheTabFile() throws IOException {
+        try (TabularColumnStore store = TabularColumnStore.open(columnarImage.toPath())) {
+            assertEquals(3, store.getVarCount());
+            assertEquals(CASES, store.getCaseCount());
+            assertFalse(new File(tabFile.getAbsolutePath() + ".90d").exists());
+
+            assertArrayEquals(TabularSubsetGenerator.subsetDoubleVector(new FileInputStream(tabFile), 0, CASES), store.readDoubleVector(0));
+            assertArrayEquals(TabularSubsetGenerator.subsetLongVector(new FileInputStream(tabFile), 1, CASES), store.readLongVector(1));
+            assertArrayEquals(TabularSubsetGenerator.subsetStringVector(new FileInputStream(tabFile), 2, CASES), store.readStrings(2));
+
+            assertEquals(Double.POSITIVE_INFINITY, store.readDoubles(0)[1], 0);
+            assertTrue(store.readMissing(0).get(2));
+            assertEquals(42L, store.readLongs(1)[3]);
+            assertEquals("tab\tand \"quotes\"", store.readStrings(2)[1]);
+        }
+    }
+
+    @Test
+    public void testRowAssembler() throws IOException {
+        try (TabularColumnStore store = TabularColumnStore.open(columnarImage.toPath())) {
+            TabularColumnStore.RowAssembler rows = store.rows(new int[]{2, 0});
+            ByteArrayOutputStream subset = new ByteArrayOutputStream();
+            // a small buffer, so that values are split across reads:
+            byte[] buffer = new byte[5];
+            int n;
+            while ((n = rows.read(buffer, 0, buffer.length)) != -1) {
+                subset.write(buffer, 0, n);
+            }
+            StringBuilder expected = new StringBuilder();
+            for (String line : LINES) {
+                String[] values = line.split("\t", -1);
+                expected.append(values[2]).append('\t').append(values[0]).append('\n');
+            }
+            assertEquals(expected.toString(), new String(subset.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongColumnType() throws IOException {
+        try (TabularColumnStore store = TabularColumnStore.open(columnarImage.toPath())) {
+            store.readDoubles(2);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package edu.harvard.iq.dataverse.engine.command.impl;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.engine.TestCommandContext;
+import edu.harvard.iq.dataverse.engine.TestDataverseEngine;
+import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import static edu.harvard.iq.dataverse.mocks.MocksFactory.makeRequest;
+import edu.harvard.iq.dataverse.storageuse.StorageUseServiceBean;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+public class GetDatasetStorageSizeCommandTest {
+
+    private StorageUseServiceBean storageUse;
+    private DatasetServiceBean datasets;
+    private TestDataverseEngine engine;
+    private Dataset dataset;
+
+    @Before
+    public void setUp() {
+        storageUse = mock(StorageUseServiceBean.class);
+        datasets = mock(DatasetServiceBean.class);
+        engine = new TestDataverseEngine(new TestCommandContext() {
+            @Override
+            public StorageUseServiceBean storageUse() {
+                return storageUse;
+            }
+
+            @Override
+            public DatasetServiceBean datasets() {
+                return datasets;
+            }
+        });
+        dataset = MocksFactory.makeDataset();
+        when(storageUse.findStorageSize(dataset.getId())).thenReturn(1234L);
+    }
+
+    @Test
+    public void testStorageSizeIsLookedUp() throws CommandException {
+        assertEquals(Long.valueOf(1234), engine.submit(new GetDatasetStorageSizeCommand(makeRequest(), dataset, false, GetDatasetStorageSizeCommand.Mode.STORAGE, null)));
+        verifyZeroInteractions(datasets);
+    }
+
+    @Test
+    public void testCachedFilesAreCounted() throws CommandException, IOException {
+        when(datasets.findStorageSize(dataset, true, GetDatasetStorageSizeCommand.Mode.STORAGE, null)).thenReturn(5678L);
+        assertEquals(Long.valueOf(5678), engine.submit(new GetDatasetStorageSizeCommand(makeRequest(), dataset, true, GetDatasetStorageSizeCommand.Mode.STORAGE, null)));
+        verifyZeroInteractions(storageUse);
+    }
+
+    @Test
+    public void testVersionIsCounted() throws CommandException, IOException {
+        DatasetVersion version = dataset.getLatestVersion();
+        when(datasets.findStorageSize(any(), anyBoolean(), any(), any())).thenReturn(42L);
+        assertEquals(Long.valueOf(42), engine.submit(new GetDatasetStorageSizeCommand(makeRequest(), dataset, false, GetDatasetStorageSizeCommand.Mode.DOWNLOAD, version)));
+        verifyZeroInteractions(storageUse);
+    }
+
+    @Test
+    public void testDataverseStorageSizeIsLookedUp() throws CommandException {
+        Dataverse dataverse = MocksFactory.makeDataverse();
+        when(storageUse.findDataverseStorageSize(dataverse.getId())).thenReturn(98765L);
+        assertEquals(Long.valueOf(98765), engine.submit(new GetDataverseStorageSizeCommand(makeRequest(), dataverse)));
+        verifyZeroInteractions(datasets);
+    }
+
+}
@@ -0,0 +1,140 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import static org.junit.Assert.*;
+
+public class FastListRecordsTest {
+
+    private final List<FastListRecords.Record> records = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (FastListRecords.Record record : records) {
+            if (record.getMetadataFile() != null) {
+                record.getMetadataFile().delete();
+            }
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        String response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">\n"
+                + "<responseDate>2020-06-01T12:00:00Z</responseDate>\n"
+                + "<request verb=\"ListRecords\" metadataPrefix=\"oai_dc\">https://demo.dataverse.org/oai</request>\n"
+                + "<ListRecords>\n"
+                + "<record><header><identifier>doi:10.5072/FK2/AAAAAA</identifier><datestamp>2020-05-01T10:00:00Z</datestamp><setSpec>set</setSpec></header>\n"
+                + "<metadata>\n"
+                + "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+                + "<dc:title>Title &amp; more</dc:title><dc:identifier>https://doi.org/10.5072/FK2/AAAAAA</dc:identifier>"
+                + "</oai_dc:dc>\n"
+                + "</metadata></record>\n"
+                + "<record><header status=\"deleted\"><identifier>doi:10.5072/FK2/BBBBBB</identifier><datestamp>2020-05-02</datestamp></header></record>\n"
+                + "<resumptionToken completeListSize=\"3\" cursor=\"0\">MToxMDB8</resumptionToken>\n"
+                + "</ListRecords>\n"
+                + "</OAI-PMH>";
+
+        FastListRecords listRecords = new FastListRecords();
+        String resumptionToken = listRecords.parse(stream(response), records::add);
+
+        assertEquals("MToxMDB8", resumptionToken);
+        assertEquals(2, listRecords.getRecordCount());
+        assertEquals(2, records.size());
+
+        FastListRecords.Record record = records.get(0);
+        assertEquals("doi:10.5072/FK2/AAAAAA", record.getIdentifier());
+        assertEquals(FastListRecords.parseDatestamp("2020-05-01T10:00:00Z"), record.getDatestamp());
+        assertFalse(record.isDeleted());
+        assertNull(record.getExtendedMetadataUrl());
+
+        // the metadata record is a document of its own, with the namespaces
+        // it uses, and xmlns:xsi:
+        String metadata = read(record.getMetadataFile());
+        assertTrue(metadata, metadata.startsWith("<oai_dc:dc"));
+        assertTrue(metadata, metadata.contains("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""));
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(metadata)));
+        assertEquals("http://www.openarchives.org/OAI/2.0/oai_dc/", doc.getDocumentElement().getNamespaceURI());
+        assertEquals("Title & more", doc.getElementsByTagNameNS("http://purl.org/dc/elements/1.1/", "title").item(0).getTextContent());
+
+        FastListRecords.Record deleted = records.get(1);
+        assertEquals("doi:10.5072/FK2/BBBBBB", deleted.getIdentifier());
+        assertTrue(deleted.isDeleted());
+        assertNull(deleted.getMetadataFile());
+        assertEquals(FastListRecords.parseDatestamp("2020-05-02"), deleted.getDatestamp());
+    }
+
+    @Test
+    public void testParseExtendedAndLastPage() throws Exception {
+        String response = "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\"><ListRecords>"
+                + "<record><header><identifier>doi:10.5072/FK2/CCCCCC</identifier><datestamp>2020-05-03T10:00:00Z</datestamp></header>"
+                + "<metadata directApiCall=\"https://demo.dataverse.org/api/datasets/export?exporter=dataverse_json&amp;persistentId=doi%3A10.5072/FK2/CCCCCC\"/>"
+                + "</record>"
+                + "<resumptionToken completeListSize=\"1\" cursor=\"0\"/>"
+                + "</ListRecords></OAI-PMH>";
+
+        String resumptionToken = new FastListRecords().parse(stream(response), records::add);
+
+        assertNull(resumptionToken);
+        assertEquals(1, records.size());
+        assertEquals("https://demo.dataverse.org/api/datasets/export?exporter=dataverse_json&persistentId=doi%3A10.5072/FK2/CCCCCC",
+                records.get(0).getExtendedMetadataUrl());
+    }
+
+    @Test
+    public void testNoRecordsMatch() throws Exception {
+        String response = "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">"
+                + "<error code=\"noRecordsMatch\">No records</error></OAI-PMH>";
+
+        assertNull(new FastListRecords().parse(stream(response), records::add));
+        assertTrue(records.isEmpty());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        String response = "<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">"
+                + "<error code=\"badResumptionToken\">Expired</error></OAI-PMH>";
+
+        FastListRecords listRecords = new FastListRecords();
+        try {
+            listRecords.parse(stream(response), records::add);
+            fail("the error should have been thrown");
+        } catch (IOException ioe) {
+            assertEquals(FastListRecords.OAI_ERROR_BAD_RESUMPTION_TOKEN, listRecords.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testGetRequestURL() {
+        assertEquals("https://demo.dataverse.org/oai?verb=ListRecords&metadataPrefix=oai_dc&set=a%20set&from=2020-05-01T10:00:00Z",
+                FastListRecords.getRequestURL("https://demo.dataverse.org/oai", "oai_dc", "a%20set", FastListRecords.parseDatestamp("2020-05-01T10:00:00Z")));
+        assertEquals("https://demo.dataverse.org/oai?verb=ListRecords&metadataPrefix=ddi",
+                FastListRecords.getRequestURL("https://demo.dataverse.org/oai", "ddi", null, null));
+        assertEquals("https://demo.dataverse.org/oai?verb=ListRecords&resumptionToken=MToxMDB8%2B",
+                FastListRecords.getResumptionRequestURL("https://demo.dataverse.org/oai", "MToxMDB8+"));
+    }
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+    }
+
+}
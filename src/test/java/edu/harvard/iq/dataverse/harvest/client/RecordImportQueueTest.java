@@ -0,0 +1,105 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RecordImportQueueTest {
+
+    @Test
+    public void testAllRecordsAreProcessed() throws InterruptedException {
+        List<FastListRecords.Record> processed = new CopyOnWriteArrayList<>();
+        RecordImportQueue queue = new RecordImportQueue(Executors.defaultThreadFactory(), 3, 2, processed::add);
+        for (int i = 0; i < 10; i++) {
+            queue.add(new FastListRecords.Record());
+        }
+        queue.endPage(null);
+        queue.finish();
+
+        assertEquals(10, processed.size());
+        assertEquals(0, queue.size());
+        assertNull(queue.getCheckpoint());
+    }
+
+    @Test
+    public void testCheckpointWaitsForThePagesBefore() throws InterruptedException {
+        FastListRecords.Record slow = new FastListRecords.Record("oai:slow");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+        RecordImportQueue queue = new RecordImportQueue(Executors.defaultThreadFactory(), 2, 10, record -> {
+            if (record == slow) {
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                fastDone.countDown();
+            }
+        });
+
+        queue.add(slow);
+        queue.endPage("page2");
+        queue.add(new FastListRecords.Record(fastIdentifier(2)));
+        queue.endPage("page3");
+        fastDone.await();
+
+        // the second page has been imported, but not the first:
+        assertNull(queue.getCheckpoint());
+
+        release.countDown();
+        queue.finish();
+        assertEquals("page3", queue.getCheckpoint());
+    }
+
+    /**
+     * @return An identifier that goes to another worker than "oai:slow".
+     */
+    private static String fastIdentifier(int workerCount) {
+        for (int i = 0;; i++) {
+            String identifier = "oai:fast" + i;
+            if (Math.floorMod(identifier.hashCode(), workerCount) != Math.floorMod("oai:slow".hashCode(), workerCount)) {
+                return identifier;
+            }
+        }
+    }
+
+    @Test
+    public void testRecordsWithTheSameIdentifierAreProcessedInOrder() throws InterruptedException {
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        List<String> overlaps = new CopyOnWriteArrayList<>();
+        Map<String, List<Integer>> order = new ConcurrentHashMap<>();
+        Map<FastListRecords.Record, Integer> sequence = new ConcurrentHashMap<>();
+        RecordImportQueue queue = new RecordImportQueue(Executors.defaultThreadFactory(), 4, 8, record -> {
+            if (running.computeIfAbsent(record.getIdentifier(), k -> new AtomicInteger()).incrementAndGet() > 1) {
+                overlaps.add(record.getIdentifier());
+            }
+            order.computeIfAbsent(record.getIdentifier(), k -> new CopyOnWriteArrayList<>()).add(sequence.get(record));
+            Thread.yield();
+            running.get(record.getIdentifier()).decrementAndGet();
+        });
+        for (int i = 0; i < 200; i++) {
+            FastListRecords.Record record = new FastListRecords.Record("oai:" + (i % 5));
+            sequence.put(record, i);
+            queue.add(record);
+        }
+        queue.endPage(null);
+        queue.finish();
+
+        assertTrue(overlaps.isEmpty());
+        assertEquals(5, order.size());
+        for (List<Integer> processed : order.values()) {
+            assertEquals(40, processed.size());
+            for (int i = 1; i < processed.size(); i++) {
+                assertTrue(processed.get(i - 1) < processed.get(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package edu.harvard.iq.dataverse.harvest.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class OAIRecordBundleTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path bundlesDirectory;
+    private Map<String, String> exports;
+    private List<String> opened;
+
+    @Before
+    public void setUp() throws IOException {
+        bundlesDirectory = tempFolder.newFolder("oai").toPath();
+        exports = new HashMap<>();
+        opened = new ArrayList<>();
+    }
+
+    private final OAIRecordBundle.RecordSource source = globalId -> {
+        opened.add(globalId);
+        String export = exports.get(globalId);
+        if (export == null) {
+            throw new IOException("not exported");
+        }
+        return new ByteArrayInputStream(export.getBytes(StandardCharsets.UTF_8));
+    };
+
+    private String read(OAIRecordBundle bundle, String globalId, Date exportTime) throws IOException {
+        OAIRecordBundle.Entry entry = bundle.getEntry(globalId, exportTime);
+        if (entry == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel = bundle.openChannel()) {
+            entry.writeTo(channel, out);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testRecordsAreAppendedAndServed() throws IOException {
+        Date exported = new Date(1000L);
+        exports.put("doi:10.5072/FK2/A", "<oai_dc:dc>A</oai_dc:dc>");
+        exports.put("doi:10.5072/FK2/B", "<oai_dc:dc>B</oai_dc:dc>");
+        Map<String, Date> exportTimes = new HashMap<>();
+        exportTimes.put("doi:10.5072/FK2/A", exported);
+        exportTimes.put("doi:10.5072/FK2/B", exported);
+
+        assertNull(OAIRecordBundle.find(bundlesDirectory, "myset", "oai_dc"));
+        assertEquals(2, OAIRecordBundle.update(bundlesDirectory, "myset", "oai_dc", exportTimes, source));
+        OAIRecordBundle bundle = OAIRecordBundle.find(bundlesDirectory, "myset", "oai_dc");
+        assertEquals("<oai_dc:dc>A</oai_dc:dc>", read(bundle, "doi:10.5072/FK2/A", exported));
+        assertEquals("<oai_dc:dc>B</oai_dc:dc>", read(bundle, "doi:10.5072/FK2/B", exported));
+        // re-exported since the bundle was written:
+        assertNull(bundle.getEntry("doi:10.5072/FK2/A", new Date(2000L)));
+
+        // only the new record is read from its export
+        opened.clear();
+        exports.put("doi:10.5072/FK2/C", "<oai_dc:dc>C</oai_dc:dc>");
+        exportTimes.put("doi:10.5072/FK2/C", exported);
+        assertEquals(1, OAIRecordBundle.update(bundlesDirectory, "myset", "oai_dc", exportTimes, source));
+        assertEquals(1, opened.size());
+        bundle = OAIRecordBundle.find(bundlesDirectory, "myset", "oai_dc");
+        assertEquals(3, bundle.size());
+        assertEquals("<oai_dc:dc>C</oai_dc:dc>", read(bundle, "doi:10.5072/FK2/C", exported));
+        assertEquals("<oai_dc:dc>A</oai_dc:dc>", read(bundle, "doi:10.5072/FK2/A", exported));
+
+        // a set is not another set's bundle
+        assertNull(OAIRecordBundle.find(bundlesDirectory, "", "oai_dc"));
+    }
+
+    @Test
+    public void testBundleIsCompactedWhenMostlyStale() throws IOException {
+        Map<String, Date> exportTimes = new HashMap<>();
+        for (int i = 0; i < 4; i++) {
+            exports.put("doi:10.5072/FK2/" + i, "<record>" + i + "</record>");
+            exportTimes.put("doi:10.5072/FK2/" + i, new Date(1000L));
+        }
+        OAIRecordBundle.update(bundlesDirectory, "", "oai_ddi", exportTimes, source);
+
+        // three out of four datasets re-exported, one removed from the set
+        exportTimes.remove("doi:10.5072/FK2/3");
+        for (int i = 0; i < 3; i++) {
+            exports.put("doi:10.5072/FK2/" + i, "<record>" + i + " v2</record>");
+            exportTimes.put("doi:10.5072/FK2/" + i, new Date(2000L));
+        }
+        assertEquals(3, OAIRecordBundle.update(bundlesDirectory, "", "oai_ddi", exportTimes, source));
+
+        OAIRecordBundle bundle = OAIRecordBundle.find(bundlesDirectory, "", "oai_ddi");
+        assertEquals(3, bundle.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("<record>" + i + " v2</record>", read(bundle, "doi:10.5072/FK2/" + i, new Date(2000L)));
+        }
+        assertNull(bundle.getEntry("doi:10.5072/FK2/3", new Date(1000L)));
+    }
+
+    @Test
+    public void testDatasetsWithoutExportAreLeftOut() throws IOException {
+        Map<String, Date> exportTimes = new HashMap<>();
+        exportTimes.put("doi:10.5072/FK2/NOEXPORT", new Date(1000L));
+        assertEquals(0, OAIRecordBundle.update(bundlesDirectory, "myset", "oai_dc", exportTimes, source));
+        assertEquals(0, OAIRecordBundle.find(bundlesDirectory, "myset", "oai_dc").size());
+    }
+
+    @Test
+    public void testCopyFallsBackWhenTransferToFails() throws IOException {
+        Path file = tempFolder.newFile("records").toPath();
+        Files.write(file, "header<record>copied</record>trailer".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // fails the first write, i.e. the one from transferTo
+        WritableByteChannel target = new WritableByteChannel() {
+            private boolean failed;
+
+            @Override
+            public int write(ByteBuffer src) {
+                if (!failed) {
+                    failed = true;
+                    throw new UnsupportedOperationException("no transferTo");
+                }
+                int written = src.remaining();
+                out.write(src.array(), src.arrayOffset() + src.position(), written);
+                src.position(src.limit());
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (FileChannel channel = FileChannel.open(file)) {
+            OAIRecordBundle.copy(channel, 6, 23, target, out::size);
+        }
+        assertEquals("<record>copied</record>", out.toString("UTF-8"));
+    }
+
+}
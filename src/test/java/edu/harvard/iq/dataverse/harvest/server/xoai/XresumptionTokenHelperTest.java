@@ -0,0 +1,58 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import com.lyncode.xoai.exceptions.InvalidResumptionTokenException;
+import com.lyncode.xoai.model.oaipmh.ResumptionToken;
+import com.lyncode.xoai.services.impl.SimpleResumptionTokenFormat;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
+import java.util.Date;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class XresumptionTokenHelperTest {
+
+    @Test
+    public void testKeysetCursorRoundTrip() throws Exception {
+        OAIRecord lastRecord = new OAIRecord("dv_set", "doi:10.5072/FK2/ABCDEF", new Date(1500000000000L));
+        lastRecord.setId(42L);
+        ResumptionToken.Value first = new ResumptionToken.Value().withMetadataPrefix("oai_dc").withSetSpec("dv_set");
+
+        ResumptionToken token = new XresumptionTokenHelper(first, 100).resolve(true, lastRecord);
+        String formatted = XresumptionTokenHelper.FORMAT.format(token.getValue());
+
+        ResumptionToken.Value parsed = XresumptionTokenHelper.FORMAT.parse(formatted);
+        assertEquals(100L, parsed.getOffset().longValue());
+        assertEquals("oai_dc", parsed.getMetadataPrefix());
+        assertEquals("dv_set", parsed.getSetSpec());
+        assertEquals(new Date(1500000000000L), XresumptionTokenHelper.getAfterTime(parsed));
+        assertEquals(Long.valueOf(42L), XresumptionTokenHelper.getAfterId(parsed));
+    }
+
+    @Test
+    public void testOffsetOnlyTokenIsStillAccepted() throws Exception {
+        ResumptionToken.Value value = new ResumptionToken.Value().withOffset(200L).withMetadataPrefix("oai_dc");
+        ResumptionToken.Value parsed = XresumptionTokenHelper.FORMAT.parse(new SimpleResumptionTokenFormat().format(value));
+        assertEquals(200L, parsed.getOffset().longValue());
+        assertNull(XresumptionTokenHelper.getAfterTime(parsed));
+        assertNull(XresumptionTokenHelper.getAfterId(parsed));
+    }
+
+    @Test
+    public void testOffsetOnlyTokenIsFollowedByOffsetOnlyToken() throws Exception {
+        OAIRecord lastRecord = new OAIRecord("dv_set", "doi:10.5072/FK2/ABCDEF", new Date(1500000000000L));
+        lastRecord.setId(42L);
+        ResumptionToken.Value value = new ResumptionToken.Value().withOffset(200L).withMetadataPrefix("oai_dc");
+
+        // the page was found by offset, in the old order: no keyset cursor
+        ResumptionToken token = new XresumptionTokenHelper(value, 100).resolve(true, lastRecord);
+        ResumptionToken.Value parsed = XresumptionTokenHelper.FORMAT.parse(XresumptionTokenHelper.FORMAT.format(token.getValue()));
+        assertEquals(300L, parsed.getOffset().longValue());
+        assertNull(XresumptionTokenHelper.getAfterTime(parsed));
+        assertNull(XresumptionTokenHelper.getAfterId(parsed));
+    }
+
+    @Test(expected = InvalidResumptionTokenException.class)
+    public void testInvalidCursor() throws Exception {
+        XresumptionTokenHelper.FORMAT.parse("abc!notatime!1");
+    }
+
+}
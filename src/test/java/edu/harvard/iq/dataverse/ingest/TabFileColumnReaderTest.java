@@ -0,0 +1,60 @@
+package edu.harvard.iq.dataverse.ingest;
+
+import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
+import edu.harvard.iq.dataverse.ingest.TabFileColumnReader.ColumnType;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TabFileColumnReaderTest {
+
+    // a long, a double, a float and a string column, with missing values,
+    // infinities, escaped characters and a carriage return:
+    private static final String TAB_FILE
+            = "1\t1.5\t0.1\t\"foo\"\n"
+            + "\t-inf\tInf\t\n"
+            + "x\tNaN\t\t\"tab\\there\"\n"
+            + "-7\t\t2.25\t\"back\\\\slash\\\"quote\"\n"
+            + "42\t1e300\t3.4e39\t\"cr\r\"\n"
+            + "\n";
+    private static final int CASES = 5;
+
+    private static InputStream tabFile() {
+        return new ByteArrayInputStream(TAB_FILE.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testSameVectorsAsSubsetGenerator() throws IOException {
+        TabFileColumnReader reader = new TabFileColumnReader(new int[]{0, 1, 2, 3, 2},
+                new ColumnType[]{ColumnType.LONG, ColumnType.DOUBLE, ColumnType.FLOAT, ColumnType.STRING, ColumnType.DOUBLE}, CASES);
+        reader.read(tabFile());
+
+        assertArrayEquals(TabularSubsetGenerator.subsetLongVector(tabFile(), 0, CASES), reader.getLongVector(0));
+        assertArrayEquals(TabularSubsetGenerator.subsetDoubleVector(tabFile(), 1, CASES), reader.getDoubleVector(1));
+        assertArrayEquals(TabularSubsetGenerator.subsetFloatVector(tabFile(), 2, CASES), reader.getFloatVector(2));
+        assertArrayEquals(TabularSubsetGenerator.subsetStringVector(tabFile(), 3, CASES), reader.getStringVector(3));
+        assertArrayEquals(TabularSubsetGenerator.subsetDoubleVector(tabFile(), 2, CASES), reader.getDoubleVector(4));
+
+        assertArrayEquals(new String[]{"foo", null, "tab\there", "back\\slash\"quote", "cr\r"}, reader.getStringVector(3));
+        assertArrayEquals(new Long[]{1L, null, null, -7L, 42L}, reader.getLongVector(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testFewerRows() throws IOException {
+        new TabFileColumnReader(new int[]{0}, new ColumnType[]{ColumnType.LONG}, CASES + 2).read(tabFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMoreRows() throws IOException {
+        new TabFileColumnReader(new int[]{0}, new ColumnType[]{ColumnType.LONG}, CASES - 1).read(tabFile());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingColumn() throws IOException {
+        new TabFileColumnReader(new int[]{4}, new ColumnType[]{ColumnType.STRING}, CASES).read(tabFile());
+    }
+
+}
@@ -0,0 +1,72 @@
+package edu.harvard.iq.dataverse.makedatacount;
+
+import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+public class MakeDataCountLogWriterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testEntriesAreWrittenOnFlush() throws IOException {
+        MakeDataCountLogWriter writer = new MakeDataCountLogWriter();
+        String logDir = tempFolder.getRoot().getAbsolutePath();
+        File log = new File(logDir, writer.getLogFileName());
+
+        writer.log(logDir, "entry 1\n");
+        writer.log(logDir, "entry 2\n");
+        assertEquals(2, writer.getPendingCount());
+        assertFalse(log.exists());
+
+        writer.flush();
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(LOG_HEADER + "entry 1\nentry 2\n", read(log));
+
+        // the header is only written to a new log:
+        writer.close();
+        MakeDataCountLogWriter restarted = new MakeDataCountLogWriter();
+        restarted.log(logDir, "entry 3\n");
+        restarted.close();
+        assertEquals(LOG_HEADER + "entry 1\nentry 2\nentry 3\n", read(log));
+    }
+
+    @Test
+    public void testFlushWhenFull() throws IOException {
+        MakeDataCountLogWriter writer = new MakeDataCountLogWriter();
+        String logDir = tempFolder.getRoot().getAbsolutePath();
+        for (int i = 0; i < MakeDataCountLogWriter.FLUSH_SIZE; i++) {
+            writer.log(logDir, "entry\n");
+        }
+        assertEquals(0, writer.getPendingCount());
+        File log = new File(logDir, writer.getLogFileName());
+        assertEquals(LOG_HEADER.length() + MakeDataCountLogWriter.FLUSH_SIZE * "entry\n".length(), read(log).length());
+        writer.close();
+    }
+
+    @Test
+    public void testNewLogDirectory() throws IOException {
+        MakeDataCountLogWriter writer = new MakeDataCountLogWriter();
+        String firstDir = tempFolder.newFolder("first").getAbsolutePath();
+        String secondDir = new File(tempFolder.getRoot(), "second").getAbsolutePath();
+
+        writer.log(firstDir, "entry 1\n");
+        writer.log(secondDir, "entry 2\n");
+        writer.close();
+
+        assertEquals(LOG_HEADER + "entry 1\n", read(new File(firstDir, writer.getLogFileName())));
+        assertEquals(LOG_HEADER + "entry 2\n", read(new File(secondDir, writer.getLogFileName())));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.defaultCharset());
+    }
+
+}
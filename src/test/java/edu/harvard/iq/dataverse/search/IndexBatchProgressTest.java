@@ -0,0 +1,82 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.sql.Timestamp;
+import javax.json.JsonObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IndexBatchProgressTest {
+
+    @Test
+    public void testThroughputAndEta() {
+        long start = System.currentTimeMillis() - 10000;
+        IndexBatchProgress progress = new IndexBatchProgress(1, 0, 4, null, start);
+        progress.setTotals(10, 90);
+        for (int i = 0; i < 10; i++) {
+            progress.dataverseIndexed();
+        }
+        for (int i = 0; i < 39; i++) {
+            progress.datasetIndexed();
+        }
+        progress.datasetFailed();
+
+        assertEquals(50, progress.getProcessed());
+        assertEquals(100, progress.getTotal());
+        assertEquals(1, progress.getDatasetFailures());
+        assertEquals(5.0, progress.getObjectsPerSecond(), 0.1);
+        long eta = progress.getEtaSeconds();
+        assertTrue("eta was " + eta, eta >= 9 && eta <= 11);
+        assertFalse(progress.isFinished());
+    }
+
+    @Test
+    public void testNoEtaBeforeAnythingIsDone() {
+        IndexBatchProgress progress = new IndexBatchProgress(2, 1, 4, null);
+        progress.setTotals(0, 10);
+        assertEquals(-1, progress.getEtaSeconds());
+    }
+
+    @Test
+    public void testFinished() {
+        long start = 1000000L;
+        IndexBatchProgress progress = new IndexBatchProgress(2, 1, 4, new Timestamp(start - 5000), start);
+        progress.setTotals(1, 1);
+        progress.dataverseIndexed();
+        progress.datasetIndexed();
+        progress.finish(true, start + 2000);
+
+        assertTrue(progress.isFinished());
+        assertFalse(progress.isInterrupted());
+        assertEquals(2000, progress.getElapsedMillis());
+        assertEquals(0, progress.getEtaSeconds());
+
+        JsonObject json = progress.toJson().build();
+        assertEquals("finished", json.getString("status"));
+        assertEquals(2, json.getInt("numPartitions"));
+        assertEquals(1, json.getInt("partitionId"));
+        assertEquals(1, json.getJsonObject("datasets").getInt("indexed"));
+        assertTrue(json.containsKey("resumedFromCheckpoint"));
+    }
+
+    @Test
+    public void testInterrupted() {
+        long start = 1000000L;
+        IndexBatchProgress progress = new IndexBatchProgress(1, 0, 4, null, start);
+        progress.setTotals(0, 10);
+        for (int i = 0; i < 3; i++) {
+            progress.datasetIndexed();
+        }
+        progress.finish(false, start + 3000);
+
+        assertTrue(progress.isFinished());
+        assertTrue(progress.isInterrupted());
+        assertEquals(3000, progress.getElapsedMillis());
+        assertEquals(-1, progress.getEtaSeconds());
+
+        JsonObject json = progress.toJson().build();
+        assertEquals("interrupted", json.getString("status"));
+        assertEquals(3, json.getJsonObject("datasets").getInt("indexed"));
+        assertEquals(3, json.getInt("elapsedSeconds"));
+    }
+
+}
@@ -0,0 +1,92 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class IndexedDocHashesTest {
+
+    private static SolrInputDocument fileDoc(String id, String name) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, id);
+        doc.addField(SearchFields.TYPE, "files");
+        doc.addField(SearchFields.NAME, name);
+        doc.addField(SearchFields.FILE_TAG, Arrays.asList("Data", "Code"));
+        return doc;
+    }
+
+    @Test
+    public void testHash() {
+        String hash = IndexedDocHashes.hash(fileDoc("datafile_1", "data.csv"), "false");
+        assertEquals(hash, IndexedDocHashes.hash(fileDoc("datafile_1", "data.csv"), "false"));
+        assertNotEquals(hash, IndexedDocHashes.hash(fileDoc("datafile_1", "data2.csv"), "false"));
+        assertNotEquals(hash, IndexedDocHashes.hash(fileDoc("datafile_1", "data.csv"), "true"));
+
+        SolrInputDocument withHash = fileDoc("datafile_1", "data.csv");
+        withHash.addField(SearchFields.CONTENT_HASH, hash);
+        assertEquals(hash, IndexedDocHashes.hash(withHash, "false"));
+    }
+
+    @Test
+    public void testOnlyStaleDocumentsAreDeleted() {
+        Map<String, String> stored = new HashMap<>();
+        stored.put("datafile_1", IndexedDocHashes.hash(fileDoc("datafile_1", "a.txt"), null));
+        stored.put("datafile_2", IndexedDocHashes.hash(fileDoc("datafile_2", "b.txt"), null));
+        stored.put("datafile_3", IndexedDocHashes.hash(fileDoc("datafile_3", "c.txt"), null));
+        IndexedDocHashes indexedDocs = new IndexedDocHashes(stored);
+        indexedDocs.deleteUnlessReindexed(Arrays.asList("datafile_1", "datafile_2", "datafile_3"));
+
+        assertTrue(indexedDocs.isUnchanged("datafile_1", IndexedDocHashes.hash(fileDoc("datafile_1", "a.txt"), null)));
+        assertFalse(indexedDocs.isUnchanged("datafile_2", IndexedDocHashes.hash(fileDoc("datafile_2", "renamed.txt"), null)));
+        indexedDocs.indexed("datafile_2");
+        assertFalse(indexedDocs.isUnchanged("datafile_4", IndexedDocHashes.hash(fileDoc("datafile_4", "d.txt"), null)));
+
+        List<String> toDelete = indexedDocs.getDocIdsToDelete();
+        assertEquals(Arrays.asList("datafile_3"), toDelete);
+        assertEquals(1, indexedDocs.getUnchangedCount());
+    }
+
+    @Test
+    public void testUnsettledDocumentsOverrideTheStoredHashes() {
+        Map<String, String> stored = new HashMap<>();
+        Map<String, String> storedSources = new HashMap<>();
+        stored.put("datafile_1", "a");
+        storedSources.put("datafile_1", "source-a");
+        stored.put("datafile_2", "a");
+        storedSources.put("datafile_2", "source-a");
+        IndexedDocHashes indexedDocs = new IndexedDocHashes(stored, storedSources);
+        Map<String, SolrUpdateService.UnsettledDoc> unsettled = new HashMap<>();
+        // A in Solr, then B and A again before B shows up
+        unsettled.put("datafile_1", new SolrUpdateService.UnsettledDoc("b", "source-b", 7L, true, Long.MAX_VALUE));
+        unsettled.put("datafile_2", null);
+        unsettled.put("datafile_3_draft", new SolrUpdateService.UnsettledDoc("c", null, 7L, true, Long.MAX_VALUE));
+        indexedDocs.applyUnsettled(unsettled);
+
+        assertFalse(indexedDocs.isSourceUnchanged("datafile_1", "source-a"));
+        assertFalse(indexedDocs.isUnchanged("datafile_1", "a"));
+        assertFalse(indexedDocs.isSourceUnchanged("datafile_2", "source-a"));
+        assertFalse(indexedDocs.isUnchanged("datafile_2", "a"));
+        assertTrue(indexedDocs.isUnchanged("datafile_3_draft", "c"));
+        assertTrue(indexedDocs.getUnsettledFileDocIds().contains("datafile_3_draft"));
+
+        // (the file left the draft, but Solr does not show it yet)
+        indexedDocs = new IndexedDocHashes(new HashMap<>());
+        indexedDocs.applyUnsettled(unsettled);
+        indexedDocs.deleteUnlessReindexed(indexedDocs.getUnsettledFileDocIds());
+        indexedDocs.indexed("datafile_1");
+        assertEquals(Arrays.asList("datafile_3_draft"), indexedDocs.getDocIdsToDelete());
+    }
+
+    @Test
+    public void testSourceHash() {
+        String hash = IndexedDocHashes.sourceHash("version", 1L, "a.txt", Arrays.asList("Data"));
+        assertEquals(hash, IndexedDocHashes.sourceHash("version", 1L, "a.txt", Arrays.asList("Data")));
+        assertNotEquals(hash, IndexedDocHashes.sourceHash("version", 1L, "a.txt", Arrays.asList("Code")));
+        assertNotEquals(hash, IndexedDocHashes.sourceHash("version", 1L, "a.txt", null));
+    }
+
+}
@@ -0,0 +1,218 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.PermissionCacheService;
+import edu.harvard.iq.dataverse.authorization.groups.Group;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.authorization.users.GuestUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.util.SystemConfig;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class PermissionFilterQueryServiceTest {
+
+    private PermissionFilterQueryService service;
+    private SolrClient solrClient;
+    private GroupServiceBean groupService;
+    private PermissionCacheService permissionCache;
+    private SolrUpdateService solrUpdateService;
+    private SystemConfig systemConfig;
+    private AuthenticatedUser user;
+    private DataverseRequest request;
+
+    @Before
+    public void setUp() throws Exception {
+        solrClient = mock(SolrClient.class);
+        groupService = mock(GroupServiceBean.class);
+        permissionCache = mock(PermissionCacheService.class);
+        solrUpdateService = mock(SolrUpdateService.class);
+        systemConfig = mock(SystemConfig.class);
+        when(systemConfig.getSearchPermissionFilterCacheTtlSeconds()).thenReturn(PermissionFilterQueryService.DEFAULT_TTL_SECONDS);
+        when(systemConfig.getSearchPermissionFilterTermsLimit()).thenReturn(PermissionFilterQueryService.DEFAULT_TERMS_LIMIT);
+
+        service = new PermissionFilterQueryService();
+        service.solrClientService = new SolrClientService();
+        service.solrClientService.setSolrClient(solrClient);
+        service.groupService = groupService;
+        service.permissionCache = permissionCache;
+        service.solrUpdateService = solrUpdateService;
+        service.systemConfig = systemConfig;
+        service.init();
+
+        user = new AuthenticatedUser();
+        user.setId(7L);
+        user.setUserIdentifier("jdoe");
+        request = new DataverseRequest(user, IpAddress.valueOf("1.2.3.4"));
+        setGroups("shib/2", "1-explicitGroup1");
+    }
+
+    private void setGroups(String... aliases) {
+        Set<Group> groups = new LinkedHashSet<>();
+        for (String alias : aliases) {
+            Group group = mock(Group.class);
+            when(group.getAlias()).thenReturn(alias);
+            groups.add(group);
+        }
+        when(groupService.groupsFor(any(DataverseRequest.class))).thenReturn(groups);
+        when(groupService.collectAncestors(any())).thenReturn(groups);
+    }
+
+    private void setDiscoverable(long numFound, String... ids) throws Exception {
+        SolrDocumentList docs = new SolrDocumentList();
+        docs.setNumFound(numFound);
+        for (String id : ids) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField(SearchFields.DEFINITION_POINT, id);
+            docs.add(doc);
+        }
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(docs);
+        when(solrClient.query(any(SolrQuery.class))).thenReturn(response);
+    }
+
+    @Test
+    public void testPublicFilterQueryIsTheLegacyOne() {
+        assertEquals("{!join from=definitionPointDocId to=id}discoverableBy:(group_public)",
+                PermissionFilterQueryService.publicFilterQuery());
+    }
+
+    @Test
+    public void testJoinFilterQuery() {
+        assertEquals("{!join from=definitionPointDocId to=id}discoverableBy:(group_public OR group_a OR group_user1)",
+                PermissionFilterQueryService.joinFilterQuery(Arrays.asList("group_a", "group_user1")));
+    }
+
+    @Test
+    public void testTermsFilterQuery() {
+        assertEquals("filter({!join from=definitionPointDocId to=id v='discoverableBy:(group_public)'})"
+                + " OR filter({!terms f=id v='dataset_1_draft,datafile_2'})",
+                PermissionFilterQueryService.termsFilterQuery(Arrays.asList("dataset_1_draft", "datafile_2")));
+        assertEquals(PermissionFilterQueryService.publicFilterQuery(),
+                PermissionFilterQueryService.termsFilterQuery(Collections.emptyList()));
+        assertNull(PermissionFilterQueryService.termsFilterQuery(Arrays.asList("dataset_1", "a,b")));
+        assertNull(PermissionFilterQueryService.termsFilterQuery(Arrays.asList("it's")));
+        assertNull(PermissionFilterQueryService.termsFilterQuery(Arrays.asList("a b")));
+    }
+
+    @Test
+    public void testGroupsAreSorted() {
+        assertEquals(Arrays.asList("group_1-explicitGroup1", "group_shib/2", "group_user7"),
+                service.getGroups(request, user));
+        assertEquals(Arrays.asList("group_1-explicitGroup1", "group_shib/2"),
+                service.getGroups(new DataverseRequest(GuestUser.get(), IpAddress.valueOf("1.2.3.4")), null));
+    }
+
+    @Test
+    public void testGroupsAreCachedUntilTheyChange() {
+        List<String> groups = service.getGroups(request, user);
+        assertSame(groups, service.getGroups(request, user));
+        verify(groupService, times(1)).groupsFor(any(DataverseRequest.class));
+
+        // (another address may be in other IP groups)
+        service.getGroups(new DataverseRequest(user, IpAddress.valueOf("5.6.7.8")), user);
+        verify(groupService, times(2)).groupsFor(any(DataverseRequest.class));
+
+        when(permissionCache.getGeneration()).thenReturn(1L);
+        setGroups("shib/2");
+        assertEquals(Arrays.asList("group_shib/2", "group_user7"), service.getGroups(request, user));
+    }
+
+    @Test
+    public void testSmallSetsAreFilteredById() throws Exception {
+        setDiscoverable(2, "dataset_1_draft", "datafile_2");
+        String filterQuery = service.getFilterQuery(request, user);
+        assertEquals(PermissionFilterQueryService.termsFilterQuery(Arrays.asList("datafile_2", "dataset_1_draft")), filterQuery);
+
+        ArgumentCaptor<SolrQuery> query = ArgumentCaptor.forClass(SolrQuery.class);
+        verify(solrClient).query(query.capture());
+        assertArrayEquals(new String[]{"discoverableBy:(group_1-explicitGroup1 OR group_shib/2 OR group_user7)"},
+                query.getValue().getFilterQueries());
+    }
+
+    @Test
+    public void testLargeSetsAreJoined() throws Exception {
+        setDiscoverable(PermissionFilterQueryService.DEFAULT_TERMS_LIMIT + 1, "dataset_1");
+        assertEquals("{!join from=definitionPointDocId to=id}discoverableBy:(group_public OR group_1-explicitGroup1 OR group_shib/2 OR group_user7)",
+                service.getFilterQuery(request, user));
+    }
+
+    @Test
+    public void testFailedLookupsAreJoined() throws Exception {
+        when(solrClient.query(any(SolrQuery.class))).thenThrow(new SolrServerException("down"));
+        assertEquals(PermissionFilterQueryService.joinFilterQuery(service.getGroups(request, user)),
+                service.getFilterQuery(request, user));
+    }
+
+    @Test
+    public void testFiltersAreCachedUntilThePermissionsChange() throws Exception {
+        setDiscoverable(1, "dataset_1");
+        String filterQuery = service.getFilterQuery(request, user);
+        assertEquals(filterQuery, service.getFilterQuery(request, user));
+        verify(solrClient, times(1)).query(any(SolrQuery.class));
+
+        // (a permission document was sent to Solr, and is visible now)
+        when(solrUpdateService.getPermissionsVisibleTime()).thenReturn(System.currentTimeMillis() + 1);
+        Thread.sleep(2);
+        service.getFilterQuery(request, user);
+        verify(solrClient, times(2)).query(any(SolrQuery.class));
+    }
+
+    @Test
+    public void testFiltersAreCachedUntilThePermissionsChangeOnAnotherServer() throws Exception {
+        setDiscoverable(1, "dataset_1");
+        service.getFilterQuery(request, user);
+        service.getFilterQuery(request, user);
+        verify(permissionCache, times(2)).checkVersion();
+        verify(solrClient, times(1)).query(any(SolrQuery.class));
+
+        // (a role was assigned on another server)
+        when(permissionCache.getGeneration()).thenReturn(1L);
+        service.getFilterQuery(request, user);
+        verify(solrClient, times(2)).query(any(SolrQuery.class));
+
+        // (permission documents sent by another server are visible now)
+        when(permissionCache.getSearchPermissionsVisibleTime()).thenReturn(System.currentTimeMillis() + 1);
+        Thread.sleep(2);
+        service.getFilterQuery(request, user);
+        verify(solrClient, times(3)).query(any(SolrQuery.class));
+        service.getFilterQuery(request, user);
+        verify(solrClient, times(3)).query(any(SolrQuery.class));
+    }
+
+    @Test
+    public void testNoCachingWithZeroTtl() throws Exception {
+        when(systemConfig.getSearchPermissionFilterCacheTtlSeconds()).thenReturn(0);
+        service.refreshSettings();
+        assertEquals(PermissionFilterQueryService.joinFilterQuery(service.getGroups(request, user)),
+                service.getFilterQuery(request, user));
+        service.getFilterQuery(request, user);
+        verify(groupService, times(3)).groupsFor(any(DataverseRequest.class));
+        verifyZeroInteractions(solrClient);
+    }
+
+    @Test
+    public void testNoGroupsIsPublicOnly() {
+        setGroups();
+        assertEquals(PermissionFilterQueryService.publicFilterQuery(),
+                service.getFilterQuery(new DataverseRequest(GuestUser.get(), IpAddress.valueOf("1.2.3.4")), null));
+        verifyZeroInteractions(solrClient);
+    }
+
+}
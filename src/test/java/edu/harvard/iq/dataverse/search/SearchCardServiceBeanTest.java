@@ -0,0 +1,157 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetVersionServiceBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SearchCardServiceBeanTest {
+
+    private SearchCardServiceBean service;
+    private EntityManager em;
+    private Map<String, List<Object[]>> rows;
+
+    @Before
+    public void setUp() {
+        rows = new HashMap<>();
+        em = mock(EntityManager.class);
+        when(em.createNativeQuery(anyString())).thenAnswer(invocation -> {
+            String sql = invocation.getArgument(0);
+            Query query = mock(Query.class);
+            List<Object[]> result = new ArrayList<>();
+            for (Map.Entry<String, List<Object[]>> entry : rows.entrySet()) {
+                if (sql.startsWith(entry.getKey())) {
+                    result = entry.getValue();
+                }
+            }
+            when(query.setParameter(anyInt(), any())).thenReturn(query);
+            when(query.getResultList()).thenReturn(result);
+            return query;
+        });
+
+        service = new SearchCardServiceBean();
+        service.em = em;
+        service.dataFileService = mock(DataFileServiceBean.class);
+        service.datasetVersionService = mock(DatasetVersionServiceBean.class);
+        when(service.dataFileService.findCheapAndEasy(any(Collection.class))).thenAnswer(invocation -> {
+            Map<Long, DataFile> dataFiles = new HashMap<>();
+            for (Long id : (Collection<Long>) invocation.getArgument(0)) {
+                DataFile dataFile = new DataFile();
+                dataFile.setId(id);
+                dataFiles.put(id, dataFile);
+            }
+            return dataFiles;
+        });
+    }
+
+    private static SolrSearchResult card(String type, long entityId, long parentId) {
+        SolrSearchResult solrSearchResult = new SolrSearchResult("*", "card " + entityId);
+        solrSearchResult.setType(type);
+        solrSearchResult.setEntityId(entityId);
+        solrSearchResult.setIdentifier("doi:10.5072/FK2/CARD" + entityId);
+        Map<String, String> parent = new HashMap<>();
+        parent.put("id", String.valueOf(parentId));
+        solrSearchResult.setParent(parent);
+        return solrSearchResult;
+    }
+
+    private static SolrSearchResult datasetCard(long entityId, long versionId, long parentId, boolean published) {
+        SolrSearchResult solrSearchResult = card(SearchConstants.DATASETS, entityId, parentId);
+        solrSearchResult.setDatasetVersionId(versionId);
+        solrSearchResult.setPublishedState(published);
+        return solrSearchResult;
+    }
+
+    @Test
+    public void testIdArray() {
+        assertArrayEquals(new long[]{1, 2, 10}, SearchCardServiceBean.idArray(new HashSet<>(Arrays.asList(10L, 2L, 1L))));
+    }
+
+    @Test
+    public void testCardsArePopulatedWithOneQueryPerKind() {
+        rows.put("SELECT t0.ID, t0.AFFILIATION", Collections.singletonList(new Object[]{2, "Harvard", "dv2", "root"}));
+        rows.put("SELECT ID, VERSIONSTATE", Arrays.asList(new Object[]{100L, "RELEASED"}, new Object[]{101L, "DEACCESSIONED"}));
+        rows.put("SELECT ID, ALIAS", Collections.singletonList(new Object[]{2, "dv2"}));
+        rows.put("SELECT t2.ID", Arrays.asList(new Object[]{10L, null, false, "file://10"}, new Object[]{11L, 21L, null, null}));
+        rows.put("SELECT fm.DATASETVERSION_ID", Collections.singletonList(new Object[]{100L, 20}));
+
+        SolrSearchResult dataverse = card(SearchConstants.DATAVERSES, 2, 1);
+        SolrSearchResult autoselected = datasetCard(10, 100, 2, true);
+        SolrSearchResult deaccessioned = datasetCard(11, 101, 2, false);
+        SolrSearchResult file = card(SearchConstants.FILES, 30, 10);
+        service.populateSearchCards(Arrays.asList(dataverse, autoselected, deaccessioned, file));
+
+        assertEquals("Harvard", dataverse.getDataverseAffiliation());
+        assertEquals("dv2", dataverse.getDataverseAlias());
+        assertEquals("root", dataverse.getDataverseParentAlias());
+
+        Dataset dataset = (Dataset) autoselected.getEntity();
+        assertEquals("dv2", autoselected.getDataverseAlias());
+        assertFalse(autoselected.isDeaccessionedState());
+        assertEquals("FK2/CARD10", dataset.getIdentifier());
+        assertEquals("file://10", dataset.getStorageIdentifier());
+        assertEquals(Long.valueOf(20), dataset.getThumbnailFile().getId());
+        verify(service.datasetVersionService).assignDatasetThumbnailByNativeQuery(100L, 20L);
+
+        assertTrue(deaccessioned.isDeaccessionedState());
+        assertEquals(Long.valueOf(21), ((Dataset) deaccessioned.getEntity()).getThumbnailFile().getId());
+        assertEquals(Long.valueOf(30), file.getEntity().getId());
+
+        verify(em, times(5)).createNativeQuery(anyString());
+        ArgumentCaptor<Collection> fileIds = ArgumentCaptor.forClass(Collection.class);
+        verify(service.dataFileService, times(1)).findCheapAndEasy(fileIds.capture());
+        assertEquals(new HashSet<>(Arrays.asList(20L, 21L, 30L)), new HashSet<>(fileIds.getValue()));
+    }
+
+    @Test
+    public void testDraftsAndGenericThumbnailsAreNotAutoselected() {
+        rows.put("SELECT ID, VERSIONSTATE", Arrays.asList(new Object[]{100L, "DRAFT"}, new Object[]{101L, "RELEASED"}));
+        rows.put("SELECT ID, ALIAS", Collections.singletonList(new Object[]{2, "dv2"}));
+        rows.put("SELECT t2.ID", Arrays.asList(new Object[]{10L, null, false, null}, new Object[]{11L, null, true, null}));
+
+        SolrSearchResult draft = datasetCard(10, 100, 2, false);
+        SolrSearchResult generic = datasetCard(11, 101, 2, true);
+        service.populateSearchCards(Arrays.asList(draft, generic));
+
+        assertNull(((Dataset) draft.getEntity()).getThumbnailFile());
+        assertTrue(((Dataset) generic.getEntity()).isUseGenericThumbnail());
+        verify(em, times(3)).createNativeQuery(anyString());
+        verifyZeroInteractions(service.datasetVersionService);
+    }
+
+    @Test
+    public void testMissingObjectsAreSkipped() {
+        SolrSearchResult dataset = datasetCard(10, 100, 2, true);
+        SolrSearchResult rootless = datasetCard(11, 101, 0, true);
+        service.populateSearchCards(Arrays.asList(dataset, rootless));
+
+        assertNull(dataset.getEntity());
+        assertNull(dataset.getDataverseAlias());
+        assertNull(rootless.getEntity());
+    }
+
+    @Test
+    public void testNoQueriesForAnEmptyPage() {
+        service.populateSearchCards(Collections.emptyList());
+        verifyZeroInteractions(em);
+    }
+
+}
@@ -0,0 +1,118 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DatasetFieldType;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DataverseFacet;
+import edu.harvard.iq.dataverse.MetadataBlock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SearchConfigurationTest {
+
+    private SearchConfiguration configuration;
+    private DatasetFieldType title;
+    private DatasetFieldType authorName;
+
+    @Before
+    public void setUp() {
+        MetadataBlock citation = new MetadataBlock();
+        citation.setName("citation");
+        title = fieldType(citation, "title", "Title", false);
+        DatasetFieldType author = fieldType(citation, "author", "Author", true);
+        authorName = fieldType(citation, "authorName", "Name", false);
+        authorName.setParentDatasetFieldType(author);
+        configuration = new SearchConfiguration(Arrays.asList(title, author, authorName));
+    }
+
+    private static DatasetFieldType fieldType(MetadataBlock metadataBlock, String name, String title, boolean allowMultiples) {
+        DatasetFieldType fieldType = new DatasetFieldType(name, DatasetFieldType.FieldType.TEXT, allowMultiples);
+        fieldType.setTitle(title);
+        fieldType.setFacetable(true);
+        fieldType.setMetadataBlock(metadataBlock);
+        return fieldType;
+    }
+
+    @Test
+    public void testNoHighlightingOfMatchAllQueries() {
+        assertEquals("", configuration.getHighlightFields("*"));
+        assertEquals("", configuration.getHighlightFields("*:*"));
+    }
+
+    @Test
+    public void testAllFieldsAreHighlightedForFreeText() {
+        List<String> fields = Arrays.asList(configuration.getHighlightFields("climate change").split(","));
+        assertTrue(fields.contains(SearchFields.NAME));
+        assertTrue(fields.contains(SearchFields.DESCRIPTION));
+        assertTrue(fields.contains("title"));
+        assertTrue(fields.contains("authorName"));
+        assertEquals(fields, Arrays.asList(configuration.getHighlightFields("title:climate OR change").split(",")));
+        // (a group of terms searched in a field is not taken apart)
+        assertEquals(fields, Arrays.asList(configuration.getHighlightFields("title:(climate change)").split(",")));
+    }
+
+    @Test
+    public void testOnlySearchedFieldsAreHighlighted() {
+        assertEquals("title", configuration.getHighlightFields("title:climate"));
+        assertEquals("title,authorName", configuration.getHighlightFields("(title:\"climate change\" AND authorName:Smith)"));
+        assertEquals("title", configuration.getHighlightFields("+title:climate -dvObjectType:files"));
+        // (fields that are not highlighted)
+        assertEquals("", configuration.getHighlightFields("entityId:42"));
+    }
+
+    @Test
+    public void testHighlightedFields() {
+        assertEquals("title", configuration.getHighlightSolrField("title").getNameSearchable());
+        assertSame(configuration.getHighlightSolrField("title"), configuration.getHighlightSolrField("title"));
+        assertNull(configuration.getHighlightSolrField(SearchFields.ENTITY_ID));
+        SearchConfiguration.Labels labels = configuration.getLabels();
+        assertEquals("Name", labels.getHighlightDisplayName(SearchFields.NAME));
+        assertEquals("Title", labels.getHighlightDisplayName("title"));
+        assertEquals("Author Name", labels.getHighlightDisplayName("authorName"));
+        assertSame(labels, configuration.getLabels());
+    }
+
+    @Test
+    public void testTitleSolrField() {
+        assertEquals("title", configuration.getTitleSolrField());
+        assertNull(new SearchConfiguration(new ArrayList<>()).getTitleSolrField());
+    }
+
+    @Test
+    public void testFacetFields() {
+        SearchConfiguration.DatasetFacetField facetField = configuration.getDatasetFacetField("authorName_ss");
+        assertEquals("citation", facetField.getMetadataBlockName());
+        assertEquals("authorName", facetField.getDatasetFieldName());
+        assertNull(configuration.getDatasetFacetField(SearchFields.DATAVERSE_CATEGORY));
+
+        SearchConfiguration.Labels labels = configuration.getLabels();
+        assertEquals("Author Name", labels.getFacetCategoryFriendlyName("authorName_ss"));
+        assertEquals("Dataverse Category", labels.getFacetCategoryFriendlyName(SearchFields.DATAVERSE_CATEGORY));
+        assertEquals("unknown_s", labels.getFacetCategoryFriendlyName("unknown_s"));
+        assertEquals("Author Name", labels.getDatasetFieldFriendlyNames().get("authorName_ss"));
+        assertEquals("Dataverse Category", labels.getStaticFieldFriendlyNames().get(SearchFields.DATAVERSE_CATEGORY));
+        assertFalse(labels.getStaticFieldFriendlyNames().containsKey(SearchFields.FILE_TYPE));
+    }
+
+    @Test
+    public void testFacetsOfDataverses() {
+        Dataverse root = new Dataverse();
+        root.setId(1L);
+        root.setFacetRoot(true);
+        DataverseFacet facet = new DataverseFacet();
+        facet.setDatasetFieldType(authorName);
+        facet.setDataverse(root);
+        root.getDataverseFacets().add(facet);
+        Dataverse child = new Dataverse();
+        child.setId(2L);
+        child.setOwner(root);
+
+        assertEquals(Arrays.asList("authorName_ss"), configuration.getFacetFields(root));
+        // (inherited, and worked out once)
+        assertSame(configuration.getFacetFields(root), configuration.getFacetFields(child));
+    }
+
+}
@@ -0,0 +1,266 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class SolrUpdateServiceTest {
+
+    private SolrUpdateService solrUpdateService;
+    private SolrClient solrClient;
+
+    @Before
+    public void setUp() throws Exception {
+        solrClient = mock(SolrClient.class);
+        when(solrClient.request(any(), isNull())).thenReturn(new NamedList<>());
+        solrUpdateService = new SolrUpdateService();
+        solrUpdateService.solrClientService = new SolrClientService();
+        solrUpdateService.solrClientService.setSolrClient(solrClient);
+        solrUpdateService.dvObjectService = mock(DvObjectServiceBean.class);
+    }
+
+    private static SolrInputDocument doc(String id) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, id);
+        return doc;
+    }
+
+    @Test
+    public void testUpdatesAreBuffered() throws Exception {
+        solrUpdateService.add(doc("dataset_1"));
+        solrUpdateService.add(doc("datafile_2"));
+        solrUpdateService.deleteById("datafile_3");
+        verifyZeroInteractions(solrClient);
+        assertEquals(3, solrUpdateService.getPendingCount());
+
+        solrUpdateService.flush();
+        ArgumentCaptor<SolrRequest> sent = ArgumentCaptor.forClass(SolrRequest.class);
+        verify(solrClient, times(1)).request(sent.capture(), isNull());
+        UpdateRequest request = (UpdateRequest) sent.getValue();
+        assertEquals(2, request.getDocuments().size());
+        assertEquals(1, request.getDeleteById().size());
+        assertEquals(SolrUpdateService.DEFAULT_COMMIT_WITHIN_MILLIS, request.getCommitWithin());
+        verify(solrClient, never()).commit();
+        assertEquals(0, solrUpdateService.getPendingCount());
+    }
+
+    @Test
+    public void testLastOperationOnADocumentWins() throws Exception {
+        solrUpdateService.add(doc("dataset_1_draft"));
+        solrUpdateService.deleteById("dataset_1_draft");
+        solrUpdateService.deleteById("dataset_1");
+        solrUpdateService.add(doc("dataset_1"));
+        solrUpdateService.flush();
+
+        ArgumentCaptor<SolrRequest> sent = ArgumentCaptor.forClass(SolrRequest.class);
+        verify(solrClient).request(sent.capture(), isNull());
+        UpdateRequest request = (UpdateRequest) sent.getValue();
+        List<String> deletes = request.getDeleteById();
+        assertEquals(1, deletes.size());
+        assertEquals("dataset_1_draft", deletes.get(0));
+        assertEquals(1, request.getDocuments().size());
+        assertEquals("dataset_1", request.getDocuments().get(0).getFieldValue(SearchFields.ID));
+    }
+
+    @Test
+    public void testRebuiltDocumentDoesNotReplaceAPendingOne() throws Exception {
+        SolrInputDocument newer = doc("dataset_1");
+        solrUpdateService.add(newer);
+        solrUpdateService.deleteById("datafile_2");
+        solrUpdateService.addUnlessPending(doc("dataset_1"));
+        solrUpdateService.addUnlessPending(doc("datafile_2"));
+        solrUpdateService.addUnlessPending(doc("datafile_3"));
+        solrUpdateService.flush();
+
+        ArgumentCaptor<SolrRequest> sent = ArgumentCaptor.forClass(SolrRequest.class);
+        verify(solrClient).request(sent.capture(), isNull());
+        UpdateRequest request = (UpdateRequest) sent.getValue();
+        assertEquals(2, request.getDocuments().size());
+        assertSame(newer, request.getDocuments().get(0));
+        assertEquals("datafile_3", request.getDocuments().get(1).getFieldValue(SearchFields.ID));
+        assertEquals(1, request.getDeleteById().size());
+    }
+
+    @Test
+    public void testBatchIsSentWhenFull() throws Exception {
+        for (int i = 0; i < SolrUpdateService.DEFAULT_BATCH_SIZE; i++) {
+            solrUpdateService.add(doc("datafile_" + i));
+        }
+        verify(solrClient, times(1)).request(any(), isNull());
+        assertEquals(0, solrUpdateService.getPendingCount());
+        assertEquals(1, solrUpdateService.getMetrics().build().getInt("flushes"));
+        assertEquals(SolrUpdateService.DEFAULT_BATCH_SIZE, solrUpdateService.getMetrics().build().getInt("maxBatchSize"));
+    }
+
+    @Test
+    public void testFailedBatchIsRequeued() throws Exception {
+        when(solrClient.request(any(), isNull())).thenThrow(new RuntimeException("Solr is down")).thenReturn(new NamedList<>());
+        solrUpdateService.add(doc("dataset_1"));
+        solrUpdateService.flush();
+        assertEquals(1, solrUpdateService.getMetrics().build().getInt("failedFlushes"));
+        assertEquals(1, solrUpdateService.getPendingCount());
+
+        solrUpdateService.flush();
+        assertEquals(0, solrUpdateService.getPendingCount());
+        assertEquals(1, solrUpdateService.getMetrics().build().getInt("flushes"));
+        verifyZeroInteractions(solrUpdateService.dvObjectService);
+    }
+
+    @Test
+    public void testNewerOperationReplacesAFailedOne() throws Exception {
+        SolrInputDocument newer = doc("dataset_1");
+        when(solrClient.request(any(), isNull())).thenAnswer(invocation -> {
+            // (queued while the failing batch is being sent)
+            solrUpdateService.add(newer);
+            throw new RuntimeException("Solr is down");
+        }).thenReturn(new NamedList<>());
+        solrUpdateService.add(doc("dataset_1"));
+        solrUpdateService.flush();
+        assertEquals(1, solrUpdateService.getPendingCount());
+
+        solrUpdateService.flush();
+        ArgumentCaptor<SolrRequest> sent = ArgumentCaptor.forClass(SolrRequest.class);
+        verify(solrClient, times(2)).request(sent.capture(), isNull());
+        assertSame(newer, ((UpdateRequest) sent.getValue()).getDocuments().get(0));
+    }
+
+    @Test
+    public void testIndexTimesAreClearedWhenGivenUp() throws Exception {
+        when(solrClient.request(any(), isNull())).thenThrow(new RuntimeException("Solr is down"));
+        solrUpdateService.add(doc("dataset_1_draft"));
+        solrUpdateService.add(doc("datafile_2_permission"));
+        solrUpdateService.deleteById("dataverse_3");
+        solrUpdateService.add(doc("unknown"));
+        for (int i = 0; i <= SolrUpdateService.MAX_RETRIES; i++) {
+            solrUpdateService.flush();
+        }
+
+        assertEquals(0, solrUpdateService.getPendingCount());
+        assertEquals(4, solrUpdateService.getMetrics().build().getInt("docsGivenUp"));
+        solrUpdateService.writeIndexTimes();
+        ArgumentCaptor<Collection> cleared = ArgumentCaptor.forClass(Collection.class);
+        verify(solrUpdateService.dvObjectService).clearIndexTimes(cleared.capture());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), new HashSet<>(cleared.getValue()));
+    }
+
+    @Test
+    public void testIndexTimeIsSetOnceTheDocumentsAreSent() throws Exception {
+        solrUpdateService.add(Arrays.asList(doc("dataset_1"), doc("datafile_2")), 1L);
+        solrUpdateService.writeIndexTimes();
+        verifyZeroInteractions(solrUpdateService.dvObjectService);
+
+        solrUpdateService.flush();
+        solrUpdateService.writeIndexTimes();
+        ArgumentCaptor<Map> written = ArgumentCaptor.forClass(Map.class);
+        verify(solrUpdateService.dvObjectService).updateContentIndexTimes(written.capture());
+        assertEquals(Collections.singleton(1L), written.getValue().keySet());
+    }
+
+    @Test
+    public void testIndexTimeIsNotSetForDocumentsQueuedDuringASend() throws Exception {
+        when(solrClient.request(any(), isNull())).thenAnswer(invocation -> {
+            // (queued while the batch is being sent)
+            solrUpdateService.add(Collections.singletonList(doc("dataset_1")), 1L);
+            return new NamedList<>();
+        }).thenReturn(new NamedList<>());
+        solrUpdateService.add(doc("dataset_1"));
+        solrUpdateService.flush();
+        solrUpdateService.writeIndexTimes();
+        verifyZeroInteractions(solrUpdateService.dvObjectService);
+
+        solrUpdateService.flush();
+        solrUpdateService.writeIndexTimes();
+        verify(solrUpdateService.dvObjectService).updateContentIndexTimes(any());
+    }
+
+    @Test
+    public void testIndexTimeIsClearedRatherThanSetWhenGivenUp() throws Exception {
+        when(solrClient.request(any(), isNull())).thenThrow(new RuntimeException("Solr is down"));
+        solrUpdateService.add(Arrays.asList(doc("dataset_1"), doc("datafile_2")), 1L);
+        for (int i = 0; i <= SolrUpdateService.MAX_RETRIES; i++) {
+            solrUpdateService.flush();
+        }
+        solrUpdateService.writeIndexTimes();
+
+        verify(solrUpdateService.dvObjectService, never()).updateContentIndexTimes(any());
+        ArgumentCaptor<Collection> cleared = ArgumentCaptor.forClass(Collection.class);
+        verify(solrUpdateService.dvObjectService).clearIndexTimes(cleared.capture());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), new HashSet<>(cleared.getValue()));
+    }
+
+    @Test
+    public void testGivenUpDeletesAreRetried() throws Exception {
+        when(solrClient.request(any(), isNull())).thenThrow(new RuntimeException("Solr is down"));
+        solrUpdateService.deleteById("dataset_1_draft");
+        for (int i = 0; i <= SolrUpdateService.MAX_RETRIES; i++) {
+            solrUpdateService.flush();
+        }
+        assertEquals(0, solrUpdateService.getPendingCount());
+        assertEquals(1, solrUpdateService.getFailedDeleteCount());
+
+        reset(solrClient);
+        when(solrClient.request(any(), isNull())).thenReturn(new NamedList<>());
+        solrUpdateService.retryFailedDeletes();
+        solrUpdateService.flush();
+        ArgumentCaptor<SolrRequest> sent = ArgumentCaptor.forClass(SolrRequest.class);
+        verify(solrClient).request(sent.capture(), isNull());
+        assertEquals(Collections.singletonList("dataset_1_draft"), ((UpdateRequest) sent.getValue()).getDeleteById());
+        assertEquals(0, solrUpdateService.getFailedDeleteCount());
+    }
+
+    private static SolrInputDocument fileDoc(String id, long datasetId, String contentHash) {
+        SolrInputDocument doc = doc(id);
+        doc.addField(SearchFields.TYPE, "files");
+        doc.addField(SearchFields.PARENT_ID, datasetId);
+        doc.addField(SearchFields.CONTENT_HASH, contentHash);
+        return doc;
+    }
+
+    @Test
+    public void testUnsettledDocsOfADataset() throws Exception {
+        solrUpdateService.add(fileDoc("datafile_2", 1L, "a"));
+        solrUpdateService.add(fileDoc("datafile_3", 1L, "a"));
+        solrUpdateService.add(fileDoc("datafile_5", 4L, "a"));
+        solrUpdateService.deleteById("datafile_6");
+        solrUpdateService.flush();
+        // (sent, but not visible yet)
+        solrUpdateService.add(fileDoc("datafile_2", 1L, "b"));
+        solrUpdateService.deleteById("datafile_3");
+
+        Map<String, SolrUpdateService.UnsettledDoc> unsettled
+                = solrUpdateService.getUnsettledDocs(1L, Arrays.asList("datafile_3", "datafile_6"));
+        assertEquals(3, unsettled.size());
+        assertEquals("b", unsettled.get("datafile_2").contentHash);
+        assertTrue(unsettled.get("datafile_2").file);
+        assertTrue(unsettled.containsKey("datafile_3"));
+        assertNull(unsettled.get("datafile_3"));
+        assertTrue(unsettled.containsKey("datafile_6"));
+        assertNull(unsettled.get("datafile_6"));
+    }
+
+    @Test
+    public void testDvObjectId() {
+        assertEquals(Long.valueOf(42), SolrUpdateService.dvObjectId("dataset_42"));
+        assertEquals(Long.valueOf(42), SolrUpdateService.dvObjectId("datafile_42_draft"));
+        assertEquals(Long.valueOf(7), SolrUpdateService.dvObjectId("dataverse_7_permission"));
+        assertNull(SolrUpdateService.dvObjectId("dataset_"));
+        assertNull(SolrUpdateService.dvObjectId("group_1"));
+    }
+
+}
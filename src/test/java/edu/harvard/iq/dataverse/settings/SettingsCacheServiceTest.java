@@ -0,0 +1,89 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SettingsCacheServiceTest {
+
+    private SettingsCacheService cache;
+    private List<Setting> settings;
+    private long version;
+    private int loads;
+
+    @Before
+    public void setUp() {
+        settings = new ArrayList<>(Arrays.asList(
+                new Setting(":SystemEmail", "support@example.edu"),
+                new Setting(":ApplicationTermsOfUse", "en", "Terms"),
+                new Setting(":ApplicationTermsOfUse", "fr", "Conditions")));
+        version = 1L;
+        loads = 0;
+
+        EntityManager em = mock(EntityManager.class);
+        Query versionQuery = mock(Query.class);
+        when(em.createNativeQuery(anyString())).thenReturn(versionQuery);
+        when(versionQuery.getResultList()).thenAnswer(invocation -> Collections.singletonList(version));
+        @SuppressWarnings("unchecked")
+        TypedQuery<Setting> findAll = mock(TypedQuery.class);
+        when(em.createNamedQuery("Setting.findAll", Setting.class)).thenReturn(findAll);
+        when(findAll.getResultList()).thenAnswer(invocation -> {
+            loads++;
+            return new ArrayList<>(settings);
+        });
+
+        cache = new SettingsCacheService();
+        cache.em = em;
+    }
+
+    @Test
+    public void testLookupsAreCached() {
+        assertEquals("support@example.edu", cache.get(":SystemEmail"));
+        assertNull(cache.get(":NoSuchSetting"));
+        assertEquals("Conditions", cache.get(":ApplicationTermsOfUse", "fr"));
+        assertNull(cache.get(":ApplicationTermsOfUse"));
+        assertNull(cache.get(":SystemEmail", "en"));
+        assertEquals(1, loads);
+        assertEquals(1, cache.getMisses());
+        assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    public void testInvalidate() {
+        assertEquals("support@example.edu", cache.get(":SystemEmail"));
+        settings.set(0, new Setting(":SystemEmail", "help@example.edu"));
+        assertEquals("support@example.edu", cache.get(":SystemEmail"));
+
+        cache.invalidate();
+        assertEquals("help@example.edu", cache.get(":SystemEmail"));
+        assertEquals(2, loads);
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testVersionCheck() {
+        assertEquals("support@example.edu", cache.get(":SystemEmail"));
+        cache.checkVersion();
+        assertEquals(1, loads);
+
+        // changed on another server:
+        settings.remove(0);
+        version++;
+        cache.checkVersion();
+        assertNull(cache.get(":SystemEmail"));
+        assertEquals(2, loads);
+        cache.checkVersion();
+        assertNull(cache.get(":SystemEmail"));
+        assertEquals(2, loads);
+    }
+
+}
@@ -1,94 +1,90 @@
 package edu.harvard.iq.dataverse.sitemap;
 
-import edu.harvard.iq.dataverse.Dataset;
-import edu.harvard.iq.dataverse.DatasetVersion;
-import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.GlobalId;
-import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
+import edu.harvard.iq.dataverse.sitemap.SiteMapUtil.SiteMapUrl;
 import edu.harvard.iq.dataverse.util.xml.XmlPrinter;
 import edu.harvard.iq.dataverse.util.xml.XmlValidator;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import org.xml.sax.SAXException;
 
 public class SiteMapUtilTest {
 
+    private Path tmpDirPath;
+    private Path sitemapPath;
+
+    @Before
+    public void setUp() throws IOException {
+        tmpDirPath = Files.createTempDirectory(null);
+        String tmpDir = tmpDirPath.toString();
+        File docroot = new File(tmpDir + File.separator + "docroot");
+        docroot.mkdirs();
+        System.setProperty("com.sun.aas.instanceRoot", tmpDir);
+        sitemapPath = Paths.get(tmpDir, "docroot", "sitemap");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("com.sun.aas.instanceRoot");
+    }
+
+    private String readShard(long number) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(sitemapPath.resolve(SiteMapUtil.getShardFilename(number))))) {
+            return IOUtils.toString(in, "UTF-8");
+        }
+    }
+
     @Test
     public void testUpdateSiteMap() throws IOException, ParseException {
 
-        List<Dataverse> dataverses = new ArrayList<>();
-        String publishedDvString = "publishedDv1";
-        Dataverse publishedDataverse = new Dataverse();
-        publishedDataverse.setAlias(publishedDvString);
         SimpleDateFormat dateFmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         Date dvModifiedDate = dateFmt.parse("1955-11-12 22:04:00");
-        publishedDataverse.setModificationTime(new Timestamp(dvModifiedDate.getTime()));
-        publishedDataverse.setPublicationDate(new Timestamp(dvModifiedDate.getTime()));
-        dataverses.add(publishedDataverse);
-
-        List<Dataset> datasets = new ArrayList<>();
-
-        Dataset published = new Dataset();
+        SiteMapUrl publishedDataverse = SiteMapUrl.forDataverse(1, "publishedDv1", new Timestamp(dvModifiedDate.getTime()));
         String publishedPid = "doi:10.666/FAKE/published1";
-        published.setGlobalId(new GlobalId(publishedPid));
-        published.setPublicationDate(new Timestamp(new Date().getTime()));
-        published.setModificationTime(new Timestamp(new Date().getTime()));
-        datasets.add(published);
-
-        Dataset unpublished = new Dataset();
-        String unpublishedPid = "doi:10.666/FAKE/unpublished1";
-        unpublished.setGlobalId(new GlobalId(unpublishedPid));
-        Timestamp nullPublicationDateToIndicateNotPublished = null;
-        unpublished.setPublicationDate(nullPublicationDateToIndicateNotPublished);
-        datasets.add(unpublished);
-
-        Dataset harvested = new Dataset();
-        String harvestedPid = "doi:10.666/FAKE/harvested1";
-        harvested.setGlobalId(new GlobalId(harvestedPid));
-        harvested.setPublicationDate(new Timestamp(new Date().getTime()));
-        harvested.setHarvestedFrom(new HarvestingClient());
-        datasets.add(harvested);
-
-        Dataset deaccessioned = new Dataset();
-        String deaccessionedPid = "doi:10.666/FAKE/harvested1";
-        deaccessioned.setGlobalId(new GlobalId(deaccessionedPid));
-        deaccessioned.setPublicationDate(new Timestamp(new Date().getTime()));
-        List<DatasetVersion> datasetVersions = new ArrayList<>();
-        DatasetVersion datasetVersion = new DatasetVersion();
-        datasetVersion.setVersionState(DatasetVersion.VersionState.DEACCESSIONED);
-        datasetVersions.add(datasetVersion);
-        deaccessioned.setVersions(datasetVersions);
-        datasets.add(deaccessioned);
-
-        Path tmpDirPath = Files.createTempDirectory(null);
-        String tmpDir = tmpDirPath.toString();
-        File docroot = new File(tmpDir + File.separator + "docroot");
-        docroot.mkdirs();
-        System.setProperty("com.sun.aas.instanceRoot", tmpDir);
+        SiteMapUrl published = SiteMapUrl.forDataset(2, publishedPid, new Timestamp(new Date().getTime()));
+        String laterPid = "doi:10.666/FAKE/published2";
+        SiteMapUrl later = SiteMapUrl.forDataset(SiteMapUtil.URLS_PER_SHARD * 2 + 1, laterPid, new Timestamp(new Date().getTime()));
 
-        SiteMapUtil.updateSiteMap(dataverses, datasets);
+        // (shards are filled up by count, however far apart the ids are)
+        SiteMapUtil.updateSiteMap(Arrays.asList(publishedDataverse, published, later).iterator(), 2);
 
-        String pathToTest = tmpDirPath + File.separator + "docroot" + File.separator + "sitemap";
-        String pathToSiteMap = pathToTest + File.separator + "sitemap.xml";
+        String pathToSiteMap = sitemapPath.resolve("sitemap.xml").toString();
+        Path pathToShard = sitemapPath.resolve("sitemap-0.xml");
+        Files.write(pathToShard, readShard(0).getBytes("UTF-8"));
 
         Exception wellFormedXmlException = null;
         try {
             assertTrue(XmlValidator.validateXmlWellFormed(pathToSiteMap));
+            assertTrue(XmlValidator.validateXmlWellFormed(pathToShard.toString()));
         } catch (Exception ex) {
             System.out.println("Exception caught checking that XML is well formed: " + ex);
             wellFormedXmlException = ex;
@@ -97,25 +93,111 @@ public class SiteMapUtilTest {
 
         Exception notValidAgainstSchemaException = null;
         try {
-            assertTrue(XmlValidator.validateXmlSchema(pathToSiteMap, new URL("https://www.sitemaps.org/schemas/sitemap/0.9/sitemap.xsd")));
+            assertTrue(XmlValidator.validateXmlSchema(pathToSiteMap, new URL("https://www.sitemaps.org/schemas/sitemap/0.9/siteindex.xsd")));
+            assertTrue(XmlValidator.validateXmlSchema(pathToShard.toString(), new URL("https://www.sitemaps.org/schemas/sitemap/0.9/sitemap.xsd")));
         } catch (MalformedURLException | SAXException ex) {
             System.out.println("Exception caught validating XML against the sitemap schema: " + ex);
             notValidAgainstSchemaException = ex;
         }
         assertNull(notValidAgainstSchemaException);
 
-        File sitemapFile = new File(pathToSiteMap);
-        String sitemapString = XmlPrinter.prettyPrintXml(new String(Files.readAllBytes(Paths.get(sitemapFile.getAbsolutePath()))));
+        String sitemapString = XmlPrinter.prettyPrintXml(new String(Files.readAllBytes(Paths.get(pathToSiteMap))));
         System.out.println("sitemap: " + sitemapString);
+        // (served from the root, see pretty-config.xml)
+        assertTrue(sitemapString.contains("/sitemap-0.xml.gz"));
+        assertTrue(sitemapString.contains("/sitemap-1.xml.gz"));
+        assertFalse(sitemapString.contains("/sitemap-2.xml.gz"));
+        assertFalse(sitemapString.contains("/sitemap/"));
+
+        String shardString = readShard(0);
+        assertTrue(shardString.contains("1955-11-12"));
+        assertTrue(shardString.contains("/dataverse/publishedDv1"));
+        assertTrue(shardString.contains(publishedPid));
+        assertFalse(shardString.contains(laterPid));
+        assertTrue(readShard(1).contains(laterPid));
+        assertFalse(Files.exists(sitemapPath.resolve(SiteMapUtil.SITEMAP_FILENAME_STAGED)));
+    }
+
+    @Test
+    public void testOnlyChangedShardsAreRewritten() throws IOException, ParseException {
+        Date lastmod = new Date(0);
+        SiteMapUrl first = SiteMapUrl.forDataset(1, "doi:10.666/FAKE/first", lastmod);
+        SiteMapUrl second = SiteMapUrl.forDataset(2, "doi:10.666/FAKE/second", lastmod);
+        SiteMapUrl third = SiteMapUrl.forDataset(3, "doi:10.666/FAKE/third", lastmod);
+        SiteMapUtil.updateSiteMap(Arrays.asList(first, second, third).iterator(), 1);
+
+        FileTime lastRun = FileTime.fromMillis(new SimpleDateFormat("yyyy-MM-dd").parse("2001-02-03").getTime());
+        for (long number = 0; number < 3; number++) {
+            Files.setLastModifiedTime(sitemapPath.resolve(SiteMapUtil.getShardFilename(number)), lastRun);
+        }
 
-        assertTrue(sitemapString.contains("1955-11-12"));
-        assertTrue(sitemapString.contains(publishedPid));
-        assertFalse(sitemapString.contains(unpublishedPid));
-        assertFalse(sitemapString.contains(harvestedPid));
-        assertFalse(sitemapString.contains(deaccessionedPid));
+        // (the second one changed, the third one is gone)
+        SiteMapUrl changed = SiteMapUrl.forDataset(2, "doi:10.666/FAKE/second", new Date());
+        SiteMapUtil.updateSiteMap(Arrays.asList(first, changed).iterator(), 1);
 
-        System.clearProperty("com.sun.aas.instanceRoot");
+        assertEquals(lastRun, Files.getLastModifiedTime(sitemapPath.resolve(SiteMapUtil.getShardFilename(0))));
+        assertFalse(lastRun.equals(Files.getLastModifiedTime(sitemapPath.resolve(SiteMapUtil.getShardFilename(1)))));
+        assertFalse(Files.exists(sitemapPath.resolve(SiteMapUtil.getShardFilename(2))));
+
+        String sitemapString = new String(Files.readAllBytes(sitemapPath.resolve("sitemap.xml")), "UTF-8");
+        assertTrue(sitemapString.contains("sitemap-0.xml.gz</loc><lastmod>2001-02-03</lastmod>"));
+        assertFalse(sitemapString.contains("sitemap-1.xml.gz</loc><lastmod>2001-02-03</lastmod>"));
+        assertFalse(sitemapString.contains("sitemap-2.xml.gz"));
+        try (Stream<Path> files = Files.list(sitemapPath)) {
+            assertFalse(files.anyMatch(file -> file.toString().endsWith(SiteMapUtil.STAGED_SUFFIX)));
+        }
+    }
+
+    @Test
+    public void testUrlsOutOfOrderLeaveTheSiteMapAlone() throws IOException {
+        SiteMapUrl first = SiteMapUrl.forDataset(2, "doi:10.666/FAKE/first", new Date());
+        SiteMapUrl second = SiteMapUrl.forDataset(1, "doi:10.666/FAKE/second", new Date());
+        SiteMapUtil.updateSiteMap(Arrays.asList(first, second).iterator());
+
+        assertFalse(Files.exists(sitemapPath.resolve(SiteMapUtil.SITEMAP_FILENAME_FINAL)));
+        assertFalse(Files.exists(sitemapPath.resolve(SiteMapUtil.SITEMAP_FILENAME_STAGED)));
+        assertFalse(SiteMapUtil.stageFileExists());
+    }
+
+    /*
+     * A row of the query of SiteMapServiceBean.
+     */
+    private static Object[] row(long id, String dtype, String aliasOrIdentifier, Date publicationDate, Long harvestingClientId, String versionStates) {
+        boolean dataverse = "Dataverse".equals(dtype);
+        return new Object[]{id, dtype, dataverse ? aliasOrIdentifier : null, dataverse ? null : "doi", dataverse ? null : "10.666",
+            dataverse ? null : aliasOrIdentifier, new Timestamp(new Date().getTime()), publicationDate, harvestingClientId, versionStates};
+    }
 
+    @Test
+    public void testUnpublishedHarvestedAndDeaccessionedAreExcluded() throws IOException {
+        Timestamp published = new Timestamp(new Date().getTime());
+        List<Object[]> rows = Arrays.asList(
+                row(1, "Dataverse", "publishedDv1", published, null, null),
+                row(2, "Dataverse", "unreleasedDv1", null, null, null),
+                row(3, "Dataset", "FAKE/published1", published, null, "RELEASED"),
+                row(4, "Dataset", "FAKE/unpublished1", null, null, "DRAFT"),
+                row(5, "Dataset", "FAKE/harvested1", published, 7L, "RELEASED"),
+                row(6, "Dataset", "FAKE/deaccessioned1", published, null, "DEACCESSIONED"),
+                // (deaccessioned, then published again)
+                row(7, "Dataset", "FAKE/republished1", published, null, "DEACCESSIONED,RELEASED"));
+        EntityManager em = mock(EntityManager.class);
+        Query query = mock(Query.class);
+        when(em.createNativeQuery(anyString())).thenReturn(query);
+        when(query.setParameter(anyInt(), any())).thenReturn(query);
+        when(query.getResultList()).thenReturn(rows);
+        SiteMapServiceBean siteMapService = new SiteMapServiceBean();
+        siteMapService.em = em;
+
+        SiteMapUtil.updateSiteMap(siteMapService.new SiteMapUrls());
+
+        String shardString = readShard(0);
+        assertTrue(shardString.contains("/dataverse/publishedDv1"));
+        assertFalse(shardString.contains("unreleasedDv1"));
+        assertTrue(shardString.contains("doi:10.666/FAKE/published1"));
+        assertFalse(shardString.contains("unpublished1"));
+        assertFalse(shardString.contains("harvested1"));
+        assertFalse(shardString.contains("deaccessioned1"));
+        assertTrue(shardString.contains("doi:10.666/FAKE/republished1"));
     }
 
 }